@@ -0,0 +1,76 @@
+package edu.usc.cssl.tacit.classify.id3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.Test;
+
+import weka.classifiers.Evaluation;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.core.Instances;
+import edu.usc.cssl.tacit.classify.id3.weka.Id3Weka;
+
+public class Id3_Test {
+	final String directoryPath = new File("TestData").getAbsolutePath();
+
+	private Map<String, List<String>> classPaths() {
+		Map<String, List<String>> classPaths = new HashMap<String, List<String>>();
+		for (String className : new String[] { "Data1", "Data2" }) {
+			File dir = new File(directoryPath, className);
+			List<String> files = new ArrayList<String>();
+			for (String file : dir.list())
+				files.add(new File(dir, file).getPath());
+			classPaths.put(dir.getPath(), files);
+		}
+		return classPaths;
+	}
+
+	@Test
+	public void id3ParallelCrossValidateTest() throws Exception {
+		int kValue = 4;
+		// the folds evaluated on the threads, then Weka's own cross validation
+		final List<Evaluation> evaluations = new ArrayList<Evaluation>();
+		Id3Weka cv = new Id3Weka(classPaths()) {
+			protected Evaluation crossValidate(FilteredClassifier fc, Instances dataRaw, int k,
+					IProgressMonitor monitor) throws Exception {
+				evaluations.add(super.crossValidate(fc, dataRaw, k, monitor));
+				Evaluation expected = new Evaluation(dataRaw);
+				expected.crossValidateModel(fc, dataRaw, k, new Random(1));
+				evaluations.add(expected);
+				return evaluations.get(0);
+			}
+		};
+		cv.setNumThreads(kValue);
+		cv.initializeInstances();
+		cv.doCrossValidate(kValue, new NullProgressMonitor(), Calendar.getInstance().getTime());
+
+		assertEquals(2, evaluations.size());
+		Evaluation actual = evaluations.get(0);
+		Evaluation expected = evaluations.get(1);
+		assertEquals("Folds", numFolds(expected), numFolds(actual));
+		assertEquals("Instances", 8, actual.numInstances(), 0);
+		assertEquals("Percent correct", expected.pctCorrect(), actual.pctCorrect(), 0);
+		double[][] expectedConfusion = expected.confusionMatrix();
+		double[][] actualConfusion = actual.confusionMatrix();
+		assertEquals(expectedConfusion.length, actualConfusion.length);
+		for (int i = 0; i < expectedConfusion.length; i++)
+			assertArrayEquals("Confusion matrix row " + i, expectedConfusion[i], actualConfusion[i], 0);
+	}
+
+	private static int numFolds(Evaluation eval) throws Exception {
+		Field numFolds = Evaluation.class.getDeclaredField("m_NumFolds");
+		numFolds.setAccessible(true);
+		return numFolds.getInt(eval);
+	}
+}
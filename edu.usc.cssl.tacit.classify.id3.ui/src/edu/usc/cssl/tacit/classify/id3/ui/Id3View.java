@@ -63,7 +63,6 @@ import edu.usc.cssl.tacit.common.ui.internal.TargetLocationsGroup;
 import edu.usc.cssl.tacit.common.ui.outputdata.TableLayoutData;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 import edu.usc.cssl.tacit.classify.id3.services.Id3DecisionTrees;
-import edu.usc.cssl.tacit.classify.id3.weka.DirectoryToArffId3;
 import edu.usc.cssl.tacit.classify.id3.weka.Id3Weka;
 
 
@@ -614,6 +613,7 @@ public class Id3View extends ViewPart {
 								 cv = new Id3Weka(tempClassPaths);		
 							}		
 							try {		
+								cv.setNumThreads(Runtime.getRuntime().availableProcessors());
 								cv.initializeInstances();		
 								cv.doCrossValidate(kValue, monitor, dateObj);
 								if(isopenResults){
@@ -33,9 +33,8 @@ import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.StringToWordVector;
 import weka.gui.treevisualizer.PlaceNode2;
 import weka.gui.treevisualizer.TreeVisualizer;
-import edu.usc.cssl.tacit.classify.id3.weka.DirectoryToArffId3;
-//import edu.usc.cssl.tacit.classify.naivebayes.weka.DirectoryToArff;
-//import edu.usc.cssl.tacit.classify.naivebayes.weka.DirectoryToArff;
+import edu.usc.cssl.tacit.classify.weka.CrossValidation;
+import edu.usc.cssl.tacit.classify.weka.DirectoryToArff;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 import prefuse.demos.PrefuseTree;
 import weka.classifiers.meta.FilteredClassifier;
@@ -50,16 +49,24 @@ public class Id3Weka{
 	private StringToWordVector filter;
 	private FilteredClassifier fc;
 	private Instances dataRaw;
+	private int numThreads = 1;
 	
 	public Id3Weka(Map<String, List<String>> classPaths) {
 		this.classPaths = classPaths;
 	}
 	
+	/**
+	 * Sets the number of threads that read the files and evaluate the folds.
+	 * Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+	
 	public void initializeInstances() throws Exception {
-		DirectoryToArffId3 ref = new DirectoryToArffId3();
-		ref.createTrainInstances(classPaths);
-		dataRaw = ref.loadArff();
-		dataRaw.setClassIndex(dataRaw.numAttributes()-1);
+		DirectoryToArff ref = new DirectoryToArff();
+		ref.setNumThreads(numThreads);
+		dataRaw = ref.createTrainInstances(classPaths);
 		J48 classifier = new J48();
 		fc = new FilteredClassifier();
 		StringToWordVector filter = new StringToWordVector();
@@ -106,16 +113,17 @@ public class Id3Weka{
 	public boolean doCrossValidate(int k, IProgressMonitor monitor, Date dateObj) throws Exception {
 		//System.out.println("Value of K here like from UI==="+k);
 		//System.out.println(dataRaw);
-		crossValidate(fc, dataRaw, k);
+		crossValidate(fc, dataRaw, k, monitor);
 		
 		return true;
 	}
 	
 	
-	private static void crossValidate(FilteredClassifier fc, Instances dataRaw, int k) throws Exception {
-		Evaluation eval = new Evaluation(dataRaw);
+	protected Evaluation crossValidate(FilteredClassifier fc, Instances dataRaw, int k, IProgressMonitor monitor) throws Exception {
+		CrossValidation cv = new CrossValidation();
+		cv.setNumThreads(numThreads);
 		//System.out.println("Value of K============" + k);
-		eval.crossValidateModel(fc,dataRaw,k,new Random(1));
+		Evaluation eval = cv.crossValidate(fc,dataRaw,k,new Random(1),monitor);
 		ConsoleView.printlInConsole(eval.toSummaryString("\nResults\n======\n",false));
 		double[][] confusion = eval.confusionMatrix();
 		
@@ -126,6 +134,7 @@ public class Id3Weka{
 		}
 		ConsoleView.printlInConsoleln("Accuracy:" + calculateAccuracy(eval.predictions()));
 		//writeToWebView("");
+		return eval;
 	}
 	
 	static	void writeToWebView(String cluster) {
@@ -192,7 +201,9 @@ public class Id3Weka{
 		//System.out.println("Testing");
 		//System.out.println(classPaths2);
 		BufferedWriter bw = new BufferedWriter(new FileWriter(new File(generateOutputFileName(classificationOutputDir, dateObj))));
-		Instances rawTestData = new DirectoryToArffId3().createTestInstances(classificationInputDir,classPaths2);
+		DirectoryToArff ref = new DirectoryToArff();
+		ref.setNumThreads(numThreads);
+		Instances rawTestData = ref.createTestInstances(classificationInputDir,classPaths2);
 		System.out.println("***************RawTestData***********");
 		System.out.println(rawTestData);
 		System.out.println("***************RawTestData***********");
@@ -204,7 +215,7 @@ public class Id3Weka{
 			//ConsoleView.printlInConsole(", actual: " + rawTestData.classAttribute().value((int) rawTestData.instance(i).classValue()));
 			//ConsoleView.printlInConsole(", predicted: " + rawTestData.classAttribute().value((int) pred));
 			//ConsoleView.printlInConsole("**************");
-			String fileName = DirectoryToArffId3.instanceIdNameMap.get(i).replaceAll("[,:*?\"<>|]+", ""); 
+			String fileName = ref.instanceIdNameMap.get(i).replaceAll("[,:*?\"<>|]+", ""); 
 			String predictedClass = rawTestData.classAttribute().value((int) pred).replaceAll("[,:*?\"<>|]+", "");
 			bw.write(fileName + "," + predictedClass + "\n");
 		}
@@ -1,21 +1,28 @@
 package edu.usc.cssl.tacit.classify.naivebayes;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.junit.Test;
 
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
 import edu.usc.cssl.tacit.classify.naivebayes.services.NaiveBayesClassifier;
 import edu.usc.cssl.tacit.classify.naivebayes.weka.NaiveBayesClassifierWeka;
 
@@ -54,6 +61,52 @@ public class Naive_Bayes_Test {
 		assertEquals("Checking if any exception occurred", null, exception);
 	}
 	@Test
+	public void naiveBayesParallelCrossValidateTest() throws Exception {
+		int kValue = 4;
+		Date dateObj = Calendar.getInstance().getTime();
+		Map<String, List<String>> classPaths = new HashMap<String, List<String>>();
+		ArrayList<String> list1 = new ArrayList<String>();
+		list1.add(directoryPath+ File.separator +"Data1"+ File.separator +"File1.txt");
+		list1.add(directoryPath+ File.separator +"Data1"+ File.separator +"File2.txt");
+		ArrayList<String> list2 = new ArrayList<String>();
+		list2.add(directoryPath+ File.separator +"Data2"+ File.separator +"File3.txt");
+		list2.add(directoryPath+ File.separator +"Data2"+ File.separator +"File4.txt");
+		classPaths.put(directoryPath+ File.separator +"Data1", list1);
+		classPaths.put(directoryPath+ File.separator +"Data2", list2);
+		// the folds evaluated on the threads, then Weka's own cross validation
+		final List<Evaluation> evaluations = new ArrayList<Evaluation>();
+		NaiveBayesClassifierWeka cv = new NaiveBayesClassifierWeka(classPaths) {
+			protected Evaluation crossValidate(Classifier nbc, Instances dataFiltered, int k, IProgressMonitor monitor)
+					throws Exception {
+				evaluations.add(super.crossValidate(nbc, dataFiltered, k, monitor));
+				Evaluation expected = new Evaluation(dataFiltered);
+				expected.crossValidateModel(nbc, dataFiltered, k, new Random(1));
+				evaluations.add(expected);
+				return evaluations.get(0);
+			}
+		};
+		cv.setNumThreads(kValue);
+		cv.initializeInstances();
+		cv.doCrossValidate(kValue, new NullProgressMonitor(), dateObj);
+
+		assertEquals(2, evaluations.size());
+		Evaluation actual = evaluations.get(0);
+		Evaluation expected = evaluations.get(1);
+		assertEquals("Folds", numFolds(expected), numFolds(actual));
+		assertEquals("Percent correct", expected.pctCorrect(), actual.pctCorrect(), 0);
+		double[][] expectedConfusion = expected.confusionMatrix();
+		double[][] actualConfusion = actual.confusionMatrix();
+		assertEquals(expectedConfusion.length, actualConfusion.length);
+		for (int i = 0; i < expectedConfusion.length; i++)
+			assertArrayEquals("Confusion matrix row " + i, expectedConfusion[i], actualConfusion[i], 0);
+	}
+
+	private static int numFolds(Evaluation eval) throws Exception {
+		Field numFolds = Evaluation.class.getDeclaredField("m_NumFolds");
+		numFolds.setAccessible(true);
+		return numFolds.getInt(eval);
+	}
+	@Test
 	public void naiveBayesDoClassifyTest() throws IOException {
 		int kValue = 2;
 		Date dateObj = Calendar.getInstance().getTime();
@@ -617,6 +617,7 @@ public class NaiveBayesClassifierView extends ViewPart implements INaiveBayesCla
 							}
 
 							try {
+								cv.setNumThreads(Runtime.getRuntime().availableProcessors());
 								cv.initializeInstances();
 								cv.doCrossValidate(kValue, monitor, dateObj);
 							} catch (IllegalArgumentException iae) {
@@ -24,6 +24,8 @@ import weka.core.FastVector;
 import weka.core.Instances;
 import weka.filters.Filter;
 import weka.filters.unsupervised.attribute.StringToWordVector;
+import edu.usc.cssl.tacit.classify.weka.CrossValidation;
+import edu.usc.cssl.tacit.classify.weka.DirectoryToArff;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
 /*
@@ -34,10 +36,19 @@ public class NaiveBayesClassifierWeka {
 	private Classifier nbc;
 	private Instances dataFiltered;
 	private StringToWordVector filter;
+	private int numThreads = 1;
 
 	public NaiveBayesClassifierWeka(Map<String, List<String>> classPaths) {
 		this.classPaths = classPaths;
 	}
+
+	/**
+	 * Sets the number of threads that read the files and evaluate the folds.
+	 * Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
 	
 	/**
 	 * Initializes instances
@@ -45,8 +56,8 @@ public class NaiveBayesClassifierWeka {
 	 */
 	public void initializeInstances() throws Exception {
 		DirectoryToArff ref = new DirectoryToArff();
-		ref.createTrainInstances(classPaths);
-		Instances dataRaw = ref.loadArff();
+		ref.setNumThreads(numThreads);
+		Instances dataRaw = ref.createTrainInstances(classPaths);
 		filter = new StringToWordVector();
 		filter.setInputFormat(dataRaw);
 		dataFiltered = Filter.useFilter(dataRaw, filter);
@@ -62,7 +73,7 @@ public class NaiveBayesClassifierWeka {
 	 * @throws Exception
 	 */
 	public boolean doCrossValidate(int k, IProgressMonitor monitor, Date dateObj) throws Exception {
-		crossValidate(nbc, dataFiltered, k);
+		crossValidate(nbc, dataFiltered, k, monitor);
 		return true;
 	}
 
@@ -79,7 +90,9 @@ public class NaiveBayesClassifierWeka {
 			Date dateObj) throws Exception {
 		ConsoleView.printlInConsoleln("Classification starts ..");
 		BufferedWriter bw = new BufferedWriter(new FileWriter(new File(generateOutputFileName(classificationOutputDir, dateObj))));
-		Instances rawTestData = new DirectoryToArff().createTestInstances(classificationInputDir);
+		DirectoryToArff ref = new DirectoryToArff();
+		ref.setNumThreads(numThreads);
+		Instances rawTestData = ref.createTestInstances(classificationInputDir);
 		Instances filteredTestData = Filter.useFilter(rawTestData, filter);
 		Evaluation testEval = new Evaluation(dataFiltered);
 		testEval.evaluateModel(nbc, filteredTestData);
@@ -87,7 +100,7 @@ public class NaiveBayesClassifierWeka {
 		for (int i = 0; i < predictions.size(); i++) {
 			NominalPrediction np = (NominalPrediction) predictions.elementAt(i);
 			int pred = (int) np.predicted();
-			String fileName = DirectoryToArff.instanceIdNameMap.get(i).replaceAll("[,:*?\"<>|]+", ""); 
+			String fileName = ref.instanceIdNameMap.get(i).replaceAll("[,:*?\"<>|]+", ""); 
 			String predictedClass = dataFiltered.classAttribute().value(pred).replaceAll("[,:*?\"<>|]+", ""); 
 			bw.write(fileName + "," + predictedClass + "\n");
 		}
@@ -116,11 +129,14 @@ public class NaiveBayesClassifierWeka {
 	 * @param nbc - Classifier (naive bayes)
 	 * @param dataFiltered - Data in required format (instance)
 	 * @param k - K value for cross validation
+	 * @param monitor - progress monitor
+	 * @return the evaluation of the folds
 	 * @throws Exception
 	 */
-	private static void crossValidate(Classifier nbc, Instances dataFiltered, int k) throws Exception {
-		Evaluation eval = new Evaluation(dataFiltered);
-		eval.crossValidateModel(nbc, dataFiltered, k, new Random(1));
+	protected Evaluation crossValidate(Classifier nbc, Instances dataFiltered, int k, IProgressMonitor monitor) throws Exception {
+		CrossValidation cv = new CrossValidation();
+		cv.setNumThreads(numThreads);
+		Evaluation eval = cv.crossValidate(nbc, dataFiltered, k, new Random(1), monitor);
 		ConsoleView.printlInConsoleln(eval.toSummaryString("\nResults\n======\n", false));
 		double[][] confusion = eval.confusionMatrix();
 		for (int i = 0; i < confusion.length; i++) {
@@ -129,6 +145,7 @@ public class NaiveBayesClassifierWeka {
 			ConsoleView.printlInConsoleln();
 		}
 		ConsoleView.printlInConsoleln("Accuracy:" + calculateAccuracy(eval.predictions()));
+		return eval;
 	}
 
 	/**
@@ -401,6 +401,54 @@ public class Svm_Test {
 		
 		assertEquals("Checking set contents", generatedOutput, expectedOutput);
 		}
+	@Test
+	public void svmParallelFoldsTest() throws IOException {
+		File[] files1 = new File[2];
+		files1[0] = new File(directoryPath + File.separator +"SVMData1.txt");
+		files1[1] = new File(directoryPath + File.separator +"SVMData2.txt");
+		File[] files2 = new File[2];
+		files2[0] = new File(directoryPath + File.separator +"SVMData3.txt");
+		files2[1] = new File(directoryPath + File.separator +"SVMData4.txt");
+		String[] outputs = new String[2];
+		String[][] weights = new String[2][2];
+		for (int run = 0; run < 2; run++) {
+			final File output = File.createTempFile("svm", ".csv");
+			output.deleteOnExit();
+			final File[] weightFiles = new File[2];
+			for (int k = 0; k < 2; k++) {
+				weightFiles[k] = File.createTempFile("svm", ".csv");
+				weightFiles[k].deleteOnExit();
+			}
+			final SVMClassify svm = new SVMClassify("Data1", "Data2", directoryPath){
+				protected String createSVMWeightFileName(DateFormat df, String kVal, String intermediatePath, Date dateObj){
+					return weightFiles[Integer.parseInt(kVal.substring(1)) - 1].getAbsolutePath();
+				}
+			};
+			final CrossValidator cv = new CrossValidator(){
+				protected void createRunReport(String outputPath, Date dateObj){}
+				protected String createOutputFileName(String o, Date dateObj){
+					return output.getAbsolutePath();}
+			};
+			cv.setNumThreads(run == 0 ? 1 : 2);
+			cv.doCross(svm, "Data1", files1, "Data2", files2, 2, true,
+					directoryPath, new NullProgressMonitor(), new Date());
+			outputs[run] = readFile(output);
+			weights[run][0] = readFile(weightFiles[0]);
+			weights[run][1] = readFile(weightFiles[1]);
+		}
+		assertEquals("Comparing svm output", outputs[0], outputs[1]);
+		assertEquals("Comparing svm weight file 1", weights[0][0], weights[1][0]);
+		assertEquals("Comparing svm weight file 2", weights[0][1], weights[1][1]);
+	}
+	String readFile(File file) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line = "";
+		String contents = "";
+		while((line = reader.readLine())!= null)
+			contents += line;
+		reader.close();
+		return contents;
+	}
 	void buildFeatureMap(HashMap<String, Integer> featureMap){
 
 		featureMap.put("Res", 1);
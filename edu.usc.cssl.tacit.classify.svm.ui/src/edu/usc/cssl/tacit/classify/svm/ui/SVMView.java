@@ -244,6 +244,7 @@ public class SVMView extends ViewPart implements ISVMViewConstants {
 							
 							monitor.worked(2);
 
+							cv.setNumThreads(Runtime.getRuntime().availableProcessors());
 							cv.doCross(svm, class1NameStr, class1FilesL,
 									class2NameStr, class2FilesL, kValueInt,
 									featureFile, outputPath, monitor, dateObj);
@@ -6,8 +6,16 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.math3.stat.inference.AlternativeHypothesis;
 import org.apache.commons.math3.stat.inference.BinomialTest;
@@ -18,8 +26,16 @@ import edu.usc.cssl.tacit.common.TacitUtility;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
 public class CrossValidator {
+	private int numThreads = 1;
 
-	public void doCross(SVMClassify svm, String class1Label,
+	/**
+	 * Sets the number of folds trained and tested at once. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	public void doCross(final SVMClassify svm, String class1Label,
 			File[] class1Files, String class2Label, File[] class2Files,
 			int kValue, boolean doPredictiveWeights, String outputPath,
 			IProgressMonitor monitor, Date dateObj) throws IOException,OperationCanceledException {
@@ -29,7 +45,7 @@ public class CrossValidator {
 		// File[] class2Files = folder2.listFiles();
 		int numFiles1 = class1Files.length;
 		int numFiles2 = class2Files.length;
-
+		svm.prepare(class1Files, class2Files);
 
 		//Check  if kValue is 1
 		if (kValue == 1){
@@ -41,7 +57,6 @@ public class CrossValidator {
 			ConsoleView.printlInConsoleln("Average accuracy over " + kValue + " folds = " + accuracy + "%");
 			ConsoleView.printlInConsoleln("Average Binomial Test P value  = " + pValue);
 			createRunReport(outputPath, dateObj);
-			clearFiles(kValue, outputPath);
 			writeToCSV(new double[]{accuracy},new double[]{pValue}, outputPath,dateObj);
 			return;
 		}
@@ -63,99 +78,114 @@ public class CrossValidator {
 
 		}
 
-		for (int i = 1; i <= kValue; i++) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, kValue));
+		List<Future<SVMClassify.Fold>> folds = new ArrayList<Future<SVMClassify.Fold>>();
+		try {
+			for (int i = 1; i <= kValue; i++) {
 			
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
 
-			}
+				}
 			
-			ConsoleView.printlInConsoleln("--- Fold " + i + " ---");
-			File[] trainFiles1 = new File[trains1];
-			File[] trainFiles2 = new File[trains2];
-			File[] testFiles1 = new File[numFiles1 - trains1];
-			File[] testFiles2 = new File[numFiles2 - trains2];
-
-			int currIndex = index1;
-			for (int num = 0; num < trains1; num++) {
-				trainFiles1[num] = class1Files[currIndex];
-				// ConsoleView.writeInConsole(files1[currIndex]);
-				currIndex++;
-				if (currIndex >= numFiles1)
-					currIndex = 0;
-			}
+				File[] trainFiles1 = new File[trains1];
+				File[] trainFiles2 = new File[trains2];
+				File[] testFiles1 = new File[numFiles1 - trains1];
+				File[] testFiles2 = new File[numFiles2 - trains2];
+
+				int currIndex = index1;
+				for (int num = 0; num < trains1; num++) {
+					trainFiles1[num] = class1Files[currIndex];
+					// ConsoleView.writeInConsole(files1[currIndex]);
+					currIndex++;
+					if (currIndex >= numFiles1)
+						currIndex = 0;
+				}
 			
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
 
-			}
+				}
 			
-			for (int num = 0; num < numFiles1 - trains1; num++) {
-				testFiles1[num] = class1Files[currIndex];
-				// ConsoleView.writeInConsole(files1[currIndex]);
-				currIndex++;
-				if (currIndex >= numFiles1)
-					currIndex = 0;
-			}
+				for (int num = 0; num < numFiles1 - trains1; num++) {
+					testFiles1[num] = class1Files[currIndex];
+					// ConsoleView.writeInConsole(files1[currIndex]);
+					currIndex++;
+					if (currIndex >= numFiles1)
+						currIndex = 0;
+				}
 			
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
-
-			}
-
-			currIndex = index2;
-			for (int num = 0; num < trains2; num++) {
-				trainFiles2[num] = class2Files[currIndex];
-				// ConsoleView.writeInConsole(files2[currIndex]);
-				currIndex++;
-				if (currIndex >= numFiles2)
-					currIndex = 0;
-			}
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+
+				}
+
+				currIndex = index2;
+				for (int num = 0; num < trains2; num++) {
+					trainFiles2[num] = class2Files[currIndex];
+					// ConsoleView.writeInConsole(files2[currIndex]);
+					currIndex++;
+					if (currIndex >= numFiles2)
+						currIndex = 0;
+				}
 			
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
 
-			}
+				}
 			
-			for (int num = 0; num < numFiles2 - trains2; num++) {
-				testFiles2[num] = class2Files[currIndex];
-				// ConsoleView.writeInConsole(files1[currIndex]);
-				currIndex++;
-				if (currIndex >= numFiles2)
-					currIndex = 0;
-			}
+				for (int num = 0; num < numFiles2 - trains2; num++) {
+					testFiles2[num] = class2Files[currIndex];
+					// ConsoleView.writeInConsole(files1[currIndex]);
+					currIndex++;
+					if (currIndex >= numFiles2)
+						currIndex = 0;
+				}
 			
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
-
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+
+				}
+
+				final String kVal = "k" + i;
+				final File[] foldTrain1 = trainFiles1, foldTrain2 = trainFiles2;
+				final File[] foldTest1 = testFiles1, foldTest2 = testFiles2;
+				folds.add(executor.submit(new Callable<SVMClassify.Fold>() {
+					public SVMClassify.Fold call() throws IOException {
+						return svm.runFold(kVal, foldTrain1, foldTrain2, foldTest1, foldTest2);
+					}
+				}));
+
+				// Clear required globals like dfmap?
+				index1 = index1 + numFiles1 - trains1;
+				if (index1 >= numFiles1) {
+					index1 = index1 - numFiles1;
+				}
+
+				index2 = index2 + numFiles2 - trains2;
+				if (index2 >= numFiles2) {
+					index2 = index2 - numFiles2;
+				}
 			}
 
-			svm.cross_train("k" + i, class1Label, trainFiles1, class2Label,
-					trainFiles2, doPredictiveWeights,dateObj);
-			
-			double tempResults[]= svm.cross_predict("k" + i, class1Label,
-					testFiles1, class2Label, testFiles2);
-			accuracies[i - 1] = tempResults[0];
-			pValues[i-1] = tempResults[1];
-			totals[i-1] = tempResults[2];
-			corrects[i-1] = tempResults[3];
+			// the reports of the folds, in order, as they finish
+			for (int i = 1; i <= kValue; i++) {
+				SVMClassify.Fold fold = waitFor(folds.get(i - 1), monitor);
+				ConsoleView.printlInConsoleln("--- Fold " + i + " ---");
+				double tempResults[] = svm.report(fold, doPredictiveWeights, dateObj);
+				accuracies[i - 1] = tempResults[0];
+				pValues[i-1] = tempResults[1];
+				totals[i-1] = tempResults[2];
+				corrects[i-1] = tempResults[3];
 			
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
-
-			}
-
-			// Clear required globals like dfmap?
-			index1 = index1 + numFiles1 - trains1;
-			if (index1 >= numFiles1) {
-				index1 = index1 - numFiles1;
-			}
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
 
-			index2 = index2 + numFiles2 - trains2;
-			if (index2 >= numFiles2) {
-				index2 = index2 - numFiles2;
+				}
+				monitor.worked(1);
 			}
-			monitor.worked(1);
+		} finally {
+			executor.shutdownNow();
 		}
 
 		double averageAccuracy = 0;
@@ -177,40 +207,34 @@ public class CrossValidator {
 		ConsoleView.printlInConsoleln("Average accuracy over " + kValue + " folds = " + averageAccuracy / accuracies.length + "%");
 		ConsoleView.printlInConsoleln("Average Binomial Test P value  = " + averagePvalue);
 		createRunReport(outputPath, dateObj);
-		clearFiles(kValue, outputPath);
 		writeToCSV(accuracies,pValues, outputPath,dateObj);
 	}
 	protected void createRunReport(String outputPath, Date dateObj){
 
 		TacitUtility.createRunReport(outputPath, "SVM Classification", dateObj,null);
 	}
-	private void clearFiles(int kValue, String outputPath) {
-		ConsoleView.printlInConsoleln("Clearing temporary files");
-		for (int i = 0; i < kValue; i++) {
-			File toDelete = new File(outputPath
-					+ System.getProperty("file.separator")
-					+ "SVM-Classification_k" + Integer.toString(i + 1)
-					+ ".hashmap");
-			toDelete.delete();
-			toDelete = new File(outputPath
-					+ System.getProperty("file.separator")
-					+ "SVM-Classification_k" + Integer.toString(i + 1)
-					+ ".model");
-			toDelete.delete();
-			toDelete = new File(outputPath
-					+ System.getProperty("file.separator")
-					+ "SVM-Classification_k" + Integer.toString(i + 1) + ".out");
-			toDelete.delete();
-			toDelete = new File(outputPath
-					+ System.getProperty("file.separator")
-					+ "SVM-Classification_k" + Integer.toString(i + 1)
-					+ ".test");
-			toDelete.delete();
-			toDelete = new File(outputPath
-					+ System.getProperty("file.separator")
-					+ "SVM-Classification_k" + Integer.toString(i + 1)
-					+ ".train");
-			toDelete.delete();
+	// waits for a fold, checking every second whether the job was canceled
+	private SVMClassify.Fold waitFor(Future<SVMClassify.Fold> fold,
+			IProgressMonitor monitor) throws IOException {
+		try {
+			while (true) {
+				try {
+					return fold.get(1, TimeUnit.SECONDS);
+				} catch (TimeoutException e) {
+					if (monitor.isCanceled())
+						throw new OperationCanceledException();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
 		}
 	}
 	protected String createOutputFileName(String output, Date dateObj){
@@ -3,27 +3,47 @@ package edu.usc.cssl.tacit.classify.svm.services;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
 import org.apache.commons.math3.stat.inference.AlternativeHypothesis;
 import org.apache.commons.math3.stat.inference.BinomialTest;
 
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
+/**
+ * Trains and tests linear SVMs on two classes of documents. Every document is
+ * tokenized once, into word ids and counts that the folds of a cross
+ * validation share, and the folds train and predict on svm_node arrays in
+ * memory. Folds can run on several threads; their reports are printed, and
+ * the feature and document frequency maps set, one fold at a time.
+ */
 public class SVMClassify {
+	private static final Comparator<svm_node> BY_INDEX = new Comparator<svm_node>() {
+		public int compare(svm_node a, svm_node b) {
+			return a.index < b.index ? -1 : (a.index == b.index ? 0 : 1);
+		}
+	};
+
 	private String intermediatePath;
-	private File modelFile;
 	protected boolean doTfidf;
 	private int featureMapIndex;
 	protected HashMap<String, Integer> featureMap = new HashMap<String, Integer>();
@@ -32,6 +52,12 @@ public class SVMClassify {
 	protected int noOfDocuments = 0;
 	private String class1Label = "";
 	private String class2Label = "";
+	// documents read so far, and the words they contain
+	private final HashMap<File, Document> documents = new HashMap<File, Document>();
+	private final HashMap<String, Integer> wordIds = new HashMap<String, Integer>();
+	private final List<String> words = new ArrayList<String>();
+	// the fold of cross_train and cross_predict
+	private Fold lastFold;
 
 
 	public SVMClassify(String class1Name, String class2Name, String outputFolder) {
@@ -41,21 +67,86 @@ public class SVMClassify {
 		class2Label = class2Name.toString();
 	}
 
-	public void buildDfMap(File inputFile) throws IOException {
-		
+	/**
+	 * A document as the ids of its words, in the order of fileToBow, and the
+	 * number of times each occurs.
+	 */
+	private static class Document {
+		final int[] words;
+		final double[] counts;
+
+		Document(int[] words, double[] counts) {
+			this.words = words;
+			this.counts = counts;
+		}
+	}
+
+	/**
+	 * A model trained on some documents and its predictions for others.
+	 */
+	static class Fold {
+		final String kVal;
+		final List<Document> trainDocuments = new ArrayList<Document>();
+		final List<Document> testDocuments = new ArrayList<Document>();
+		// feature id of every word id, 0 for words not in training
+		final int[] features;
+		// word id of every feature id - 1
+		int[] featureWords = new int[16];
+		int featureCount;
+		svm_model model;
+		// as returned by SVMPredict
+		double[] result;
+
+		Fold(String kVal, int vocabulary) {
+			this.kVal = kVal;
+			this.features = new int[vocabulary];
+		}
+
+		int addFeature(int word) {
+			if (featureCount == featureWords.length)
+				featureWords = Arrays.copyOf(featureWords, featureCount * 2);
+			featureWords[featureCount++] = word;
+			features[word] = featureCount;
+			return featureCount;
+		}
+	}
+
+	/**
+	 * Reads a file as one line, with the delimiters replaced by spaces.
+	 */
+	private String readText(File inputFile) throws IOException {
 		BufferedReader br = new BufferedReader(new FileReader(inputFile));
+		try {
+			String currentLine;
+			// Converting the file to one string for faster processing
+			StringBuilder fullFile = new StringBuilder();
+			while ((currentLine = br.readLine()) != null) {
+				fullFile.append(currentLine + ' ');
+			}
+			String input = fullFile.toString();
+			for (char c : delimiters.toCharArray())
+				input = input.replace(c, ' ');
+			return input;
+		} finally {
+			br.close();
+		}
+	}
 
-		// ConsoleView.writeInConsole("Building map for: "+inputFile.getAbsolutePath());
-		String currentLine;
-		StringBuilder fullFile = new StringBuilder();
-		while ((currentLine = br.readLine()) != null) {
-			fullFile.append(currentLine + ' ');
+	private HashMap<String, Double> termFrequencies(File inputFile) throws IOException {
+		HashMap<String, Double> hashMap = new HashMap<String, Double>();
+		for (String word : readText(inputFile).split("\\s+")) {
+			if (!hashMap.containsKey(word))
+				hashMap.put(word, (double) 1);
+			else {
+				hashMap.put(word, hashMap.get(word) + 1);
+			}
 		}
-		String input = fullFile.toString();
-		for (char c : delimiters.toCharArray())
-			input = input.replace(c, ' ');
+		return hashMap;
+	}
+
+	public void buildDfMap(File inputFile) throws IOException {
 		HashSet<String> wordSet = new HashSet<String>();
-		for (String word : input.split("\\s+")) {
+		for (String word : readText(inputFile).split("\\s+")) {
 			wordSet.add(word);
 		}
 		for (String word : wordSet) {
@@ -65,7 +156,6 @@ public class SVMClassify {
 				dfMap.put(word, dfMap.get(word) + 1);
 			}
 		}
-		br.close();
 	}
 	protected void testMethod()
 	{
@@ -73,28 +163,7 @@ public class SVMClassify {
 	}
 	public HashMap<String, Double> fileToBow(File inputFile) throws IOException {
 		testMethod();
-		HashMap<String, Double> hashMap = new HashMap<String, Double>();
-		BufferedReader br = new BufferedReader(new FileReader(inputFile));
-		String currentLine;
-
-		// Converting the file to one string for faster processing
-		StringBuilder fullFile = new StringBuilder();
-		while ((currentLine = br.readLine()) != null) {
-			fullFile.append(currentLine + ' ');
-		}
-		// ConsoleView.writeInConsole(fullFile);
-		String input = fullFile.toString();
-		for (char c : delimiters.toCharArray())
-			input = input.replace(c, ' ');
-
-		// ConsoleView.writeInConsole(input);
-		for (String word : input.split("\\s+")) {
-			if (!hashMap.containsKey(word))
-				hashMap.put(word, (double) 1);
-			else {
-				hashMap.put(word, hashMap.get(word) + 1);
-			}
-		}
+		HashMap<String, Double> hashMap = termFrequencies(inputFile);
 
 		// If TF.IDF method, multiply each hashMap value with IDF. IDF = log10(
 		// noOfDocuments / no of documents containing the current word)
@@ -115,7 +184,6 @@ public class SVMClassify {
 			}
 		}
 		// ConsoleView.writeInConsole(hashMap);
-		br.close();
 		return hashMap;
 	}
 
@@ -192,97 +260,222 @@ public class SVMClassify {
 	
 	
 	
-	public int cross_train(String kVal, String label1, File[] trainFiles1,
-			String label2, File[] trainFiles2, boolean doPredictiveWeights, Date dateObj)
-			throws IOException {
-		int ret = 0;
-		modelFile = new File(intermediatePath + "_" + kVal + ".model");
-		File trainFile = new File(intermediatePath + "_" + kVal + ".train");
-		this.doTfidf = true;
-		featureMapIndex = 0;
-		featureMap.clear();
-		dfMap.clear();
-		noOfDocuments = 0;
-
-		if (doTfidf) {
-			for (File file : trainFiles1) {
-				if (file.getAbsolutePath().contains("DS_Store"))
-					continue;
-				noOfDocuments = noOfDocuments + 1; // Count the total no of
-													// documents
-				buildDfMap(file);
-			}
-			for (File file : trainFiles2) {
-				if (file.getAbsolutePath().contains("DS_Store"))
-					continue;
-				noOfDocuments = noOfDocuments + 1; // Count the total no of
-													// documents
-				buildDfMap(file);
+	/**
+	 * Adds up the weights of every feature over the support vectors of a
+	 * model, as computePredictiveWeights does from a model file.
+	 */
+	public HashMap<Integer, Double> computePredictiveWeights(svm_model model) {
+		HashMap<Integer, Double> weights = new HashMap<Integer, Double>();
+		for (int sv = 0; sv < model.l; sv++) {
+			double alpha = model.sv_coef[0][sv];
+			for (svm_node node : model.SV[sv]) {
+				if (weights.containsKey(node.index)) {
+					weights.put(node.index, weights.get(node.index)
+							+ (alpha * node.value));
+				} else {
+					weights.put(node.index, alpha * node.value);
+				}
 			}
-			// ConsoleView.writeInConsole("dfmap -"+dfMap);
-			ConsoleView.printlInConsoleln("Finished building document frequency map.");
 		}
+		return weights;
+	}
 
-		BufferedWriter bw = new BufferedWriter(new FileWriter(trainFile));
+	private synchronized Document document(File file) throws IOException {
+		Document document = documents.get(file);
+		if (document == null) {
+			HashMap<String, Double> bow = termFrequencies(file);
+			int[] ids = new int[bow.size()];
+			double[] counts = new double[bow.size()];
+			int i = 0;
+			for (Map.Entry<String, Double> entry : bow.entrySet()) {
+				Integer id = wordIds.get(entry.getKey());
+				if (id == null) {
+					id = words.size();
+					wordIds.put(entry.getKey(), id);
+					words.add(entry.getKey());
+				}
+				ids[i] = id;
+				counts[i++] = entry.getValue();
+			}
+			document = new Document(ids, counts);
+			documents.put(file, document);
+		}
+		return document;
+	}
 
-		for (File file : trainFiles1) {
+	private List<Document> documents(File[] files) throws IOException {
+		List<Document> documents = new ArrayList<Document>();
+		for (File file : files) {
 			if (file.getAbsolutePath().contains("DS_Store"))
 				continue;
-			// ConsoleView.writeInConsole("Reading File "+file.toString());
-			bw.write("+1 " + BowToString(fileToBow(file)));
-			bw.newLine();
+			documents.add(document(file));
 		}
-		for (File file : trainFiles2) {
-			if (file.getAbsolutePath().contains("DS_Store"))
-				continue;
-			// ConsoleView.writeInConsole("Reading File "+file.toString());
-			bw.write("-1 " + BowToString(fileToBow(file)));
-			bw.newLine();
+		return documents;
+	}
+
+	private synchronized int vocabulary() {
+		return words.size();
+	}
+
+	/**
+	 * Reads the documents of a cross validation, so that its folds share
+	 * them.
+	 */
+	void prepare(File[] class1Files, File[] class2Files) throws IOException {
+		this.doTfidf = true;
+		documents(class1Files);
+		documents(class2Files);
+	}
+
+	/**
+	 * Trains a fold on the training files and predicts its test files,
+	 * without reporting either. Folds of the same documents can run at once.
+	 */
+	Fold runFold(String kVal, File[] trainFiles1, File[] trainFiles2,
+			File[] testFiles1, File[] testFiles2) throws IOException {
+		Fold fold = train(kVal, documents(trainFiles1), documents(trainFiles2));
+		predict(fold, documents(testFiles1), documents(testFiles2));
+		return fold;
+	}
+
+	/**
+	 * Reports the training and the predictions of a fold, and returns its
+	 * accuracy, p value, total and correct as cross_predict does.
+	 */
+	double[] report(Fold fold, boolean doPredictiveWeights, Date dateObj)
+			throws IOException {
+		reportTraining(fold, doPredictiveWeights, dateObj);
+		return reportTest(fold);
+	}
+
+	private int[] documentFrequencies(List<Document> documents, int vocabulary) {
+		int[] df = new int[vocabulary];
+		for (Document document : documents)
+			for (int word : document.words)
+				df[word]++;
+		return df;
+	}
+
+	/**
+	 * The features of a document, in the order of their ids. Its words
+	 * without a feature get one if addFeatures, and are left out otherwise.
+	 */
+	private svm_node[] nodes(Fold fold, Document document, int[] df,
+			int noOfDocuments, boolean addFeatures) {
+		svm_node[] x = new svm_node[document.words.length];
+		int m = 0;
+		for (int i = 0; i < document.words.length; i++) {
+			int word = document.words[i];
+			int feature = fold.features[word];
+			if (feature == 0) {
+				if (!addFeatures)
+					continue; // Ignore new words
+				feature = fold.addFeature(word);
+			}
+			x[m] = new svm_node();
+			x[m].index = feature;
+			// IDF = log10(noOfDocuments / no of documents containing the word)
+			x[m].value = doTfidf ? document.counts[i]
+					* (Math.log10(noOfDocuments / (double) df[word]))
+					: document.counts[i];
+			m++;
+		}
+		x = Arrays.copyOf(x, m);
+		Arrays.sort(x, BY_INDEX);
+		return x;
+	}
+
+	private svm_node[][] nodes(Fold fold, List<Document> documents,
+			boolean addFeatures) {
+		int[] df = documentFrequencies(documents, fold.features.length);
+		svm_node[][] x = new svm_node[documents.size()][];
+		for (int i = 0; i < x.length; i++) {
+			x[i] = nodes(fold, documents.get(i), df, x.length, addFeatures);
+		}
+		return x;
+	}
+
+	private Fold train(String kVal, List<Document> trainDocuments1,
+			List<Document> trainDocuments2) {
+		Fold fold = new Fold(kVal, vocabulary());
+		fold.trainDocuments.addAll(trainDocuments1);
+		fold.trainDocuments.addAll(trainDocuments2);
+		svm_problem prob = new svm_problem();
+		prob.l = fold.trainDocuments.size();
+		prob.y = targets(trainDocuments1.size(), trainDocuments2.size());
+		prob.x = nodes(fold, fold.trainDocuments, true);
+
+		svm_parameter param = SVMTrain.defaultParameter();
+		param.kernel_type = svm_parameter.LINEAR;
+		fold.model = SVMTrain.train(prob, param);
+		return fold;
+	}
+
+	private void predict(Fold fold, List<Document> testDocuments1,
+			List<Document> testDocuments2) {
+		fold.testDocuments.addAll(testDocuments1);
+		fold.testDocuments.addAll(testDocuments2);
+		// Use the features of the training documents, ignore new words.
+		double[] targets = targets(testDocuments1.size(), testDocuments2.size());
+		svm_node[][] x = nodes(fold, fold.testDocuments, false);
+		fold.result = SVMPredict.predict(fold.model, x, targets);
+	}
+
+	// +1 for the documents of class 1, -1 for those of class 2
+	private static double[] targets(int class1Documents, int class2Documents) {
+		double[] targets = new double[class1Documents + class2Documents];
+		Arrays.fill(targets, 0, class1Documents, 1);
+		Arrays.fill(targets, class1Documents, targets.length, -1);
+		return targets;
+	}
+
+	// sets dfMap and noOfDocuments as building them from the documents would
+	private void setDfMap(List<Document> documents) {
+		int[] df = documentFrequencies(documents, vocabulary());
+		dfMap.clear();
+		for (int word = 0; word < df.length; word++) {
+			if (df[word] > 0)
+				dfMap.put(words.get(word), df[word]);
+		}
+		noOfDocuments = documents.size();
+		if (doTfidf)
+			ConsoleView.printlInConsoleln("Finished building document frequency map.");
+	}
+
+	public int cross_train(String kVal, String label1, File[] trainFiles1,
+			String label2, File[] trainFiles2, boolean doPredictiveWeights, Date dateObj)
+			throws IOException {
+		this.doTfidf = true;
+		lastFold = train(kVal, documents(trainFiles1), documents(trainFiles2));
+		reportTraining(lastFold, doPredictiveWeights, dateObj);
+		return 0;
+	}
+
+	private void reportTraining(Fold fold, boolean doPredictiveWeights,
+			Date dateObj) throws IOException {
+		setDfMap(fold.trainDocuments);
+		featureMapIndex = fold.featureCount;
+		featureMap.clear();
+		HashMap<Integer, String> reverseMap = new HashMap<Integer, String>();
+		for (int feature = 1; feature <= fold.featureCount; feature++) {
+			String word = words.get(fold.featureWords[feature - 1]);
+			featureMap.put(word, feature);
+			reverseMap.put(feature, word);
 		}
 		ConsoleView.printlInConsoleln("Total number of documents - "
 				+ noOfDocuments + ". Total unique features - "
 				+ featureMapIndex);
-		// ConsoleView.printlInConsoleln("Finished building SVM-format training file - "+trainFile.getAbsolutePath());
-		bw.close();
-
-		String[] train_arguments;
-
 		ConsoleView.printlInConsoleln("Linear Kernel selected");
-		train_arguments = new String[4];
-		train_arguments[0] = "-t";
-		train_arguments[1] = "0";
-		train_arguments[2] = trainFile.getAbsolutePath();
-		train_arguments[3] = modelFile.getAbsolutePath();
 
 		DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
 		ConsoleView.printlInConsoleln("Training the classifier...");
-		double[] result = SVMTrain.main(train_arguments);
-		double crossValResult = result[0];
-		double pvalue = result[1];
-		// ConsoleView.printlInConsoleln("Model file created - "+modelFile.getAbsolutePath());
-
-		// Saving the feature map
-		File hashmap = new File(intermediatePath + "_" + kVal + ".hashmap");
-		ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(
-				hashmap));
-		oos.writeObject(featureMap);
-		oos.flush();
-		oos.close();
-		// ConsoleView.printlInConsoleln("Feature Map saved - "+hashmap.getAbsolutePath());
-
-		HashMap<Integer, String> reverseMap = new HashMap<Integer, String>();
-		for (String k : featureMap.keySet()) {
-			reverseMap.put(featureMap.get(k), k);
-		}
+		ConsoleView.printlInConsoleln("");
 
 		if (doPredictiveWeights) {
-			// PredictiveWeights pw = new PredictiveWeights();
-			File weightsFile = new File(createSVMWeightFileName(df, kVal, intermediatePath, dateObj));
+			File weightsFile = new File(createSVMWeightFileName(df, fold.kVal, intermediatePath, dateObj));
 			BufferedWriter weightsWriter = new BufferedWriter(new FileWriter(
 					weightsFile));
-			// HashMap<Integer,Double> weightsMap =
-			// pw.computePredictiveWeights(modelFile);
-			HashMap<Integer, Double> weightsMap = computePredictiveWeights(modelFile);
+			HashMap<Integer, Double> weightsMap = computePredictiveWeights(fold.model);
 			weightsWriter.write("Word,ID,Weight,Class\n");
 			for (Integer i : weightsMap.keySet()) {
 				// System.out.print(i+" ");
@@ -301,8 +494,6 @@ public class SVMClassify {
 					+ weightsFile.getAbsolutePath());
 			weightsWriter.close();
 		}
-
-		return ret;
 	}
 	
 	
@@ -321,63 +512,24 @@ public class SVMClassify {
 	
 	public double[] cross_predict(String kVal, String label1, File[] testFiles1,
 			String label2, File[] testFiles2) throws IOException {
+		predict(lastFold, documents(testFiles1), documents(testFiles2));
+		return reportTest(lastFold);
+	}
+
+	private double[] reportTest(Fold fold) {
 		
 		double[] returnValues  = new double[4];
 
-		// if TFIDF method, clear and rebuild df map
-		dfMap.clear();
-		noOfDocuments = 0;
-		if (doTfidf) {
-			for (File file : testFiles1) {
-				if (file.getAbsolutePath().contains("DS_Store"))
-					continue;
-				noOfDocuments = noOfDocuments + 1;
-				buildDfMap(file);
-			}
-			for (File file : testFiles2) {
-				if (file.getAbsolutePath().contains("DS_Store"))
-					continue;
-				noOfDocuments = noOfDocuments + 1;
-				buildDfMap(file);
-			}
-			// ConsoleView.writeInConsole("dfmap -"+dfMap);
-			ConsoleView.printlInConsoleln("Finished building document frequency map.");
-		}
-
-		// Create a test file just like the training file was created.
-		// Use the existing featureMap, ignore new words.
-		File testFile = new File(intermediatePath + "_" + kVal + ".test");
-		BufferedWriter bw = new BufferedWriter(new FileWriter(testFile));
+		// the df map of the test documents, as the features were weighted
+		setDfMap(fold.testDocuments);
 
-		for (File file : testFiles1) {
-			if (file.getAbsolutePath().contains("DS_Store"))
-				continue;
-			// ConsoleView.writeInConsole("Reading File "+file.toString());
-			bw.write("+1 " + BowToTestString(fileToBow(file)));
-			bw.newLine();
-		}
-		for (File file : testFiles2) {
-			if (file.getAbsolutePath().contains("DS_Store"))
-				continue;
-			// ConsoleView.writeInConsole("Reading File "+file.toString());
-			bw.write("-1 " + BowToTestString(fileToBow(file)));
-			bw.newLine();
-		}
-		// ConsoleView.printlInConsoleln("Finished building SVM-format test file - "+testFile.getAbsolutePath());
-		bw.close();
-		// ConsoleView.printlInConsoleln("Model file loaded - "+modelFile.getAbsolutePath());
-		String[] predict_arguments = new String[3];
-		predict_arguments[0] = testFile.getAbsolutePath();
-		predict_arguments[1] = modelFile.getAbsolutePath();
-		predict_arguments[2] = intermediatePath + "_" + kVal + ".out";
-		double[] result = SVMPredict.main(predict_arguments);
+		double[] result = fold.result;
 		int correct = (int) result[0], total = (int) result[1];
 		// double pvalue = result[2];
 		BinomialTest btest = new BinomialTest();
 		double p = 0.5;
 		double pvalue = btest.binomialTest(total, correct, p,
 				AlternativeHypothesis.TWO_SIDED);
-		// ConsoleView.printlInConsoleln("Created SVM output file - "+intermediatePath+"_"+kVal+".out");
 		
 		double precision  = result[5]/(result[5]+result[7]);
 		double recall = result[5]/(result[5]+result[6]);
@@ -52,20 +52,92 @@ public class SVMPredict {
 		return Integer.parseInt(s);
 	}
 
-	private static double[] predict(BufferedReader input, DataOutputStream output, svm_model model, int predict_probability) throws IOException
+	/**
+	 * Tallies predictions against their targets. class 1 is considered as +
+	 * and class 2 is considered -
+	 *			Predicted Label
+	 * True		|	+	|	-
+	 * label	+	|	tp	|	fn
+	 *		-	|	fp	|	tn
+	 */
+	private static class Tally
 	{
-		int correct = 0;
-		int total = 0;
-		double error = 0, pvalue = 0, absolute_error = 0;
-		double sumv = 0, sumy = 0, sumvv = 0, sumyy = 0, sumvy = 0;
-		double tp = 0, fn = 0, fp =0, tn = 0;
-		//class 1 is considered as + and class 2 is considered -
-		//			Predicted Label
-		//True		|	+	|	-
-		//label	+	|	tp	|	fn
-		//		-	|	fp	|	tn
+		private int correct = 0;
+		private int total = 0;
+		private double error = 0, absolute_error = 0;
+		private double sumv = 0, sumy = 0, sumvv = 0, sumyy = 0, sumvy = 0;
+		private double tp = 0, fn = 0, fp =0, tn = 0;
+		private List<Double> targetCollection = new ArrayList<Double>();
+
+		void add(double target, double v)
+		{
+			if (v == 1){
+				if (target == v){
+					tp++;
+				}else{
+					fp++;
+				}
+			}else{
+				if(target == v){
+					tn++;
+				}else{
+					fn++;
+				}
+				
+			}
+			targetCollection.add(target);
+			if(v == target)
+				++correct;
+			error += (v-target)*(v-target);
+			absolute_error  += Math.abs(v-target);
+			sumv += v;
+			sumy += target;
+			sumvv += v*v;
+			sumyy += target*target;
+			sumvy += v*target;
+			++total;
+		}
+
+		double[] result(int svm_type)
+		{
+			double pvalue = 0;
+			if(svm_type == svm_parameter.EPSILON_SVR ||
+			   svm_type == svm_parameter.NU_SVR)
+			{
+				SVMPredict.info("Mean squared error = "+error/total+" (regression)\n");
+				SVMPredict.info("Squared correlation coefficient = "+
+					 ((total*sumvy-sumv*sumy)*(total*sumvy-sumv*sumy))/
+					 ((total*sumvv-sumv*sumv)*(total*sumyy-sumy*sumy))+
+					 " (regression)\n");
+			}
+			else{
+				SVMPredict.info("Accuracy = "+(double)correct/total*100+"% ("+correct+"/"+total+") (classification)\n");
+				//ConsoleView.printlInConsoleln(total + " " + correct + " " + (double)1/nr_class + " ");
+				BinomialTest btest = new BinomialTest();
+				pvalue = btest.binomialTest(total, correct, (double)0.5, AlternativeHypothesis.TWO_SIDED);
+			}
+			
+			//Here we are calculating the various error statistics, considering the misclassification cost as 2(since the classes are 1/-1), 
+			//This shall be confirmed in case to be implemented in future.  
+			double abar= sumy/total;
+			double relative_absolute_error = 0.0;
+			double root_relative_squared_error = 0.0;
+			for (double a: targetCollection){
+				relative_absolute_error  += Math.abs(abar- a);
+				root_relative_squared_error += (abar - a)*(abar - a);
+			}
+			relative_absolute_error = absolute_error/relative_absolute_error;
+			root_relative_squared_error = error/root_relative_squared_error;
+			
+			double mean_absolute_error = absolute_error/total;
+			double rms_error = Math.sqrt(error/total);
+			return new double[]{correct,total, pvalue,mean_absolute_error,rms_error,tp,fn,fp,tn,relative_absolute_error,root_relative_squared_error};
+		}
+	}
 
-		List<Double> targetCollection = new ArrayList();
+	private static double[] predict(BufferedReader input, DataOutputStream output, svm_model model, int predict_probability) throws IOException
+	{
+		Tally tally = new Tally();
 		
 		int svm_type=svm.svm_get_svm_type(model);
 		int nr_class=svm.svm_get_nr_class(model);
@@ -120,64 +192,21 @@ public class SVMPredict {
 				v = svm.svm_predict(model,x);
 				output.writeBytes(v+"\n");
 			}
-			
-			if (v == 1){
-				if (target == v){
-					tp++;
-				}else{
-					fp++;
-				}
-			}else{
-				if(target == v){
-					tn++;
-				}else{
-					fn++;
-				}
-				
-			}
-			targetCollection.add(target);
-			if(v == target)
-				++correct;
-			error += (v-target)*(v-target);
-			absolute_error  += Math.abs(v-target);
-			sumv += v;
-			sumy += target;
-			sumvv += v*v;
-			sumyy += target*target;
-			sumvy += v*target;
-			++total;
+			tally.add(target, v);
 		}
-		if(svm_type == svm_parameter.EPSILON_SVR ||
-		   svm_type == svm_parameter.NU_SVR)
-		{
-			SVMPredict.info("Mean squared error = "+error/total+" (regression)\n");
-			SVMPredict.info("Squared correlation coefficient = "+
-				 ((total*sumvy-sumv*sumy)*(total*sumvy-sumv*sumy))/
-				 ((total*sumvv-sumv*sumv)*(total*sumyy-sumy*sumy))+
-				 " (regression)\n");
-		}
-		else{
-			SVMPredict.info("Accuracy = "+(double)correct/total*100+"% ("+correct+"/"+total+") (classification)\n");
-			//ConsoleView.printlInConsoleln(total + " " + correct + " " + (double)1/nr_class + " ");
-			BinomialTest btest = new BinomialTest();
-			pvalue = btest.binomialTest(total, correct, (double)0.5, AlternativeHypothesis.TWO_SIDED);
-		}
-		
-		//Here we are calculating the various error statistics, considering the misclassification cost as 2(since the classes are 1/-1), 
-		//This shall be confirmed in case to be implemented in future.  
-		double abar= sumy/total;
-		double relative_absolute_error = 0.0;
-		double root_relative_squared_error = 0.0;
-		for (double a: targetCollection){
-			relative_absolute_error  += Math.abs(abar- a);
-			root_relative_squared_error += (abar - a)*(abar - a);
-		}
-		relative_absolute_error = absolute_error/relative_absolute_error;
-		root_relative_squared_error = error/root_relative_squared_error;
-		
-		double mean_absolute_error = absolute_error/total;
-		double rms_error = Math.sqrt(error/total);
-		return new double[]{correct,total, pvalue,mean_absolute_error,rms_error,tp,fn,fp,tn,relative_absolute_error,root_relative_squared_error};
+		return tally.result(svm_type);
+	}
+
+	/**
+	 * Predicts the instances held in memory with a model, without writing
+	 * the predictions out. Returns the same statistics as main.
+	 */
+	static double[] predict(svm_model model, svm_node[][] x, double[] target)
+	{
+		Tally tally = new Tally();
+		for(int i=0;i<x.length;i++)
+			tally.add(target[i], svm.svm_predict(model,x[i]));
+		return tally.result(svm.svm_get_svm_type(model));
 	}
 
 	private static void exit_with_help()
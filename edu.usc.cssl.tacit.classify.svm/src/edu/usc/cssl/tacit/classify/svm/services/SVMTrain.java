@@ -148,6 +148,51 @@ public class SVMTrain {
 		return new double[]{crossValResult, pvalue};
 	}
 
+	/**
+	 * Returns the parameters svm_train uses when no option is given.
+	 */
+	static svm_parameter defaultParameter()
+	{
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.C_SVC;
+		param.kernel_type = svm_parameter.RBF;
+		param.degree = 3;
+		param.gamma = 0;	// 1/num_features
+		param.coef0 = 0;
+		param.nu = 0.5;
+		param.cache_size = 100;
+		param.C = 1;
+		param.eps = 1e-3;
+		param.p = 0.1;
+		param.shrinking = 1;
+		param.probability = 0;
+		param.nr_weight = 0;
+		param.weight_label = new int[0];
+		param.weight = new double[0];
+		return param;
+	}
+
+	/**
+	 * Trains a model on a problem held in memory, the way run does on a
+	 * training file. The gamma of the parameters is set from the largest
+	 * feature index if it is 0.
+	 */
+	static svm_model train(svm_problem prob, svm_parameter param)
+	{
+		int max_index = 0;
+		for(int i=0;i<prob.l;i++)
+		{
+			int m = prob.x[i].length;
+			if(m>0) max_index = Math.max(max_index, prob.x[i][m-1].index);
+		}
+		if(param.gamma == 0 && max_index > 0)
+			param.gamma = 1.0/max_index;
+		String error_msg = svm.svm_check_parameter(prob,param);
+		if(error_msg != null)
+			throw new IllegalArgumentException(error_msg);
+		return svm.svm_train(prob,param);
+	}
+
 	private static double atof(String s)
 	{
 		double d = Double.valueOf(s).doubleValue();
@@ -169,23 +214,7 @@ public class SVMTrain {
 		int i;
 		svm_print_interface print_func = null;	// default printing to stdout
 
-		param = new svm_parameter();
-		// default values
-		param.svm_type = svm_parameter.C_SVC;
-		param.kernel_type = svm_parameter.RBF;
-		param.degree = 3;
-		param.gamma = 0;	// 1/num_features
-		param.coef0 = 0;
-		param.nu = 0.5;
-		param.cache_size = 100;
-		param.C = 1;
-		param.eps = 1e-3;
-		param.p = 0.1;
-		param.shrinking = 1;
-		param.probability = 0;
-		param.nr_weight = 0;
-		param.weight_label = new int[0];
-		param.weight = new double[0];
+		param = defaultParameter();
 		cross_validation = 0;
 
 		// parse options
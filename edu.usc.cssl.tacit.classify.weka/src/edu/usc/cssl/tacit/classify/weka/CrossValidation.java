@@ -0,0 +1,147 @@
+package edu.usc.cssl.tacit.classify.weka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
+
+/**
+ * K-fold cross validation that trains and tests the folds on numThreads
+ * threads. The folds are split as Evaluation.crossValidateModel splits them
+ * and their predictions are recorded in fold order, so the evaluation is the
+ * one crossValidateModel would give.
+ */
+public class CrossValidation {
+	private int numThreads = 1;
+
+	/**
+	 * Sets the number of folds evaluated at once. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Predictions of a copy of the classifier trained on one fold
+	 */
+	private static class Fold {
+		Instances train;
+		Instances test;
+		double[][] distributions;
+		long trainTime;
+		long testTime;
+	}
+
+	/**
+	 * Evaluation that records the number of folds, as crossValidateModel does
+	 */
+	private static class FoldsEvaluation extends Evaluation {
+		FoldsEvaluation(Instances data, int numFolds) throws Exception {
+			super(data);
+			m_NumFolds = numFolds;
+		}
+	}
+
+	/**
+	 * Cross validates the classifier on the data
+	 * @param classifier - Classifier to copy for every fold
+	 * @param data - Data with the class set
+	 * @param numFolds - K value for cross validation
+	 * @param random - Randomizes the data and the folds
+	 * @param monitor - progress monitor, checked for cancel
+	 * @return the evaluation of all the folds
+	 * @throws Exception
+	 */
+	public Evaluation crossValidate(Classifier classifier, Instances data, int numFolds, Random random,
+			IProgressMonitor monitor) throws Exception {
+		data = new Instances(data);
+		data.randomize(random);
+		if (data.classAttribute().isNominal())
+			data.stratify(numFolds);
+		// the folds take from random in order
+		List<Fold> folds = new ArrayList<Fold>();
+		for (int i = 0; i < numFolds; i++) {
+			Fold fold = new Fold();
+			fold.train = data.trainCV(numFolds, i, random);
+			fold.test = data.testCV(numFolds, i);
+			folds.add(fold);
+		}
+
+		Evaluation eval = new FoldsEvaluation(data, numFolds);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numFolds));
+		try {
+			List<Future<Fold>> results = new ArrayList<Future<Fold>>();
+			for (Fold fold : folds)
+				results.add(executor.submit(evaluate(classifier, fold)));
+			for (int i = 0; i < numFolds; i++) {
+				Fold fold = waitFor(results.get(i), monitor);
+				eval.setPriors(fold.train);
+				for (int j = 0; j < fold.test.numInstances(); j++)
+					eval.evaluateModelOnceAndRecordPrediction(fold.distributions[j], fold.test.instance(j));
+				ConsoleView.printlInConsoleln("Fold " + (i + 1) + ": trained in " + fold.trainTime
+						+ " ms, tested in " + fold.testTime + " ms");
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return eval;
+	}
+
+	private static Callable<Fold> evaluate(final Classifier classifier, final Fold fold) {
+		return new Callable<Fold>() {
+			public Fold call() throws Exception {
+				long start = System.currentTimeMillis();
+				Classifier copiedClassifier = Classifier.makeCopy(classifier);
+				copiedClassifier.buildClassifier(fold.train);
+				fold.trainTime = System.currentTimeMillis() - start;
+
+				start = System.currentTimeMillis();
+				fold.distributions = new double[fold.test.numInstances()][];
+				for (int j = 0; j < fold.test.numInstances(); j++) {
+					Instance classMissing = (Instance) fold.test.instance(j).copy();
+					classMissing.setDataset(fold.test);
+					classMissing.setClassMissing();
+					fold.distributions[j] = copiedClassifier.distributionForInstance(classMissing);
+				}
+				fold.testTime = System.currentTimeMillis() - start;
+				return fold;
+			}
+		};
+	}
+
+	private static Fold waitFor(Future<Fold> fold, IProgressMonitor monitor) throws Exception {
+		try {
+			while (true) {
+				try {
+					return fold.get(1, TimeUnit.SECONDS);
+				} catch (TimeoutException e) {
+					if (monitor != null && monitor.isCanceled())
+						throw new OperationCanceledException();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+}
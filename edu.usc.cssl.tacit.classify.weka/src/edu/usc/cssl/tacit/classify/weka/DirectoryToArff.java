@@ -0,0 +1,267 @@
+package edu.usc.cssl.tacit.classify.weka;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader.ArffReader;
+import weka.core.converters.ArffSaver;
+
+/**
+ * Class that converts given directory to attribute file required for Weka.
+ * The instances belong to the object that created them, so that several runs
+ * can convert at once, and the files are read on numThreads threads.
+ */
+public class DirectoryToArff {
+	// Attribute file
+	static String arffFilename = System.getProperty("user.dir") + File.separator + "rawData.arff";
+
+	// Training
+	FastVector trainAtts;
+	Instances trainData;
+
+	// Testing
+	FastVector testAtts;
+	Instances testData;
+	public HashMap<Integer, String> instanceIdNameMap;
+	int instanceId;
+
+	private int numThreads = 1;
+
+	/**
+	 * Sets the number of threads that read the files. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Initialize training instances/classes
+	 * @param classes - set of training classes
+	 */
+	private void initailizeTrainInstances(Set<String> classes) {
+		FastVector cNames = new FastVector(classes.size());
+		for(String c: classes)
+			cNames.addElement(c);
+		trainAtts = new FastVector(2);
+		trainAtts.addElement(new Attribute("text", (FastVector) null));
+		trainAtts.addElement(new Attribute("class", cNames));
+		trainData = new Instances("text_files", trainAtts, 0);
+	}
+
+	/**
+	 * Initialize testing instances/classes
+	 */
+	private  void initializeTestInstances(Set<String> classes) {
+		instanceId = 0;
+		instanceIdNameMap = new HashMap<Integer, String>();
+		FastVector cNames = new FastVector(classes.size());
+		for(String c: classes)
+			cNames.addElement(c);
+		cNames.addElement("?");
+		testAtts = new FastVector(2);
+		testAtts.addElement(new Attribute("text", (FastVector) null));
+		testAtts.addElement(new Attribute("class", cNames));
+		testData = new Instances("text_files", testAtts, 0);
+	}
+
+	/**
+	 * Adds the file, or the files under it if it is a directory, to files
+	 */
+	private static void listFiles(File txt, List<File> files) {
+		if (txt.isDirectory()) { // process sub folders
+			for (File fn : txt.listFiles())
+				listFiles(fn.getAbsoluteFile(), files);
+		} else {
+			files.add(txt);
+		}
+	}
+
+	/**
+	 * Reads a file in the default encoding
+	 */
+	private static String readFile(File txt) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(txt)));
+		try {
+			StringBuilder txtStr = new StringBuilder((int) Math.min(txt.length(), Integer.MAX_VALUE - 8));
+			char[] buffer = new char[8192];
+			int n;
+			while ((n = reader.read(buffer)) != -1) {
+				txtStr.append(buffer, 0, n);
+			}
+			return txtStr.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the files, on numThreads threads if there are that many
+	 */
+	private String[] readFiles(final List<File> files) throws IOException {
+		final String[] texts = new String[files.size()];
+		int threads = Math.min(numThreads, files.size());
+		if (threads < 2) {
+			for (int i = 0; i < texts.length; i++)
+				texts[i] = readFile(files.get(i));
+			return texts;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<String>> reads = new ArrayList<Future<String>>();
+			for (final File file : files) {
+				reads.add(executor.submit(new Callable<String>() {
+					public String call() throws IOException {
+						return readFile(file);
+					}
+				}));
+			}
+			for (int i = 0; i < texts.length; i++)
+				texts[i] = reads.get(i).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading the files");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return texts;
+	}
+
+	/***
+	 * Converts the files to instance format and adds them to the given
+	 * instances, in the order given
+	 * @param txts
+	 * @param className
+	 * @param data
+	 * @param isTestData
+	 * @throws IOException
+	 */
+	private void createInstances(List<File> txts, String className, Instances data, boolean isTestData) throws IOException {
+		List<File> files = new ArrayList<File>();
+		for (File txt : txts)
+			listFiles(txt, files);
+		String[] texts = readFiles(files);
+		for (int i = 0; i < texts.length; i++) {
+			double[] newInst = new double[data.numAttributes()];
+			newInst[0] = data.attribute(0).addStringValue(texts[i]);
+			newInst[1] = data.attribute(1).indexOfValue(className);
+			Instance inst = new Instance(1.0, newInst);
+			if(isTestData)
+				instanceIdNameMap.put(instanceId++, files.get(i).getPath());
+			data.add(inst);
+		}
+	}
+
+	public void createDataset(List<String> files, String className, Instances data, boolean isTestData) throws Exception {
+		List<File> txts = new ArrayList<File>();
+		for(String file : files) {
+			txts.add(new File(file));
+		}
+		createInstances(txts, className, data, isTestData);
+	}
+
+	/***
+	 * Create instance from the given directory path
+	 */
+	public  void createDataset(String directoryPath, String className, Instances data, boolean isTestData) throws Exception {
+		File dir = new File(directoryPath);
+		String[] files = dir.list();
+		List<File> txts = new ArrayList<File>();
+		for (int i = 0; i < files.length; i++) {
+			//System.out.println(directoryPath + File.separator + files[i]);
+			txts.add(new File(directoryPath + File.separator + files[i]));
+		}
+		createInstances(txts, className, data, isTestData);
+	}
+
+	/**
+	 * Save the training instances as an attribute file
+	 * @throws IOException
+	 */
+	public void saveInstance() throws IOException {
+		ArffSaver saver = new ArffSaver();
+		saver.setInstances(trainData);
+		saver.setFile(new File(arffFilename));
+		saver.writeBatch();
+	}
+
+	/**
+	 * Create an instance from given list of strings
+	 * @param classes - maps the directory and its files
+	 * @return - the training instances, with the class set
+	 * @throws Exception
+	 */
+	public Instances createTrainInstances(Map<String,List<String>> classes) throws Exception {
+		initailizeTrainInstances(classes.keySet());
+		for(String c : classes.keySet()) {
+			System.out.println("Training dir :" + c);
+			createDataset(classes.get(c), c, trainData, false);
+		}
+		trainData.setClassIndex(trainData.numAttributes() - 1);
+		return trainData;
+	}
+
+	/**
+	 * Creates an instance out of the given input directory
+	 * @param input - input directory path
+	 * @return - Instance
+	 * @throws Exception
+	 */
+	public Instances createTestInstances(String input) throws Exception {
+		return createTestInstances(input, Collections.<String, List<String>> emptyMap());
+	}
+
+	/**
+	 * Creates an instance out of the given input directory, with the given
+	 * classes as well as the unknown class
+	 * @param input - input directory path
+	 * @param classes - training classes
+	 * @return - Instance
+	 * @throws Exception
+	 */
+	public Instances createTestInstances(String input,Map<String,List<String>> classes) throws Exception {
+		initializeTestInstances(classes.keySet());
+		createDataset(input, "?", testData, true);
+		//System.out.println("**************************TestData**********************");
+		//System.out.println(testData);
+		return testData;
+	}
+
+	/**
+	 * Loads attribute file as an instance for Weka
+	 * @return - Instance
+	 * @throws IOException
+	 */
+	public  Instances loadArff() throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(arffFilename));
+		ArffReader arff = new ArffReader(reader);
+		Instances data = arff.getData();
+		data.setClassIndex(data.numAttributes() - 1);
+		reader.close();
+		//System.out.println("**************************TrainData**********************");
+		//System.out.println(data);
+		return data;
+	}
+}
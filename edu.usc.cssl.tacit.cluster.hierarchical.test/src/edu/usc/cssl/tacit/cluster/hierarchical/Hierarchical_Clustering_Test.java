@@ -15,6 +15,9 @@ import org.eclipse.core.runtime.SubProgressMonitor;
 import org.junit.Test;
 
 import edu.usc.cssl.tacit.cluster.hierarchical.services.HierarchicalClusterAnalysis;
+import edu.usc.cssl.tacit.cluster.hierarchical.services.SingleLinkageClusterer;
+import edu.usc.cssl.tacit.common.SparseVector;
+import edu.usc.cssl.tacit.common.TfIdfVectorizer;
 
 public class Hierarchical_Clustering_Test {
 	final String directoryPath = new File("TestData").getAbsolutePath();
@@ -73,7 +76,7 @@ public class Hierarchical_Clustering_Test {
 		String clusterOutput = HierarchicalClusterAnalysis.doClustering(inputFiles, directoryPath,
 				isSaveImage, new SubProgressMonitor(
 						new NullProgressMonitor(), 50), Calendar.getInstance().getTime(), true);
-		assertEquals("Checking cluster output", "Newick:(((1:17.80449,2:17.80449):2.22049,3:20.02498):1.18822,4:21.2132)", clusterOutput);
+		assertEquals("Checking cluster output", "Newick:(((1:0.2559,2:0.2559):0.19461,4:0.4505):0.12332,3:0.57382)", clusterOutput);
 		
 		File generatedHierarchicalClustersOutput = new File(directoryPath + File.separator
 				+ "GeneratedHierarchicalClustersOutput.txt");
@@ -93,6 +96,22 @@ public class Hierarchical_Clustering_Test {
 		assertEquals("Comparing file outputs", expectedOutput, generatedOutput);
 	}
 	
+	@Test
+	public void singleLinkageThreadsTest() throws Exception {
+		List<File> inputFiles = new ArrayList<File>();
+		for (int i = 0; i < 8; i++)
+			inputFiles.add(new File(directoryPath + File.separator
+					+ "HierarchicalClusteringData" + (i % 4 + 1) + ".txt"));
+		List<SparseVector> docs = new TfIdfVectorizer().vectorize(inputFiles);
+		SingleLinkageClusterer sequential = new SingleLinkageClusterer();
+		sequential.cluster(docs, null);
+		SingleLinkageClusterer parallel = new SingleLinkageClusterer();
+		parallel.setNumThreads(3);
+		parallel.cluster(docs, new NullProgressMonitor());
+		assertEquals("Comparing graphs built on 1 and 3 threads", sequential.graph(), parallel.graph());
+		assertEquals("Checking that copies merge first", "Newick:((((1:0,5:0):0.27646,(2:0,6:0):0.27646):0.20826,(4:0,8:0):0.48472):0.12664,(3:0,7:0):0.61136)", sequential.graph());
+	}
+	
 	@Test
 	public void formatGraphTest(){
 		List<File> inputFiles = new ArrayList<File>();
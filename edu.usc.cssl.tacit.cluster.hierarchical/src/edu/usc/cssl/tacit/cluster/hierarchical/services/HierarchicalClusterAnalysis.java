@@ -15,7 +15,6 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.Scanner;
 
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
@@ -32,15 +31,10 @@ import org.eclipse.ui.PlatformUI;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 
+import edu.usc.cssl.tacit.common.SparseVector;
 import edu.usc.cssl.tacit.common.TacitUtility;
+import edu.usc.cssl.tacit.common.TfIdfVectorizer;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
-import weka.clusterers.HierarchicalClusterer;
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.StringToWordVector;
 import weka.gui.hierarchyvisualizer.HierarchyVisualizer;
 
 
@@ -53,44 +47,25 @@ public class HierarchicalClusterAnalysis {
 		HierarchicalClusterAnalysis.inputFiles = inputFiles;
 		try {
 			DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
-			StringToWordVector filter = new StringToWordVector();
-			HierarchicalClusterer aggHierarchical = new HierarchicalClusterer();
-
-			FastVector atts = new FastVector(1);
-			atts.addElement(new Attribute("text", (FastVector) null));
-
-			Instances docs = new Instances("text_files", atts, 0);
+			int numThreads = Runtime.getRuntime().availableProcessors();
 
 			ConsoleView.printlInConsoleln(outputPath);
 
-			for (int i = 0; i < inputFiles.size(); i++) {
-
-				try {
-					double[] newInst = new double[1];
-					String content = new Scanner(inputFiles.get(i))
-							.useDelimiter("\\Z").next();
-					newInst[0] = (double) docs.attribute(0).addStringValue(
-							content);
-					docs.add(new Instance(1.0, newInst));
-				} catch (Exception e) {
-					ConsoleView.printlInConsoleln("Exception occurred in reading files"
-							+ e);
-				}
-			}
-			filter.setInputFormat(docs);
-			Instances filteredData = Filter.useFilter(docs, filter);
+			TfIdfVectorizer vectorizer = new TfIdfVectorizer();
+			vectorizer.setNumThreads(numThreads);
+			List<SparseVector> docs = vectorizer.vectorize(inputFiles);
 
-			aggHierarchical.setNumClusters(1);
-			aggHierarchical.setPrintNewick(true);
+			SingleLinkageClusterer aggHierarchical = new SingleLinkageClusterer();
+			aggHierarchical.setNumThreads(numThreads);
 			subProgressMonitor.subTask("Building cluster");
-			aggHierarchical.buildClusterer(filteredData);
+			aggHierarchical.cluster(docs, subProgressMonitor);
 			subProgressMonitor.worked(20);
-			String g = aggHierarchical.graph();
-			String output = formatGraph(g, inputFiles);
+			// the leaves are already numbered in document order, which
+			// formatGraph would renumber in the order they are written
+			String output = aggHierarchical.graph();
 			System.out.println(output);
 			ConsoleView.printlInConsoleln("Network " + output);
 			subProgressMonitor.subTask("Formating Image");
-			aggHierarchical.linkTypeTipText();
 
 			subProgressMonitor.worked(15);
 
@@ -0,0 +1,249 @@
+package edu.usc.cssl.tacit.cluster.hierarchical.services;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import edu.usc.cssl.tacit.common.SparseVector;
+
+/**
+ * Single linkage agglomerative clustering of unit length sparse vectors with
+ * cosine distance. The single linkage tree is the minimum spanning tree of the
+ * documents, which Prim's algorithm builds keeping only the distance of every
+ * document to the tree, so the memory grows linearly with the documents
+ * instead of holding the distance matrix. Every step updates those distances
+ * on numThreads threads. The merges are then the tree edges from the shortest.
+ */
+public class SingleLinkageClusterer {
+
+	private static final int VISIT = 0, SEPARATE = 1, CLOSE = 2;
+
+	private int numThreads = 1;
+	// merge i joins left[i] and right[i] at height[i]; a node below n is a
+	// document, node n + i is merge i
+	private int[] left;
+	private int[] right;
+	private double[] height;
+	private int numDocs;
+
+	/**
+	 * Sets the number of threads that update the distances. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Clusters the documents
+	 * @param docs - unit length vectors
+	 * @param monitor - checked for cancel, may be null
+	 */
+	public void cluster(final List<SparseVector> docs, IProgressMonitor monitor) throws InterruptedException {
+		final int n = docs.size();
+		numDocs = n;
+		left = new int[Math.max(0, n - 1)];
+		right = new int[left.length];
+		height = new double[left.length];
+		if (n < 2)
+			return;
+
+		// Prim: distance[d] and parent[d] are the closest tree document to d
+		final boolean[] inTree = new boolean[n];
+		final double[] distance = new double[n];
+		final int[] parent = new int[n];
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		final int[] edgeFrom = new int[n - 1];
+		final int[] edgeTo = new int[n - 1];
+		final double[] edgeLength = new double[n - 1];
+		// the newest tree document, spread out so every distance to it is a
+		// pass over the other document alone
+		int dimension = 0;
+		for (SparseVector doc : docs)
+			if (doc.size() > 0)
+				dimension = Math.max(dimension, doc.index(doc.size() - 1) + 1);
+		final double[] added = new double[dimension];
+
+		int threads = Math.min(numThreads, n);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			int blockSize = (n + threads - 1) / threads;
+			int newest = 0;
+			for (int edge = 0; edge < n - 1; edge++) {
+				if (monitor != null && monitor.isCanceled())
+					throw new OperationCanceledException();
+				inTree[newest] = true;
+				SparseVector newestDoc = docs.get(newest);
+				newestDoc.addTo(added);
+				final int parentDoc = newest;
+				List<Future<Integer>> blocks = new ArrayList<Future<Integer>>();
+				int next = -1;
+				for (int from = 0; from < n; from += blockSize) {
+					final int start = from, end = Math.min(n, from + blockSize);
+					blocks.add(executor.submit(new Callable<Integer>() {
+						public Integer call() {
+							// returns the closest document outside the tree
+							int closest = -1;
+							for (int d = start; d < end; d++) {
+								if (inTree[d])
+									continue;
+								double length = Math.max(0, 1 - docs.get(d).dot(added));
+								if (length < distance[d]) {
+									distance[d] = length;
+									parent[d] = parentDoc;
+								}
+								if (closest < 0 || distance[d] < distance[closest])
+									closest = d;
+							}
+							return closest;
+						}
+					}));
+				}
+				for (Future<Integer> block : blocks)
+					next = closer(next, get(block), distance);
+				for (int i = 0; i < newestDoc.size(); i++)
+					added[newestDoc.index(i)] = 0;
+				edgeFrom[edge] = parent[next];
+				edgeTo[edge] = next;
+				edgeLength[edge] = distance[next];
+				newest = next;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// the merges, from the shortest edge; sorting is stable so ties merge
+		// in the order Prim found them
+		Integer[] order = new Integer[n - 1];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(edgeLength[a], edgeLength[b]);
+			}
+		});
+		int[] root = new int[n];
+		int[] node = new int[n];
+		for (int d = 0; d < n; d++) {
+			root[d] = d;
+			node[d] = d;
+		}
+		for (int m = 0; m < order.length; m++) {
+			int a = find(root, edgeFrom[order[m]]);
+			int b = find(root, edgeTo[order[m]]);
+			// the cluster with the lower document first; the lower root stays,
+			// so the root of a cluster is its lowest document
+			if (b < a) {
+				int swap = a;
+				a = b;
+				b = swap;
+			}
+			left[m] = node[a];
+			right[m] = node[b];
+			height[m] = edgeLength[order[m]];
+			root[b] = a;
+			node[a] = n + m;
+		}
+	}
+
+	private static int closer(int a, int b, double[] distance) {
+		if (a < 0)
+			return b;
+		if (b < 0 || distance[a] <= distance[b])
+			return a;
+		return b;
+	}
+
+	private static int get(Future<Integer> block) throws InterruptedException {
+		try {
+			return block.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private static int find(int[] root, int d) {
+		while (root[d] != d) {
+			root[d] = root[root[d]];
+			d = root[d];
+		}
+		return d;
+	}
+
+	private double height(int node) {
+		return node < numDocs ? 0 : height[node - numDocs];
+	}
+
+	/**
+	 * Returns the tree in the Newick format of Weka's HierarchicalClusterer,
+	 * "Newick:" followed by the tree, the documents numbered from 1 in the
+	 * order given. Every branch length is the height of the merge above it
+	 * less the height of the node.
+	 */
+	public String graph() {
+		DecimalFormat format = new DecimalFormat("0.#####", new DecimalFormatSymbols(Locale.US));
+		StringBuilder newick = new StringBuilder("Newick:");
+		if (numDocs == 0)
+			return newick.toString();
+		if (numDocs == 1)
+			return newick.append(1).toString();
+		// written without recursion, the tree can be as deep as there are
+		// documents
+		int[] kind = new int[3 * numDocs];
+		int[] stack = new int[kind.length];
+		double[] above = new double[kind.length];
+		int top = 0;
+		kind[top] = VISIT;
+		stack[top] = numDocs + left.length - 1;
+		above[top++] = Double.NaN;
+		while (top > 0) {
+			top--;
+			int node = stack[top];
+			double parentHeight = above[top];
+			if (kind[top] == SEPARATE) {
+				newick.append(',');
+			} else if (kind[top] == CLOSE) {
+				newick.append(')');
+				appendLength(newick, format, parentHeight, height(node));
+			} else if (node < numDocs) {
+				newick.append(node + 1);
+				appendLength(newick, format, parentHeight, 0);
+			} else {
+				newick.append('(');
+				int merge = node - numDocs;
+				kind[top] = CLOSE;
+				stack[top] = node;
+				above[top++] = parentHeight;
+				kind[top] = VISIT;
+				stack[top] = right[merge];
+				above[top++] = height[merge];
+				kind[top] = SEPARATE;
+				top++;
+				kind[top] = VISIT;
+				stack[top] = left[merge];
+				above[top++] = height[merge];
+			}
+		}
+		return newick.toString();
+	}
+
+	private static void appendLength(StringBuilder newick, DecimalFormat format, double parentHeight,
+			double height) {
+		if (!Double.isNaN(parentHeight))
+			newick.append(':').append(format.format(parentHeight - height));
+	}
+}
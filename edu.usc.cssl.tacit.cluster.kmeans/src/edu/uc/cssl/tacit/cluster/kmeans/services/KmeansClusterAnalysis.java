@@ -10,49 +10,29 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
-
-import weka.clusterers.SimpleKMeans;
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.filters.Filter;
-import weka.filters.unsupervised.attribute.StringToWordVector;
+
+import edu.usc.cssl.tacit.common.SparseVector;
 import edu.usc.cssl.tacit.common.TacitUtility;
+import edu.usc.cssl.tacit.common.TfIdfVectorizer;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
 public class KmeansClusterAnalysis {
 	public static int[] doClustering(List<File> inputFiles, int numOfClusters) {
 		try {
-
-			StringToWordVector filter = new StringToWordVector();
-			SimpleKMeans kmeans = new SimpleKMeans();
-
-			FastVector atts = new FastVector(1);
-			atts.addElement(new Attribute("text", (FastVector) null));
-
-			Instances docs = new Instances("text_files", atts, 0);
-			for (int i = 0; i < inputFiles.size(); i++) {
-
-				try {
-					double[] newInst = new double[1];
-					String content = new Scanner(inputFiles.get(i)).useDelimiter("\\Z").next();
-					newInst[0] = (double) docs.attribute(0).addStringValue(content);
-					docs.add(new Instance(1.0, newInst));
-				} catch (Exception e) {
-					ConsoleView.printlInConsoleln("Exception occurred in reading files" + e);
-					return null;
-				}
+			int numThreads = Runtime.getRuntime().availableProcessors();
+			TfIdfVectorizer vectorizer = new TfIdfVectorizer();
+			vectorizer.setNumThreads(numThreads);
+			List<SparseVector> docs;
+			try {
+				docs = vectorizer.vectorize(inputFiles);
+			} catch (IOException e) {
+				ConsoleView.printlInConsoleln("Exception occurred in reading files" + e);
+				return null;
 			}
 
-			filter.setInputFormat(docs);
-			Instances filteredData = Filter.useFilter(docs, filter);
-
-			kmeans.setPreserveInstancesOrder(true);
-			kmeans.setNumClusters(numOfClusters);
-			kmeans.buildClusterer(filteredData);
-			int[] assignments = kmeans.getAssignments();
+			SphericalKMeans kmeans = new SphericalKMeans(numOfClusters);
+			kmeans.setNumThreads(numThreads);
+			int[] assignments = kmeans.cluster(docs, vectorizer.vocabularySize());
 
 			int i = 0;
 			for (int clusterNum : assignments) {
@@ -0,0 +1,188 @@
+package edu.uc.cssl.tacit.cluster.kmeans.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.usc.cssl.tacit.common.SparseVector;
+
+/**
+ * K-means on unit length sparse vectors with cosine distance. The centers are
+ * dense unit vectors, the first ones picked k-means++ style, and every
+ * document goes to the center it has the largest dot product with. The
+ * documents are assigned on numThreads threads; each thread moves a block of
+ * documents, so the result does not depend on the threads.
+ */
+public class SphericalKMeans {
+
+	private final int numClusters;
+	private int maxIterations = 500;
+	private long seed = 10;
+	private int numThreads = 1;
+
+	public SphericalKMeans(int numClusters) {
+		if (numClusters < 1)
+			throw new IllegalArgumentException("Number of clusters must be at least 1");
+		this.numClusters = numClusters;
+	}
+
+	/**
+	 * Sets the most assignment passes made. Defaults to 500.
+	 */
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = Math.max(1, maxIterations);
+	}
+
+	/**
+	 * Sets the seed the first centers are picked with. Defaults to 10.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the number of threads that assign the documents. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Clusters the documents
+	 * @param docs - unit length vectors
+	 * @param dimension - largest index of the vectors plus one
+	 * @return the cluster of every document
+	 */
+	public int[] cluster(final List<SparseVector> docs, int dimension) throws InterruptedException {
+		final int[] assignments = new int[docs.size()];
+		if (docs.isEmpty())
+			return assignments;
+		final double[][] centers = initialCenters(docs, dimension);
+		Arrays.fill(assignments, -1);
+
+		int threads = Math.min(numThreads, docs.size());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			int blockSize = (docs.size() + threads - 1) / threads;
+			for (int iteration = 0; iteration < maxIterations; iteration++) {
+				List<Future<Integer>> blocks = new ArrayList<Future<Integer>>();
+				for (int from = 0; from < docs.size(); from += blockSize) {
+					final int start = from, end = Math.min(docs.size(), from + blockSize);
+					blocks.add(executor.submit(new Callable<Integer>() {
+						public Integer call() {
+							return assign(docs, centers, assignments, start, end);
+						}
+					}));
+				}
+				int moved = 0;
+				for (Future<Integer> block : blocks)
+					moved += get(block);
+				if (moved == 0)
+					break;
+				updateCenters(docs, centers, assignments);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return assignments;
+	}
+
+	private static int get(Future<Integer> block) throws InterruptedException {
+		try {
+			return block.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	// moves the documents start to end to their nearest center and returns
+	// how many moved
+	private static int assign(List<SparseVector> docs, double[][] centers, int[] assignments, int start, int end) {
+		int moved = 0;
+		for (int d = start; d < end; d++) {
+			SparseVector doc = docs.get(d);
+			int best = 0;
+			double bestSimilarity = Double.NEGATIVE_INFINITY;
+			for (int c = 0; c < centers.length; c++) {
+				double similarity = doc.dot(centers[c]);
+				if (similarity > bestSimilarity) {
+					best = c;
+					bestSimilarity = similarity;
+				}
+			}
+			if (assignments[d] != best) {
+				assignments[d] = best;
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	// a center without documents stays where it is
+	private static void updateCenters(List<SparseVector> docs, double[][] centers, int[] assignments) {
+		double[][] sums = new double[centers.length][];
+		for (int d = 0; d < docs.size(); d++) {
+			int c = assignments[d];
+			if (sums[c] == null)
+				sums[c] = new double[centers[c].length];
+			docs.get(d).addTo(sums[c]);
+		}
+		for (int c = 0; c < centers.length; c++)
+			if (sums[c] != null)
+				centers[c] = normalize(sums[c]);
+	}
+
+	private double[][] initialCenters(List<SparseVector> docs, int dimension) {
+		Random random = new Random(seed);
+		double[][] centers = new double[numClusters][];
+		// cosine distance of every document to its nearest center so far
+		double[] distances = new double[docs.size()];
+		Arrays.fill(distances, Double.POSITIVE_INFINITY);
+		int next = random.nextInt(docs.size());
+		for (int c = 0; c < numClusters; c++) {
+			double[] center = new double[dimension];
+			docs.get(next).addTo(center);
+			centers[c] = center;
+			double total = 0;
+			for (int d = 0; d < docs.size(); d++) {
+				distances[d] = Math.min(distances[d], Math.max(0, 1 - docs.get(d).dot(center)));
+				total += distances[d] * distances[d];
+			}
+			if (total == 0) {
+				// fewer distinct documents than clusters
+				next = random.nextInt(docs.size());
+				continue;
+			}
+			double target = random.nextDouble() * total;
+			next = docs.size() - 1;
+			for (int d = 0; d < docs.size(); d++) {
+				target -= distances[d] * distances[d];
+				if (target < 0) {
+					next = d;
+					break;
+				}
+			}
+		}
+		return centers;
+	}
+
+	private static double[] normalize(double[] vector) {
+		double norm = 0;
+		for (double value : vector)
+			norm += value * value;
+		norm = Math.sqrt(norm);
+		if (norm > 0)
+			for (int i = 0; i < vector.length; i++)
+				vector[i] /= norm;
+		return vector;
+	}
+}
@@ -2,19 +2,54 @@ package edu.usc.cssl.tacit.common;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
 import org.junit.Test;
 
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+
 import edu.usc.cssl.tacit.common.Preprocessor;
+import edu.usc.cssl.tacit.common.queryprocess.Filter;
+import edu.usc.cssl.tacit.common.queryprocess.FilterPredicate;
+import edu.usc.cssl.tacit.common.queryprocess.JsonRecordReader;
+import edu.usc.cssl.tacit.common.queryprocess.QueryDataType;
+import edu.usc.cssl.tacit.common.queryprocess.QueryOperatorType;
+import edu.usc.cssl.tacit.common.queryprocess.QueryProcesser;
+import edu.usc.cssl.tacit.common.snowballstemmer.EnglishStemmer;
+import edu.usc.cssl.tacit.common.snowballstemmer.GermanStemmer;
+import edu.usc.cssl.tacit.common.snowballstemmer.SnowballStemmer;
+import edu.usc.cssl.tacit.common.snowballstemmer.TokenStemmer;
+import edu.usc.cssl.tacit.common.snowballstemmer.TurkishStemmer;
+import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CMDataType;
+import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.Corpus;
+import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CorpusClass;
+import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CorpusManifest;
+import edu.usc.cssl.tacit.common.ui.preprocessor.PreprocessedCache;
+import edu.usc.cssl.tacit.common.ui.preprocessor.Spelling2;
+import edu.usc.cssl.tacit.common.ui.views.ConsoleSink;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
 public class Common_Test{
@@ -108,4 +143,597 @@ public class Common_Test{
 		ppObj.clean();
 	}
 
+	@Test
+	public void testPreprocessedCache() throws IOException {
+		File cacheDir = new File(directoryPath + File.separator + "cache");
+		File input = new File(directoryPath + File.separator + "KMeansClusteringData1.txt");
+		File output = new File(directoryPath + File.separator + "CachedFile.txt");
+		try {
+			PreprocessedCache cache = new PreprocessedCache(cacheDir, 2 * input.length());
+			String first = PreprocessedCache.key(input, "stemming=EN\n");
+			String second = PreprocessedCache.key(input, "stemming=DE\n");
+			String third = PreprocessedCache.key(input, "lowercase=true\n");
+			assertFalse("Settings are part of the key", first.equals(second));
+
+			cache.store(first, input);
+			cache.store(second, input);
+			assertTrue("Stored file is cached", cache.fetch(first, output));
+			assertEquals("Cached copy", FileUtils.readFileToString(input), FileUtils.readFileToString(output));
+
+			// the second file is now the least recently used one
+			cache.store(third, input);
+			assertFalse("Least recently used file is evicted", cache.fetch(second, output));
+			assertTrue(cache.fetch(first, output));
+			assertTrue(cache.fetch(third, output));
+			assertEquals("Cache size", 2 * input.length(), cache.getSize());
+
+			cache = new PreprocessedCache(cacheDir, 2 * input.length());
+			assertTrue("Cache is kept across runs", cache.fetch(third, output));
+		} finally {
+			FileUtils.deleteDirectory(cacheDir);
+			output.delete();
+		}
+	}
+
+	@Test
+	public void testPreprocessedCacheTempFiles() throws IOException {
+		File cacheDir = new File(directoryPath + File.separator + "cache");
+		File input = new File(directoryPath + File.separator + "KMeansClusteringData1.txt");
+		try {
+			cacheDir.mkdirs();
+			File live = new File(cacheDir, "live.tmp");
+			File stale = new File(cacheDir, "stale.tmp");
+			FileUtils.writeStringToFile(live, "being stored");
+			FileUtils.writeStringToFile(stale, "interrupted");
+			stale.setLastModified(System.currentTimeMillis() - 2L * 24 * 60 * 60 * 1000);
+
+			PreprocessedCache cache = new PreprocessedCache(cacheDir, 4 * input.length());
+			assertTrue("Temp file of a running store is kept", live.exists());
+			assertFalse("Stale temp file is removed", stale.exists());
+			assertEquals("Temp files are not entries", 0, cache.getSize());
+
+			// two caches on one directory store the same key
+			PreprocessedCache other = new PreprocessedCache(cacheDir, 4 * input.length());
+			String key = PreprocessedCache.key(input, "stemming=EN\n");
+			cache.store(key, input);
+			other.store(key, input);
+			assertEquals(input.length(), new File(cacheDir, key).length());
+			assertEquals("Only the live temp file is left", 1, cacheDir.list(new FilenameFilter() {
+				@Override
+				public boolean accept(File dir, String name) {
+					return name.endsWith(".tmp");
+				}
+			}).length);
+		} finally {
+			FileUtils.deleteDirectory(cacheDir);
+		}
+	}
+
+	@Test
+	public void testTokenStemmer() {
+		Set<String> stopWords = new HashSet<String>(Arrays.asList("the", "and", "of"));
+		TokenStemmer tokens = new TokenStemmer(new EnglishStemmer(), stopWords, 16);
+		for (int i = 0; i < 2; i++) {
+			// the second round is answered from the memo
+			assertEquals("connect run dog ", tokens.process("The connections of running dogs"));
+			assertEquals("connections running dogs ", tokens.removeStopWords("The connections of running dogs"));
+			assertEquals("The connect of run dog ", tokens.stem("The connections of running dogs"));
+		}
+		// leading whitespace splits off an empty first word, like String.split
+		assertEquals(" general ", tokens.process("  the generalization\tand the"));
+		assertEquals("", tokens.process("the and"));
+	}
+
+	@Test
+	public void benchmarkTokenStemmer() throws IOException {
+		Set<String> stopWords = new HashSet<String>();
+		for (String word : FileUtils.readLines(new File(directoryPath + File.separator + "stopwords_eng.txt")))
+			stopWords.add(word.trim().toLowerCase());
+		// 20k lines of 5 to 20 words, drawn by Zipf's law from the words of
+		// the clustering data, ranked in the order they first occur there
+		String[] words = new LinkedHashSet<String>(Arrays.asList(FileUtils.readFileToString(
+				new File(directoryPath + File.separator + "KMeansClusteringData1.txt")).split("\\W+"))).toArray(new String[0]);
+		double[] cumulative = new double[words.length];
+		for (int rank = 0; rank < words.length; rank++)
+			cumulative[rank] = (rank > 0 ? cumulative[rank - 1] : 0) + 1.0 / (rank + 1);
+		Random random = new Random(7);
+		List<String> lines = new ArrayList<String>();
+		int numTokens = 0;
+		for (int i = 0; i < 20000; i++) {
+			StringBuilder line = new StringBuilder();
+			for (int n = 5 + random.nextInt(16); n > 0; n--, numTokens++) {
+				int rank = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[words.length - 1]);
+				line.append(words[rank < 0 ? -rank - 1 : rank]).append(' ');
+			}
+			lines.add(line.toString());
+		}
+
+		SnowballStemmer[] stemmers = { new EnglishStemmer(), new GermanStemmer(), new TurkishStemmer() };
+		String[] languages = { "EN", "DE", "TR" };
+		for (int s = 0; s < stemmers.length; s++) {
+			List<String> expected = new ArrayList<String>();
+			long start = System.nanoTime();
+			for (String line : lines)
+				expected.add(stemLine(line, stemmers[s], stopWords));
+			double split = (System.nanoTime() - start) / 1e9;
+			double[] seconds = new double[2];
+			int[] memoSizes = { 0, 1 << 14 };
+			for (int m = 0; m < memoSizes.length; m++) {
+				TokenStemmer tokens = new TokenStemmer(stemmers[s], stopWords, memoSizes[m]);
+				List<String> processed = new ArrayList<String>();
+				start = System.nanoTime();
+				for (String line : lines)
+					processed.add(tokens.process(line));
+				seconds[m] = (System.nanoTime() - start) / 1e9;
+				assertEquals(languages[s] + " output", expected, processed);
+			}
+			System.out.println("TokenStemmer " + languages[s] + ": " + Math.round(numTokens / split)
+					+ " tokens per second split, " + Math.round(numTokens / seconds[0]) + " in one pass, "
+					+ Math.round(numTokens / seconds[1]) + " with memo");
+		}
+	}
+
+	/*
+	 * Splits the line on whitespace, removes the stop words and stems the
+	 * others one word at a time
+	 */
+	private static String stemLine(String line, SnowballStemmer stemmer, Set<String> stopWords) {
+		StringBuilder stemmed = new StringBuilder();
+		for (String word : line.split("\\s+")) {
+			if (stopWords.contains(word.toLowerCase()))
+				continue;
+			stemmer.setCurrent(word);
+			stemmer.stem();
+			stemmed.append(stemmer.getCurrent()).append(' ');
+		}
+		return stemmed.toString();
+	}
+
+	@Test
+	public void testLatinStemFilter() throws Exception {
+		// a shell script stands in for TreeTagger
+		Assume.assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+		String home = directoryPath + File.separator + "treetagger";
+		File tagger = new File(home + File.separator + "bin" + File.separator + "tree-tagger");
+		tagger.setExecutable(true, false);
+		String model = home + File.separator + "latin.par";
+		LatinStemFilter filter = new LatinStemFilter(home, model);
+		try {
+			List<String> lines = new ArrayList<String>(Arrays.asList("Dominus servos vocat.", "", "puella rosam videt"));
+			filter.doStemming(lines);
+			// nouns and verbs are stemmed, other words are kept
+			assertEquals(Arrays.asList("domin servos uoca ", "", "puell rosam uide "), lines);
+		} finally {
+			filter.destroyTT();
+		}
+		// tagged words are cached, so another session does not start the tagger
+		tagger.setExecutable(false, false);
+		filter = new LatinStemFilter(home, model);
+		try {
+			assertEquals("puell uoca servos ", filter.doStemming("puella vocat servos"));
+		} finally {
+			filter.destroyTT();
+			tagger.setExecutable(true, false);
+		}
+	}
+
+	@Test
+	public void testSpelling() throws IOException {
+		Spelling2 spelling = new Spelling2(directoryPath + File.separator + "KMeansClusteringData1.txt");
+		assertEquals("One edit", "language", spelling.correct("languag"));
+		assertEquals("Two edits", "learning", spelling.correct("lernig"));
+		assertEquals("Two edits, one of them lowercasing", "turing", spelling.correct("Turnig"));
+		assertEquals("Swapped digits", "1950s", spelling.correct("1905s"));
+		assertEquals("Nothing close", "xyzzy", spelling.correct("xyzzy"));
+		assertEquals("the history of NLP generally starts in the 1950s, although work can be found.",
+				spelling.SpellCorrector("The histroy of NLP generaly starts in the 1950s, altough work can be found."));
+	}
+
+	@Test
+	public void benchmarkSpelling() throws IOException {
+		File dictionary = new File(directoryPath + File.separator + "KMeansClusteringData1.txt");
+		Spelling2 spelling = new Spelling2(dictionary.getAbsolutePath());
+		// every fourth word gets one or two typos, the way OCR or hasty
+		// typing leaves them
+		String[] words = FileUtils.readFileToString(dictionary).split("\\W+");
+		Random random = new Random(7);
+		List<String> noisy = new ArrayList<String>();
+		for (int round = 0; round < 20; round++) {
+			for (String word : words) {
+				StringBuilder w = new StringBuilder(word);
+				for (int typos = random.nextInt(4) == 0 ? 1 + random.nextInt(2) : 0; typos > 0 && w.length() > 1; typos--) {
+					int at = random.nextInt(w.length() - 1);
+					switch (random.nextInt(3)) {
+					case 0:
+						w.deleteCharAt(at);
+						break;
+					case 1:
+						w.insert(at, (char) ('a' + random.nextInt(26)));
+						break;
+					default:
+						char c = w.charAt(at);
+						w.setCharAt(at, w.charAt(at + 1));
+						w.setCharAt(at + 1, c);
+					}
+				}
+				if (w.length() > 0)
+					noisy.add(w.toString());
+			}
+		}
+		long start = System.nanoTime();
+		for (String word : noisy)
+			spelling.correct(word);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("Spelling2: " + Math.round(noisy.size() / seconds) + " corrections per second");
+	}
+
+	@Test
+	public void testCorpusManifest() throws IOException {
+		File classDir = new File(System.getProperty("java.io.tmpdir"), "TACIT-manifest-test");
+		FileUtils.deleteDirectory(classDir);
+		new File(classDir, "sub").mkdirs();
+		File tweets = new File(classDir, "tweets.json");
+		FileUtils.writeStringToFile(tweets, "[{\"Text\":\"a [b]\",\"User\":{\"Name\":\"x\"}},{\"Date\":\"y\"}, 3]");
+		FileUtils.writeStringToFile(new File(classDir, "sub" + File.separator + "post.json"), "{\"Body\":\"{ not a record }\"}");
+		FileUtils.writeStringToFile(new File(classDir, "notes.txt"), "plain text, no records");
+		File manifestFile = new File(classDir.getPath() + CorpusManifest.SUFFIX);
+
+		CorpusManifest manifest = CorpusManifest.load(manifestFile);
+		assertEquals("All files scanned the first time", 3, manifest.update(classDir));
+		assertEquals(3, manifest.getFileCount());
+		assertEquals("Array elements and single objects are records", 4, manifest.getRecordCount());
+		assertEquals(new HashSet<String>(Arrays.asList("Body", "Date", "Text", "User")), manifest.getKeys());
+		manifest.save(manifestFile);
+
+		manifest = CorpusManifest.load(manifestFile);
+		assertEquals("Nothing changed", 0, manifest.update(classDir));
+		assertEquals(4, manifest.getRecordCount());
+
+		FileUtils.writeStringToFile(tweets, "[{\"Text\":\"a\"}]");
+		assertEquals("Only the changed file scanned", 1, manifest.update(classDir));
+		assertEquals(2, manifest.getRecordCount());
+		assertEquals(new HashSet<String>(Arrays.asList("Body", "Text")), manifest.getKeys());
+
+		FileUtils.deleteDirectory(classDir);
+		manifestFile.delete();
+	}
+
+	@Test
+	public void testJsonRecordReader() throws IOException {
+		File tweets = new File(directoryPath, "json" + File.separator + "tweets.json");
+		List<Object> records = readRecords(tweets);
+		assertEquals("Array elements are records", 3, records.size());
+		Map<?, ?> first = (Map<?, ?>) records.get(0);
+		assertEquals("Text analysis with TACIT", first.get("Text"));
+		assertEquals(Integer.valueOf(12), first.get("Retweet_Count"));
+		assertEquals(Long.valueOf(3000000000L), first.get("Favorite_Count"));
+		assertEquals(Double.valueOf(0.75), first.get("Score"));
+		assertEquals(Boolean.TRUE, ((Map<?, ?>) first.get("User")).get("Verified"));
+		assertEquals(Double.valueOf(150), ((Map<?, ?>) records.get(1)).get("Score"));
+		assertTrue(((Map<?, ?>) records.get(2)).containsKey("User"));
+		assertEquals(null, ((Map<?, ?>) records.get(2)).get("User"));
+
+		// the records are the objects JsonPath builds for the same text
+		JsonProvider provider = Configuration.defaultConfiguration().jsonProvider();
+		Object parsed = provider.parse(FileUtils.readFileToString(tweets));
+		assertEquals(parsed, records);
+		FileReader in = new FileReader(tweets);
+		try {
+			assertEquals(parsed, JsonRecordReader.read(in));
+		} finally {
+			in.close();
+		}
+
+		List<Object> single = readRecords(new File(directoryPath, "json" + File.separator + "tweet.json"));
+		assertEquals("A single object is one record", 1, single.size());
+		assertEquals("A single tweet about TACIT", ((Map<?, ?>) single.get(0)).get("Text"));
+	}
+
+	@Test
+	public void testProcessRecord() throws Exception {
+		CorpusClass corpusClass = new CorpusClass("tweets", directoryPath);
+		corpusClass.setParent(new Corpus("twitter", CMDataType.TWITTER_JSON));
+		corpusClass.addFilter(new Filter("Text", QueryOperatorType.STRING_CONTAINS, "tacit", QueryDataType.STRING));
+		corpusClass.addFilter(new Filter("Retweet_Count", QueryOperatorType.INTEGER_GREATER_THAN, "5",
+				QueryDataType.INTEGER));
+
+		QueryProcesser processor = new QueryProcesser();
+		List<String> texts = new ArrayList<String>();
+		for (Object record : readRecords(new File(directoryPath, "json" + File.separator + "tweets.json")))
+			texts.addAll(processor.processRecord(corpusClass, QueryProcesser.wrapData(record), "data.Text", true));
+		assertEquals(Arrays.asList("Text analysis with TACIT\n", "tacit topic models\n"), texts);
+		for (Filter filter : corpusClass.getFilters())
+			assertEquals("The data field is added once", "data.", filter.getTargetName().substring(0, 5));
+
+		// a record read from a file is queried like the same record parsed by processJson
+		File tweet = new File(directoryPath, "json" + File.separator + "tweet.json");
+		Object record = readRecords(tweet).get(0);
+		assertEquals(Arrays.asList("A single tweet about TACIT\n"),
+				processor.processRecord(corpusClass, QueryProcesser.wrapData(record), "data.Text", true));
+		corpusClass.refreshFilters(Arrays.asList(new Filter("User.Name", QueryOperatorType.STRING_EQUALS, "usc",
+				QueryDataType.STRING)));
+		assertEquals(Arrays.asList("usc\n"), processor.processJson(corpusClass, tweet.getPath(), "User.Name", false));
+		assertEquals(Arrays.asList("usc\n"), processor.processRecord(corpusClass, record, "User.Name", false));
+	}
+
+	@Test
+	public void testFilterPredicate() {
+		Map<String, Object> record = new HashMap<String, Object>();
+		record.put("Text", "Regex (a+b)* in TEXT");
+		record.put("Count", 12);
+		record.put("Big", 3000000000L);
+		record.put("Score", 0.75);
+		record.put("Quoted", "7");
+
+		assertTrue(matches(record, "Count", QueryOperatorType.INTEGER_EQUALS, "12", QueryDataType.INTEGER));
+		assertFalse(matches(record, "Count", QueryOperatorType.INTEGER_EQUALS, "13", QueryDataType.INTEGER));
+		assertTrue(matches(record, "Count", QueryOperatorType.INTEGER_GREATER_THAN, "11", QueryDataType.INTEGER));
+		assertFalse(matches(record, "Count", QueryOperatorType.INTEGER_GREATER_THAN, "12", QueryDataType.INTEGER));
+		assertTrue(matches(record, "Count", QueryOperatorType.INTEGER_LESS_THAN, "13", QueryDataType.INTEGER));
+		assertFalse(matches(record, "Count", QueryOperatorType.INTEGER_LESS_THAN, "12", QueryDataType.INTEGER));
+		assertTrue(matches(record, "Big", QueryOperatorType.INTEGER_GREATER_THAN, "2147483647", QueryDataType.INTEGER));
+		assertTrue("Numbers in strings compare as numbers",
+				matches(record, "Quoted", QueryOperatorType.INTEGER_LESS_THAN, "10", QueryDataType.INTEGER));
+
+		assertTrue(matches(record, "Score", QueryOperatorType.DOUBLE_EQUALS, "0.75", QueryDataType.DOUBLE));
+		assertFalse(matches(record, "Score", QueryOperatorType.DOUBLE_EQUALS, "0.7", QueryDataType.DOUBLE));
+		assertTrue(matches(record, "Score", QueryOperatorType.DOUBLE_GREATER_THAN, "0.5", QueryDataType.DOUBLE));
+		assertFalse(matches(record, "Score", QueryOperatorType.DOUBLE_GREATER_THAN, "0.75", QueryDataType.DOUBLE));
+		assertTrue(matches(record, "Score", QueryOperatorType.DOUBLE_LESS_THAN, "1", QueryDataType.DOUBLE));
+		assertFalse(matches(record, "Score", QueryOperatorType.DOUBLE_LESS_THAN, " 0.75 ", QueryDataType.DOUBLE));
+		assertFalse("A value that is no number never passes",
+				matches(record, "Text", QueryOperatorType.DOUBLE_LESS_THAN, "1", QueryDataType.DOUBLE));
+		assertFalse(matches(record, "Score", QueryOperatorType.DOUBLE_LESS_THAN, "one", QueryDataType.DOUBLE));
+
+		assertTrue(matches(record, "Text", QueryOperatorType.STRING_EQUALS, "Regex (a+b)* in TEXT", QueryDataType.STRING));
+		assertFalse("Equals is exact",
+				matches(record, "Text", QueryOperatorType.STRING_EQUALS, "regex (a+b)* in text", QueryDataType.STRING));
+		assertTrue(matches(record, "Text", QueryOperatorType.STRING_CONTAINS, "(A+B)*", QueryDataType.STRING));
+		assertFalse(matches(record, "Text", QueryOperatorType.STRING_CONTAINS, "a.b", QueryDataType.STRING));
+		assertTrue(matches(record, "Text", QueryOperatorType.STRING_STARS_WITH, "regex", QueryDataType.STRING));
+		assertFalse(matches(record, "Text", QueryOperatorType.STRING_STARS_WITH, "text", QueryDataType.STRING));
+		assertTrue(matches(record, "Text", QueryOperatorType.STRING_ENDS_WITH, "in text", QueryDataType.STRING));
+		assertFalse(matches(record, "Text", QueryOperatorType.STRING_ENDS_WITH, "regex", QueryDataType.STRING));
+		assertTrue("Numbers compare as text for STRING filters",
+				matches(record, "Count", QueryOperatorType.STRING_EQUALS, "12", QueryDataType.STRING));
+
+		FilterPredicate nested = FilterPredicate.compile(
+				new Filter("data.User.Name", QueryOperatorType.STRING_EQUALS, "usc", QueryDataType.STRING));
+		assertEquals("Name", nested.getAttribute());
+		assertFalse("Records without the attribute never pass", nested.matches(record));
+		assertFalse("Only objects are records", nested.matches("usc"));
+		record.put("Name", null);
+		assertFalse(nested.matches(record));
+
+		assertEquals("No value", null,
+				FilterPredicate.compile(new Filter("Text", QueryOperatorType.STRING_EQUALS, null, QueryDataType.STRING)));
+		assertEquals("No operator", null, FilterPredicate.compile(new Filter("Text", null, "a", QueryDataType.STRING)));
+		assertEquals("Operator of another type", null, FilterPredicate
+				.compile(new Filter("Text", QueryOperatorType.STRING_CONTAINS, "1", QueryDataType.INTEGER)));
+		assertEquals("Operator of another type", null, FilterPredicate
+				.compile(new Filter("Count", QueryOperatorType.INTEGER_EQUALS, "1", QueryDataType.STRING)));
+	}
+
+	private static boolean matches(Map<String, Object> record, String attribute, QueryOperatorType op, String value,
+			QueryDataType type) {
+		return FilterPredicate.compile(new Filter(attribute, op, value, type)).matches(record);
+	}
+
+	@Test
+	public void testFilterCombination() throws Exception {
+		File tweets = new File(directoryPath, "json" + File.separator + "tweets.json");
+
+		assertEquals("Filters of a parent must all pass", Arrays.asList("tacit topic models\n"),
+				queryTweets(tweets, new Filter("Text", QueryOperatorType.STRING_CONTAINS, "tacit", QueryDataType.STRING),
+						new Filter("Retweet_Count", QueryOperatorType.INTEGER_LESS_THAN, "10", QueryDataType.INTEGER)));
+		assertEquals("Records without a filtered attribute do not pass", Arrays.asList("Text analysis with TACIT\n"),
+				queryTweets(tweets, new Filter("Text", QueryOperatorType.STRING_CONTAINS, "tacit", QueryDataType.STRING),
+						new Filter("Favorite_Count", QueryOperatorType.INTEGER_GREATER_THAN, "100",
+								QueryDataType.INTEGER),
+						new Filter("Missing", QueryOperatorType.STRING_EQUALS, null, QueryDataType.STRING)));
+		assertEquals("Filters without a value or a matching operator are left out",
+				Arrays.asList("Text analysis with TACIT\n", "Nothing to see here\n", "tacit topic models\n"),
+				queryTweets(tweets, new Filter("Text", QueryOperatorType.STRING_EQUALS, null, QueryDataType.STRING),
+						new Filter("Score", QueryOperatorType.STRING_CONTAINS, "1", QueryDataType.DOUBLE)));
+		assertEquals("Without filters every record passes",
+				Arrays.asList("Text analysis with TACIT\n", "Nothing to see here\n", "tacit topic models\n"),
+				queryTweets(tweets));
+
+		// nested parents are filtered on their own attributes, records without the parent are left out
+		CorpusClass corpusClass = new CorpusClass("tweets", directoryPath);
+		corpusClass.setParent(new Corpus("presidency", CMDataType.PRESIDENCY_JSON));
+		QueryProcesser processor = new QueryProcesser();
+		List<String> texts = new ArrayList<String>();
+		for (Object record : readRecords(tweets))
+			texts.addAll(processor.processRecord(corpusClass, record, "User.Name", false));
+		assertEquals(Arrays.asList("usc\n", "cssl\n", ""), texts);
+		corpusClass.addFilter(new Filter("User.Name", QueryOperatorType.STRING_STARS_WITH, "C", QueryDataType.STRING));
+		texts.clear();
+		for (Object record : readRecords(tweets))
+			texts.addAll(processor.processRecord(corpusClass, record, "User.Name", false));
+		assertEquals(Arrays.asList("", "cssl\n", ""), texts);
+	}
+
+	private List<String> queryTweets(File tweets, Filter... filters) throws IOException {
+		CorpusClass corpusClass = new CorpusClass("tweets", directoryPath);
+		corpusClass.setParent(new Corpus("twitter", CMDataType.TWITTER_JSON));
+		for (Filter filter : filters)
+			corpusClass.addFilter(filter);
+		QueryProcesser processor = new QueryProcesser();
+		List<String> texts = new ArrayList<String>();
+		for (Object record : readRecords(tweets))
+			texts.addAll(processor.processRecord(corpusClass, QueryProcesser.wrapData(record), "data.Text", true));
+		return texts;
+	}
+
+	/*
+	 * The records of a file are filtered while they are read, one processor
+	 * for the whole file. The result must be what the JsonPath queries the
+	 * filters used to be turned into select, record by record.
+	 */
+	@Test
+	public void testFilterStreamMatchesJsonPath() throws Exception {
+		String[] words = { "tacit", "topic", "model", "corpus", "news", "vote", "senate", "word" };
+		Random random = new Random(7);
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < 300; i++) {
+			StringBuilder text = new StringBuilder();
+			for (int w = 0; w < 1 + random.nextInt(6); w++) {
+				String word = words[random.nextInt(words.length)];
+				text.append(w == 0 ? "" : " ").append(random.nextBoolean() ? word : word.toUpperCase());
+			}
+			if (i > 0)
+				json.append(",\n");
+			json.append("{\"Text\": \"").append(text).append("\", \"Retweet_Count\": ").append(random.nextInt(100))
+					.append(", \"Score\": ").append(random.nextInt(400) / 100.0).append("}");
+		}
+		json.append("]");
+		File corpus = new File(System.getProperty("java.io.tmpdir"), "TACIT-filter-test.json");
+		FileUtils.writeStringToFile(corpus, json.toString());
+
+		Filter[][] filterSets = {
+				{ new Filter("Text", QueryOperatorType.STRING_CONTAINS, "senate", QueryDataType.STRING) },
+				{ new Filter("Text", QueryOperatorType.STRING_STARS_WITH, "Tacit", QueryDataType.STRING) },
+				{ new Filter("Text", QueryOperatorType.STRING_ENDS_WITH, "WORD", QueryDataType.STRING) },
+				{ new Filter("Text", QueryOperatorType.STRING_EQUALS, "news", QueryDataType.STRING) },
+				{ new Filter("Retweet_Count", QueryOperatorType.INTEGER_GREATER_THAN, "60", QueryDataType.INTEGER) },
+				{ new Filter("Retweet_Count", QueryOperatorType.INTEGER_LESS_THAN, "20", QueryDataType.INTEGER) },
+				{ new Filter("Retweet_Count", QueryOperatorType.INTEGER_EQUALS, "42", QueryDataType.INTEGER) },
+				{ new Filter("Score", QueryOperatorType.DOUBLE_GREATER_THAN, "2.5", QueryDataType.DOUBLE) },
+				{ new Filter("Score", QueryOperatorType.DOUBLE_LESS_THAN, "0.75", QueryDataType.DOUBLE) },
+				{ new Filter("Score", QueryOperatorType.DOUBLE_EQUALS, "1.25", QueryDataType.DOUBLE) },
+				{ new Filter("Text", QueryOperatorType.STRING_CONTAINS, "topic", QueryDataType.STRING),
+						new Filter("Retweet_Count", QueryOperatorType.INTEGER_GREATER_THAN, "30", QueryDataType.INTEGER),
+						new Filter("Score", QueryOperatorType.DOUBLE_LESS_THAN, "3", QueryDataType.DOUBLE) } };
+		for (Filter[] filters : filterSets) {
+			List<String> expected = new ArrayList<String>();
+			for (Object record : readRecords(corpus)) {
+				List<?> selected = JsonPath.parse(QueryProcesser.wrapData(record)).read(jsonPathQuery(filters));
+				for (Object r : selected)
+					expected.add(((Map<?, ?>) r).get("Text") + "\n");
+			}
+			assertFalse(filters[0].getDescription(), expected.isEmpty());
+			assertEquals(filters[0].getDescription(), expected, queryTweets(corpus, filters));
+		}
+		corpus.delete();
+	}
+
+	/* The query the filters of the data parent used to be turned into */
+	private static String jsonPathQuery(Filter... filters) {
+		List<String> predicates = new ArrayList<String>();
+		for (Filter f : filters) {
+			String attr = "@." + f.getTargetName().substring(f.getTargetName().lastIndexOf('.') + 1);
+			String value = f.getFilterValue();
+			switch (f.getOperationType()) {
+			case INTEGER_EQUALS:
+			case DOUBLE_EQUALS:
+			case STRING_EQUALS:
+				predicates.add(attr + " == '" + value + "'");
+				break;
+			case INTEGER_GREATER_THAN:
+			case DOUBLE_GREATER_THAN:
+				predicates.add(attr + " > '" + value + "'");
+				break;
+			case INTEGER_LESS_THAN:
+			case DOUBLE_LESS_THAN:
+				predicates.add(attr + " < '" + value + "'");
+				break;
+			case STRING_CONTAINS:
+				predicates.add(attr + " =~ /^.*" + value + ".*$/i");
+				break;
+			case STRING_STARS_WITH:
+				predicates.add(attr + " =~ /^" + value + ".*$/i");
+				break;
+			case STRING_ENDS_WITH:
+				predicates.add(attr + " =~ /^.*" + value + "$/i");
+				break;
+			}
+		}
+		StringBuilder query = new StringBuilder("$.data[?(");
+		for (int i = 0; i < predicates.size(); i++)
+			query.append(i == 0 ? "" : " && ").append(predicates.get(i));
+		return query.append(")]").toString();
+	}
+
+	private static List<Object> readRecords(File file) throws IOException {
+		List<Object> records = new ArrayList<Object>();
+		JsonRecordReader reader = new JsonRecordReader(new FileReader(file));
+		try {
+			while (reader.hasNext())
+				records.add(reader.next());
+		} finally {
+			reader.close();
+		}
+		return records;
+	}
+
+	@Test
+	public void benchmarkConsoleSink() throws Exception {
+		File logDir = new File(System.getProperty("java.io.tmpdir"), "TACIT-console-test");
+		FileUtils.deleteDirectory(logDir);
+		final AtomicInteger batches = new AtomicInteger();
+		final AtomicInteger longestBatch = new AtomicInteger();
+		final int retained = 10000;
+		final long flushMillis = 50;
+		final ConsoleSink sink = new ConsoleSink(new ConsoleSink.Target() {
+			@Override
+			public void append(String text) {
+				batches.incrementAndGet();
+				longestBatch.set(Math.max(longestBatch.get(), text.length()));
+			}
+		}, flushMillis, retained, logDir, 1000000, 10);
+
+		// a 300k file run, one message per file from 4 threads
+		final int perThread = 75000;
+		Thread[] threads = new Thread[4];
+		long start = System.nanoTime();
+		for (int t = 0; t < threads.length; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < perThread; i++)
+						sink.post("Thread " + thread + " file " + i + "\n");
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		sink.close();
+		long millis = (System.nanoTime() - start) / 1000000;
+
+		assertTrue("At most a batch per flush interval", batches.get() <= millis / flushMillis + 2);
+		assertTrue("Batches are capped", longestBatch.get() <= retained);
+		int lines = 0;
+		File[] logs = logDir.listFiles();
+		assertTrue("Log rotated", logs.length > 1);
+		for (File log : logs)
+			lines += FileUtils.readLines(log, "UTF-8").size();
+		assertEquals("Every message logged or dropped", threads.length * perThread, lines + sink.getDropped());
+		long dropped = sink.getDropped();
+		sink.post("after close\n");
+		assertEquals("Messages after close are dropped", dropped + 1, sink.getDropped());
+		FileUtils.deleteDirectory(logDir);
+	}
+
+	@Test(timeout = 60000)
+	public void consoleSinkSurvivesFailingTarget() throws Exception {
+		final AtomicInteger appends = new AtomicInteger();
+		ConsoleSink sink = new ConsoleSink(new ConsoleSink.Target() {
+			@Override
+			public void append(String text) {
+				// as asyncExec does without a display
+				if (appends.incrementAndGet() == 1)
+					throw new UnsatisfiedLinkError("no swt");
+			}
+		}, 1, 1000, null, 0, 1);
+
+		// more messages than the ring holds, posting must not hang
+		for (int i = 0; i < 200000; i++)
+			sink.post("file " + i + "\n");
+		sink.close();
+		assertTrue("The flusher went on after the failure", appends.get() > 1);
+	}
+
 }
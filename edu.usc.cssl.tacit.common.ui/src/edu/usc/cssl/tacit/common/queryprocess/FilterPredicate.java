@@ -0,0 +1,145 @@
+package edu.usc.cssl.tacit.common.queryprocess;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A corpus {@link Filter} compiled for evaluation against parsed records.
+ * INTEGER and DOUBLE filters compare numbers, STRING filters compare text;
+ * equals is exact and contains, starts with and ends with ignore case.
+ */
+public abstract class FilterPredicate {
+
+	private final String attribute;
+
+	private FilterPredicate(String attribute) {
+		this.attribute = attribute;
+	}
+
+	/**
+	 * Name of the record attribute the filter applies to, i.e. the last part
+	 * of the filter's target name.
+	 */
+	public String getAttribute() {
+		return attribute;
+	}
+
+	/**
+	 * Returns true if the record is an object whose attribute passes the
+	 * filter. Records without the attribute never pass.
+	 */
+	public boolean matches(Object record) {
+		if (!(record instanceof Map))
+			return false;
+		Object value = ((Map<?, ?>) record).get(attribute);
+		return value != null && test(value);
+	}
+
+	abstract boolean test(Object value);
+
+	/**
+	 * Compiles the filter, or returns null if it has no value or its operator
+	 * does not apply to its data type.
+	 */
+	public static FilterPredicate compile(Filter f) {
+		if (f.getFilterValue() == null || f.getOperationType() == null)
+			return null;
+		String attribute = f.getTargetName().substring(f.getTargetName().lastIndexOf('.') + 1);
+		QueryOperatorType op = f.getOperationType();
+		if (f.getTargetType() == QueryDataType.INTEGER || f.getTargetType() == QueryDataType.DOUBLE) {
+			double expected = toDouble(f.getFilterValue());
+			switch (op) {
+			case INTEGER_EQUALS:
+			case DOUBLE_EQUALS:
+				return new NumberPredicate(attribute, expected, 0);
+			case INTEGER_GREATER_THAN:
+			case DOUBLE_GREATER_THAN:
+				return new NumberPredicate(attribute, expected, 1);
+			case INTEGER_LESS_THAN:
+			case DOUBLE_LESS_THAN:
+				return new NumberPredicate(attribute, expected, -1);
+			default:
+				return null;
+			}
+		} else if (f.getTargetType() == QueryDataType.STRING) {
+			switch (op) {
+			case STRING_EQUALS:
+				return new EqualsPredicate(attribute, f.getFilterValue());
+			case STRING_CONTAINS:
+			case STRING_STARS_WITH:
+			case STRING_ENDS_WITH:
+				return new TextPredicate(attribute, f.getFilterValue(), op);
+			default:
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static double toDouble(Object value) {
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		try {
+			return Double.parseDouble(value.toString().trim());
+		} catch (NumberFormatException e) {
+			return Double.NaN; // compares false with everything
+		}
+	}
+
+	private static class NumberPredicate extends FilterPredicate {
+		private final double expected;
+		// sign of compare(actual, expected) that passes
+		private final int sign;
+
+		NumberPredicate(String attribute, double expected, int sign) {
+			super(attribute);
+			this.expected = expected;
+			this.sign = sign;
+		}
+
+		@Override
+		boolean test(Object value) {
+			double actual = toDouble(value);
+			if (sign > 0)
+				return actual > expected;
+			if (sign < 0)
+				return actual < expected;
+			return actual == expected;
+		}
+	}
+
+	private static class EqualsPredicate extends FilterPredicate {
+		private final String expected;
+
+		EqualsPredicate(String attribute, String expected) {
+			super(attribute);
+			this.expected = expected;
+		}
+
+		@Override
+		boolean test(Object value) {
+			return expected.equals(value.toString());
+		}
+	}
+
+	private static class TextPredicate extends FilterPredicate {
+		private final String expected;
+		private final QueryOperatorType op;
+
+		TextPredicate(String attribute, String expected, QueryOperatorType op) {
+			super(attribute);
+			this.expected = expected.toLowerCase(Locale.ROOT);
+			this.op = op;
+		}
+
+		@Override
+		boolean test(Object value) {
+			String actual = value.toString().toLowerCase(Locale.ROOT);
+			if (op == QueryOperatorType.STRING_STARS_WITH)
+				return actual.startsWith(expected);
+			if (op == QueryOperatorType.STRING_ENDS_WITH)
+				return actual.endsWith(expected);
+			return actual.indexOf(expected) != -1;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package edu.usc.cssl.tacit.common.queryprocess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.jayway.jsonpath.Configuration;
+import com.jayway.jsonpath.spi.json.JsonProvider;
+
+/**
+ * Reads the records of a corpus file one at a time. A file holding a JSON
+ * array yields its elements, any other file yields the single value it holds,
+ * so only the current record is kept in memory.
+ *
+ * The records are built with the JsonPath provider, i.e. they are the same
+ * objects JsonPath creates when it parses the record itself and can be passed
+ * to {@link QueryProcesser#processRecord} as they are.
+ */
+public class JsonRecordReader implements Closeable {
+
+	private final JsonReader reader;
+	private final JsonProvider provider;
+	private final boolean array;
+	private boolean single;
+
+	public JsonRecordReader(Reader in) throws IOException {
+		this(in, true);
+	}
+
+	private JsonRecordReader(Reader in, boolean records) throws IOException {
+		this.reader = new JsonReader(in);
+		this.provider = Configuration.defaultConfiguration().jsonProvider();
+		boolean opened = false;
+		try {
+			this.array = records && reader.peek() == JsonToken.BEGIN_ARRAY;
+			opened = true;
+		} finally {
+			if (!opened)
+				reader.close();
+		}
+		if (array)
+			reader.beginArray();
+		else
+			single = true;
+	}
+
+	/**
+	 * Reads the whole JSON document, whatever its top level value is.
+	 */
+	public static Object read(Reader in) throws IOException {
+		JsonRecordReader reader = new JsonRecordReader(in, false);
+		try {
+			return reader.next();
+		} finally {
+			reader.close();
+		}
+	}
+
+	public boolean hasNext() throws IOException {
+		return array ? reader.hasNext() : single;
+	}
+
+	public Object next() throws IOException {
+		single = false;
+		return readValue();
+	}
+
+	private Object readValue() throws IOException {
+		switch (reader.peek()) {
+		case BEGIN_OBJECT:
+			Object map = provider.createMap();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String key = reader.nextName();
+				provider.setProperty(map, key, readValue());
+			}
+			reader.endObject();
+			return map;
+		case BEGIN_ARRAY:
+			@SuppressWarnings("unchecked")
+			List<Object> list = (List<Object>) provider.createArray();
+			reader.beginArray();
+			while (reader.hasNext())
+				list.add(readValue());
+			reader.endArray();
+			return list;
+		case STRING:
+			return reader.nextString();
+		case NUMBER:
+			return toNumber(reader.nextString());
+		case BOOLEAN:
+			return reader.nextBoolean();
+		case NULL:
+			reader.nextNull();
+			return null;
+		default:
+			throw new IOException("Unexpected JSON token at " + reader.getPath());
+		}
+	}
+
+	/*
+	 * Same number types as the JsonPath provider: Integer or Long when the
+	 * value fits, Double otherwise.
+	 */
+	private static Number toNumber(String literal) {
+		if (literal.indexOf('.') == -1 && literal.indexOf('e') == -1 && literal.indexOf('E') == -1) {
+			BigInteger value = new BigInteger(literal);
+			if (value.bitLength() < 32)
+				return value.intValue();
+			if (value.bitLength() < 64)
+				return value.longValue();
+		}
+		return Double.valueOf(literal);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
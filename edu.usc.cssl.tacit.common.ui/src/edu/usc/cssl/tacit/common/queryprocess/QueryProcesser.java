@@ -1,12 +1,10 @@
 package edu.usc.cssl.tacit.common.queryprocess;
 
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -15,27 +13,28 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
-import net.minidev.json.JSONArray;
-
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
-import org.jsoup.helper.StringUtil;
 
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
 import com.jayway.jsonpath.Configuration;
-import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.spi.json.JsonProvider;
 
 import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CMDataType;
 import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CorpusClass;
-import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
 public class QueryProcesser implements IQueryProcessor {
 
 	private CorpusClass corpusClass;
 	private Map<String, QueryDataType> jsonKeys;
 
+	// filters and key fields of the last processed record, compiled once
+	private List<Filter> compiledFrom;
+	private LinkedHashMap<String, List<FilterPredicate>> compiledFilters;
+	private Set<String> filteredParents;
+	private String parsedKeyFields;
+	private HashMap<String, List<String>> keys;
+
 	public QueryProcesser() {
 	}
 
@@ -44,68 +43,60 @@ public class QueryProcesser implements IQueryProcessor {
 		this.corpusClass = corpusClass;
 	}
 
-	private List<String> applySmartFilters(List<Filter> filters, String jsonFilePath, String operator, String keyFields,
-			CMDataType corpusType) throws FileNotFoundException, IOException, ParseException {
-		HashMap<String, List<String>> keys = processKeyfields(keyFields);
-
+	private List<String> applyFilters(Object document, String operator, CMDataType corpusType) {
 		List<String> resultText = new ArrayList<String>();
-		Set<JSONObject> filteredResults = new HashSet<JSONObject>();
-		HashMap<String, List<Filter>> groupedFilters = groupFilters(filters);
-		for (Filter f : filters) {
-			if (f == null) {
-				continue;
-			}
-		}
-		JSONParser parser = new JSONParser();
-		Object obj = parser.parse(new FileReader(jsonFilePath));
-		JSONObject jsonObject = (JSONObject) obj;
-		Object document = Configuration.defaultConfiguration().jsonProvider().parse(jsonObject.toJSONString());
+		HashMap<String, List<FilterPredicate>> groupedFilters = groupFilters(document);
 
 		for (String parentFilters : groupedFilters.keySet()) {
-			try {
-				String smartQuery;
-				smartQuery = createSmartFilters(parentFilters, groupedFilters, operator);
-				Object result = JsonPath.parse(document).read(smartQuery);
-				if (result instanceof LinkedHashMap<?, ?>) {
-					LinkedHashMap<?, ?> records = (LinkedHashMap<?, ?>) result;
-					JSONObject temp = new JSONObject();
-					temp.put(parentFilters, records);
-					filteredResults.add(temp);
-					if (keys.containsKey(parentFilters)) {// fetchdata
-						for (String k : keys.get(parentFilters)) {
-							try {
-								resultText.add((String) ((LinkedHashMap) result).get(k) + "\n");
-							} catch (ClassCastException e) {
-								continue;
-							}
-						}
-					}
-				} else if (result instanceof JSONArray) {
-					JSONArray records = (JSONArray) result;
-					for (Object ob : records) {
-						LinkedHashMap<?, ?> res = (LinkedHashMap<?, ?>) ob;
-						// temp.put(key, value)
-						// filteredResults.add((LinkedHashMap<?, ?>)ob);
-						if (keys.containsKey(parentFilters)) {
-							for (String k : keys.get(parentFilters)) {
-								try {
-									resultText.add((String) ((LinkedHashMap) res).get(k) + "\n");
-								} catch (ClassCastException e) {
-									continue;
-								}
-							}
-						}
-					}
+			Object node = resolve(document, parentFilters);
+			List<FilterPredicate> predicates = groupedFilters.get(parentFilters);
+			List<?> records;
+			if (node instanceof Map)
+				records = Collections.singletonList(node);
+			else if (node instanceof List)
+				records = (List<?>) node;
+			else
+				continue;
+			if (!keys.containsKey(parentFilters))
+				continue;
+			for (Object record : records) {
+				if (!predicates.isEmpty()) {
+					if (!matches(record, predicates, operator))
+						continue;
+				} else if (!(record instanceof Map)) {
+					break; // not a list of records, continue with the other parents
+				}
+				for (String k : keys.get(parentFilters)) {
+					Object text = ((Map<?, ?>) record).get(k);
+					if (text == null || text instanceof String)
+						resultText.add((String) text + "\n");
 				}
-			} catch (ClassCastException e) {
-				continue; // incase if one key fails, continue with others
 			}
 		}
 
 		if (!corpusType.equals(CMDataType.TWITTER_JSON))
 			return processedResult(resultText);
 		return resultText;
-		// return writeToFile(jsonFilePath, filteredResults);
+	}
+
+	private static boolean matches(Object record, List<FilterPredicate> predicates, String operator) {
+		boolean any = operator.equals("||");
+		for (FilterPredicate predicate : predicates) {
+			if (predicate.matches(record) == any)
+				return any;
+		}
+		return !any;
+	}
+
+	/* Follows the dotted path through the record, null if it is not there */
+	private static Object resolve(Object document, String path) {
+		Object node = document;
+		for (String attr : path.split("\\.")) {
+			if (!(node instanceof Map))
+				return null;
+			node = ((Map<?, ?>) node).get(attr);
+		}
+		return node;
 	}
 
 	private List<String> processedResult(List<String> resultText) {
@@ -140,108 +131,40 @@ public class QueryProcesser implements IQueryProcessor {
 		return keyAttr;
 	}
 
-	private List<String> filterResults(Set<JSONObject> filteredResults) {
-		return null;
-	}
-
-	/* Create smart queries and apply them on JSON document */
-	private static String createSmartFilters(String parentFilters, HashMap<String, List<Filter>> groupedFilters,
-			String condition) {
-		StringBuilder query = new StringBuilder();
-		query.append("$.");
-		query.append(parentFilters);
-		List<String> predicates = new ArrayList<String>();
-		for (Filter f : groupedFilters.get(parentFilters)) {
-			if (f.getFilterValue() != null) // only if there is a proper filter
-				predicates.add(constructSmartQuery(f));
-		}
-		if (predicates.size() > 0) {
-			query.append("[?(");
-			query.append(StringUtil.join(predicates, " " + condition + " "));
-			query.append(")]");
-		}
-		return new String(query);
-	}
-
-	/* Group filters based on the parents */
-	private static HashMap<String, List<Filter>> groupFilters(List<Filter> filters) {
-		HashMap<String, List<Filter>> groupedFilters = new HashMap<String, List<Filter>>();
-		if (null == filters)
-			return groupedFilters;
+	/* Compile the filters once, grouped by their parent attribute */
+	private static LinkedHashMap<String, List<FilterPredicate>> compileFilters(List<Filter> filters) {
+		LinkedHashMap<String, List<FilterPredicate>> compiled = new LinkedHashMap<String, List<FilterPredicate>>();
 		for (Filter filter : filters) {
 			String targetName = filter.getTargetName();
 			String parentAttr = (targetName.indexOf('.') == -1) ? targetName
 					: targetName.substring(0, targetName.lastIndexOf('.'));
-			List<Filter> filterList;
-			if (groupedFilters.containsKey(parentAttr))
-				filterList = groupedFilters.get(parentAttr);
-			else
-				filterList = new ArrayList<Filter>();
-			filterList.add(filter);
-			groupedFilters.put(parentAttr, filterList);
-		}
-		return groupedFilters;
-	}
-
-	private static String constructSmartQuery(Filter f) {
-		StringBuilder query = new StringBuilder();
-		if (f.getFilterValue() == null)
-			return new String(query);
-		String queryAttr = f.getTargetName().substring(f.getTargetName().lastIndexOf('.') + 1);
-		if (f.getTargetType() == QueryDataType.INTEGER || f.getTargetType() == QueryDataType.DOUBLE) {
-			if (f.getOperationType().equals(QueryOperatorType.INTEGER_EQUALS)
-					|| f.getOperationType().equals(QueryOperatorType.DOUBLE_EQUALS))
-				query.append("@." + queryAttr + " == '" + f.getFilterValue() + "'");
-			else if (f.getOperationType().equals(QueryOperatorType.INTEGER_GREATER_THAN)
-					|| f.getOperationType().equals(QueryOperatorType.DOUBLE_GREATER_THAN))
-				query.append("@." + queryAttr + " > '" + f.getFilterValue() + "'");
-			else if (f.getOperationType().equals(QueryOperatorType.INTEGER_LESS_THAN)
-					|| f.getOperationType().equals(QueryOperatorType.DOUBLE_LESS_THAN))
-				query.append("@." + queryAttr + " < '" + f.getFilterValue() + "'");
-		} else if (f.getTargetType() == QueryDataType.STRING) {
-			if (f.getOperationType().equals(QueryOperatorType.STRING_EQUALS))
-				query.append("@." + queryAttr + " == '" + f.getFilterValue() + "'");
-			else if (f.getOperationType().equals(QueryOperatorType.STRING_CONTAINS))
-				query.append("@." + queryAttr + " =~ /^.*" + f.getFilterValue() + ".*$/i");
-			else if (f.getOperationType().equals(QueryOperatorType.STRING_STARS_WITH))
-				query.append("@." + queryAttr + " =~ /^" + f.getFilterValue() + ".*$/i");
-			else if (f.getOperationType().equals(QueryOperatorType.STRING_ENDS_WITH))
-				query.append("@." + queryAttr + " =~ /^.*" + f.getFilterValue() + "$/i");
+			List<FilterPredicate> predicates = compiled.get(parentAttr);
+			if (predicates == null) {
+				predicates = new ArrayList<FilterPredicate>();
+				compiled.put(parentAttr, predicates);
+			}
+			FilterPredicate predicate = FilterPredicate.compile(filter);
+			if (predicate != null) // only if there is a proper filter
+				predicates.add(predicate);
 		}
-		return new String(query);
+		return compiled;
 	}
 
-	private String writeToFile(String jsonFilePath, Set<JSONObject> filteredResults) throws IOException {
-		String filePath = System.getProperty("user.dir") + System.getProperty("file.separator")
-				+ "json_processing.temp.json";
-		JSONArray results = new JSONArray(); // convert JSON objects to array
-		for (Object ob : filteredResults)
-			results.add(ob);
-		if (new File(filePath).exists())
-			new File(filePath).delete();
-		FileWriter file = new FileWriter(filePath, true);
-		Writer writer = new JSONWriter(); // for pretty-printing
-		results.writeJSONString(writer);
-		file.write(writer.toString());
-		file.flush();
-		file.close();
-		ConsoleView.printlInConsoleln("Filtered results are stored in " + filePath);
-		return filePath;
-	}
-
-	private static void createParentFilters(List<Filter> filters, List<String> parentKeys) {
-		// if(null == filters) return;
-		// if(null == filters)
-		// filters = new ArrayList<Filter>();
-
-		List<String> parentFilters = new ArrayList<String>();
-		for (Filter f : filters)
-			parentFilters.add(f.getTargetName().split("\\.")[0]);
-
-		parentKeys.removeAll(parentFilters);
-		for (String key : parentKeys) {
-			filters.add(new Filter(key, null, null, null));
+	/*
+	 * Group the compiled filters based on the parents. Top level attributes
+	 * of the record without a filter are taken as they are.
+	 */
+	private HashMap<String, List<FilterPredicate>> groupFilters(Object document) {
+		HashMap<String, List<FilterPredicate>> groupedFilters = new HashMap<String, List<FilterPredicate>>();
+		for (Map.Entry<String, List<FilterPredicate>> group : compiledFilters.entrySet())
+			groupedFilters.put(group.getKey(), group.getValue());
+		if (document instanceof Map) {
+			for (Object key : ((Map<?, ?>) document).keySet()) {
+				if (!filteredParents.contains(key))
+					groupedFilters.put(key.toString(), Collections.<FilterPredicate> emptyList());
+			}
 		}
+		return groupedFilters;
 	}
 
 	@Override
@@ -259,19 +182,52 @@ public class QueryProcesser implements IQueryProcessor {
 
 	public List<String> processJson(CorpusClass corpusClass, String jsonFilepath, String keyFields,
 			boolean addDataField) throws JsonSyntaxException, JsonIOException, IOException, ParseException {
+		FileReader reader = new FileReader(jsonFilepath);
+		Object document;
+		try {
+			document = JsonRecordReader.read(reader);
+		} finally {
+			reader.close();
+		}
+		return processRecord(corpusClass, document, keyFields, addDataField);
+	}
+
+	/**
+	 * Same as {@link #processJson} for a record that is already parsed, e.g.
+	 * by a {@link JsonRecordReader}. Records of a JSON array corpus are queried
+	 * as {"data": record}, see {@link #wrapData(Object)}.
+	 */
+	public List<String> processRecord(CorpusClass corpusClass, Object document, String keyFields,
+			boolean addDataField) {
 		List<Filter> corpusFilters = corpusClass.getFilters();
 		if (addDataField && corpusFilters!=null) {
 			for (Filter i : corpusFilters) {
 				if (!i.getTargetName().contains("data")) {
-					i.setTargetType("data." + i.getTargetName());
+					i.setTargetName("data." + i.getTargetName());
 				}
 			}
 		}
 		if (null == corpusFilters)
 			corpusFilters = new ArrayList<Filter>();
-		List<String> parentKeys = JsonParser.getParentKeys(jsonFilepath);
-		createParentFilters(corpusFilters, parentKeys);
-		return applySmartFilters(corpusFilters, jsonFilepath, "&&", keyFields, corpusClass.getParent().getDatatype());
+		if (!corpusFilters.equals(compiledFrom)) {
+			compiledFrom = corpusFilters;
+			compiledFilters = compileFilters(corpusFilters);
+			filteredParents = new HashSet<String>();
+			for (Filter f : corpusFilters)
+				filteredParents.add(f.getTargetName().split("\\.")[0]);
+		}
+		if (!keyFields.equals(parsedKeyFields)) {
+			parsedKeyFields = keyFields;
+			keys = processKeyfields(keyFields);
+		}
+		return applyFilters(document, "&&", corpusClass.getParent().getDatatype());
+	}
+
+	public static Object wrapData(Object record) {
+		JsonProvider provider = Configuration.defaultConfiguration().jsonProvider();
+		Object document = provider.createMap();
+		provider.setProperty(document, "data", record);
+		return document;
 	}
 
 }
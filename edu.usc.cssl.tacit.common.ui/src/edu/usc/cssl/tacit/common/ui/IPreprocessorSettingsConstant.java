@@ -16,4 +16,6 @@ public interface IPreprocessorSettingsConstant {
 	public static String SPELL_CHECK = "spell_check";
 	public static String DICTIONARY_PATH="dictionary_path";
 	public static String STEM_DICTIONARY = "stem_dictionary";
+	public static String CACHE_PATH = "pp_cache_path";
+	public static String CACHE_SIZE = "pp_cache_size";
 }
@@ -0,0 +1,236 @@
+package edu.usc.cssl.tacit.common.ui.corpusmanagement.services;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Sidecar of a corpus class with the size, modification time, number of
+ * records and record keys of every file in the class. Updating it only scans
+ * the files whose size or modification time changed since it was saved, so
+ * saving a corpus of large JSON files does not read them all again.
+ *
+ * Records are counted with a streaming JSON scanner: a file holding an array
+ * has a record per element, a file holding any other JSON value has one, and
+ * a file that is not JSON has none. The keys are the field names of the
+ * records that are objects.
+ */
+public class CorpusManifest {
+
+	public static final String SUFFIX = ".manifest.json";
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	// path relative to the class directory -> entry
+	private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+	private static class Entry {
+		long size;
+		long modified;
+		long records;
+		Set<String> keys = new TreeSet<String>();
+	}
+
+	/**
+	 * Returns the manifest of the corpus class saved in the given file, empty
+	 * if the file is missing or unreadable
+	 */
+	public static CorpusManifest load(File manifestFile) {
+		CorpusManifest manifest = new CorpusManifest();
+		if (!manifestFile.isFile())
+			return manifest;
+		try {
+			Reader reader = new InputStreamReader(new FileInputStream(manifestFile), "UTF-8");
+			try {
+				JSONObject files = (JSONObject) ((JSONObject) new JSONParser().parse(reader)).get("files");
+				for (Object name : files.keySet()) {
+					JSONObject fileObj = (JSONObject) files.get(name);
+					Entry entry = new Entry();
+					entry.size = (Long) fileObj.get("size");
+					entry.modified = (Long) fileObj.get("modified");
+					entry.records = (Long) fileObj.get("records");
+					for (Object key : (JSONArray) fileObj.get("keys"))
+						entry.keys.add((String) key);
+					manifest.entries.put((String) name, entry);
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			manifest.entries.clear();
+		} catch (ParseException e) {
+			e.printStackTrace();
+			manifest.entries.clear();
+		} catch (RuntimeException e) {
+			// not a manifest, start again
+			manifest.entries.clear();
+		}
+		return manifest;
+	}
+
+	/**
+	 * Brings the manifest up to date with the files in the class directory:
+	 * new and changed files are scanned, removed files are dropped
+	 *
+	 * @return the number of files scanned
+	 */
+	public int update(File classDir) {
+		List<String> names = new ArrayList<String>();
+		listFiles(classDir, "", names);
+		int scanned = 0;
+		Map<String, Entry> current = new TreeMap<String, Entry>();
+		for (String name : names) {
+			File file = new File(classDir, name);
+			Entry entry = entries.get(name);
+			if (entry == null || entry.size != file.length() || entry.modified != file.lastModified()) {
+				entry = new Entry();
+				entry.size = file.length();
+				entry.modified = file.lastModified();
+				entry.records = scan(file, entry.keys);
+				scanned++;
+			}
+			current.put(name, entry);
+		}
+		entries.clear();
+		entries.putAll(current);
+		return scanned;
+	}
+
+	private static void listFiles(File dir, String prefix, List<String> names) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.isDirectory())
+				listFiles(file, prefix + file.getName() + "/", names);
+			else if (!file.getName().equals(".DS_Store"))
+				names.add(prefix + file.getName());
+		}
+	}
+
+	/**
+	 * Counts the records of the file, and adds the keys of the records to
+	 * keys. A file that is not JSON has no records.
+	 */
+	public static long scan(File file, Set<String> keys) {
+		Set<String> found = new TreeSet<String>();
+		long records = 0;
+		try {
+			JsonParser parser = jsonFactory.createParser(file);
+			try {
+				JsonToken token = parser.nextToken();
+				if (token == JsonToken.START_ARRAY) {
+					while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+						if (token == null)
+							return 0;
+						readRecord(parser, token, found);
+						records++;
+					}
+				} else if (token != null) {
+					readRecord(parser, token, found);
+					records++;
+				}
+				// anything after the value is not JSON
+				if (parser.nextToken() != null)
+					return 0;
+			} finally {
+				parser.close();
+			}
+		} catch (JsonProcessingException e) {
+			return 0;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return 0;
+		}
+		keys.addAll(found);
+		return records;
+	}
+
+	// skips the value starting at token, keeping its field names if it is an
+	// object
+	private static void readRecord(JsonParser parser, JsonToken token, Set<String> keys) throws IOException {
+		if (token != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+			keys.add(parser.getCurrentName());
+			parser.nextToken();
+			parser.skipChildren();
+		}
+		if (token != JsonToken.END_OBJECT)
+			throw new IOException("Unterminated object");
+	}
+
+	public long getFileCount() {
+		return entries.size();
+	}
+
+	public long getRecordCount() {
+		long records = 0;
+		for (Entry entry : entries.values())
+			records += entry.records;
+		return records;
+	}
+
+	/**
+	 * Returns the keys of the records of all the files
+	 */
+	public Set<String> getKeys() {
+		Set<String> keys = new TreeSet<String>();
+		for (Entry entry : entries.values())
+			keys.addAll(entry.keys);
+		return keys;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void save(File manifestFile) throws IOException {
+		JSONObject files = new JSONObject();
+		for (Map.Entry<String, Entry> e : entries.entrySet()) {
+			JSONObject fileObj = new JSONObject();
+			fileObj.put("size", e.getValue().size);
+			fileObj.put("modified", e.getValue().modified);
+			fileObj.put("records", e.getValue().records);
+			JSONArray keys = new JSONArray();
+			keys.addAll(e.getValue().keys);
+			fileObj.put("keys", keys);
+			files.put(e.getKey(), fileObj);
+		}
+		JSONArray keys = new JSONArray();
+		keys.addAll(getKeys());
+		JSONObject manifest = new JSONObject();
+		manifest.put("no_of_files", getFileCount());
+		manifest.put("no_of_cases", getRecordCount());
+		manifest.put("keys", keys);
+		manifest.put("files", files);
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8");
+		try {
+			manifest.writeJSONString(writer);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -37,8 +37,6 @@ public class ManageCorpora {
 	private static String rootDir = CommonUiActivator.getDefault().getPreferenceStore()
 			.getString(ICommonUiConstants.CORPUS_LOCATION) + System.getProperty("file.separator");
 	private static String oldLoc = rootDir;
-	private static Long fCount;
-	private static Long caseCount;
 
 	public static void saveCorpora(ArrayList<Corpus> corporaList) {
 		for (Corpus corpus : corporaList) {
@@ -72,11 +70,9 @@ public class ManageCorpora {
 
 			for (int i = 0; i < numClasses; i++) {
 				CorpusClass currClass = (CorpusClass) corporaClasses.get(i);
-				File dir = new File(currClass.getClassPath());
-				fCount = 0L;
-				caseCount = 0L;
-				fCount = getFileCount(dir);
-				caseCount = getCaseCount(dir);
+				CorpusManifest manifest = updateManifest(corpusLocation, currClass);
+				long fCount = manifest.getFileCount();
+				long caseCount = manifest.getRecordCount();
 				caseCorpusCount+= caseCount;
 				fileCorpusCount += fCount;
 				currClass.setNoOfFiles(fCount);
@@ -149,11 +145,9 @@ public class ManageCorpora {
 			for (int i = 0; i < numClasses; i++) {
 				CorpusClass currClass = (CorpusClass) corporaClasses.get(i);
 				
-				File dir = new File(currClass.getClassPath());
-				fCount = 0L;
-				caseCount = 0L;
-				fCount = getFileCount(dir);
-				caseCount = getCaseCount(dir);
+				CorpusManifest manifest = updateManifest(corpusLocation, currClass);
+				long fCount = manifest.getFileCount();
+				long caseCount = manifest.getRecordCount();
 				fileCorpusCount += fCount;
 				caseCorpusCount += caseCount;
 				currClass.setNoOfFiles(fCount);	
@@ -198,59 +192,34 @@ public class ManageCorpora {
 		});
 	}
 	
-	public static Long getFileCount(File dir){
-		File[] files = dir.listFiles();
-		if (files != null) {
-			for (File obj : files) {
-				System.out.println(obj.getName());
-				if (!obj.isDirectory() && !obj.getName().equals(".DS_Store")){
-					
-					fCount++;
-				}
-				else{
-					fCount += getFileCount(obj);
-				}
-			}
+	/**
+	 * Brings the manifest of the class, saved next to the meta file of the
+	 * corpus, up to date with the files of the class and saves it. Only the
+	 * files changed since the last save are read.
+	 */
+	private static CorpusManifest updateManifest(String corpusLocation, CorpusClass corpusClass) {
+		File manifestFile = new File(corpusLocation + System.getProperty("file.separator")
+				+ corpusClass.getClassName() + CorpusManifest.SUFFIX);
+		CorpusManifest manifest = CorpusManifest.load(manifestFile);
+		manifest.update(new File(corpusClass.getClassPath()));
+		try {
+			manifest.save(manifestFile);
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		return fCount;
-		
+		return manifest;
+	}
+
+	public static Long getFileCount(File dir){
+		CorpusManifest manifest = new CorpusManifest();
+		manifest.update(dir);
+		return manifest.getFileCount();
 	}
 
 	public static Long getCaseCount(File dir){
-		File[] files = dir.listFiles();
-		if (files != null) {
-			for (File obj : files) {
-				if (!obj.isDirectory() && !obj.getName().equals(".DS_Store")){
-					try {
-						JSONParser jsonParser = new JSONParser();
-						JSONArray jsonArray;
-						Object a = jsonParser.parse(new FileReader(obj));
-						if(a instanceof JSONArray){
-							jsonArray = (JSONArray) a;
-							for(Object x: jsonArray)
-								caseCount++;
-						}
-						else
-							caseCount++;
-						
-					} catch (ParseException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (FileNotFoundException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
-				else{
-					caseCount += getCaseCount(obj);
-				}
-			}
-		}
-		return caseCount;
-		
+		CorpusManifest manifest = new CorpusManifest();
+		manifest.update(dir);
+		return manifest.getRecordCount();
 	}
 	
 	public static boolean isCorpusLocChanged(String newPath) {
@@ -404,6 +373,7 @@ public class ManageCorpora {
 			if (!curr.getValue()) {
 				try {
 					FileUtils.deleteDirectory(new File(classPath));
+					new File(classPath + CorpusManifest.SUFFIX).delete();
 					it.remove();
 				} catch (IOException e) {
 					e.printStackTrace();
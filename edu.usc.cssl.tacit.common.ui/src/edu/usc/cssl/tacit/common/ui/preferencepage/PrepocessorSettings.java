@@ -43,6 +43,8 @@ public class PrepocessorSettings extends PreferencePage implements
 	private Button spellCheck;
 	private Text dictionaryLocation;
 	private Button stemDictionary;
+	private Text cacheLocation;
+	private Text cacheSize;
 
 	public PrepocessorSettings() {
 	}
@@ -82,6 +84,8 @@ public class PrepocessorSettings extends PreferencePage implements
 		output = createOutputPathLocation(sectionClient);
 		cleanup = createCheckBox(sectionClient, "Clean up Pre-Processed Files ");
 		stemDictionary = createDictStemmingSection(sectionClient);
+		cacheLocation = createCachePathLocation(sectionClient);
+		cacheSize = createCacheSizeSection(sectionClient);
 		
 		initializeDefaultValues();
 		loadValues();
@@ -163,6 +167,8 @@ public class PrepocessorSettings extends PreferencePage implements
 		getPreferenceStore().setDefault(INITIAL, "true");
 		getPreferenceStore().setDefault(OUTPUT_PATH,System.getProperty("user.dir"));
 		getPreferenceStore().setDefault(LATIN_STEMMER, "");
+		getPreferenceStore().setDefault(CACHE_PATH, "");
+		getPreferenceStore().setDefault(CACHE_SIZE, "1024");
 	}
 
 	/*
@@ -187,6 +193,8 @@ public class PrepocessorSettings extends PreferencePage implements
 				.getDefaultString(PRE_PROCESSED)));
 		output.setText(getPreferenceStore().getDefaultString(OUTPUT_PATH));
 		LatinStemmerLocation.setText(getPreferenceStore().getDefaultString(LATIN_STEMMER));
+		cacheLocation.setText(getPreferenceStore().getDefaultString(CACHE_PATH));
+		cacheSize.setText(getPreferenceStore().getDefaultString(CACHE_SIZE));
 		language.setEnabled(false);
 		
 	}
@@ -215,6 +223,8 @@ public class PrepocessorSettings extends PreferencePage implements
 		output.setText(load(OUTPUT_PATH));
 		LatinStemmerLocation.setText(load(LATIN_STEMMER));
 		dictionaryLocation.setText(load(DICTIONARY_PATH));
+		cacheLocation.setText(load(CACHE_PATH));
+		cacheSize.setText(load(CACHE_SIZE));
 	}
 
 	
@@ -479,6 +489,56 @@ public class PrepocessorSettings extends PreferencePage implements
 		return outputLocationTxt;
 	}
 
+	/*
+	 * An empty location keeps the cache in the workspace state of the plugin.
+	 */
+	private Text createCachePathLocation(Composite sectionClient) {
+		Label locationLbl = new Label(sectionClient, SWT.NONE);
+		locationLbl.setText("Pre-Processed Cache Location:");
+		GridDataFactory.fillDefaults().grab(false, false).span(1, 0)
+				.applyTo(locationLbl);
+
+		final Text cacheLocationTxt = new Text(sectionClient, SWT.BORDER);
+		GridDataFactory.fillDefaults().grab(true, false).span(1, 0)
+				.applyTo(cacheLocationTxt);
+
+		final Button browseBtn = new Button(sectionClient, SWT.PUSH);
+		browseBtn.setText("Browse...");
+		browseBtn.addSelectionListener(new SelectionListener() {
+
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				DirectoryDialog dlg = new DirectoryDialog(browseBtn.getShell(),
+						SWT.OPEN);
+				dlg.setText("Open");
+				String path = dlg.open();
+				if (path == null)
+					return;
+				cacheLocationTxt.setText(path);
+			}
+
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+			}
+		});
+		return cacheLocationTxt;
+	}
+
+	/*
+	 * Size of the cache in MB, 0 turns it off.
+	 */
+	private Text createCacheSizeSection(Composite sectionClient) {
+		Label sizeLbl = new Label(sectionClient, SWT.NONE);
+		sizeLbl.setText("Pre-Processed Cache Size (MB):");
+		GridDataFactory.fillDefaults().grab(false, false).span(1, 0)
+				.applyTo(sizeLbl);
+
+		Text sizeTxt = new Text(sectionClient, SWT.BORDER);
+		GridDataFactory.fillDefaults().grab(true, false).span(2, 0)
+				.applyTo(sizeTxt);
+		return sizeTxt;
+	}
+
 	private Text createDelimeterSection(Composite sectionClient) {
 		Label delimeterLbl = new Label(sectionClient, SWT.NONE);
 		delimeterLbl.setText("Delimiters:");
@@ -515,6 +575,8 @@ public class PrepocessorSettings extends PreferencePage implements
 		store(STEM_DICTIONARY, Boolean.toString(stemDictionary.getSelection()));
 		//super.performApply();
 		store(DICTIONARY_PATH, dictionaryLocation.getText());
+		store(CACHE_PATH, cacheLocation.getText());
+		store(CACHE_SIZE, cacheSize.getText().trim());
 		return super.performOk();
 	}
 
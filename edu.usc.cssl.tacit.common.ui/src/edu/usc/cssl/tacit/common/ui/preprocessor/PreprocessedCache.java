@@ -0,0 +1,184 @@
+package edu.usc.cssl.tacit.common.ui.preprocessor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+import edu.usc.cssl.tacit.common.ui.CommonUiActivator;
+import edu.usc.cssl.tacit.common.ui.IPreprocessorSettingsConstant;
+
+/**
+ * Keeps preprocessed files across runs. A file is stored under the SHA-1 of
+ * its input file and the preprocessing settings, so a changed input or
+ * setting never hits an old entry. When the cache grows over its size limit
+ * the least recently used files are deleted; the modification time of a
+ * cached file is its last use.
+ */
+public class PreprocessedCache {
+
+	private static final long MB = 1024L * 1024L;
+	private static final String DEFAULT_SIZE_MB = "1024";
+	private static final String DEFAULT_DIR = "pp_cache";
+	private static final String TEMP_SUFFIX = ".tmp";
+	// a temp file this old is no longer being written by any run
+	private static final long STALE_TEMP_MILLIS = 24L * 60 * 60 * 1000;
+
+	private final File dir;
+	private final long maxSize;
+	// file sizes by key, least recently used first
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	private long size;
+
+	public PreprocessedCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+		dir.mkdirs();
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long t1 = f1.lastModified(), t2 = f2.lastModified();
+				return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+			}
+		});
+		long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+		for (File file : files) {
+			if (!file.isFile())
+				continue;
+			if (file.getName().endsWith(TEMP_SUFFIX)) {
+				// another run may be storing into the same directory, only
+				// remove what an interrupted store left behind
+				if (file.lastModified() < staleBefore)
+					file.delete();
+				continue;
+			}
+			entries.put(file.getName(), file.length());
+			size += file.length();
+		}
+	}
+
+	/**
+	 * Opens the cache configured in the preprocessor settings, by default in
+	 * the state location of the plugin. Returns null if its size is set to 0
+	 * or if there is no plugin, outside the workbench.
+	 */
+	public static PreprocessedCache fromPreferences() {
+		CommonUiActivator activator = CommonUiActivator.getDefault();
+		if (activator == null)
+			return null;
+		String path = activator.getPreferenceStore().getString(IPreprocessorSettingsConstant.CACHE_PATH);
+		String sizeMb = activator.getPreferenceStore().getString(IPreprocessorSettingsConstant.CACHE_SIZE);
+		if (path == null || path.trim().length() == 0) {
+			try {
+				path = activator.getStateLocation().append(DEFAULT_DIR).toOSString();
+			} catch (IllegalStateException e) {
+				// no workspace to keep it in
+				return null;
+			}
+		}
+		if (sizeMb == null || sizeMb.trim().length() == 0)
+			sizeMb = DEFAULT_SIZE_MB;
+		long maxSize;
+		try {
+			maxSize = Long.parseLong(sizeMb.trim()) * MB;
+		} catch (NumberFormatException e) {
+			maxSize = Long.parseLong(DEFAULT_SIZE_MB) * MB;
+		}
+		if (maxSize <= 0)
+			return null;
+		return new PreprocessedCache(new File(path), maxSize);
+	}
+
+	/**
+	 * Returns the cache key of the input file preprocessed with the given
+	 * settings.
+	 */
+	public static String key(File input, String settings) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e.getMessage());
+		}
+		digest.update(settings.getBytes("UTF-8"));
+		digest.update((byte) 0);
+		byte[] buffer = new byte[64 * 1024];
+		InputStream in = new FileInputStream(input);
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				digest.update(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest()) {
+			key.append(Character.forDigit((b >> 4) & 0xf, 16));
+			key.append(Character.forDigit(b & 0xf, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Copies the cached file for key to outFile. Returns false if there is
+	 * none.
+	 */
+	public synchronized boolean fetch(String key, File outFile) throws IOException {
+		if (entries.get(key) == null)
+			return false;
+		File cached = new File(dir, key);
+		if (!cached.isFile()) {
+			size -= entries.remove(key);
+			return false;
+		}
+		FileUtils.copyFile(cached, outFile, false);
+		cached.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * Stores a copy of the preprocessed file under key and evicts the least
+	 * recently used files if the cache is over its size limit. The copy is
+	 * written to a temp file of its own, so stores of other caches on the
+	 * same directory never write into it.
+	 */
+	public synchronized void store(String key, File output) throws IOException {
+		File temp = File.createTempFile(key, TEMP_SUFFIX, dir);
+		File cached = new File(dir, key);
+		FileUtils.copyFile(output, temp, false);
+		cached.delete();
+		if (!temp.renameTo(cached)) {
+			temp.delete();
+			throw new IOException("Could not write " + cached);
+		}
+		Long old = entries.put(key, cached.length());
+		size += cached.length() - (old == null ? 0 : old);
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size > maxSize && it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			new File(dir, entry.getKey()).delete();
+			size -= entry.getValue();
+			it.remove();
+		}
+	}
+
+	public long getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,218 @@
+package edu.usc.cssl.tacit.common.ui.preprocessor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
+
+/**
+ * Preprocesses files in three stages. The calling thread reads the input and
+ * creates the output file, the lines are processed in chunks by a pool of
+ * workers, and the calling thread writes the processed chunks back in input
+ * order. At most a few chunks per worker are in flight; submitting more
+ * blocks until the oldest one is written.
+ *
+ * Output files are created when their input is submitted, so file names are
+ * picked in the same order as when the files are processed one by one.
+ */
+public class PreprocessingPipeline {
+
+	private static final int LINES_PER_CHUNK = 64;
+	private static final int CHUNKS_PER_WORKER = 4;
+
+	/**
+	 * The CPU bound part of preprocessing. Called from the worker threads, so
+	 * implementations must keep per thread state such as stemmers themselves.
+	 */
+	public interface LineProcessor {
+		/**
+		 * Returns the processed line. Blank lines are dropped before they get
+		 * here.
+		 */
+		String processLine(String line) throws IOException;
+	}
+
+	/**
+	 * A LineProcessor that is given whole chunks, for steps such as tagging
+	 * that are cheaper for many lines at once.
+	 */
+	public interface ChunkProcessor extends LineProcessor {
+		/**
+		 * Replaces the lines by the processed lines.
+		 */
+		void processChunk(List<String> lines) throws IOException;
+	}
+
+	private static class OutputFile {
+		final String path;
+		final BufferedWriter writer;
+		final Runnable written;
+		boolean read;
+		boolean failed;
+
+		OutputFile(String path, Runnable written) throws IOException {
+			this.path = path;
+			this.writer = new BufferedWriter(new FileWriter(path));
+			this.written = written;
+		}
+	}
+
+	private static class Chunk {
+		final OutputFile out;
+		final Future<List<String>> lines;
+		final boolean last;
+
+		Chunk(OutputFile out, Future<List<String>> lines, boolean last) {
+			this.out = out;
+			this.lines = lines;
+			this.last = last;
+		}
+	}
+
+	private final LineProcessor processor;
+	private final ExecutorService executor;
+	private final int maxPending;
+	private final LinkedList<Chunk> pending = new LinkedList<Chunk>();
+
+	public PreprocessingPipeline(LineProcessor processor, int numThreads) {
+		this.processor = processor;
+		this.executor = Executors.newFixedThreadPool(numThreads);
+		this.maxPending = numThreads * CHUNKS_PER_WORKER;
+	}
+
+	/**
+	 * Reads all lines and queues them for processing into outFile, which is
+	 * created right away. The reader is closed. Errors while processing or
+	 * writing are reported on the console when the file is written.
+	 */
+	public void submit(BufferedReader in, String outFile) throws IOException {
+		submit(in, outFile, null);
+	}
+
+	/**
+	 * Same as {@link #submit(BufferedReader, String)}, and runs written on the
+	 * calling thread once outFile is completely written without errors.
+	 */
+	public void submit(BufferedReader in, String outFile, Runnable written) throws IOException {
+		OutputFile out;
+		try {
+			out = new OutputFile(outFile, written);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+		List<String> lines = new ArrayList<String>(LINES_PER_CHUNK);
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().length() == 0)
+					continue;
+				lines.add(line);
+				if (lines.size() == LINES_PER_CHUNK) {
+					enqueue(out, lines, false);
+					lines = new ArrayList<String>(LINES_PER_CHUNK);
+				}
+			}
+			out.read = true;
+		} finally {
+			// the last chunk closes the file, even if reading failed
+			enqueue(out, lines, true);
+			in.close();
+		}
+	}
+
+	private void enqueue(OutputFile out, final List<String> lines, boolean last) throws IOException {
+		Future<List<String>> processed = executor.submit(new Callable<List<String>>() {
+			@Override
+			public List<String> call() throws Exception {
+				if (processor instanceof ChunkProcessor) {
+					((ChunkProcessor) processor).processChunk(lines);
+					return lines;
+				}
+				for (int i = 0; i < lines.size(); i++)
+					lines.set(i, processor.processLine(lines.get(i)));
+				return lines;
+			}
+		});
+		pending.add(new Chunk(out, processed, last));
+		while (pending.size() > maxPending)
+			writeNext();
+	}
+
+	private void writeNext() throws IOException {
+		Chunk chunk = pending.removeFirst();
+		OutputFile out = chunk.out;
+		try {
+			List<String> lines = chunk.lines.get();
+			if (!out.failed) {
+				for (String line : lines)
+					out.writer.write(line + "\n");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			fail(out, e.getCause());
+		} catch (IOException e) {
+			fail(out, e);
+		}
+		if (chunk.last) {
+			try {
+				out.writer.close();
+			} catch (IOException e) {
+				fail(out, e);
+			}
+			if (out.read && !out.failed && out.written != null)
+				out.written.run();
+		}
+	}
+
+	private static void fail(OutputFile out, Throwable cause) {
+		if (!out.failed) {
+			out.failed = true;
+			ConsoleView.printlInConsoleln("I/O issues with file " + out.path);
+			if (!(cause instanceof IOException))
+				cause.printStackTrace();
+		}
+	}
+
+	/**
+	 * Waits until all submitted files are written and stops the workers.
+	 */
+	public void finish() throws IOException {
+		try {
+			while (!pending.isEmpty())
+				writeNext();
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Stops the workers. Files that are not written yet are left incomplete.
+	 */
+	public void close() {
+		executor.shutdownNow();
+		for (Chunk chunk : pending) {
+			if (chunk.last) {
+				try {
+					chunk.out.writer.close();
+				} catch (IOException e) {
+					// the file is incomplete anyway
+				}
+			}
+		}
+		pending.clear();
+	}
+}
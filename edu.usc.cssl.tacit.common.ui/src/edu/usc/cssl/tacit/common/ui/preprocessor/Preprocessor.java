@@ -10,32 +10,34 @@ import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.swing.text.Document;
 import javax.swing.text.rtf.RTFEditorKit;
 
 import org.annolab.tt4j.TreeTaggerException;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
-
-import com.fasterxml.jackson.core.JsonParseException;
 
 import edu.usc.cssl.tacit.common.queryprocess.IQueryProcessor;
-import edu.usc.cssl.tacit.common.queryprocess.QueryDataType;
+import edu.usc.cssl.tacit.common.queryprocess.JsonRecordReader;
 import edu.usc.cssl.tacit.common.queryprocess.QueryProcesser;
 import edu.usc.cssl.tacit.common.ui.CommonUiActivator;
 import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CMDataType;
@@ -56,6 +58,9 @@ import edu.usc.cssl.tacit.common.ui.preprocessor.Spelling2;
 
 public class Preprocessor {
 
+	// lines tagged at once when Latin is stemmed on the calling thread
+	private static final int LATIN_LINES_PER_CALL = 1000;
+
 	protected String ppDir = "";
 	protected String ppFilesLoc = "";
 	protected boolean doLowercase = false;
@@ -82,6 +87,12 @@ public class Preprocessor {
 			+ "tacit_temp_files" + System.getProperty("file.separator");
 	protected boolean doPreprocessing;
 	Spelling2 sp;
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private PreprocessingPipeline pipeline;
+	// TreeTagger sessions of the pipeline workers
+	private final List<LatinStemFilter> latinSessions = Collections.synchronizedList(new ArrayList<LatinStemFilter>());
+	private PreprocessedCache cache;
+	private String cacheSettings;
 	
 
 	public Preprocessor(String ppDirLocation, boolean doPreprocessing) throws IOException {
@@ -173,31 +184,46 @@ public class Preprocessor {
 		ppFilesLoc = ppDir + System.getProperty("file.separator") + subFolder;
 		new File(ppFilesLoc).mkdir();
 
-		for (Object obj : inData) {
-			if (obj instanceof CorpusClass) {
-				processCorpus((CorpusClass) obj, seperateFiles);
-			} else if (obj instanceof String) {
-				File inputFile = new File((String) obj);
-				if (inputFile.isDirectory()) {
-					continue;
-					// processDirectory(inputFile.getAbsolutePath());
-				} else {
-					
-					if (inputFile.getName().contains("DS_Store"))
+		if (doPreprocessing) {
+			if (cache == null)
+				cache = PreprocessedCache.fromPreferences();
+			cacheSettings = cacheSettings();
+		}
+		pipeline = createPipeline();
+		try {
+			for (Object obj : inData) {
+				if (obj instanceof CorpusClass) {
+					processCorpus((CorpusClass) obj, seperateFiles);
+				} else if (obj instanceof String) {
+					File inputFile = new File((String) obj);
+					if (inputFile.isDirectory()) {
 						continue;
-
-					if (doPreprocessing) {
-						String ppFile = processFile(inputFile.getAbsolutePath(), "");
-						if (ppFile != "")
-							outputFiles.add(ppFile);
+						// processDirectory(inputFile.getAbsolutePath());
 					} else {
-						// outputFiles.add(inputFile.getAbsolutePath());
-						outputFiles.add(checkfiletype(inputFile.getAbsolutePath()));
+					
+						if (inputFile.getName().contains("DS_Store"))
+							continue;
+
+						if (doPreprocessing) {
+							String ppFile = processFile(inputFile.getAbsolutePath(), "");
+							if (ppFile != "")
+								outputFiles.add(ppFile);
+						} else {
+							// outputFiles.add(inputFile.getAbsolutePath());
+							outputFiles.add(checkfiletype(inputFile.getAbsolutePath()));
+						}
 					}
+				} else {
+					continue;
 				}
-			} else {
-				continue;
 			}
+			if (pipeline != null)
+				pipeline.finish();
+		} finally {
+			if (pipeline != null)
+				pipeline.close();
+			pipeline = null;
+			destroyLatinSessions();
 		}
 
 		return outputFiles;
@@ -266,71 +292,268 @@ public class Preprocessor {
 	 */
 	private String processFile(String inFileBefore, String outName) {
 
-		String inFile = checkfiletype(inFileBefore);
-
 		String outFile = generateProcessedFileName(inFileBefore, outName);
 
+		String cacheKey = cacheKey(inFileBefore);
+		if (cacheKey != null) {
+			String cachedFile = uniqueFileName(outFile);
+			if (fetchCached(cacheKey, cachedFile))
+				return cachedFile;
+		}
+
+		String inFile = checkfiletype(inFileBefore);
+
 		try {
 			BufferedReader br = new BufferedReader(new FileReader(inFile));
-			if (new File(outFile).exists()) {
-				for (int i = 1; i < Integer.MAX_VALUE; i++) {
-					if (new File(outFile + Integer.toString(i)).exists()) {
-						continue;
-					} else {
-						outFile = outFile + Integer.toString(i);
-						break;
-					}
+			outFile = uniqueFileName(outFile);
+			processLines(br, outFile, cacheKey);
+		} catch (FileNotFoundException e) {
+			ConsoleView.printlInConsoleln("Error in input file path " + inFile);
+			return "";
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("I/O issues with file " + inFile);
+		}
+		return outFile;
+	}
+
+	/**
+	 * Same as {@link #processFile(String, String)} for text that is already in
+	 * memory, e.g. a record of a JSON corpus.
+	 * 
+	 * @param text
+	 *            Text to be preprocessed
+	 * @param outName
+	 *            Name of the preprocessed file
+	 * @return
+	 */
+	private String processText(String text, String outName) {
+		String outFile = uniqueFileName(generateProcessedFileName(outName, outName));
+		try {
+			processLines(new BufferedReader(new StringReader(text)), outFile, null);
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("I/O issues with file " + outFile);
+		}
+		return outFile;
+	}
+
+	private String uniqueFileName(String outFile) {
+		if (new File(outFile).exists()) {
+			for (int i = 1; i < Integer.MAX_VALUE; i++) {
+				if (new File(outFile + Integer.toString(i)).exists()) {
+					continue;
+				} else {
+					outFile = outFile + Integer.toString(i);
+					break;
 				}
 			}
+		}
+		return outFile;
+	}
 
-			BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
-
-			String currLine = "";
+	private void processLines(BufferedReader br, final String outFile, final String cacheKey) throws IOException {
+		if (pipeline != null) {
+			pipeline.submit(br, outFile, cacheKey == null ? null : new Runnable() {
+				@Override
+				public void run() {
+					cacheOutput(cacheKey, outFile);
+				}
+			});
+			return;
+		}
+		BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
 
-			while ((currLine = br.readLine()) != null) {
-				if (currLine.trim().length() != 0) {
-					if (doLowercase) {
-						currLine = currLine.toLowerCase();
-					}
-					
-					for (char c : delimiters.toCharArray()) {
-						currLine = currLine.replace(c, ' ');
-					}
+		String currLine = "";
+		List<String> latinLines = new ArrayList<String>();
 
-					if (doStopWords) {
-						currLine = removeStopWords(currLine);
-					}
-					
-					if (doSpellCheck) {
-						currLine = sp.SpellCorrector(currLine);
-					}
+		while ((currLine = br.readLine()) != null) {
+			if (currLine.trim().length() != 0) {
+				currLine = preprocessLine(currLine, stemmer);
 
-					if (doStemming) {
-						if (isLatin) {
-							try {
-								currLine = latinStemmer.doStemming(currLine);
-							} catch (TreeTaggerException e) {
-								ConsoleView.printlInConsole("Error stemming the line: " + currLine);
-								ConsoleView.printlInConsole("Skipping the line and continuing.");
-							}
-							latinStemmer.destroyTT();
-						} else {
-							currLine = stemLine(currLine);
-						}
-					}
+				if (doStemming && isLatin) {
+					latinLines.add(currLine);
+					if (latinLines.size() == LATIN_LINES_PER_CALL)
+						writeLatinStemmed(latinLines, bw);
+				} else {
 					bw.write(currLine + "\n");
 				}
 			}
+		}
+		writeLatinStemmed(latinLines, bw);
 
-			bw.close();
-			br.close();
-		} catch (FileNotFoundException e) {
-			ConsoleView.printlInConsoleln("Error in input file path " + inFile);
-			return "";
+		bw.close();
+		br.close();
+		cacheOutput(cacheKey, outFile);
+	}
+
+	/*
+	 * Everything besides the input file that changes the preprocessed output.
+	 */
+	private String cacheSettings() {
+		StringBuilder settings = new StringBuilder();
+		settings.append("lowercase=").append(doLowercase).append('\n');
+		settings.append("delimiters=").append(delimiters).append('\n');
+		if (doStopWords)
+			settings.append("stopwords=").append(new TreeSet<String>(stopWordsSet)).append('\n');
+		if (doSpellCheck) {
+			File dictionary = new File(sp.getDictionary());
+			settings.append("spelling=").append(dictionary.getAbsolutePath()).append(' ')
+					.append(dictionary.length()).append(' ').append(dictionary.lastModified()).append('\n');
+		}
+		if (doStemming)
+			settings.append("stemming=").append(stemLang).append('\n');
+		return settings.toString();
+	}
+
+	/*
+	 * Returns null if the file is not cached, e.g. because it cannot be read.
+	 * The file type is part of the key since PDF and RTF files are converted
+	 * to text first.
+	 */
+	private String cacheKey(String inFile) {
+		if (cache == null || !doPreprocessing)
+			return null;
+		File file = new File(inFile);
+		String name = file.getName();
+		String type = name.substring(name.lastIndexOf('.') + 1);
+		try {
+			return PreprocessedCache.key(file, cacheSettings + "type=" + type + "\n");
 		} catch (IOException e) {
-			ConsoleView.printlInConsoleln("I/O issues with file " + inFile);
+			return null;
+		}
+	}
+
+	private boolean fetchCached(String cacheKey, String outFile) {
+		try {
+			return cache.fetch(cacheKey, new File(outFile));
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("Could not read the cached copy of " + outFile);
+			return false;
+		}
+	}
+
+	private void cacheOutput(String cacheKey, String outFile) {
+		if (cacheKey == null)
+			return;
+		try {
+			cache.store(cacheKey, new File(outFile));
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("Could not cache preprocessed file " + outFile);
 		}
-		return outFile;
+	}
+
+	/**
+	 * Lowercase, delimiter, stop word, spelling and Snowball stemming steps
+	 * for one non blank line. Latin stemming is left to the caller.
+	 */
+	private String preprocessLine(String currLine, SnowballStemmer stemmer) throws IOException {
+		if (doLowercase) {
+			currLine = currLine.toLowerCase();
+		}
+
+		for (char c : delimiters.toCharArray()) {
+			currLine = currLine.replace(c, ' ');
+		}
+
+		if (doStopWords) {
+			currLine = removeStopWords(currLine);
+		}
+
+		if (doSpellCheck) {
+			currLine = sp.SpellCorrector(currLine);
+		}
+
+		if (doStemming && !isLatin) {
+			currLine = stemLine(currLine, stemmer);
+		}
+		return currLine;
+	}
+
+	/**
+	 * Sets the number of threads that preprocess lines. Defaults to the number
+	 * of processors; 1 processes the files one line at a time on the calling
+	 * thread.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/*
+	 * Returns null if the files should be processed on the calling thread.
+	 * Each worker stems Latin in a TreeTagger session of its own, a chunk at a
+	 * time.
+	 */
+	private PreprocessingPipeline createPipeline() {
+		if (numThreads < 2)
+			return null;
+		final ThreadLocal<SnowballStemmer> stemmers = new ThreadLocal<SnowballStemmer>() {
+			@Override
+			protected SnowballStemmer initialValue() {
+				return stemSelect(stemLang);
+			}
+		};
+		if (doStemming && isLatin) {
+			final ThreadLocal<LatinStemFilter> latinStemmers = new ThreadLocal<LatinStemFilter>() {
+				@Override
+				protected LatinStemFilter initialValue() {
+					LatinStemFilter session = new LatinStemFilter(latinStemLocation);
+					latinSessions.add(session);
+					return session;
+				}
+			};
+			return new PreprocessingPipeline(new PreprocessingPipeline.ChunkProcessor() {
+				@Override
+				public String processLine(String line) throws IOException {
+					List<String> lines = new ArrayList<String>(Collections.singletonList(line));
+					processChunk(lines);
+					return lines.get(0);
+				}
+
+				@Override
+				public void processChunk(List<String> lines) throws IOException {
+					for (int i = 0; i < lines.size(); i++)
+						lines.set(i, preprocessLine(lines.get(i), doStemming ? stemmers.get() : null));
+					stemLatin(latinStemmers.get(), lines);
+				}
+			}, numThreads);
+		}
+		return new PreprocessingPipeline(new PreprocessingPipeline.LineProcessor() {
+			@Override
+			public String processLine(String line) throws IOException {
+				return preprocessLine(line, doStemming ? stemmers.get() : null);
+			}
+		}, numThreads);
+	}
+
+	/*
+	 * Stems the lines in place with one call to the tagger. If tagging fails
+	 * they are left unstemmed.
+	 */
+	private static void stemLatin(LatinStemFilter latinStemmer, List<String> lines) throws IOException {
+		if (lines.isEmpty())
+			return;
+		try {
+			latinStemmer.doStemming(lines);
+		} catch (TreeTaggerException e) {
+			ConsoleView.printlInConsole("Error stemming the lines: " + lines.get(0) + " ...");
+			ConsoleView.printlInConsole("Skipping the lines and continuing.");
+		}
+	}
+
+	private void writeLatinStemmed(List<String> lines, BufferedWriter bw) throws IOException {
+		stemLatin(latinStemmer, lines);
+		for (String line : lines)
+			bw.write(line + "\n");
+		lines.clear();
+	}
+
+	private void destroyLatinSessions() {
+		synchronized (latinSessions) {
+			for (LatinStemFilter session : latinSessions)
+				session.destroyTT();
+			latinSessions.clear();
+		}
+		if (latinStemmer != null)
+			latinStemmer.destroyTT();
 	}
 
 	/**
@@ -340,7 +563,7 @@ public class Preprocessor {
 	 *            Unstemmed string
 	 * @return Stemmed string
 	 */
-	private String stemLine(String line) {
+	private String stemLine(String line, SnowballStemmer stemmer) {
 		if (line.isEmpty())
 			return "";
 		StringBuilder returnString = new StringBuilder();
@@ -450,121 +673,90 @@ public class Preprocessor {
 		}
 	}
 
-	private List<String> processQuery(CorpusClass corpusClass, JSONObject obj) throws ParseException {
-		String tempDir = tempPPFileLoc + "testData";
-		CMDataType corpusType = corpusClass.getParent().getDatatype();
-		if (!new File(tempDir).exists())
-			new File(tempDir).mkdir();
-		QueryProcesser qp = new QueryProcesser();
-		String tempFile = tempDir + File.separator + "temp_json_" + System.currentTimeMillis() + ".json";
-		File f = new File(tempFile);
-		FileWriter writer;
-		List<String> ans = null;
-		try {
-			writer = new FileWriter(f);
-			// writer.write("{\"data\":"+obj.toJSONString()+"}");
-			// writer.write(obj.toJSONString());
-			// writer.close();
-			if(corpusType == CMDataType.IMPORTED_CSV){
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				
-				String fields = corpusClass.getAnalysisField();
-				
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), fields, true);
-			}
-			if (corpusType == CMDataType.TWITTER_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.Text", true);
-			}
-			if(corpusType == CMDataType.LATIN_JSON){
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.body", true);
-			}
-			if (corpusType == CMDataType.CONGRESS_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.body", true);
-			}
-			if (corpusType == CMDataType.PRESIDENCY_JSON) {
-				writer.write(obj.toJSONString());
-				writer.close();
+	/**
+	 * Text fields to extract from the records of a JSON array corpus and how
+	 * to query them, see {@link QueryProcesser#processRecord}.
+	 */
+	private static class RecordQuery {
+		final String keyFields;
+		final boolean wrapData;
+		final boolean addDataField;
+		// one processor per corpus class, so the filters are compiled once
+		final QueryProcesser processor = new QueryProcesser();
+
+		RecordQuery(String keyFields, boolean wrapData, boolean addDataField) {
+			this.keyFields = keyFields;
+			this.wrapData = wrapData;
+			this.addDataField = addDataField;
+		}
+	}
 
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "Body.Speaker,Body.Text", true);
-			}
-			if (corpusType == CMDataType.PROPUBLICA_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(),"data.title,data.summary", true);
-			}
-			if (corpusType == CMDataType.FRONTIER_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.journal_body", true);
-			}
-			if (corpusType == CMDataType.HANSARD_JSON) {
-				IQueryProcessor iqp = new QueryProcesser(corpusClass);
-				Map<String, QueryDataType> keys = iqp.getJsonKeys();
-				Set<String> k = keys.keySet();
-				System.out.println(k);
-				if(k.contains("Body.Speaker"))
-				{	
-					writer.write(obj.toJSONString());
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(), "Body.Speaker,Body.Text", true);
-				}
-				else{
-					writer.write("{\"data\":" + obj.toJSONString() + "}");
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.Body", true);
-				}
-			}
-			if (corpusType == CMDataType.STACKEXCHANGE_JSON) {
-				IQueryProcessor iqp = new QueryProcesser(corpusClass);
-				Map<String, QueryDataType> keys = iqp.getJsonKeys();
-				Set<String> k = keys.keySet();
-				String keyFields = "";
-				if (k.contains("answer_body"))
-					keyFields += "data.answer_body,";
-				if (k.contains("question_body"))
-					keyFields += "data.question_body,";
-				if (k.contains("comment_body"))
-					keyFields += "data.comment_body,";
-				if (k.contains("question.question_body"))
-					keyFields += "question.question_body,";
-				if (k.contains("answers_dets.answer_body"))
-					keyFields += "answers_dets.answer_body,";
-				if (k.contains("question_body") || k.contains("comment_body") || k.contains("answer_body")) {
-					writer.write("{\"data\":" + obj.toJSONString() + "}");
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(),
-							keyFields.substring(0, keyFields.length() - 1), true);
-				} else {
-					writer.write(obj.toJSONString());
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(),
-							keyFields.substring(0, keyFields.length() - 1), false);
-				}
+	/**
+	 * Works out the record query of the corpus class once, so that the
+	 * records can be queried without looking at the corpus again.
+	 * 
+	 * @return the query, or null if the records of the corpus type have no
+	 *         text fields
+	 */
+	private RecordQuery createRecordQuery(CorpusClass corpusClass) throws FileNotFoundException {
+		CMDataType corpusType = corpusClass.getParent().getDatatype();
+		if (corpusType == CMDataType.IMPORTED_CSV)
+			return new RecordQuery(corpusClass.getAnalysisField(), true, true);
+		if (corpusType == CMDataType.TWITTER_JSON)
+			return new RecordQuery("data.Text", true, true);
+		if (corpusType == CMDataType.LATIN_JSON)
+			return new RecordQuery("data.body", true, true);
+		if (corpusType == CMDataType.CONGRESS_JSON)
+			return new RecordQuery("data.body", true, true);
+		if (corpusType == CMDataType.PRESIDENCY_JSON)
+			return new RecordQuery("Body.Speaker,Body.Text", false, true);
+		if (corpusType == CMDataType.PROPUBLICA_JSON)
+			return new RecordQuery("data.title,data.summary", true, true);
+		if (corpusType == CMDataType.FRONTIER_JSON)
+			return new RecordQuery("data.journal_body", true, true);
+		if (corpusType == CMDataType.HANSARD_JSON) {
+			IQueryProcessor iqp = new QueryProcesser(corpusClass);
+			Set<String> k = iqp.getJsonKeys().keySet();
+			if (k.contains("Body.Speaker"))
+				return new RecordQuery("Body.Speaker,Body.Text", false, true);
+			return new RecordQuery("data.Body", true, true);
+		}
+		if (corpusType == CMDataType.STACKEXCHANGE_JSON) {
+			IQueryProcessor iqp = new QueryProcesser(corpusClass);
+			Set<String> k = iqp.getJsonKeys().keySet();
+			String keyFields = "";
+			if (k.contains("answer_body"))
+				keyFields += "data.answer_body,";
+			if (k.contains("question_body"))
+				keyFields += "data.question_body,";
+			if (k.contains("comment_body"))
+				keyFields += "data.comment_body,";
+			if (k.contains("question.question_body"))
+				keyFields += "question.question_body,";
+			if (k.contains("answers_dets.answer_body"))
+				keyFields += "answers_dets.answer_body,";
+			if (keyFields.isEmpty())
+				return null;
+			keyFields = keyFields.substring(0, keyFields.length() - 1);
+			if (k.contains("question_body") || k.contains("comment_body") || k.contains("answer_body"))
+				return new RecordQuery(keyFields, true, true);
+			return new RecordQuery(keyFields, false, false);
+		}
+		if (corpusType == CMDataType.TYPEPAD_JSON)
+			return new RecordQuery("data.content", true, true);
+		if (corpusType == CMDataType.PLOSONE_JSON)
+			return new RecordQuery("data.everything", true, true);
+		return null;
+	}
 
-				//System.out.println(ans+"------------Checking------------------");
-			}
-			if (corpusType  == CMDataType.TYPEPAD_JSON){
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.content", true);
-			}
-			if (corpusType == CMDataType.PLOSONE_JSON){
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.everything", true);
-			}
-			f.delete();
+	private List<String> processQuery(CorpusClass corpusClass, RecordQuery query, Object record) {
+		try {
+			Object document = query.wrapData ? QueryProcesser.wrapData(record) : record;
+			return query.processor.processRecord(corpusClass, document, query.keyFields, query.addDataField);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		return ans;
+		return null;
 	}
 
 	/**
@@ -641,13 +833,10 @@ public class Preprocessor {
 	 * @throws TikaException
 	 */
 	private void processJSONArray(CorpusClass corpusClass, boolean seperateFiles) {
-		/*** read from file ***/
-		JSONParser jParser;
 		String corpusClassPath = corpusClass.getTacitLocation();
 		String tempDir = "";
 		String tempFile = "";
 		Date dateobj = new Date();
-		StringBuilder sb = new StringBuilder();
 		if (!doPreprocessing)
 			tempFile = tempPPFileLoc + corpusClass.getClassName() + System.currentTimeMillis() + ".json";
 		else {
@@ -655,121 +844,103 @@ public class Preprocessor {
 			new File(tempDir).mkdir();
 		}
 
-		jParser = new JSONParser();
+		RecordQuery query;
+		try {
+			query = createRecordQuery(corpusClass);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (query == null)
+			return;
 
 		dateobj = new Date();
 
 		File[] fileList = new File(corpusClassPath).listFiles();
 		for (int i = 0; i < fileList.length; i++) {
+			String fileName = fileList[i].getAbsolutePath();
+			if (!fileName.endsWith(".json"))
+				continue;
+			JsonRecordReader records = null;
+			BufferedWriter combined = null;
+			BufferedWriter bWriter = null;
 			try {
-				String fileName = fileList[i].getAbsolutePath();
-				if (!fileList[i].getAbsolutePath().endsWith(".json"))
-					continue;
-				JSONArray objects = (JSONArray) jParser.parse(new FileReader(fileName));
+				// the records are read and queried one at a time
+				records = new JsonRecordReader(new FileReader(fileName));
 				int j = 0;
 				boolean first = true;
-				boolean lineCheck = true;
-				
+
+				File combinedFile = null;
+				if (!seperateFiles) {
+					if (!doPreprocessing)
+						combinedFile = new File(tempFile);
+					else
+						combinedFile = new File(tempDir + System.getProperty("file.separator")
+								+ corpusClass.getClassName() + "-" + i + "-" + df.format(dateobj));
+					combined = new BufferedWriter(new FileWriter(combinedFile));
+				}
+
 				File summary = new File("summary.csv");
-				BufferedWriter bWriter = new BufferedWriter(new FileWriter(summary));
-				for (Object obj : objects) {
-					
-					JSONObject twitterStream = (JSONObject) obj;
-					if(first){
-					for(Object keys: twitterStream.keySet()){
-						String key = (String) keys;
-						if(lineCheck){
-							System.out.println(key);
-							bWriter.write(key);
-							lineCheck = false;
-						}else{
-							System.out.println(","+key);
-							bWriter.write(","+key);
-						}
-					}
-					lineCheck = true;
-					System.out.println("\n");
-					bWriter.write("\n");
-					first = false;
+				bWriter = new BufferedWriter(new FileWriter(summary));
+				while (records.hasNext()) {
+					Object record = records.next();
+					if (!(record instanceof Map))
+						continue;
+					Map<?, ?> fields = summaryFields((Map<?, ?>) record);
+					if (first) {
+						writeSummaryRow(bWriter, fields.keySet(), false);
+						first = false;
 					}
-					File file;
-					List<String> outputs = processQuery(corpusClass, twitterStream);
-					if (!outputs.isEmpty() && outputs.get(0) != null && !outputs.get(0).equals("")) {
-						
-						for(Object keys: twitterStream.keySet()){
-							String key = (String) keys;
-							Object val = twitterStream.get(key);
-							if (val == null) {
-								val = " ";
-							}
-							if(lineCheck){
-								System.out.println("\""+val.toString()+"\"");
-								bWriter.write("\""+val.toString()+"\"");
-								lineCheck = false;
-							}else{
-								System.out.println(",\""+val.toString()+"\"");
-								bWriter.write(",\""+val.toString()+"\"");
-							}
-						}
-						lineCheck = true;
-						System.out.println("\n");
-						bWriter.write("\n");
+					List<String> outputs = processQuery(corpusClass, query, record);
+					if (outputs != null && !outputs.isEmpty() && outputs.get(0) != null
+							&& !outputs.get(0).equals("")) {
+						writeSummaryRow(bWriter, fields.values(), true);
 						dateobj = new Date();
-						if (!doPreprocessing) {
-							file = new File(tempFile);
-						} else {
-							file = new File(tempDir + System.getProperty("file.separator") + corpusClass.getClassName()
-									+ j + "-" + df.format(dateobj));
-						}
-						if (file.exists()) {
-							file.delete();
-						}
 						if (seperateFiles) {
-							FileWriter fw = new FileWriter(file.getAbsoluteFile());
-							BufferedWriter bw = new BufferedWriter(fw);
 							String tweet = outputs.get(0);
-							bw.write(tweet);
-							// addContentsToSummary(file.getName(),tweet);
-							bw.close();
 							if (!doPreprocessing) {
-								outputFiles.add(processFile(tempFile,
+								outputFiles.add(processText(tweet,
 										corpusClass.getClassName() + "-" + j + "-" + df.format(dateobj)));
 							} else {
+								File file = new File(tempDir + System.getProperty("file.separator")
+										+ corpusClass.getClassName() + j + "-" + df.format(dateobj));
+								if (file.exists()) {
+									file.delete();
+								}
+								BufferedWriter bw = new BufferedWriter(new FileWriter(file.getAbsoluteFile()));
+								try {
+									bw.write(tweet);
+								} finally {
+									bw.close();
+								}
 								outputFiles.add(checkfiletype(file.getAbsolutePath()));
 							}
 						} else {
-							sb.append(outputs.get(0));
+							combined.write(outputs.get(0));
 						}
 					}
 
 					j++;
 
 				}
-				bWriter.flush();
+				records.close();
 				bWriter.close();
 				outputFiles.add(summary.getAbsolutePath());
 				if (!seperateFiles) {
-					File file = new File(tempFile);
-					if (file.exists()) {
-						file.delete();
-					}
-					FileWriter fw = new FileWriter(file.getAbsoluteFile());
-					BufferedWriter bw = new BufferedWriter(fw);
-					bw.write(sb.toString());
-					bw.close();
+					combined.close();
 					if (!doPreprocessing) {
 						outputFiles.add(
 								processFile(tempFile, corpusClass.getClassName() + "-" + j + "-" + df.format(dateobj)));
 					} else {
-						outputFiles.add(checkfiletype(file.getAbsolutePath()));
+						outputFiles.add(checkfiletype(combinedFile.getAbsolutePath()));
 					}
 				}
-			} catch (JsonParseException e) {
-				e.printStackTrace();
 			} catch (IOException e) {
 				e.printStackTrace();
-			} catch (ParseException e) {
-				e.printStackTrace();
+			} finally {
+				IOUtils.closeQuietly(records);
+				IOUtils.closeQuietly(bWriter);
+				IOUtils.closeQuietly(combined);
 			}
 		}
 		if (new File(tempFile).exists()) {
@@ -777,6 +948,46 @@ public class Preprocessor {
 		}
 	}
 
+	/*
+	 * The summary lists the fields of a record the way json-simple kept them:
+	 * in the iteration order of a HashMap filled in document order, with
+	 * nested values written as json-simple JSON text.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<?, ?> summaryFields(Map<?, ?> record) {
+		JSONObject fields = new JSONObject();
+		for (Map.Entry<?, ?> field : record.entrySet())
+			fields.put(field.getKey(), toJSONSimple(field.getValue()));
+		return fields;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object toJSONSimple(Object value) {
+		if (value instanceof Map)
+			return summaryFields((Map<?, ?>) value);
+		if (value instanceof List) {
+			JSONArray array = new JSONArray();
+			for (Object element : (List<?>) value)
+				array.add(toJSONSimple(element));
+			return array;
+		}
+		return value;
+	}
+
+	private static void writeSummaryRow(BufferedWriter bWriter, Collection<?> cells, boolean quote)
+			throws IOException {
+		boolean lineCheck = true;
+		for (Object cell : cells) {
+			if (cell == null)
+				cell = " ";
+			if (!lineCheck)
+				bWriter.write(",");
+			bWriter.write(quote ? "\"" + cell.toString() + "\"" : cell.toString());
+			lineCheck = false;
+		}
+		bWriter.write("\n");
+	}
+
 	/**
 	 * Process a CorpusClass of type RedditJSON. Remove function on completing
 	 * support for Generic JSON files.
@@ -1,21 +1,76 @@
 package edu.usc.cssl.tacit.common.ui.preprocessor;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.*;
 
+/**
+ * Norvig style spelling corrector. A word that is not in the dictionary is
+ * corrected to the most frequent dictionary word one edit away, or else two
+ * edits away, where an edit deletes a character, swaps two adjacent ones, or
+ * replaces or inserts a letter a-z.
+ *
+ * Words two edits away are looked up in a symmetric delete index instead of
+ * generating all edits of the edits: every dictionary word is indexed under
+ * the hashes of the strings left after deleting up to two of its characters,
+ * and a word two edits away shares one of them with the misspelling. The
+ * index is built once and corrections are cached, so a Spelling2 can be
+ * shared by the threads of a run.
+ */
 public class Spelling2 {
 
+	private static final Pattern WORD = Pattern.compile("\\w+");
+	private static final Pattern BOUNDARY = Pattern.compile("\\b");
+	private static final int MAX_EDITS = 2;
+	private static final int MAX_CACHED = 1 << 16;
+
 	private final HashMap<String, Integer> nWords = new HashMap<String, Integer>();
+	private final String[] words;
+	private final int[] counts;
+	// hash of a delete << 32 | id of the word it is from, sorted
+	private final long[] deletes;
+	private final ConcurrentHashMap<String, String> corrections = new ConcurrentHashMap<String, String>();
 	String dict;
 	public Spelling2(String file) throws IOException {
 		dict=file;
 		BufferedReader in = new BufferedReader(new FileReader(new File(file)));
-		Pattern p = Pattern.compile("\\w+");
 		for(String temp = ""; temp != null; temp = in.readLine()){
-			Matcher m = p.matcher(temp.toLowerCase());
+			Matcher m = WORD.matcher(temp.toLowerCase());
 			while(m.find()) nWords.put((temp = m.group()), nWords.containsKey(temp) ? nWords.get(temp) + 1 : 1);
 		}
 		in.close();
+
+		words = new String[nWords.size()];
+		counts = new int[nWords.size()];
+		int n = 0, size = 0;
+		for (Map.Entry<String, Integer> e : nWords.entrySet()) {
+			words[n] = e.getKey();
+			counts[n++] = e.getValue();
+			size += deleteCount(e.getKey().length());
+		}
+		long[] index = new long[size];
+		size = 0;
+		int[] hashes = new int[0];
+		for (int id = 0; id < words.length; id++) {
+			char[] w = words[id].toCharArray();
+			if (hashes.length < deleteCount(w.length))
+				hashes = new int[deleteCount(w.length)];
+			int k = deleteHashes(w, hashes);
+			for (int i = 0; i < k; i++)
+				index[size++] = ((long) hashes[i] << 32) | id;
+		}
+		// deleting different characters can leave the same string
+		Arrays.sort(index, 0, size);
+		int distinct = 0;
+		for (int i = 0; i < size; i++) {
+			if (distinct == 0 || index[i] != index[distinct - 1])
+				index[distinct++] = index[i];
+		}
+		deletes = Arrays.copyOf(index, distinct);
+	}
+
+	public String getDictionary() {
+		return dict;
 	}
 
 	private final ArrayList<String> edits(String word) {
@@ -29,48 +84,249 @@ public class Spelling2 {
 
 	public final String correct(String word) {
 		if(nWords.containsKey(word)) return word;
+		String corrected = corrections.get(word);
+		if (corrected == null) {
+			corrected = lookup(word);
+			if (corrections.size() < MAX_CACHED)
+				corrections.put(word, corrected);
+		}
+		return corrected;
+	}
+
+	private String lookup(String word) {
 		ArrayList<String> list = edits(word);
+		// among equally frequent words the one generated last wins
 		HashMap<Integer, String> candidates = new HashMap<Integer, String>();
 		for(String s : list) if(nWords.containsKey(s)) candidates.put(nWords.get(s),s);
 		if(candidates.size() > 0) return candidates.get(Collections.max(candidates.keySet()));
-		for(String s : list) for(String w : edits(s)) if(nWords.containsKey(w)) candidates.put(nWords.get(w),w);
-		return candidates.size() > 0 ? candidates.get(Collections.max(candidates.keySet())) : word;
+		return lookupTwoEdits(word, list);
+	}
+
+	/*
+	 * Finds the word that generating the edits of all words in list would
+	 * pick, without generating them. list holds the edits of word, none of
+	 * which is in the dictionary.
+	 */
+	private String lookupTwoEdits(String word, ArrayList<String> list) {
+		char[] chars = word.toCharArray();
+		int[] hashes = new int[deleteCount(chars.length)];
+		int k = deleteHashes(chars, hashes);
+		Set<Integer> seen = new HashSet<Integer>();
+		List<String> best = new ArrayList<String>();
+		int bestCount = 0;
+		for (int i = 0; i < k; i++) {
+			int from = lowerBound((long) hashes[i] << 32);
+			for (int j = from; j < deletes.length && (int) (deletes[j] >>> 32) == hashes[i]; j++) {
+				int id = (int) deletes[j];
+				if (!seen.add(id) || counts[id] < bestCount)
+					continue;
+				String w = words[id];
+				if (Math.abs(w.length() - word.length()) > MAX_EDITS || distance(word, w) > MAX_EDITS)
+					continue;
+				// inserted and replaced characters are letters
+				if (!isLetters(w) && lastPosition(list, w) == null)
+					continue;
+				if (counts[id] > bestCount) {
+					bestCount = counts[id];
+					best.clear();
+				}
+				best.add(w);
+			}
+		}
+		if (best.isEmpty())
+			return word;
+		String last = best.get(0);
+		int[] lastPosition = lastPosition(list, last);
+		for (int i = 1; i < best.size(); i++) {
+			int[] position = lastPosition(list, best.get(i));
+			if (position[0] > lastPosition[0] || (position[0] == lastPosition[0] && position[1] > lastPosition[1])) {
+				last = best.get(i);
+				lastPosition = position;
+			}
+		}
+		return last;
+	}
+
+	/*
+	 * Returns the index of the last string in list that w is an edit of and
+	 * the index of the last time w is generated from it, or null if w is not
+	 * an edit of any.
+	 */
+	private int[] lastPosition(List<String> list, String w) {
+		for (int i = list.size() - 1; i >= 0; i--) {
+			if (isEdit(list.get(i), w))
+				return new int[] { i, edits(list.get(i)).lastIndexOf(w) };
+		}
+		return null;
+	}
+
+	// whether edits(a) contains b
+	private static boolean isEdit(String a, String b) {
+		int n = a.length();
+		if (b.length() == n - 1) {
+			int i = 0;
+			while (i < n - 1 && a.charAt(i) == b.charAt(i))
+				i++;
+			return a.regionMatches(i + 1, b, i, n - 1 - i);
+		}
+		if (b.length() == n + 1) {
+			int i = 0;
+			while (i < n && a.charAt(i) == b.charAt(i))
+				i++;
+			return isLetter(b.charAt(i)) && b.regionMatches(i + 1, a, i, n - i);
+		}
+		if (b.length() != n)
+			return false;
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i))
+			i++;
+		if (i == n) {
+			// replacing a letter by itself or swapping two equal characters
+			for (int j = 0; j < n; j++) {
+				if (isLetter(a.charAt(j)) || (j > 0 && a.charAt(j) == a.charAt(j - 1)))
+					return true;
+			}
+			return false;
+		}
+		if (isLetter(b.charAt(i)) && a.regionMatches(i + 1, b, i + 1, n - i - 1))
+			return true;
+		return i < n - 1 && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+				&& a.regionMatches(i + 2, b, i + 2, n - i - 2);
+	}
+
+	/*
+	 * Damerau-Levenshtein distance with transpositions of characters that
+	 * are edited again, the least number of edits from a to b.
+	 */
+	private static int distance(String a, String b) {
+		int n = a.length(), m = b.length();
+		int max = n + m;
+		int[][] d = new int[n + 2][m + 2];
+		d[0][0] = max;
+		for (int i = 0; i <= n; i++) {
+			d[i + 1][0] = max;
+			d[i + 1][1] = i;
+		}
+		for (int j = 0; j <= m; j++) {
+			d[0][j + 1] = max;
+			d[1][j + 1] = j;
+		}
+		for (int i = 1; i <= n; i++) {
+			int db = 0;
+			for (int j = 1; j <= m; j++) {
+				// last row before i and column before j with the swapped characters
+				int k = i - 1;
+				while (k > 0 && a.charAt(k - 1) != b.charAt(j - 1))
+					k--;
+				int l = db;
+				int cost = 1;
+				if (a.charAt(i - 1) == b.charAt(j - 1)) {
+					cost = 0;
+					db = j;
+				}
+				int v = Math.min(d[i][j] + cost, Math.min(d[i + 1][j] + 1, d[i][j + 1] + 1));
+				v = Math.min(v, d[k][l] + (i - k - 1) + 1 + (j - l - 1));
+				d[i + 1][j + 1] = v;
+			}
+		}
+		return d[n + 1][m + 1];
+	}
+
+	private int lowerBound(long key) {
+		int lo = 0, hi = deletes.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (deletes[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private static int deleteCount(int length) {
+		return 1 + length + length * (length - 1) / 2;
+	}
+
+	/*
+	 * Stores the hashes of w and of w with one or two characters deleted in
+	 * hashes and returns how many there are.
+	 */
+	private static int deleteHashes(char[] w, int[] hashes) {
+		int n = w.length;
+		int k = 0;
+		hashes[k++] = hash(w, -1, -1);
+		for (int p = 0; p < n; p++) {
+			hashes[k++] = hash(w, p, -1);
+			for (int q = p + 1; q < n; q++)
+				hashes[k++] = hash(w, p, q);
+		}
+		return k;
+	}
+
+	// hash of w without the characters at p and q
+	private static int hash(char[] w, int p, int q) {
+		int h = 0;
+		for (int i = 0; i < w.length; i++) {
+			if (i != p && i != q)
+				h = 31 * h + w[i];
+		}
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean isLetter(char c) {
+		return c >= 'a' && c <= 'z';
+	}
+
+	private static boolean isLetters(String w) {
+		for (int i = 0; i < w.length(); i++) {
+			if (!isLetter(w.charAt(i)))
+				return false;
+		}
+		return true;
+	}
+
+	// whether s matches \w+
+	private static boolean isWord(String s) {
+		if (s.length() == 0)
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (!(isLetter(c) || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_'))
+				return false;
+		}
+		return true;
 	}
 
 	public String SpellCorrector(String a) throws IOException {
 		//String a = "homs to do are yoe, chirag, mangoes ; Chirag: is definitely& a good # boy$";
 		//System.out.println(a);
-		String[] arr = a.split("\\b");
+		String[] arr = BOUNDARY.split(a);
 		//System.out.println(Arrays.toString(arr));
-		List<String> list = new ArrayList<String>();
-		
+		StringBuilder finalop = new StringBuilder(a.length());
+
 		for(int i = 0; i < arr.length; i += 1)
 		{
-		     
+
 		     String b = arr[i];
-		     if (b.matches("\\w+")){
-		    	 String c = new Spelling2(dict).correct(b);
-		 		list.add(c);
+		     if (isWord(b)){
+		    	 finalop.append(correct(b));
 		     }
-		     
+
 		     else {
 			     //if(punctuation.contains(b)){
-			     list.add(b);
+			     finalop.append(b);
 			    	 //System.out.println(b);
 		     }
-		
-		}
-		String [] op = list.toArray(new String[list.size()]);
-		//System.out.println(" c         "+Arrays.toString(op));
-		StringBuilder finalop = new StringBuilder();
-		for ( int i = 0; i < op.length ; i++)
-		{
-			finalop.append(op[i]);
+
 		}
-	    System.out.println("Final " + finalop.toString());
 	    return finalop.toString();
 	}
-	
+
 
 
 
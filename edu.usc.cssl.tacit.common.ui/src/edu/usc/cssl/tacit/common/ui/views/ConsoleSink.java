@@ -0,0 +1,248 @@
+package edu.usc.cssl.tacit.common.ui.views;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Collects console messages from any thread and hands them to the console
+ * widget in batches. Posting a message only claims a slot of a bounded ring
+ * buffer, without locks; a single flusher thread empties the ring, writes
+ * every message to a rotating log file and passes what it gathered to the
+ * target at most once every flush interval, as one string. The text passed
+ * on is capped to the characters the widget keeps, the log file has it all.
+ * When the ring is full, posting waits a while for the flusher; a message
+ * that still finds no slot, or that comes after the flusher died, is dropped
+ * so that logging never hangs the caller. Dropped messages are counted.
+ */
+public class ConsoleSink {
+
+	/**
+	 * Receives the batched text on the flusher thread
+	 */
+	public interface Target {
+		void append(String text);
+	}
+
+	private static final String LOG_NAME = "console.log";
+
+	// longest time post waits for a slot of a full ring
+	private static final long POST_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Target target;
+	private final long flushNanos;
+	private final int maxRetained;
+	private final File logDir;
+	private final long maxLogChars;
+	private final int maxLogFiles;
+
+	// bounded multi producer ring: sequences[i] == position when slot i is
+	// free for the producer at position, position + 1 once it holds the
+	// message for the flusher
+	private final int mask;
+	private final AtomicReferenceArray<String> slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head;
+	private final AtomicLong dropped = new AtomicLong();
+
+	private final Thread flusher;
+	private volatile boolean closed;
+	private Writer log;
+	private boolean logFailed;
+	private long logChars;
+	private final StringBuilder pending = new StringBuilder();
+	private long lastFlush;
+
+	/**
+	 * @param target
+	 *            - receives the batched text
+	 * @param flushMillis
+	 *            - least time between two batches
+	 * @param maxRetained
+	 *            - most characters the target keeps
+	 * @param logDir
+	 *            - where the log files go, null for no log
+	 * @param maxLogChars
+	 *            - size of a log file before it is rotated
+	 * @param maxLogFiles
+	 *            - number of log files kept
+	 */
+	public ConsoleSink(Target target, long flushMillis, int maxRetained, File logDir, long maxLogChars,
+			int maxLogFiles) {
+		this.target = target;
+		this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+		this.maxRetained = maxRetained;
+		this.logDir = logDir;
+		this.maxLogChars = maxLogChars;
+		this.maxLogFiles = Math.max(1, maxLogFiles);
+		int capacity = 1 << 16;
+		mask = capacity - 1;
+		slots = new AtomicReferenceArray<String>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++)
+			sequences.set(i, i);
+		lastFlush = System.nanoTime() - flushNanos;
+
+		flusher = new Thread("Console flusher") {
+			@Override
+			public void run() {
+				flushLoop();
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Queues the message, from any thread. The message is dropped if the sink
+	 * is closed, the flusher is gone, or the ring stays full.
+	 */
+	public void post(String message) {
+		long deadline = 0;
+		while (true) {
+			if (closed || !flusher.isAlive()) {
+				dropped.incrementAndGet();
+				return;
+			}
+			long position = tail.get();
+			int slot = (int) position & mask;
+			long sequence = sequences.get(slot);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					slots.set(slot, message);
+					sequences.set(slot, position + 1);
+					return;
+				}
+			} else if (sequence < position) {
+				// full, let the flusher catch up
+				if (deadline == 0)
+					deadline = System.nanoTime() + POST_WAIT_NANOS;
+				else if (System.nanoTime() - deadline > 0) {
+					dropped.incrementAndGet();
+					return;
+				}
+				LockSupport.unpark(flusher);
+				LockSupport.parkNanos(100000);
+			}
+		}
+	}
+
+	/**
+	 * Number of messages post dropped so far
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Passes on everything posted so far, closes the log and stops the
+	 * flusher
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		LockSupport.unpark(flusher);
+		flusher.join();
+	}
+
+	private void flushLoop() {
+		while (true) {
+			boolean stopping = closed;
+			drain();
+			long now = System.nanoTime();
+			long wait = flushNanos - (now - lastFlush);
+			if (pending.length() > 0 && (wait <= 0 || stopping)) {
+				try {
+					target.append(pending.toString());
+				} catch (Throwable e) {
+					// no display, the text is only in the log; keep draining
+				}
+				pending.setLength(0);
+				lastFlush = now;
+				wait = flushNanos;
+			}
+			if (stopping) {
+				closeLog();
+				return;
+			}
+			LockSupport.parkNanos(Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+		}
+	}
+
+	// takes all the ready messages off the ring
+	private void drain() {
+		boolean any = false;
+		while (true) {
+			int slot = (int) head & mask;
+			if (sequences.get(slot) != head + 1)
+				break;
+			String message = slots.get(slot);
+			slots.set(slot, null);
+			sequences.set(slot, head + mask + 1);
+			head++;
+			any = true;
+			pending.append(message);
+			writeLog(message);
+		}
+		if (pending.length() > maxRetained)
+			pending.delete(0, pending.length() - maxRetained);
+		if (any && log != null) {
+			try {
+				log.flush();
+			} catch (IOException e) {
+				logFailed = true;
+				closeLog();
+			}
+		}
+	}
+
+	private void writeLog(String message) {
+		if (logDir == null || logFailed)
+			return;
+		try {
+			if (log == null || logChars >= maxLogChars)
+				rotate();
+			log.write(message);
+			logChars += message.length();
+		} catch (IOException e) {
+			// keep the console going without the log
+			logFailed = true;
+			closeLog();
+		}
+	}
+
+	// console.log becomes console.log.1, console.log.1 becomes
+	// console.log.2 and so on, the oldest goes. The log of the last session
+	// is rotated the same way.
+	private void rotate() throws IOException {
+		closeLog();
+		if (new File(logDir, LOG_NAME).exists()) {
+			new File(logDir, LOG_NAME + "." + (maxLogFiles - 1)).delete();
+			for (int i = maxLogFiles - 2; i >= 0; i--) {
+				File from = new File(logDir, i == 0 ? LOG_NAME : LOG_NAME + "." + i);
+				from.renameTo(new File(logDir, LOG_NAME + "." + (i + 1)));
+			}
+		}
+		logDir.mkdirs();
+		log = new OutputStreamWriter(new FileOutputStream(new File(logDir, LOG_NAME)), "UTF-8");
+		logChars = 0;
+	}
+
+	private void closeLog() {
+		if (log == null)
+			return;
+		try {
+			log.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		log = null;
+	}
+}
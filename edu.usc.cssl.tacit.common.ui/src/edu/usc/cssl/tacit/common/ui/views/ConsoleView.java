@@ -1,5 +1,6 @@
 package edu.usc.cssl.tacit.common.ui.views;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
@@ -17,6 +18,7 @@ import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.forms.widgets.FormToolkit;
 import org.eclipse.ui.part.ViewPart;
 
+import edu.usc.cssl.tacit.common.ui.CommonUiActivator;
 import edu.usc.cssl.tacit.common.ui.utility.INlpCommonUiConstants;
 import edu.usc.cssl.tacit.common.ui.utility.IconRegistry;
 
@@ -27,6 +29,48 @@ public class ConsoleView extends ViewPart implements INlpCommonUiConstants {
 
 	private static Label header;
 
+	// the console keeps the last MAX_RETAINED characters, and gets new text
+	// at most every FLUSH_MILLIS; the whole log goes to console.log
+	private static final int MAX_RETAINED = 1000000;
+	private static final long FLUSH_MILLIS = 100;
+	private static final long MAX_LOG_CHARS = 10000000;
+	private static final int MAX_LOG_FILES = 5;
+
+	private static final ConsoleSink sink = new ConsoleSink(new ConsoleSink.Target() {
+		@Override
+		public void append(final String batch) {
+			Display.getDefault().asyncExec(new Runnable() {
+				@Override
+				public void run() {
+					if (text != null && !text.isDisposed()) {
+						text.append(batch);
+						trim();
+					}
+				}
+			});
+		}
+	}, FLUSH_MILLIS, MAX_RETAINED, logDir(), MAX_LOG_CHARS, MAX_LOG_FILES);
+
+	private static File logDir() {
+		CommonUiActivator activator = CommonUiActivator.getDefault();
+		try {
+			if (activator != null)
+				return activator.getStateLocation().toFile();
+		} catch (IllegalStateException e) {
+			// no workspace
+		}
+		return new File(System.getProperty("java.io.tmpdir"), "TACIT");
+	}
+
+	// keeps the newest three quarters of MAX_RETAINED once the text is over it
+	private static void trim() {
+		int count = text.getCharCount();
+		if (count <= MAX_RETAINED)
+			return;
+		text.setText(text.getText(count - MAX_RETAINED * 3 / 4, count - 1));
+		text.setSelection(text.getCharCount());
+	}
+
 	public void createPartControl(Composite parent) {
 		FormToolkit toolkit = new FormToolkit(parent.getDisplay());
 		Composite client = toolkit.createComposite(parent);
@@ -64,40 +108,15 @@ public class ConsoleView extends ViewPart implements INlpCommonUiConstants {
 	}
 
 	public static void printlInConsoleln() {
-		// update status bar
-		Display.getDefault().asyncExec(new Runnable() {
-			@Override
-			public void run() {
-				if (text != null) {
-					text.append("\n");
-				}
-			}
-		});
+		sink.post("\n");
 	}
 
 	public static void printlInConsoleln(final Object log) {
-		// update status bar
-		Display.getDefault().asyncExec(new Runnable() {
-			@Override
-			public void run() {
-				if (text != null) {
-					text.append(String.valueOf(log));
-					text.append("\n");
-				}
-			}
-		});
+		sink.post(String.valueOf(log) + "\n");
 	}
 
 	public static void printlInConsole(final Object log) {
-		// update status bar
-		Display.getDefault().asyncExec(new Runnable() {
-			@Override
-			public void run() {
-				if (text != null) {
-					text.append(String.valueOf(log));
-				}
-			}
-		});
+		sink.post(String.valueOf(log));
 	}
 
 	private void configureToolBar(IToolBarManager mgr) {
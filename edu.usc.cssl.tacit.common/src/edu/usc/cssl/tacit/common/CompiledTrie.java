@@ -0,0 +1,210 @@
+package edu.usc.cssl.tacit.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable dictionary trie for category lookup. The nodes are numbered in
+ * breadth first order so that the children of a node are contiguous: the
+ * children of node n are firstChild[n] .. firstChild[n + 1] - 1, sorted by
+ * their character. Identical category lists are stored once.
+ *
+ * A child '*' marks a wildcard entry, e.g. "abandon*" matches "abandon" and
+ * every word that leaves the trie right after "abandon". The lookups behave
+ * exactly like the HashMap based Trie of the word count plugins.
+ */
+public class CompiledTrie {
+
+	private static final int ROOT = 0;
+	private static final int NONE = -1;
+
+	private final char[] label;
+	private final int[] firstChild;
+	// index into categorySets, NONE if the node does not end a word
+	private final int[] categorySet;
+	private final List<List<Integer>> categorySets;
+
+	private CompiledTrie(char[] label, int[] firstChild, int[] categorySet, List<List<Integer>> categorySets) {
+		this.label = label;
+		this.firstChild = firstChild;
+		this.categorySet = categorySet;
+		this.categorySets = categorySets;
+	}
+
+	/**
+	 * Collects the dictionary words. Inserting a word again replaces its
+	 * categories.
+	 */
+	public static class Builder {
+		private TreeMap<String, List<Integer>> words = new TreeMap<String, List<Integer>>();
+
+		public Builder insert(String word, List<Integer> categories) {
+			words.put(word, categories);
+			return this;
+		}
+
+		public int size() {
+			return words.size();
+		}
+
+		public CompiledTrie build() {
+			String[] keys = words.keySet().toArray(new String[words.size()]);
+			int maxNodes = 1;
+			for (String key : keys)
+				maxNodes += key.length();
+
+			char[] label = new char[maxNodes];
+			int[] firstChild = new int[maxNodes + 1];
+			int[] categorySet = new int[maxNodes];
+			Arrays.fill(categorySet, NONE);
+			List<List<Integer>> categorySets = new ArrayList<List<Integer>>();
+			Map<List<Integer>, Integer> setIds = new HashMap<List<Integer>, Integer>();
+
+			// breadth first queue of nodes with the range of sorted keys below
+			// them. Node ids are handed out in queue order.
+			int[] from = new int[maxNodes];
+			int[] to = new int[maxNodes];
+			int[] depth = new int[maxNodes];
+			from[ROOT] = 0;
+			to[ROOT] = keys.length;
+			int nodes = 1;
+			for (int node = 0; node < nodes; node++) {
+				int lo = from[node], hi = to[node], d = depth[node];
+				// the key ending here sorts before its extensions
+				if (lo < hi && keys[lo].length() == d) {
+					List<Integer> categories = words.get(keys[lo]);
+					Integer id = setIds.get(categories);
+					if (id == null) {
+						id = categorySets.size();
+						List<Integer> copy = null;
+						if (categories != null)
+							copy = Collections.unmodifiableList(new ArrayList<Integer>(categories));
+						setIds.put(copy, id);
+						categorySets.add(copy);
+					}
+					categorySet[node] = id;
+					lo++;
+				}
+				firstChild[node] = nodes;
+				while (lo < hi) {
+					char c = keys[lo].charAt(d);
+					int end = lo + 1;
+					while (end < hi && keys[end].charAt(d) == c)
+						end++;
+					label[nodes] = c;
+					from[nodes] = lo;
+					to[nodes] = end;
+					depth[nodes] = d + 1;
+					nodes++;
+					lo = end;
+				}
+			}
+			firstChild[nodes] = nodes;
+			return new CompiledTrie(Arrays.copyOf(label, nodes), Arrays.copyOf(firstChild, nodes + 1),
+					Arrays.copyOf(categorySet, nodes), categorySets);
+		}
+	}
+
+	public int getNodeCount() {
+		return label.length;
+	}
+
+	private int child(int node, char c) {
+		int lo = firstChild[node], hi = firstChild[node + 1] - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			char midChar = label[mid];
+			if (midChar < c)
+				lo = mid + 1;
+			else if (midChar > c)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return NONE;
+	}
+
+	private boolean isWord(int node) {
+		return categorySet[node] != NONE;
+	}
+
+	private List<Integer> categories(int node) {
+		return isWord(node) ? categorySets.get(categorySet[node]) : null;
+	}
+
+	/**
+	 * Returns the categories of the word, or null if the dictionary does not
+	 * contain it. The returned list must not be modified.
+	 */
+	public List<Integer> query(String word) {
+		int prev = ROOT, next = child(ROOT, word.charAt(0));
+		int i = 1;
+		while (next != NONE && i != word.length()) {
+			prev = next;
+			next = child(next, word.charAt(i));
+			i++;
+		}
+		if (i == word.length() && next != NONE)
+			prev = next;
+		int star = child(prev, '*');
+		if (star != NONE)
+			return categories(star);
+		if (i == word.length() && next != NONE && isWord(prev))
+			return categories(prev);
+		return null;
+	}
+
+	/**
+	 * Returns the dictionary entry that matches the word, e.g. "abandon*" for
+	 * "abandoned", or null if there is none.
+	 */
+	public String root(String word) {
+		int prev = ROOT, next = child(ROOT, word.charAt(0));
+		int depth = 0;
+		int i = 1;
+		while (next != NONE && i != word.length()) {
+			prev = next;
+			depth++;
+			next = child(next, word.charAt(i));
+			i++;
+		}
+		if (i == word.length() && next != NONE) {
+			prev = next;
+			depth++;
+		}
+		if (child(prev, '*') != NONE)
+			return word.substring(0, depth) + "*";
+		if (i == word.length() && next != NONE && isWord(prev))
+			return word.substring(0, depth);
+		return null;
+	}
+
+	/**
+	 * Returns true if the word is in the dictionary and the matched entry has
+	 * a hyphen after its first character.
+	 */
+	public boolean checkHyphen(String word) {
+		boolean hyphen = false;
+		int prev = ROOT, next = child(ROOT, word.charAt(0));
+		int i = 1;
+		while (next != NONE && i != word.length()) {
+			prev = next;
+			next = child(next, word.charAt(i));
+			if (next != NONE && word.charAt(i) == '-')
+				hyphen = true;
+			i++;
+		}
+		if (i == word.length() && next != NONE)
+			prev = next;
+		if (child(prev, '*') != NONE)
+			return hyphen;
+		if (i == word.length() && next != NONE && isWord(prev))
+			return hyphen;
+		return false;
+	}
+}
@@ -1,6 +1,14 @@
 package edu.usc.cssl.tacit.common;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 import org.annolab.tt4j.TokenHandler;
 import org.annolab.tt4j.TreeTaggerException;
@@ -10,68 +18,147 @@ import org.eclipse.core.runtime.Platform;
 
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
+/**
+ * Stems Latin words as nouns or verbs, depending on how TreeTagger tags them.
+ * Each LatinStemFilter is one TreeTagger session. The tagger process is
+ * started by the first call and kept until destroyTT, and all words of a call
+ * that are not tagged yet go to the tagger at once. Words are tagged out of
+ * context, each as a sentence of its own, so how a surface form is tagged is
+ * cached and shared by all sessions with the same tagger and model. A session
+ * serves one thread at a time; use one per thread to tag in parallel.
+ */
 public class LatinStemFilter {
 
+	private static final Pattern PUNCTUATION = Pattern.compile("[.,;\"!-()\\[\\]{}\\:?'/\\`~$%#@&*_=+<>*$]");
+	private static final String SENTENCE_END = ".";
+	private static final int MAX_CACHED = 1 << 18;
+	private static final char NOUN = 'N', VERB = 'V', OTHER = '-';
+	// tags by surface form, for each tagger home and model
+	private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Character>> CACHES = new ConcurrentHashMap<String, ConcurrentHashMap<String, Character>>();
+
 	public LatinStemFilter(String location) {
-		
+		this(location, latinModel());
+	}
+
+	/**
+	 * @param location
+	 *            TreeTagger home directory, with the tagger in bin
+	 * @param model
+	 *            Path of the parameter file
+	 */
+	public LatinStemFilter(String location, String model) {
+
 		System.setProperty("treetagger.home", location);
 		tt = new TreeTaggerWrapper<String>();
 		try {
-			tt.setModel(FileLocator.toFileURL(
-					Platform.getBundle(Activator.PLUGIN_ID).getEntry(
-							"latin.par")).getPath());
+			if (model != null)
+				tt.setModel(model);
 		} catch (IOException e) {
 			ConsoleView
 					.printlInConsoleln("Error loading Latin POS tags model.");
 		}
+		String key = location + File.pathSeparator + model;
+		CACHES.putIfAbsent(key, new ConcurrentHashMap<String, Character>());
+		tags = CACHES.get(key);
 		tt.setHandler(new TokenHandler<String>() {
 			public void token(String token, String pos, String lemma) {
-				POS = pos;
+				if (token == SENTENCE_END)
+					return;
+				Character tag = toTag(pos);
+				tagged.put(token, tag);
+				if (tags.size() < MAX_CACHED)
+					tags.put(token, tag);
 			}
 		});
 		stemmer = new LatinStemmer();
 	}
 
-	/** flag that indicates if input should be incremented */
-	private static boolean stemAsNoun = false;
-	private static boolean stemAsVerb = false;
-	private static LatinStemmer stemmer;
-	static TreeTaggerWrapper<String> tt;
+	private static String latinModel() {
+		try {
+			return FileLocator.toFileURL(
+					Platform.getBundle(Activator.PLUGIN_ID).getEntry(
+							"latin.par")).getPath();
+		} catch (IOException e) {
+			ConsoleView
+					.printlInConsoleln("Error loading Latin POS tags model.");
+			return null;
+		}
+	}
+
+	private final LatinStemmer stemmer;
+	private final TreeTaggerWrapper<String> tt;
+	private final ConcurrentHashMap<String, Character> tags;
+	// tags of the current call, in case the cache is full
+	private final Map<String, Character> tagged = new HashMap<String, Character>();
 	/** token types */
 	public static final String TYPE_NOUN = "LATIN_NOUN";
 	public static final String TYPE_VERB = "LATIN_VERB";
-	private static String POS = "";
-	
+
+	/**
+	 * Stops the tagger process. It is started again if the filter is used
+	 * after this.
+	 */
 	public void destroyTT() {
 		tt.destroy();
 	}
 
 	public String doStemming(String input) throws IOException,
 			TreeTaggerException {
+		List<String> lines = new ArrayList<String>(Collections.singletonList(input));
+		doStemming(lines);
+		return lines.get(0);
+	}
+
+	/**
+	 * Stems the lines in place, tagging all their words in one call to the
+	 * tagger.
+	 */
+	public void doStemming(List<String> lines) throws IOException,
+			TreeTaggerException {
+
+		String[][] words = new String[lines.size()][];
+		List<String> untagged = new ArrayList<String>();
+		tagged.clear();
+		for (int i = 0; i < words.length; i++) {
+			String input = lines.get(i);
+			if (input.isEmpty())
+				continue;
+			words[i] = input.split(" ");
+			for (int j = 0; j < words[i].length; j++) {
+				String word = PUNCTUATION.matcher(words[i][j]).replaceAll("");
+				words[i][j] = word;
+				// words TreeTagger skips are stemmed as neither
+				if (word.length() == 0 || tags.containsKey(word) || tagged.containsKey(word))
+					continue;
+				tagged.put(word, OTHER);
+				if (!untagged.isEmpty())
+					untagged.add(SENTENCE_END);
+				untagged.add(word);
+			}
+		}
+		if (!untagged.isEmpty())
+			tt.process(untagged);
+
+		for (int i = 0; i < words.length; i++) {
+			if (words[i] != null)
+				lines.set(i, stemLine(words[i]));
+		}
+		tagged.clear();
+	}
 
+	private String stemLine(String[] words) {
 		String stemmedToken;
 		char[] currentTokenBuffer;
 		int currentTokenLength;
-		String[] words;
 
 		StringBuilder newLine = new StringBuilder();
 
-		if (input.isEmpty() || input.equals(""))
-			return input;
-		words = input.split(" ");
 		for (String word : words) {
-			stemAsNoun = false;
-			stemAsVerb = false;
-			word = word.replaceAll(
-					"[.,;\"!-()\\[\\]{}\\:?'/\\`~$%#@&*_=+<>*$]", "");
-			tt.process(new String[] { word });
-			if (POS.charAt(0) == 'N') {
-				stemAsNoun = true;
-			} else if (POS.charAt(0) == 'V'
-					|| (POS.length() >= 2 && POS.charAt(0) == 'A' && POS
-							.charAt(1) == 'D')) {
-				stemAsVerb = true;
-			}
+			Character tag = tags.get(word);
+			if (tag == null)
+				tag = tagged.get(word);
+			boolean stemAsNoun = tag != null && tag == NOUN;
+			boolean stemAsVerb = tag != null && tag == VERB;
 			word = word.toLowerCase();
 
 			currentTokenBuffer = word.toCharArray();
@@ -105,6 +192,18 @@ public class LatinStemFilter {
 		return newLine.toString();
 	}
 
+	private static Character toTag(String pos) {
+		if (pos == null || pos.length() == 0)
+			return OTHER;
+		if (pos.charAt(0) == 'N')
+			return NOUN;
+		if (pos.charAt(0) == 'V'
+				|| (pos.length() >= 2 && pos.charAt(0) == 'A' && pos
+						.charAt(1) == 'D'))
+			return VERB;
+		return OTHER;
+	}
+
 	/**
 	 * Replace replace 'v' with 'u' and 'j' with 'i' (case sensitive).
 	 *
@@ -201,6 +201,8 @@ public class Preprocess {
 		int breakPoint = adder;
 		int statusPoint = 0;
 		ConsoleView.printlInConsoleln("Preprocessing Status: 0% completed");
+		// one TreeTagger session for all files
+		LatinStemFilter ls = doStemming && latinStem ? new LatinStemFilter(latinStemLocation) : null;
 		for (File f : files) {
 			currentCount++;
 			if (currentCount >= breakPoint) {
@@ -258,15 +260,13 @@ public class Preprocess {
 						linear = sp.SpellCorrector(linear);
 					if (doStemming && stemmer != null)
 						linear = stem(linear);
-					if (doStemming && latinStem) {
-						LatinStemFilter ls = new LatinStemFilter(latinStemLocation);
+					if (ls != null) {
 						try {
 							linear = ls.doStemming(linear);
 						} catch (TreeTaggerException e) {
 							ConsoleView.printlInConsole("Error stemming the line: "+linear);
 							ConsoleView.printlInConsole("Skipping the line and continuing.");
 						}
-						ls.destroyTT();
 					}
 					bw.write(linear + "\n");
 				}
@@ -277,6 +277,8 @@ public class Preprocess {
 			br.close();
 			bw.close();
 		}
+		if (ls != null)
+			ls.destroyTT();
 		ConsoleView.printlInConsoleln("Preprocessing Status: 100% completed");
 		// ConsoleView.printlInConsoleln("Preprocessing Status: 100% completed");
 		ConsoleView.printlInConsoleln("Preprocessed files stored in "
@@ -11,32 +11,32 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.swing.text.Document;
 import javax.swing.text.rtf.RTFEditorKit;
 
 import org.annolab.tt4j.TreeTaggerException;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
-import org.json.simple.parser.ParseException;
-
-import com.fasterxml.jackson.core.JsonParseException;
 
 import edu.usc.cssl.tacit.common.queryprocess.IQueryProcessor;
-import edu.usc.cssl.tacit.common.queryprocess.QueryDataType;
+import edu.usc.cssl.tacit.common.queryprocess.JsonRecordReader;
 import edu.usc.cssl.tacit.common.queryprocess.QueryProcesser;
 import edu.usc.cssl.tacit.common.snowballstemmer.DanishStemmer;
 import edu.usc.cssl.tacit.common.snowballstemmer.DutchStemmer;
@@ -48,15 +48,23 @@ import edu.usc.cssl.tacit.common.snowballstemmer.HungarianStemmer;
 import edu.usc.cssl.tacit.common.snowballstemmer.ItalianStemmer;
 import edu.usc.cssl.tacit.common.snowballstemmer.NorwegianStemmer;
 import edu.usc.cssl.tacit.common.snowballstemmer.SnowballStemmer;
+import edu.usc.cssl.tacit.common.snowballstemmer.TokenStemmer;
 import edu.usc.cssl.tacit.common.snowballstemmer.TurkishStemmer;
 import edu.usc.cssl.tacit.common.ui.CommonUiActivator;
 import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CMDataType;
 import edu.usc.cssl.tacit.common.ui.corpusmanagement.services.CorpusClass;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
+import edu.usc.cssl.tacit.common.ui.preprocessor.PreprocessedCache;
+import edu.usc.cssl.tacit.common.ui.preprocessor.PreprocessingPipeline;
 import edu.usc.cssl.tacit.common.ui.preprocessor.Spelling2;
 
 public class Preprocessor {
 
+	// stems memoized per thread
+	private static final int STEM_MEMO_SIZE = 1 << 14;
+	// lines tagged at once when Latin is stemmed on the calling thread
+	private static final int LATIN_LINES_PER_CALL = 1000;
+
 	protected String ppDir = "";
 	protected String ppFilesLoc = "";
 	protected boolean doLowercase = false;
@@ -83,6 +91,13 @@ public class Preprocessor {
 			+ "tacit_temp_files" + System.getProperty("file.separator");
 	protected boolean doPreprocessing;
 	protected boolean ignoreStemming; ///Some plugins dont use dictionary files so stemming cannot be done on them, so its a check
+	private int numThreads = Runtime.getRuntime().availableProcessors();
+	private PreprocessingPipeline pipeline;
+	// TreeTagger sessions of the pipeline workers
+	private final List<LatinStemFilter> latinSessions = Collections.synchronizedList(new ArrayList<LatinStemFilter>());
+	private TokenStemmer tokenStemmer;
+	private PreprocessedCache cache;
+	private String cacheSettings;
 	Spelling2 sp;
 
 	public Preprocessor(String ppDirLocation, boolean doPreprocessing) throws IOException {
@@ -171,29 +186,45 @@ public class Preprocessor {
 		ppFilesLoc = ppDir + System.getProperty("file.separator") + subFolder;
 		new File(ppFilesLoc).mkdir();
 
-		for (Object obj : inData) {
-			if (obj instanceof CorpusClass) {
-				processCorpus((CorpusClass) obj, monitor);
-			} else if (obj instanceof String) {
-				File inputFile = new File((String) obj);
-				if (inputFile.isDirectory()) {
-					continue;
-				} else {
-					if (inputFile.getName().contains("DS_Store"))
+		if (doPreprocessing) {
+			if (cache == null)
+				cache = PreprocessedCache.fromPreferences();
+			cacheSettings = cacheSettings();
+		}
+		tokenStemmer = createTokenStemmer(stemmer);
+		pipeline = createPipeline();
+		try {
+			for (Object obj : inData) {
+				if (obj instanceof CorpusClass) {
+					processCorpus((CorpusClass) obj, monitor);
+				} else if (obj instanceof String) {
+					File inputFile = new File((String) obj);
+					if (inputFile.isDirectory()) {
 						continue;
-
-					if (doPreprocessing) {
-						String ppFile = processFile(inputFile.getAbsolutePath(), "", monitor);
-						if (ppFile != "")
-							outputFiles.add(ppFile);
 					} else {
-						monitor.subTask("Preprocessing file "+inputFile);
-						outputFiles.add(checkfiletype(inputFile.getAbsolutePath()));
+						if (inputFile.getName().contains("DS_Store"))
+							continue;
+
+						if (doPreprocessing) {
+							String ppFile = processFile(inputFile.getAbsolutePath(), "", monitor);
+							if (ppFile != "")
+								outputFiles.add(ppFile);
+						} else {
+							monitor.subTask("Preprocessing file "+inputFile);
+							outputFiles.add(checkfiletype(inputFile.getAbsolutePath()));
+						}
 					}
+				} else {
+					continue;
 				}
-			} else {
-				continue;
 			}
+			if (pipeline != null)
+				pipeline.finish();
+		} finally {
+			if (pipeline != null)
+				pipeline.close();
+			pipeline = null;
+			destroyLatinSessions();
 		}
 
 		return outputFiles;
@@ -260,123 +291,292 @@ public class Preprocessor {
 	 */
 	private String processFile(String inFileBefore, String outName, IProgressMonitor monitor)  {
 
-		String inFile = checkfiletype(inFileBefore);
-		
 		String outFile = generateProcessedFileName(inFileBefore, outName);
 
-		int line = 1;
-		try {
-			BufferedReader br = new BufferedReader(new FileReader(inFile));
-			if (new File(outFile).exists()) {
-				for (int i = 1; i < Integer.MAX_VALUE; i++) {
-					if (new File(outFile + Integer.toString(i)).exists()) {
-						continue;
-					} else {
-						outFile = outFile + Integer.toString(i);
-						break;
-					}
-				}
-			}
+		String cacheKey = cacheKey(inFileBefore);
+		if (cacheKey != null) {
+			String cachedFile = uniqueFileName(outFile);
+			if (fetchCached(cacheKey, cachedFile))
+				return cachedFile;
+		}
 
-			BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
+		String inFile = checkfiletype(inFileBefore);
 
-			String currLine = "";
+		try {
+			BufferedReader br = new BufferedReader(new FileReader(inFile));
+			outFile = uniqueFileName(outFile);
+			processLines(br, inFileBefore, outFile, cacheKey, monitor);
+		} catch (FileNotFoundException e) {
+			ConsoleView.printlInConsoleln("Error in input file path " + inFile);
+			return "";
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("I/O issues with file " + inFile);
+		}
+		return outFile;
+	}
 
-			while ((currLine = br.readLine()) != null) {
-				if(monitor!=null)
-					monitor.subTask("Preprocessing file "+inFileBefore);
-				if (currLine.trim().length() != 0) {
-					if (doLowercase) {
-						currLine = currLine.toLowerCase();
-					}
+	/**
+	 * Same as {@link #processFile(String, String, IProgressMonitor)} for text
+	 * that is already in memory, e.g. a record of a JSON corpus.
+	 * 
+	 * @param text
+	 *            Text to be preprocessed
+	 * @param outName
+	 *            Name of the preprocessed file
+	 * @return
+	 */
+	private String processText(String text, String outName, IProgressMonitor monitor) {
+		String outFile = uniqueFileName(generateProcessedFileName(outName, outName));
+		try {
+			processLines(new BufferedReader(new StringReader(text)), outName, outFile, null, monitor);
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("I/O issues with file " + outFile);
+		}
+		return outFile;
+	}
 
-					for (char c : delimiters.toCharArray()) {
-						currLine = currLine.replace(c, ' ');
-					}
+	private String uniqueFileName(String outFile) {
+		if (new File(outFile).exists()) {
+			for (int i = 1; i < Integer.MAX_VALUE; i++) {
+				if (new File(outFile + Integer.toString(i)).exists()) {
+					continue;
+				} else {
+					outFile = outFile + Integer.toString(i);
+					break;
+				}
+			}
+		}
+		return outFile;
+	}
 
-					if (doStopWords) {
-						currLine = removeStopWords(currLine);
-					}
-					
-					if (doSpellCheck) {
+	private void processLines(BufferedReader br, String inFileBefore, final String outFile, final String cacheKey,
+			IProgressMonitor monitor) throws IOException {
+		if (pipeline != null) {
+			if(monitor!=null)
+				monitor.subTask("Preprocessing file "+inFileBefore);
+			pipeline.submit(br, outFile, cacheKey == null ? null : new Runnable() {
+				@Override
+				public void run() {
+					cacheOutput(cacheKey, outFile);
+				}
+			});
+			return;
+		}
+		int line = 1;
+		BufferedWriter bw = new BufferedWriter(new FileWriter(outFile));
+
+		String currLine = "";
+		List<String> latinLines = new ArrayList<String>();
+
+		while ((currLine = br.readLine()) != null) {
+			if(monitor!=null)
+				monitor.subTask("Preprocessing file "+inFileBefore);
+			if (currLine.trim().length() != 0) {
+				if (doSpellCheck && monitor!=null)
+					monitor.subTask("Preprocessing file "+inFileBefore+ ", line "+line+":spell correction");
+				currLine = preprocessLine(currLine, tokenStemmer);
+
+				if (doStemming && isLatin) {
+					latinLines.add(currLine);
+					if (latinLines.size() == LATIN_LINES_PER_CALL) {
 						if(monitor!=null)
-							monitor.subTask("Preprocessing file "+inFileBefore+ ", line "+line+":spell correction");
-						currLine = sp.SpellCorrector(currLine);
-					}
-
-					if (doStemming) {
-						if (isLatin) {
-							try {
-								if(monitor!=null)
-									monitor.subTask("Preprocessing file "+inFileBefore+ ", line "+line+":latin stemming");
-								currLine = latinStemmer.doStemming(currLine);
-							} catch (TreeTaggerException e) {
-								ConsoleView.printlInConsole("Error stemming the line: " + currLine);
-								ConsoleView.printlInConsole("Skipping the line and continuing.");
-							}
-							 latinStemmer.destroyTT();
-						} else {
-							currLine = stemLine(currLine);
-						}
+							monitor.subTask("Preprocessing file "+inFileBefore+ ", line "+line+":latin stemming");
+						writeLatinStemmed(latinLines, bw);
 					}
+				} else {
 					bw.write(currLine + "\n");
 				}
-				line+=1;
 			}
+			line+=1;
+		}
+		if (!latinLines.isEmpty() && monitor!=null)
+			monitor.subTask("Preprocessing file "+inFileBefore+ ", line "+line+":latin stemming");
+		writeLatinStemmed(latinLines, bw);
 
-			bw.close();
-			br.close();
-		} catch (FileNotFoundException e) {
-			ConsoleView.printlInConsoleln("Error in input file path " + inFile);
-			return "";
+		bw.close();
+		br.close();
+		cacheOutput(cacheKey, outFile);
+	}
+
+	/*
+	 * Everything besides the input file that changes the preprocessed output.
+	 */
+	private String cacheSettings() {
+		StringBuilder settings = new StringBuilder();
+		settings.append("lowercase=").append(doLowercase).append('\n');
+		settings.append("delimiters=").append(delimiters).append('\n');
+		if (doStopWords)
+			settings.append("stopwords=").append(new TreeSet<String>(stopWordsSet)).append('\n');
+		if (doSpellCheck) {
+			File dictionary = new File(sp.getDictionary());
+			settings.append("spelling=").append(dictionary.getAbsolutePath()).append(' ')
+					.append(dictionary.length()).append(' ').append(dictionary.lastModified()).append('\n');
+		}
+		if (doStemming)
+			settings.append("stemming=").append(stemLang).append('\n');
+		return settings.toString();
+	}
+
+	/*
+	 * Returns null if the file is not cached, e.g. because it cannot be read.
+	 * The file type is part of the key since PDF and RTF files are converted
+	 * to text first.
+	 */
+	private String cacheKey(String inFile) {
+		if (cache == null || !doPreprocessing)
+			return null;
+		File file = new File(inFile);
+		String name = file.getName();
+		String type = name.substring(name.lastIndexOf('.') + 1);
+		try {
+			return PreprocessedCache.key(file, cacheSettings + "type=" + type + "\n");
 		} catch (IOException e) {
-			ConsoleView.printlInConsoleln("I/O issues with file " + inFile);
+			return null;
+		}
+	}
+
+	private boolean fetchCached(String cacheKey, String outFile) {
+		try {
+			return cache.fetch(cacheKey, new File(outFile));
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("Could not read the cached copy of " + outFile);
+			return false;
+		}
+	}
+
+	private void cacheOutput(String cacheKey, String outFile) {
+		if (cacheKey == null)
+			return;
+		try {
+			cache.store(cacheKey, new File(outFile));
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln("Could not cache preprocessed file " + outFile);
 		}
-		return outFile;
 	}
 
 	/**
-	 * Stem the input String using the appropriate stemmer
-	 * 
-	 * @param line
-	 *            Unstemmed string
-	 * @return Stemmed string
+	 * Lowercase, delimiter, stop word, spelling and Snowball stemming steps
+	 * for one non blank line. Latin stemming is left to the caller.
 	 */
-	private String stemLine(String line) {
-		if (line.isEmpty())
-			return "";
-		StringBuilder returnString = new StringBuilder();
-		String[] wordArray = line.split("\\s+");
-		for (String word : wordArray) {
-			stemmer.setCurrent(word);
-			String stemmedWord = "";
-			if (stemmer.stem())
-				stemmedWord = stemmer.getCurrent();
-			if (!stemmedWord.equals(""))
-				word = stemmedWord;
-			returnString.append(word);
-			returnString.append(' ');
+	private String preprocessLine(String currLine, TokenStemmer tokens) throws IOException {
+		if (doLowercase) {
+			currLine = currLine.toLowerCase();
 		}
-		return returnString.toString();
+
+		for (char c : delimiters.toCharArray()) {
+			currLine = currLine.replace(c, ' ');
+		}
+
+		if (doSpellCheck) {
+			// spell correction runs between stop word removal and stemming
+			if (doStopWords) {
+				currLine = tokens.removeStopWords(currLine);
+			}
+			currLine = sp.SpellCorrector(currLine);
+			if (doStemming && !isLatin) {
+				currLine = tokens.stem(currLine);
+			}
+		} else if (doStopWords || (doStemming && !isLatin)) {
+			currLine = tokens.process(currLine);
+		}
+		return currLine;
+	}
+
+	/*
+	 * Stop word removal and Snowball stemming with the given stemmer, as far
+	 * as they are enabled.
+	 */
+	private TokenStemmer createTokenStemmer(SnowballStemmer stemmer) {
+		return new TokenStemmer(doStemming && !isLatin ? stemmer : null, doStopWords ? stopWordsSet : null,
+				STEM_MEMO_SIZE);
 	}
 
 	/**
-	 * Remove stop words from the input String
-	 * 
-	 * @param line
-	 *            Input with Stop words
-	 * @return String without stopwords
+	 * Sets the number of threads that preprocess lines. Defaults to the number
+	 * of processors; 1 processes the files one line at a time on the calling
+	 * thread.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/*
+	 * Returns null if the files should be processed on the calling thread.
+	 * Each worker stems Latin in a TreeTagger session of its own, a chunk at a
+	 * time.
 	 */
-	private String removeStopWords(String line) {
-		StringBuilder returnString = new StringBuilder();
-		String[] wordArray = line.split("\\s+");
-		for (String word : wordArray) {
-			if (!stopWordsSet.contains(word.toLowerCase())) {
-				returnString.append(word);
-				returnString.append(' ');
+	private PreprocessingPipeline createPipeline() {
+		if (numThreads < 2)
+			return null;
+		final ThreadLocal<TokenStemmer> stemmers = new ThreadLocal<TokenStemmer>() {
+			@Override
+			protected TokenStemmer initialValue() {
+				return createTokenStemmer(doStemming ? stemSelect(stemLang) : null);
+			}
+		};
+		if (doStemming && isLatin) {
+			final ThreadLocal<LatinStemFilter> latinStemmers = new ThreadLocal<LatinStemFilter>() {
+				@Override
+				protected LatinStemFilter initialValue() {
+					LatinStemFilter session = new LatinStemFilter(latinStemLocation);
+					latinSessions.add(session);
+					return session;
+				}
+			};
+			return new PreprocessingPipeline(new PreprocessingPipeline.ChunkProcessor() {
+				@Override
+				public String processLine(String line) throws IOException {
+					List<String> lines = new ArrayList<String>(Collections.singletonList(line));
+					processChunk(lines);
+					return lines.get(0);
+				}
+
+				@Override
+				public void processChunk(List<String> lines) throws IOException {
+					for (int i = 0; i < lines.size(); i++)
+						lines.set(i, preprocessLine(lines.get(i), stemmers.get()));
+					stemLatin(latinStemmers.get(), lines);
+				}
+			}, numThreads);
+		}
+		return new PreprocessingPipeline(new PreprocessingPipeline.LineProcessor() {
+			@Override
+			public String processLine(String line) throws IOException {
+				return preprocessLine(line, stemmers.get());
 			}
+		}, numThreads);
+	}
+
+	/*
+	 * Stems the lines in place with one call to the tagger. If tagging fails
+	 * they are left unstemmed.
+	 */
+	private static void stemLatin(LatinStemFilter latinStemmer, List<String> lines) throws IOException {
+		if (lines.isEmpty())
+			return;
+		try {
+			latinStemmer.doStemming(lines);
+		} catch (TreeTaggerException e) {
+			ConsoleView.printlInConsole("Error stemming the lines: " + lines.get(0) + " ...");
+			ConsoleView.printlInConsole("Skipping the lines and continuing.");
+		}
+	}
+
+	private void writeLatinStemmed(List<String> lines, BufferedWriter bw) throws IOException {
+		stemLatin(latinStemmer, lines);
+		for (String line : lines)
+			bw.write(line + "\n");
+		lines.clear();
+	}
+
+	private void destroyLatinSessions() {
+		synchronized (latinSessions) {
+			for (LatinStemFilter session : latinSessions)
+				session.destroyTT();
+			latinSessions.clear();
 		}
-		return returnString.toString();
+		if (latinStemmer != null)
+			latinStemmer.destroyTT();
 	}
 
 	/**
@@ -437,109 +637,88 @@ public class Preprocessor {
 		}
 	}
 
-	private List<String> processQuery(CorpusClass corpusClass, JSONObject obj) throws ParseException {
-		String tempDir = tempPPFileLoc + "testData";
+	/**
+	 * Text fields to extract from the records of a JSON array corpus and how
+	 * to query them, see {@link QueryProcesser#processRecord}.
+	 */
+	private static class RecordQuery {
+		final String keyFields;
+		final boolean wrapData;
+		final boolean addDataField;
+		// one processor per corpus class, so the filters are compiled once
+		final QueryProcesser processor = new QueryProcesser();
+
+		RecordQuery(String keyFields, boolean wrapData, boolean addDataField) {
+			this.keyFields = keyFields;
+			this.wrapData = wrapData;
+			this.addDataField = addDataField;
+		}
+	}
+
+	/**
+	 * Works out the record query of the corpus class once, so that the
+	 * records can be queried without looking at the corpus again.
+	 * 
+	 * @return the query, or null if the records of the corpus type have no
+	 *         text fields
+	 */
+	private RecordQuery createRecordQuery(CorpusClass corpusClass) throws FileNotFoundException {
 		CMDataType corpusType = corpusClass.getParent().getDatatype();
-		if (!new File(tempDir).exists())
-			new File(tempDir).mkdir();
-		QueryProcesser qp = new QueryProcesser();
-		String tempFile = tempDir + File.separator + "temp_json_" + System.currentTimeMillis() + ".json";
-		File f = new File(tempFile);
-		FileWriter writer;
-		List<String> ans = null;
-		try {
-			writer = new FileWriter(f);
-			if (corpusType == CMDataType.TWITTER_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.Text", true);
-			}
-			if (corpusType == CMDataType.CONGRESS_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.body", true);
-			}
-			/*if (corpusType == CMDataType.PRESIDENCY_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.Body", true);
-			}*/
-			if (corpusType == CMDataType.PRESIDENCY_JSON) {
-				writer.write(obj.toJSONString());
-				writer.close();
-
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "Body.Speaker,Body.Text", true);
-			}
-			if (corpusType == CMDataType.HANSARD_JSON) {
-				IQueryProcessor iqp = new QueryProcesser(corpusClass);
-				Map<String, QueryDataType> keys = iqp.getJsonKeys();
-				Set<String> k = keys.keySet();
-				System.out.println(k);
-				if(k.contains("Body.Speaker"))
-				{	
-					writer.write(obj.toJSONString());
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(), "Body.Speaker,Body.Text", true);
-				}
-				else{
-					writer.write("{\"data\":" + obj.toJSONString() + "}");
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.Body", true);
-				}
-			}
-			if (corpusType == CMDataType.PROPUBLICA_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(),"data.Bill_Name,data.Introduced_Date,data.Congress,data.Bill_Type,data.Bill_Resolution_Type,data.Sponsor_Name,data.Sponsor_Party", true);
-			}
-			if (corpusType  == CMDataType.TYPEPAD_JSON){
-					writer.write("{\"data\":" + obj.toJSONString() + "}");
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.content", true);
-			}
-			if (corpusType == CMDataType.FRONTIER_JSON) {
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.journal_body", true);
-			}
-			if (corpusType == CMDataType.STACKEXCHANGE_JSON) {
-				IQueryProcessor iqp = new QueryProcesser(corpusClass);
-				Map<String, QueryDataType> keys = iqp.getJsonKeys();
-				Set<String> k = keys.keySet();
-				String keyFields = "";
-				if (k.contains("answer_body"))
-					keyFields += "data.answer_body,";
-				if (k.contains("question_body"))
-					keyFields += "data.question_body,";
-				if (k.contains("comment_body"))
-					keyFields += "data.comment_body,";
-				if (k.contains("question.question_body"))
-					keyFields += "question.question_body,";
-				if (k.contains("answers_dets.answer_body"))
-					keyFields += "answers_dets.answer_body,";
-				if (k.contains("question_body") || k.contains("comment_body") || k.contains("answer_body")) {
-					writer.write("{\"data\":" + obj.toJSONString() + "}");
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(),
-							keyFields.substring(0, keyFields.length() - 1), true);
-				} else {
-					writer.write(obj.toJSONString());
-					writer.close();
-					ans = qp.processJson(corpusClass, f.getAbsolutePath(),
-							keyFields.substring(0, keyFields.length() - 1), false);
-				}
+		if (corpusType == CMDataType.TWITTER_JSON)
+			return new RecordQuery("data.Text", true, true);
+		if (corpusType == CMDataType.CONGRESS_JSON)
+			return new RecordQuery("data.body", true, true);
+		if (corpusType == CMDataType.PRESIDENCY_JSON)
+			return new RecordQuery("Body.Speaker,Body.Text", false, true);
+		if (corpusType == CMDataType.HANSARD_JSON) {
+			IQueryProcessor iqp = new QueryProcesser(corpusClass);
+			Set<String> k = iqp.getJsonKeys().keySet();
+			if (k.contains("Body.Speaker"))
+				return new RecordQuery("Body.Speaker,Body.Text", false, true);
+			return new RecordQuery("data.Body", true, true);
+		}
+		if (corpusType == CMDataType.PROPUBLICA_JSON)
+			return new RecordQuery(
+					"data.Bill_Name,data.Introduced_Date,data.Congress,data.Bill_Type,data.Bill_Resolution_Type,data.Sponsor_Name,data.Sponsor_Party",
+					true, true);
+		if (corpusType == CMDataType.TYPEPAD_JSON)
+			return new RecordQuery("data.content", true, true);
+		if (corpusType == CMDataType.FRONTIER_JSON)
+			return new RecordQuery("data.journal_body", true, true);
+		if (corpusType == CMDataType.STACKEXCHANGE_JSON) {
+			IQueryProcessor iqp = new QueryProcesser(corpusClass);
+			Set<String> k = iqp.getJsonKeys().keySet();
+			String keyFields = "";
+			if (k.contains("answer_body"))
+				keyFields += "data.answer_body,";
+			if (k.contains("question_body"))
+				keyFields += "data.question_body,";
+			if (k.contains("comment_body"))
+				keyFields += "data.comment_body,";
+			if (k.contains("question.question_body"))
+				keyFields += "question.question_body,";
+			if (k.contains("answers_dets.answer_body"))
+				keyFields += "answers_dets.answer_body,";
+			if (keyFields.isEmpty())
+				return null;
+			keyFields = keyFields.substring(0, keyFields.length() - 1);
+			if (k.contains("question_body") || k.contains("comment_body") || k.contains("answer_body"))
+				return new RecordQuery(keyFields, true, true);
+			return new RecordQuery(keyFields, false, false);
+		}
+		if (corpusType == CMDataType.PLOSONE_JSON)
+			return new RecordQuery("data.everything", true, true);
+		return null;
+	}
 
-			}
-			if (corpusType == CMDataType.PLOSONE_JSON){
-				writer.write("{\"data\":" + obj.toJSONString() + "}");
-				writer.close();
-				ans = qp.processJson(corpusClass, f.getAbsolutePath(), "data.everything", true);
-			}
-			f.delete();
+	private List<String> processQuery(CorpusClass corpusClass, RecordQuery query, Object record) {
+		try {
+			Object document = query.wrapData ? QueryProcesser.wrapData(record) : record;
+			return query.processor.processRecord(corpusClass, document, query.keyFields, query.addDataField);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		return ans;
+		return null;
 	}
 
 	/**
@@ -607,81 +786,72 @@ public class Preprocessor {
 	 * @throws TikaException
 	 */
 	private void processTwitter(CorpusClass corpusClass, IProgressMonitor monitor) {
-		/*** read from file ***/
-		JSONParser jParser;
 		String corpusClassPath = corpusClass.getTacitLocation();
 		String tempDir = "";
-		String tempFile = "";
 		Date dateobj = new Date();
 
-		if (doPreprocessing)
-			tempFile = tempPPFileLoc + corpusClass.getClassName() + System.currentTimeMillis() + ".txt";
-		else {
+		if (!doPreprocessing) {
 			tempDir = ppFilesLoc + System.getProperty("file.separator") + corpusClass.getClassName() + dateobj.getTime();
 			new File(tempDir).mkdir();
 		}
 
-		jParser = new JSONParser();
+		RecordQuery query;
+		try {
+			query = createRecordQuery(corpusClass);
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (query == null)
+			return;
 
-		// loop until token equal to "}"
 		dateobj = new Date();
 
 		File[] fileList = new File(corpusClassPath).listFiles();
 		for (int i = 0; i < fileList.length; i++) {
-			
-			try {
-					String fileName = fileList[i].getAbsolutePath();
+			String fileName = fileList[i].getAbsolutePath();
 
-					monitor.subTask("Preprocessing file "+fileName);
-					if (!fileList[i].getAbsolutePath().endsWith(".json"))
-						continue;
-					JSONArray objects = (JSONArray) jParser.parse(new FileReader(fileName));
-					int j = 0;
-					for (Object obj : objects) {
-						JSONObject twitterStream = (JSONObject) obj;
-						List<String> outputs = processQuery(corpusClass, twitterStream);
-						if (!outputs.isEmpty() && outputs.get(0) != null && !outputs.get(0).equals("")) {
+			monitor.subTask("Preprocessing file "+fileName);
+			if (!fileName.endsWith(".json"))
+				continue;
+			JsonRecordReader records = null;
+			try {
+				// the records are read and queried one at a time
+				records = new JsonRecordReader(new FileReader(fileName));
+				int j = 0;
+				while (records.hasNext()) {
+					List<String> outputs = processQuery(corpusClass, query, records.next());
+					if (outputs != null && !outputs.isEmpty() && outputs.get(0) != null && !outputs.get(0).equals("")) {
 						dateobj = new Date();
-						File file;
-						if (doPreprocessing) {
-							file = new File(tempFile);
-						} else {
-							file = new File(tempDir + System.getProperty("file.separator") + corpusClass.getClassName() + j + "-"
-									+ df.format(dateobj));
-						}
-						if (file.exists()) {
-							file.delete();
-						}
-	
-						FileWriter fw = new FileWriter(file.getAbsoluteFile());
-						BufferedWriter bw = new BufferedWriter(fw);
 						String tweet = outputs.get(0);
-						bw.write(tweet);
-						bw.close();
-	
+
 						if (doPreprocessing) {
-							outputFiles.add(processFile(tempFile, corpusClass.getClassName() + j + "-"
+							outputFiles.add(processText(tweet, corpusClass.getClassName() + j + "-"
 									+ df.format(dateobj), null));
 						} else {
-							 outputFiles.add(checkfiletype(file.getAbsolutePath()));
+							File file = new File(tempDir + System.getProperty("file.separator") + corpusClass.getClassName() + j + "-"
+									+ df.format(dateobj));
+							if (file.exists()) {
+								file.delete();
+							}
+							BufferedWriter bw = new BufferedWriter(new FileWriter(file.getAbsoluteFile()));
+							try {
+								bw.write(tweet);
+							} finally {
+								bw.close();
+							}
+							outputFiles.add(checkfiletype(file.getAbsolutePath()));
 						}
 						j++;
-	
 					}
 				}
-
-			} catch (JsonParseException e) {
-				e.printStackTrace();
+				records.close();
 			} catch (IOException e) {
 				e.printStackTrace();
-			} catch (ParseException e) {
-				e.printStackTrace();
+			} finally {
+				IOUtils.closeQuietly(records);
 			}
 		}
-
-		if (new File(tempFile).exists()) {
-			new File(tempFile).delete();
-		}
 	}
 
 	/**
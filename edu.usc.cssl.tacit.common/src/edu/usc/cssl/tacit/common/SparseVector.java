@@ -0,0 +1,73 @@
+package edu.usc.cssl.tacit.common;
+
+/**
+ * Immutable vector that stores only its non-zero entries, the indices in
+ * increasing order.
+ */
+public class SparseVector {
+
+	private final int[] indices;
+	private final double[] values;
+
+	/**
+	 * @param indices - increasing indices of the entries
+	 * @param values - values of the entries
+	 */
+	public SparseVector(int[] indices, double[] values) {
+		if (indices.length != values.length)
+			throw new IllegalArgumentException("Got " + indices.length + " indices and " + values.length + " values");
+		this.indices = indices;
+		this.values = values;
+	}
+
+	/**
+	 * Returns the number of entries stored.
+	 */
+	public int size() {
+		return indices.length;
+	}
+
+	public int index(int entry) {
+		return indices[entry];
+	}
+
+	public double value(int entry) {
+		return values[entry];
+	}
+
+	public double dot(SparseVector other) {
+		double sum = 0;
+		int i = 0, j = 0;
+		while (i < indices.length && j < other.indices.length) {
+			if (indices[i] < other.indices[j])
+				i++;
+			else if (indices[i] > other.indices[j])
+				j++;
+			else
+				sum += values[i++] * other.values[j++];
+		}
+		return sum;
+	}
+
+	public double dot(double[] dense) {
+		double sum = 0;
+		for (int i = 0; i < indices.length; i++)
+			sum += values[i] * dense[indices[i]];
+		return sum;
+	}
+
+	/**
+	 * Adds this vector to the dense vector.
+	 */
+	public void addTo(double[] dense) {
+		for (int i = 0; i < indices.length; i++)
+			dense[indices[i]] += values[i];
+	}
+
+	public double norm() {
+		double sum = 0;
+		for (double value : values)
+			sum += value * value;
+		return Math.sqrt(sum);
+	}
+}
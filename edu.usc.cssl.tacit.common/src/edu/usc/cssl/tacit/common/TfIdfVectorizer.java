@@ -0,0 +1,162 @@
+package edu.usc.cssl.tacit.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Turns documents into sparse TF-IDF vectors of unit length, so that the dot
+ * product of two vectors is their cosine similarity. Words are split at the
+ * delimiters of Weka's StringToWordVector and lower cased. The weight of a
+ * word is its count in the document times the smoothed inverse document
+ * frequency log((1 + n) / (1 + df)) + 1, which keeps words found in every
+ * document. Files are read and counted on numThreads threads; the word ids
+ * are given in file order, so the vectors do not depend on the threads.
+ */
+public class TfIdfVectorizer {
+
+	private static final String DELIMITERS = " \r\n\t.,;:'\"()?!";
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> words = new ArrayList<String>();
+	private int numThreads = 1;
+
+	/**
+	 * Sets the number of files read at once. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Returns the number of distinct words seen.
+	 */
+	public int vocabularySize() {
+		return words.size();
+	}
+
+	public String word(int id) {
+		return words.get(id);
+	}
+
+	/**
+	 * Vectorizes the files, in the given order.
+	 */
+	public List<SparseVector> vectorize(List<File> files) throws IOException {
+		List<int[]> docWords = new ArrayList<int[]>();
+		List<int[]> docCounts = new ArrayList<int[]>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, files.size())));
+		try {
+			List<Future<Map<String, int[]>>> counts = new ArrayList<Future<Map<String, int[]>>>();
+			for (final File file : files) {
+				counts.add(executor.submit(new Callable<Map<String, int[]>>() {
+					public Map<String, int[]> call() throws IOException {
+						return count(file);
+					}
+				}));
+			}
+			for (Future<Map<String, int[]>> count : counts) {
+				Map<String, int[]> wordCounts = count.get();
+				int[] docWord = new int[wordCounts.size()];
+				int[] docCount = new int[wordCounts.size()];
+				int n = 0;
+				for (Map.Entry<String, int[]> entry : wordCounts.entrySet()) {
+					docWord[n] = intern(entry.getKey());
+					docCount[n++] = entry.getValue()[0];
+				}
+				docWords.add(docWord);
+				docCounts.add(docCount);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading the files");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IllegalStateException(cause);
+		} finally {
+			executor.shutdownNow();
+		}
+
+		int[] df = new int[words.size()];
+		for (int[] docWord : docWords)
+			for (int id : docWord)
+				df[id]++;
+		double[] idf = new double[df.length];
+		for (int id = 0; id < df.length; id++)
+			idf[id] = Math.log((1.0 + files.size()) / (1.0 + df[id])) + 1;
+
+		List<SparseVector> vectors = new ArrayList<SparseVector>(files.size());
+		for (int d = 0; d < docWords.size(); d++) {
+			int[] docWord = docWords.get(d);
+			int[] docCount = docCounts.get(d);
+			// sort the entries by word id
+			long[] entries = new long[docWord.length];
+			for (int i = 0; i < docWord.length; i++)
+				entries[i] = ((long) docWord[i] << 32) | docCount[i];
+			Arrays.sort(entries);
+			int[] indices = new int[entries.length];
+			double[] values = new double[entries.length];
+			double norm = 0;
+			for (int i = 0; i < entries.length; i++) {
+				indices[i] = (int) (entries[i] >>> 32);
+				values[i] = (int) entries[i] * idf[indices[i]];
+				norm += values[i] * values[i];
+			}
+			norm = Math.sqrt(norm);
+			if (norm > 0)
+				for (int i = 0; i < values.length; i++)
+					values[i] /= norm;
+			vectors.add(new SparseVector(indices, values));
+		}
+		return vectors;
+	}
+
+	private int intern(String word) {
+		Integer id = ids.get(word);
+		if (id == null) {
+			id = words.size();
+			ids.put(word, id);
+			words.add(word);
+		}
+		return id;
+	}
+
+	private static Map<String, int[]> count(File file) throws IOException {
+		Map<String, int[]> counts = new HashMap<String, int[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				StringTokenizer tokens = new StringTokenizer(line, DELIMITERS);
+				while (tokens.hasMoreTokens()) {
+					String word = tokens.nextToken().toLowerCase();
+					int[] count = counts.get(word);
+					if (count == null)
+						counts.put(word, new int[] { 1 });
+					else
+						count[0]++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return counts;
+	}
+}
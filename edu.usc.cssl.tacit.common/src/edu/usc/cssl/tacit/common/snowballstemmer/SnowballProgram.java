@@ -38,6 +38,39 @@ public class SnowballProgram {
         return result;
     }
 
+    /**
+     * Set the current string to length chars of value from offset, reusing
+     * the buffer of the previous word.
+     */
+    public void setCurrent(char[] value, int offset, int length)
+    {
+	current.setLength(0);
+	current.append(value, offset, length);
+	cursor = 0;
+	limit = current.length();
+	limit_backward = 0;
+	bra = cursor;
+	ket = limit;
+    }
+
+    /**
+     * Get the length of the current string.
+     */
+    public int getCurrentLength()
+    {
+	return current.length();
+    }
+
+    /**
+     * Append the current string to out. Unlike getCurrent, this keeps the
+     * buffer for the next call to setCurrent, so stemming a word this way
+     * does not allocate once the buffer is large enough.
+     */
+    public void appendCurrent(StringBuilder out)
+    {
+	out.append(current);
+    }
+
     // current string
     protected StringBuffer current;
 
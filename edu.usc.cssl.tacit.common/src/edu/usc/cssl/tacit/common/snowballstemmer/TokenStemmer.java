@@ -0,0 +1,242 @@
+package edu.usc.cssl.tacit.common.snowballstemmer;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Removes stop words and stems the remaining words of a line in one pass over
+ * its characters, reusing its buffers from line to line. The output is the
+ * same as splitting the line with "\\s+", dropping the words whose lowercase
+ * form is a stop word and stemming the others with setCurrent, stem and
+ * getCurrent, every word followed by a space.
+ *
+ * Stems can be memoized. A few words make up most of natural text, so a small
+ * direct mapped cache from word to stem answers most lookups; a word that
+ * maps to an occupied slot replaces the word there. A TokenStemmer is not
+ * thread safe, use one per thread.
+ */
+public class TokenStemmer {
+
+	private final SnowballStemmer stemmer;
+	private final Set<String> stopWords;
+	private final CharArraySet stopSet;
+	// whether lowercasing ASCII char by char gives String.toLowerCase()
+	private final boolean asciiLowerCase;
+
+	private final char[][] memoWords;
+	private final char[][] memoStems;
+	private final int memoMask;
+
+	private char[] token = new char[32];
+	private char[] lower = new char[32];
+	private final StringBuilder result = new StringBuilder();
+
+	/**
+	 * @param stemmer
+	 *            Stemmer for the words, or null to keep them as they are
+	 * @param stopWords
+	 *            Words to remove, or null to keep all. Later changes to the
+	 *            set are not seen.
+	 * @param memoSize
+	 *            Number of stems to memoize, 0 for none
+	 */
+	public TokenStemmer(SnowballStemmer stemmer, Set<String> stopWords, int memoSize) {
+		this.stemmer = stemmer;
+		this.stopWords = stopWords;
+		this.stopSet = stopWords == null ? null : new CharArraySet(stopWords);
+		String language = Locale.getDefault().getLanguage();
+		this.asciiLowerCase = !("tr".equals(language) || "az".equals(language) || "lt".equals(language));
+		if (stemmer != null && memoSize > 0) {
+			int slots = Integer.highestOneBit(memoSize);
+			if (slots < memoSize)
+				slots <<= 1;
+			memoWords = new char[slots][];
+			memoStems = new char[slots][];
+			memoMask = slots - 1;
+		} else {
+			memoWords = null;
+			memoStems = null;
+			memoMask = 0;
+		}
+	}
+
+	/**
+	 * Appends the line to out with stop words removed and words stemmed, as
+	 * far as a stemmer and stop words are given.
+	 */
+	public void process(CharSequence line, StringBuilder out) {
+		run(line, out, stopSet != null, stemmer != null);
+	}
+
+	public String process(CharSequence line) {
+		result.setLength(0);
+		process(line, result);
+		return result.toString();
+	}
+
+	/**
+	 * Removes the stop words only.
+	 */
+	public String removeStopWords(CharSequence line) {
+		result.setLength(0);
+		run(line, result, true, false);
+		return result.toString();
+	}
+
+	/**
+	 * Stems the words only.
+	 */
+	public String stem(CharSequence line) {
+		result.setLength(0);
+		run(line, result, false, true);
+		return result.toString();
+	}
+
+	private void run(CharSequence line, StringBuilder out, boolean removeStops, boolean stem) {
+		int n = line.length();
+		if (n == 0) {
+			// "".split("\\s+") is [""], but stemming skips empty lines
+			if (removeStops && !stem && !isStopWord(0))
+				out.append(' ');
+			return;
+		}
+		int start = out.length();
+		int kept = 0;
+		boolean keptEmpty = false;
+		int i = 0;
+		if (isSpace(line.charAt(0))) {
+			// leading whitespace splits off an empty first word, unless the
+			// line is all whitespace
+			while (i < n && isSpace(line.charAt(i)))
+				i++;
+			if (i == n)
+				return;
+			if (!removeStops || !isStopWord(0)) {
+				out.append(' ');
+				kept++;
+				keptEmpty = true;
+			}
+		}
+		while (i < n) {
+			int length = 0;
+			char c;
+			while (i < n && !isSpace(c = line.charAt(i))) {
+				if (length == token.length)
+					token = Arrays.copyOf(token, length * 2);
+				token[length++] = c;
+				i++;
+			}
+			while (i < n && isSpace(line.charAt(i)))
+				i++;
+			if (removeStops && isStopWord(length))
+				continue;
+			kept++;
+			if (stem)
+				appendStem(length, out);
+			else
+				out.append(token, 0, length);
+			out.append(' ');
+		}
+		// stemming the line " " left by an empty first word gives ""
+		if (removeStops && stem && kept == 1 && keptEmpty)
+			out.setLength(start);
+	}
+
+	private void appendStem(int length, StringBuilder out) {
+		if (length == 0)
+			return;
+		int slot = 0;
+		if (memoWords != null) {
+			slot = hash(token, length) & memoMask;
+			char[] word = memoWords[slot];
+			if (word != null && word.length == length && equals(word, token, length)) {
+				out.append(memoStems[slot]);
+				return;
+			}
+		}
+		int at = out.length();
+		stemmer.setCurrent(token, 0, length);
+		if (stemmer.stem() && stemmer.getCurrentLength() > 0)
+			stemmer.appendCurrent(out);
+		else
+			out.append(token, 0, length);
+		if (memoWords != null) {
+			char[] stem = new char[out.length() - at];
+			out.getChars(at, out.length(), stem, 0);
+			memoWords[slot] = Arrays.copyOf(token, length);
+			memoStems[slot] = stem;
+		}
+	}
+
+	private boolean isStopWord(int length) {
+		if (asciiLowerCase) {
+			if (lower.length < token.length)
+				lower = new char[token.length];
+			boolean ascii = true;
+			for (int k = 0; k < length; k++) {
+				char c = token[k];
+				if (c >= 0x80) {
+					ascii = false;
+					break;
+				}
+				lower[k] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+			}
+			if (ascii)
+				return stopSet.contains(lower, length);
+		}
+		return stopWords.contains(new String(token, 0, length).toLowerCase());
+	}
+
+	// \s
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static int hash(char[] chars, int length) {
+		int h = 0;
+		for (int i = 0; i < length; i++)
+			h = 31 * h + chars[i];
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equals(char[] word, char[] chars, int length) {
+		for (int i = 0; i < length; i++) {
+			if (word[i] != chars[i])
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Open addressing set of strings that can be queried with a char array.
+	 */
+	private static class CharArraySet {
+		private final char[][] entries;
+		private final int mask;
+
+		CharArraySet(Set<String> words) {
+			int slots = Integer.highestOneBit(Math.max(words.size(), 1) * 2) * 2;
+			entries = new char[slots][];
+			mask = slots - 1;
+			for (String word : words) {
+				char[] chars = word.toCharArray();
+				int slot = hash(chars, chars.length) & mask;
+				while (entries[slot] != null && !Arrays.equals(entries[slot], chars))
+					slot = (slot + 1) & mask;
+				entries[slot] = chars;
+			}
+		}
+
+		boolean contains(char[] chars, int length) {
+			int slot = hash(chars, length) & mask;
+			char[] entry;
+			while ((entry = entries[slot]) != null) {
+				if (entry.length == length && TokenStemmer.equals(entry, chars, length))
+					return true;
+				slot = (slot + 1) & mask;
+			}
+			return false;
+		}
+	}
+}
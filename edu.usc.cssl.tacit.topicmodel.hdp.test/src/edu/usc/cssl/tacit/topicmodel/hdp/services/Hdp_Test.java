@@ -0,0 +1,130 @@
+package edu.usc.cssl.tacit.topicmodel.hdp.services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.junit.Test;
+
+import edu.usc.cssl.tacit.topicmodel.hdp.services.HDPGibbsSampler.DOCState;
+
+public class Hdp_Test {
+
+	// 300 documents of 20 to 60 words over 500 words, every document is
+	// mostly about one of 10 blocks of 50 words
+	private static int[][] documents() {
+		Random random = new Random(3);
+		int[][] docs = new int[300][];
+		for (int d = 0; d < docs.length; d++) {
+			int block = random.nextInt(10);
+			docs[d] = new int[20 + random.nextInt(41)];
+			for (int i = 0; i < docs[d].length; i++)
+				docs[d][i] = random.nextInt(4) > 0 ? block * 50 + random.nextInt(50) : random.nextInt(500);
+		}
+		return docs;
+	}
+
+	private static HDPGibbsSampler sampler(int numThreads, long seed) {
+		HDPGibbsSampler hdp = new HDPGibbsSampler();
+		hdp.setNumThreads(numThreads);
+		hdp.setSeed(seed);
+		hdp.addInstances(documents(), 500);
+		return hdp;
+	}
+
+	/* The table and topic of every word, document by document */
+	private static int[][] assignments(HDPGibbsSampler hdp) {
+		int[][] assignments = new int[hdp.docStates.length][];
+		for (int d = 0; d < hdp.docStates.length; d++) {
+			DOCState docState = hdp.docStates[d];
+			assignments[d] = new int[2 * docState.documentLength + 1];
+			assignments[d][0] = docState.docID;
+			for (int i = 0; i < docState.documentLength; i++) {
+				int t = docState.words[i].tableAssignment;
+				assignments[d][2 * i + 1] = t;
+				assignments[d][2 * i + 2] = docState.tableToTopic[t];
+			}
+		}
+		return assignments;
+	}
+
+	@Test
+	public void sameSeedSameAssignments() throws IOException {
+		for (int numThreads : new int[] { 1, 4 }) {
+			HDPGibbsSampler first = sampler(numThreads, 11);
+			HDPGibbsSampler second = sampler(numThreads, 11);
+			PrintStream log = new PrintStream(new ByteArrayOutputStream());
+			first.run(5, 30, log, new NullProgressMonitor());
+			second.run(5, 30, log, new NullProgressMonitor());
+			assertEquals(first.numberOfTopics, second.numberOfTopics);
+			int[][] expected = assignments(first);
+			int[][] actual = assignments(second);
+			for (int d = 0; d < expected.length; d++)
+				assertArrayEquals(numThreads + " thread(s), document " + d, expected[d], actual[d]);
+			assertConsistent(second);
+		}
+	}
+
+	@Test
+	public void parallelSweepKeepsCountsConsistent() {
+		HDPGibbsSampler hdp = sampler(4, 5);
+		assertConsistent(hdp);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (int iter = 0; iter < 30; iter++) {
+				hdp.nextParallelGibbsSweep(executor);
+				assertConsistent(hdp);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertTrue("Topics are created by the workers", hdp.numberOfTopics > 1);
+	}
+
+	/*
+	 * Counts the tables and words of every topic from the documents and
+	 * compares them with the sampler's counts
+	 */
+	private static void assertConsistent(HDPGibbsSampler hdp) {
+		int K = hdp.numberOfTopics;
+		int[] tablesByTopic = new int[K];
+		int[] wordsByTopic = new int[K];
+		int[][] wordsByTopicAndTerm = new int[K][hdp.sizeOfVocabulary];
+		int tables = 0, words = 0;
+		for (DOCState docState : hdp.docStates) {
+			int[] wordsByTable = new int[docState.numberOfTables];
+			for (int i = 0; i < docState.documentLength; i++) {
+				int t = docState.words[i].tableAssignment;
+				assertTrue("Word at an open table", t >= 0 && t < docState.numberOfTables);
+				int k = docState.tableToTopic[t];
+				assertTrue("Table of a known topic", k >= 0 && k < K);
+				wordsByTable[t]++;
+				wordsByTopic[k]++;
+				wordsByTopicAndTerm[k][docState.words[i].termIndex]++;
+				words++;
+			}
+			for (int t = 0; t < docState.numberOfTables; t++) {
+				assertEquals(wordsByTable[t], docState.wordCountByTable[t]);
+				assertTrue("No empty tables after a sweep", wordsByTable[t] > 0);
+				tablesByTopic[docState.tableToTopic[t]]++;
+				tables++;
+			}
+		}
+		assertEquals(hdp.totalNumberOfWords, words);
+		assertEquals(tables, hdp.totalNumberOfTables);
+		for (int k = 0; k < K; k++) {
+			assertTrue("No empty topics after a sweep", wordsByTopic[k] > 0);
+			assertEquals("Words of topic " + k, wordsByTopic[k], hdp.wordCountByTopic[k]);
+			assertEquals("Tables of topic " + k, tablesByTopic[k], hdp.numberOfTablesByTopic[k]);
+			assertArrayEquals("Words of topic " + k, wordsByTopicAndTerm[k], hdp.wordCountByTopicAndTerm[k]);
+		}
+	}
+}
@@ -241,6 +241,7 @@ public class HDPTopicModelView extends ViewPart implements
 							}
 							monitor.worked(20);
 							HDPGibbsSampler hDP = new HDPGibbsSampler();
+							hDP.setNumThreads(Runtime.getRuntime().availableProcessors());
 							ProcessDocument pd = new ProcessDocument();
 							String input = topicModelDirPath+File.separator+"input.txt";
 							pd.process(inFiles, input);
@@ -255,6 +256,8 @@ public class HDPTopicModelView extends ViewPart implements
 							if (monitor.isCanceled()) {
 								return Status.CANCEL_STATUS;
 							}
+							ConsoleView.printlInConsoleln("HDP sampled "
+									+ Math.round(hDP.getTokensPerSecond()) + " words per second.");
 							ConsoleView
 									.printlInConsoleln("HDP Topic Modelling completed successfully in "
 											+ (System.currentTimeMillis() - startTime)
@@ -11,12 +11,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 
 import edu.usc.cssl.tacit.topicmodel.hdp.utils.CLDACorpus;
 import edu.usc.cssl.tacit.topicmodel.hdp.utils.TopicsWriter;
@@ -57,6 +64,40 @@ public class HDPGibbsSampler {
 	protected int numberOfTopics = 1;
 	protected int totalNumberOfTables;
 	
+	// number of threads of a sweep. 1 keeps the exact sequential sampler.
+	private int numThreads = 1;
+	private Long seed;
+	// per thread copies of the counts, reused from sweep to sweep
+	private HDPGibbsSampler[] workers;
+	private double tokensPerSecond;
+	
+
+	/**
+	 * Sets the number of threads that sample a sweep. With more than one
+	 * thread the documents are split into one block per thread and each block
+	 * is sampled against its own copy of the topic counts. The changes are
+	 * merged after every sweep, as in approximate distributed HDP, so topics
+	 * do not see the other blocks' changes of the current sweep.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
+	/**
+	 * Makes the sampler deterministic: the same seed, documents and number of
+	 * threads give the same samples. Call before addInstances.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		random = new Random(seed);
+	}
+
+	/**
+	 * Words sampled per second by the last call to run.
+	 */
+	public double getTokensPerSecond() {
+		return tokensPerSecond;
+	}
 
 	/**
 	 * Initially assign the words to tables and topics
@@ -99,8 +140,20 @@ public class HDPGibbsSampler {
 	 * 
 	 */
 	protected void nextGibbsSweep() {
+		sweep(0, docStates.length);
+		defragment();
+	}
+
+	
+	/**
+	 * Samples the words of the documents from (inclusive) to to (exclusive)
+	 * 
+	 * @param from index of the first document
+	 * @param to index after the last document
+	 */
+	private void sweep(int from, int to) {
 		int table;
-		for (int d = 0; d < docStates.length; d++) {
+		for (int d = from; d < to; d++) {
 			for (int i = 0; i < docStates[d].documentLength; i++) {
 				removeWord(d, i); // remove the word i from the state
 				table = sampleTable(d, i);
@@ -110,10 +163,182 @@ public class HDPGibbsSampler {
 					addWord(d, i, table, docStates[d].tableToTopic[table]); // existing Table
 			}
 		}
+	}
+
+	
+	/**
+	 * Step one step ahead with one block of documents per thread. Each
+	 * worker samples its block against a copy of the counts, then the
+	 * changes of all workers are added to the counts.
+	 * 
+	 * @param executor the threads to sample on
+	 */
+	protected void nextParallelGibbsSweep(ExecutorService executor) {
+		int[] bounds = partition(numThreads);
+		int blocks = bounds.length - 1;
+		if (workers == null || workers.length != blocks) {
+			workers = new HDPGibbsSampler[blocks];
+			for (int w = 0; w < blocks; w++)
+				workers[w] = new HDPGibbsSampler();
+		}
+		List<Future<?>> futures = new ArrayList<Future<?>>(blocks);
+		for (int w = 0; w < blocks; w++) {
+			final HDPGibbsSampler worker = workers[w];
+			final int from = bounds[w], to = bounds[w + 1];
+			worker.copyState(this, random.nextLong());
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() {
+					worker.sweep(from, to);
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		merge(bounds);
 		defragment();
 	}
 
 	
+	/**
+	 * Splits the documents into blocks of about the same number of words
+	 * 
+	 * @param blocks the number of blocks
+	 * @return the index of the first document of every block, followed by
+	 *         the number of documents
+	 */
+	private int[] partition(int blocks) {
+		blocks = Math.max(1, Math.min(blocks, docStates.length));
+		int[] bounds = new int[blocks + 1];
+		long words = 0;
+		int b = 1;
+		for (int d = 0; d < docStates.length && b < blocks; d++) {
+			words += docStates[d].documentLength;
+			if (words * blocks >= (long) totalNumberOfWords * b)
+				bounds[b++] = d + 1;
+		}
+		while (b <= blocks)
+			bounds[b++] = docStates.length;
+		return bounds;
+	}
+
+	
+	/**
+	 * Makes this sampler a worker that samples against a copy of the
+	 * counts of sampler
+	 * 
+	 * @param sampler the sampler whose documents are sampled
+	 * @param seed the seed of this worker's random numbers
+	 */
+	private void copyState(HDPGibbsSampler sampler, long seed) {
+		beta = sampler.beta;
+		gamma = sampler.gamma;
+		alpha = sampler.alpha;
+		random.setSeed(seed);
+		if (p == null) {
+			p = new double[sampler.p.length];
+			f = new double[sampler.f.length];
+		}
+		docStates = sampler.docStates;
+		sizeOfVocabulary = sampler.sizeOfVocabulary;
+		totalNumberOfWords = sampler.totalNumberOfWords;
+		numberOfTopics = sampler.numberOfTopics;
+		totalNumberOfTables = sampler.totalNumberOfTables;
+		numberOfTablesByTopic = copy(sampler.numberOfTablesByTopic, numberOfTablesByTopic);
+		wordCountByTopic = copy(sampler.wordCountByTopic, wordCountByTopic);
+		if (wordCountByTopicAndTerm == null || wordCountByTopicAndTerm.length <= numberOfTopics)
+			wordCountByTopicAndTerm = new int[sampler.wordCountByTopicAndTerm.length][];
+		for (int k = 0; k <= numberOfTopics; k++) { // and the empty row for a new topic
+			if (wordCountByTopicAndTerm[k] == null)
+				wordCountByTopicAndTerm[k] = new int[sizeOfVocabulary];
+			if (k < numberOfTopics)
+				System.arraycopy(sampler.wordCountByTopicAndTerm[k], 0, wordCountByTopicAndTerm[k], 0, sizeOfVocabulary);
+			else
+				Arrays.fill(wordCountByTopicAndTerm[k], 0);
+		}
+	}
+
+	private static int[] copy(int[] from, int[] to) {
+		if (to == null || to.length != from.length)
+			return from.clone();
+		System.arraycopy(from, 0, to, 0, from.length);
+		return to;
+	}
+
+	
+	/**
+	 * Adds the changes the workers made to the counts. Topics a worker
+	 * created are appended, and the tables of its documents are pointed to
+	 * their new index.
+	 * 
+	 * @param bounds the blocks of documents of the workers
+	 */
+	private void merge(int[] bounds) {
+		int k, w, v, sum, count;
+		int numberOfSharedTopics = numberOfTopics;
+		for (k = 0; k < numberOfSharedTopics; k++) {
+			int[] counts = wordCountByTopicAndTerm[k];
+			for (v = 0; v < sizeOfVocabulary; v++) {
+				count = counts[v];
+				sum = count;
+				for (w = 0; w < workers.length; w++)
+					sum += workers[w].wordCountByTopicAndTerm[k][v] - count;
+				counts[v] = sum;
+			}
+			count = wordCountByTopic[k];
+			sum = count;
+			for (w = 0; w < workers.length; w++)
+				sum += workers[w].wordCountByTopic[k] - count;
+			wordCountByTopic[k] = sum;
+			count = numberOfTablesByTopic[k];
+			sum = count;
+			for (w = 0; w < workers.length; w++)
+				sum += workers[w].numberOfTablesByTopic[k] - count;
+			numberOfTablesByTopic[k] = sum;
+		}
+		sum = totalNumberOfTables;
+		for (w = 0; w < workers.length; w++)
+			sum += workers[w].totalNumberOfTables - totalNumberOfTables;
+		totalNumberOfTables = sum;
+
+		for (w = 0; w < workers.length; w++) {
+			HDPGibbsSampler worker = workers[w];
+			if (worker.numberOfTopics == numberOfSharedTopics)
+				continue;
+			int[] kWorkerToKNew = new int[worker.numberOfTopics];
+			for (k = numberOfSharedTopics; k < worker.numberOfTopics; k++) {
+				kWorkerToKNew[k] = numberOfTopics;
+				wordCountByTopic[numberOfTopics] = worker.wordCountByTopic[k];
+				numberOfTablesByTopic[numberOfTopics] = worker.numberOfTablesByTopic[k];
+				wordCountByTopicAndTerm = add(wordCountByTopicAndTerm, worker.wordCountByTopicAndTerm[k], numberOfTopics);
+				worker.wordCountByTopicAndTerm[k] = null; // now owned by this sampler
+				numberOfTopics++;
+				numberOfTablesByTopic = ensureCapacity(numberOfTablesByTopic, numberOfTopics);
+				wordCountByTopic = ensureCapacity(wordCountByTopic, numberOfTopics);
+			}
+			// keep an empty row for the next new topic
+			if (wordCountByTopicAndTerm.length <= numberOfTopics || wordCountByTopicAndTerm[numberOfTopics] == null)
+				wordCountByTopicAndTerm = add(wordCountByTopicAndTerm, new int[sizeOfVocabulary], numberOfTopics);
+			for (int d = bounds[w]; d < bounds[w + 1]; d++) {
+				DOCState docState = docStates[d];
+				for (int t = 0; t < docState.numberOfTables; t++)
+					if (docState.wordCountByTable[t] > 0 && docState.tableToTopic[t] >= numberOfSharedTopics)
+						docState.tableToTopic[t] = kWorkerToKNew[docState.tableToTopic[t]];
+			}
+		}
+	}
+
+	
 	/**
 	 * Decide at which topic the table should be assigned to
 	 * 
@@ -184,15 +409,29 @@ public class HDPGibbsSampler {
 	 */
 	public void run(int shuffleLag, int maxIter, PrintStream log, IProgressMonitor monitor) 
 	throws IOException {
-		for (int iter = 0; iter < maxIter; iter++) {
-			if ((shuffleLag > 0) && (iter > 0) && (iter % shuffleLag == 0))
-				doShuffle();
-			nextGibbsSweep();
-			log.println("iter = " + iter + " #topics = " + numberOfTopics + ", #tables = "
-					+ totalNumberOfTables );
-			if(iter%50 ==0)
-				monitor.worked(1);
+		ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+		long startTime = System.nanoTime();
+		try {
+			for (int iter = 0; iter < maxIter; iter++) {
+				if ((shuffleLag > 0) && (iter > 0) && (iter % shuffleLag == 0))
+					doShuffle();
+				if (executor == null)
+					nextGibbsSweep();
+				else
+					nextParallelGibbsSweep(executor);
+				log.println("iter = " + iter + " #topics = " + numberOfTopics + ", #tables = "
+						+ totalNumberOfTables );
+				if(iter%50 ==0)
+					monitor.worked(1);
+			}
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+			workers = null;
 		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		tokensPerSecond = seconds > 0 ? (double) totalNumberOfWords * maxIter / seconds : 0;
+		log.println("tokens per second = " + Math.round(tokensPerSecond));
 	}
 		
 	
@@ -275,11 +514,11 @@ public class HDPGibbsSampler {
 	 */
 	protected void doShuffle(){
 		List<DOCState> h = Arrays.asList(docStates);
-		Collections.shuffle(h);
+		Collections.shuffle(h, random);
 		docStates = h.toArray(new DOCState[h.size()]);
 		for (int j = 0; j < docStates.length; j ++){
 			List<WordState> h2 = Arrays.asList(docStates[j].words);
-			Collections.shuffle(h2);
+			Collections.shuffle(h2, random);
 			docStates[j].words = h2.toArray(new WordState[h2.size()]);
 		}
 	}
@@ -388,6 +627,9 @@ public class HDPGibbsSampler {
 	public void hdp(String input, String output, IProgressMonitor monitor) throws IOException {
 
 		HDPGibbsSampler hdp = new HDPGibbsSampler();
+		hdp.setNumThreads(numThreads);
+		if (seed != null)
+			hdp.setSeed(seed);
 		CLDACorpus corpus = new CLDACorpus(new FileInputStream(input));
 		hdp.addInstances(corpus.getDocuments(), corpus.getVocabularySize());
 
@@ -397,6 +639,7 @@ public class HDPGibbsSampler {
 		file1.println("totalNumberOfWords = "+hdp.totalNumberOfWords);
 		file1.println("NumberOfDocs = "+hdp.docStates.length);
 		hdp.run(0, 2000, file1, monitor);
+		tokensPerSecond = hdp.tokensPerSecond;
 		monitor.worked(10);
 		file1.close();
 		
@@ -1,14 +1,29 @@
 package edu.usc.cssl.tacit.topicmodel.hlda.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.junit.Test;
 
+import cc.mallet.types.Alphabet;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.Randoms;
 import edu.usc.cssl.tacit.topicmodel.hlda.services.HLDA;
+import edu.usc.cssl.tacit.topicmodel.hlda.services.HierarchicalLDA;
 
 public class HLDATest {
 	final String directoryPath = new File("TestData").getAbsolutePath();
@@ -26,7 +41,155 @@ public class HLDATest {
 		}
 		File file = new File(directoryPath+File.separator+"GeneratedTopics.txt");
 		file.delete();
+		new File(directoryPath+File.separator+"hlda-trace.csv").delete();
 		
 		assertEquals("Checking if any exception occured", exception, null);
 	}
+
+	// numDocs documents of 200 words over numTypes words: half of the words
+	// from a Zipf distribution over all of them, half from one of numTopics
+	// topics splitting the words
+	static InstanceList syntheticInstances(int numDocs, int numTypes, int numTopics) {
+		int topicTypes = numTypes / numTopics;
+		Alphabet alphabet = new Alphabet();
+		for (int type = 0; type < numTypes; type++)
+			alphabet.lookupIndex("w" + type);
+		double[] cumulative = new double[numTypes];
+		double total = 0;
+		for (int type = 0; type < numTypes; type++)
+			cumulative[type] = total += 1.0 / (type + 1);
+		Random random = new Random(1);
+		InstanceList instances = new InstanceList(alphabet, null);
+		for (int doc = 0; doc < numDocs; doc++) {
+			int topic = random.nextInt(numTopics);
+			int[] words = new int[200];
+			for (int i = 0; i < words.length; i++) {
+				if (i % 2 == 0) {
+					words[i] = topic * topicTypes + random.nextInt(topicTypes);
+					continue;
+				}
+				int type = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+				words[i] = Math.min(numTypes - 1, type < 0 ? -type - 1 : type);
+			}
+			instances.add(new Instance(new FeatureSequence(alphabet, words), null, "doc" + doc, null));
+		}
+		return instances;
+	}
+
+	static String state(HierarchicalLDA hlda) throws IOException {
+		StringWriter state = new StringWriter();
+		hlda.printState(new PrintWriter(state));
+		return state.toString();
+	}
+
+	@Test
+	public void checkpointResume() throws IOException {
+		InstanceList instances = syntheticInstances(200, 2000, 10);
+		File checkpoint = File.createTempFile("hlda", ".checkpoint");
+		try {
+			HierarchicalLDA straight = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			straight.setProgressDisplay(false);
+			straight.initialize(instances, null, 3, new Randoms(1));
+			straight.estimate(10);
+
+			HierarchicalLDA first = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			first.setProgressDisplay(false);
+			first.initialize(instances, null, 3, new Randoms(1));
+			first.estimate(4);
+			first.writeCheckpoint(checkpoint);
+
+			HierarchicalLDA resumed = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			resumed.setProgressDisplay(false);
+			resumed.resume(instances, null, 3, checkpoint);
+			assertEquals(4, resumed.getIteration());
+			resumed.estimate(6);
+
+			assertEquals(10, resumed.getIteration());
+			assertEquals(straight.logLikelihood(), resumed.logLikelihood(), 0.0);
+			assertEquals(state(straight), state(resumed));
+		} finally {
+			checkpoint.delete();
+		}
+	}
+
+	@Test
+	public void resumeRefusesOtherParameters() throws IOException {
+		InstanceList instances = syntheticInstances(50, 2000, 10);
+		File checkpoint = File.createTempFile("hlda", ".checkpoint");
+		try {
+			HierarchicalLDA first = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			first.setProgressDisplay(false);
+			first.setRandomSeed(1);
+			first.initialize(instances, null, 3, new Randoms(1));
+			first.estimate(2);
+			first.writeCheckpoint(checkpoint);
+
+			HierarchicalLDA otherEta = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			otherEta.setRandomSeed(1);
+			otherEta.setEta(0.5);
+			assertTrue(refuses(otherEta, instances, checkpoint));
+
+			HierarchicalLDA otherSeed = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			otherSeed.setRandomSeed(2);
+			assertTrue(refuses(otherSeed, instances, checkpoint));
+
+			HierarchicalLDA same = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			same.setRandomSeed(1);
+			same.resume(instances, null, 3, checkpoint);
+			assertEquals(2, same.getIteration());
+		} finally {
+			checkpoint.delete();
+		}
+	}
+
+	private boolean refuses(HierarchicalLDA hlda, InstanceList instances, File checkpoint) {
+		try {
+			hlda.resume(instances, null, 3, checkpoint);
+			return false;
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	@Test
+	public void convergenceStopsEarly() throws IOException {
+		InstanceList instances = syntheticInstances(200, 2000, 10);
+		File trace = File.createTempFile("hlda", ".csv");
+		try {
+			HierarchicalLDA hlda = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+			hlda.setProgressDisplay(false);
+			hlda.setTraceFile(trace);
+			// any change is small enough once there are two windows
+			hlda.setConvergence(3, Double.MAX_VALUE);
+			hlda.initialize(instances, null, 3, new Randoms(1));
+			hlda.estimate(100);
+
+			assertTrue(hlda.hasConverged());
+			assertEquals(6, hlda.getIteration());
+			List<String> lines = Files.readAllLines(trace.toPath(), StandardCharsets.UTF_8);
+			assertEquals(7, lines.size());
+			assertEquals("6,", lines.get(6).substring(0, 2));
+		} finally {
+			trace.delete();
+		}
+	}
+
+	@Test
+	public void benchmarkSweeps() throws IOException {
+		InstanceList instances = syntheticInstances(2000, 50000, 100);
+		HierarchicalLDA hlda = new HierarchicalLDA(directoryPath, new NullProgressMonitor());
+		hlda.setProgressDisplay(false);
+		hlda.setTopicDisplay(Integer.MAX_VALUE, 10);
+		hlda.initialize(instances, null, 4, new Randoms(1));
+		hlda.estimate(5);
+		long start = System.nanoTime();
+		hlda.estimate(20);
+		long millis = (System.nanoTime() - start) / 1000000;
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long heap = runtime.totalMemory() - runtime.freeMemory();
+		System.out.println("hLDA: " + millis / 20 + " ms per sweep, " + heap / (1024 * 1024) + " MB heap");
+		// keeps the sampler reachable until the heap is measured
+		assertNotNull(hlda.getRootNode());
+	}
 }
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.regex.Pattern;
@@ -24,6 +25,7 @@ import cc.mallet.pipe.iterator.FileIterator;
 import cc.mallet.types.InstanceList;
 import cc.mallet.util.CommandOption;
 import cc.mallet.util.Randoms;
+import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
 public class HLDA {
 
@@ -55,6 +57,22 @@ public class HLDA {
 	static CommandOption.Double eta = new CommandOption.Double
 		(HLDA.class, "eta", "DECIMAL", true, 0.1,
 		 "Eta parameter: smoothing over topic-word distributions", null);
+
+	static CommandOption.Integer numIterations = new CommandOption.Integer
+		(HLDA.class, "num-iterations", "INTEGER", true, 1000,
+		 "The number of Gibbs sampling iterations.", null);
+
+	static CommandOption.Integer checkpointInterval = new CommandOption.Integer
+		(HLDA.class, "checkpoint-interval", "INTEGER", true, 50,
+		 "The number of iterations between checkpoints of the sampler, which a later run on the same documents resumes from. 0 only writes one on cancel.", null);
+
+	static CommandOption.Integer convergenceWindow = new CommandOption.Integer
+		(HLDA.class, "convergence-window", "INTEGER", true, 0,
+		 "The number of iterations whose log likelihood is averaged to tell if the sampler has converged. 0 runs all the iterations.", null);
+
+	static CommandOption.Double convergenceTolerance = new CommandOption.Double
+		(HLDA.class, "convergence-tolerance", "DECIMAL", true, 0.0001,
+		 "Relative change of the average log likelihood between two windows under which the sampler stops.", null);
 	
 	public void runHLDA() throws java.io.IOException {
 
@@ -64,27 +82,57 @@ public class HLDA {
 		hlda.setAlpha(alpha.value());
 		hlda.setGamma(gamma.value());
 		hlda.setEta(eta.value());
+		hlda.setRandomSeed(randomSeed.value());
 		
 		// Display preferences
 		hlda.setTopicDisplay(50, 10);
 		hlda.setProgressDisplay(true);
 		hlda.setTopicDisplay(50, wordsPerTopic);
 
-		// Initialize random number generator
-		Randoms random = null;
-		if (randomSeed.value() == 0) {
-			random = new Randoms();
+		// Checkpoints, early stop and the per iteration trace
+		File checkpoint = new File(outputDirectory, "hlda.checkpoint");
+		hlda.setCheckpoint(checkpoint, checkpointInterval.value());
+		hlda.setConvergence(convergenceWindow.value(), convergenceTolerance.value());
+		hlda.setTraceFile(new File(outputDirectory, "hlda-trace.csv"));
+
+		// Go on from the checkpoint of an earlier run on these documents and
+		// parameters
+		boolean resumed = false;
+		if (checkpoint.exists()) {
+			try {
+				hlda.resume(instances, testing, maxTopicHeirarchy, checkpoint);
+				resumed = true;
+				ConsoleView.printlInConsoleln("Resuming from iteration " + hlda.getIteration());
+			} catch (IOException e) {
+				ConsoleView.printlInConsoleln("Not resuming: " + e.getMessage());
+			}
 		}
-		else {
-			random = new Randoms(randomSeed.value());
+
+		if (!resumed) {
+			// Initialize random number generator
+			Randoms random = null;
+			if (randomSeed.value() == 0) {
+				random = new Randoms();
+			}
+			else {
+				random = new Randoms(randomSeed.value());
+			}
+
+			// Initialize the sampler
+			hlda.initialize(instances, testing, maxTopicHeirarchy, random);
+		}
+		hlda.estimate(numIterations.value() - hlda.getIteration());
+		if (monitor.isCanceled()) {
+			// the checkpoint is kept for the next run
+			return;
+		}
+		if (hlda.hasConverged()) {
+			ConsoleView.printlInConsoleln("Converged after " + hlda.getIteration() + " iterations");
 		}
-		
-		// Initialize and start the sampler
-		hlda.initialize(instances, testing, maxTopicHeirarchy, random);
-		hlda.estimate(1000);
 		
 		// Output results
 		hlda.printNodesToFile();
+		checkpoint.delete();
 
 	}
 	
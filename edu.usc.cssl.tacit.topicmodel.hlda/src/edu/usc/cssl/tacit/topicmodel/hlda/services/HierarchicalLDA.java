@@ -2,6 +2,8 @@ package edu.usc.cssl.tacit.topicmodel.hlda.services;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 
@@ -33,11 +35,43 @@ public class HierarchicalLDA {
     int[][] levels; // indexed < doc, token >
     NCRPNode[] documentLeaves; // currently selected path (ie leaf node) through the NCRP tree
 
+	// logEtaGamma[n] = lgamma(eta + n) - lgamma(eta), and logEtaSumGamma[n]
+	//  the same for etaSum, grown as larger counts come up
+	double[] logEtaGamma = new double[] { 0.0 };
+	double[] logEtaSumGamma = new double[] { 0.0 };
+
+	// Reused by samplePath: the distinct types of the document at each
+	//  level with their counts, a dense scratch count per type, and the
+	//  nodes of the tree with their log weights, in depth first order
+	int[][] levelTypes;
+	int[][] levelTypeCounts;
+	int[] levelNumTypes;
+	int[] levelTokens;
+	int[] scratchCounts;
+	NCRPNode[] pathNodes = new NCRPNode[16];
+	double[] pathWeights = new double[16];
+	int numPathNodes;
+
 	int totalNodes = 0;
 
 	String stateFile = "hlda.state";
 
+	// Checkpoints, early stopping and the trace, all off until set
+	File checkpointFile;
+	int checkpointInterval;
+	int convergenceWindow;
+	double convergenceTolerance;
+	File traceFile;
+
+	static final int CHECKPOINT_MAGIC = 0x484c4441; // "HLDA"
+	static final int CHECKPOINT_VERSION = 2;
+
+	int iteration = 0; // sweeps done, counting those before a resume
+	double[] likelihoods = new double[16]; // log likelihood after each sweep
+	boolean converged;
+
     Randoms random;
+	int randomSeed; // as given by the user, 0 for the clock
 
 	boolean showProgress = true;
 	
@@ -66,10 +100,59 @@ public class HierarchicalLDA {
 		this.eta = eta;
 	}
 
+	/**
+	 *  Records the seed the random number generator was made with, 0 for the
+	 *   clock. It is saved in checkpoints, which resume only goes on from
+	 *   with the same seed.
+	 */
+	public void setRandomSeed(int randomSeed) {
+		this.randomSeed = randomSeed;
+	}
+
 	public void setStateFile(String stateFile) {
 		this.stateFile = stateFile;
 	}
 
+	/**
+	 *  Writes the sampling state to the file every interval iterations, and
+	 *   when the monitor is canceled, for resume to go on from. An interval of
+	 *   0 only writes it on cancel.
+	 */
+	public void setCheckpoint(File checkpointFile, int interval) {
+		this.checkpointFile = checkpointFile;
+		this.checkpointInterval = interval;
+	}
+
+	/**
+	 *  Stops estimate once the average log likelihood of the last window
+	 *   iterations is within tolerance, relative, of the average of the window
+	 *   before. The held out likelihood is used if there are testing instances,
+	 *   the training likelihood otherwise. A window of 0 never stops early.
+	 */
+	public void setConvergence(int window, double tolerance) {
+		this.convergenceWindow = window;
+		this.convergenceTolerance = tolerance;
+	}
+
+	/**
+	 *  Writes the time, log likelihood and number of nodes of every iteration
+	 *   to the CSV file. A resumed run adds to the file, a new one replaces it.
+	 */
+	public void setTraceFile(File traceFile) {
+		this.traceFile = traceFile;
+	}
+
+	/**
+	 *  The number of iterations done, including those before a resume.
+	 */
+	public int getIteration() {
+		return iteration;
+	}
+
+	public boolean hasConverged() {
+		return converged;
+	}
+
 	public void setTopicDisplay(int interval, int words) {
 		displayTopicsInterval = interval;
 		numWordsToDisplay = words;
@@ -98,12 +181,14 @@ public class HierarchicalLDA {
 		numTypes = instances.getDataAlphabet().size();
 	
 		etaSum = eta * numTypes;
+		reset();
 
 		// Initialize a single path
 
 		NCRPNode[] path = new NCRPNode[numLevels];
 
-		rootNode = new NCRPNode(numTypes);
+		totalNodes = 0;
+		rootNode = new NCRPNode();
 
 		levels = new int[numDocuments][];
 		documentLeaves = new NCRPNode[numDocuments];
@@ -131,39 +216,323 @@ public class HierarchicalLDA {
 				levels[doc][token] = random.nextInt(numLevels);
 				node = path[ levels[doc][token] ];
 				node.totalTokens++;
-				node.typeCounts[type]++;
+				node.addCount(type, 1);
 			}
 		}
 	}
 
-	public void estimate(int numIterations) {
-		for (int iteration = 1; iteration <= numIterations; iteration++) {
-			for (int doc=0; doc < numDocuments; doc++) {
-				samplePath(doc, iteration);
+	// Clears what samplePath keeps between documents and the iteration
+	//  count, for a new or resumed sampler
+	void reset() {
+		logEtaGamma = new double[] { 0.0 };
+		logEtaSumGamma = new double[] { 0.0 };
+
+		levelTypes = new int[numLevels][16];
+		levelTypeCounts = new int[numLevels][16];
+		levelNumTypes = new int[numLevels];
+		levelTokens = new int[numLevels];
+		scratchCounts = new int[numTypes];
+
+		iteration = 0;
+		likelihoods = new double[16];
+		converged = false;
+	}
+
+	/**
+	 *  Runs up to numIterations more iterations. Returns early when the
+	 *   likelihood has converged, see setConvergence, or when the monitor is
+	 *   canceled, after writing a checkpoint if there is a checkpoint file.
+	 */
+	public void estimate(int numIterations) throws IOException {
+		PrintWriter trace = null;
+		if (traceFile != null) {
+			boolean append = iteration > 0 && traceFile.exists();
+			trace = new PrintWriter(new BufferedWriter(new FileWriter(traceFile, append)));
+			if (!append) {
+				trace.println("iteration,millis,log_likelihood,nodes");
 			}
-			for (int doc=0; doc < numDocuments; doc++) {
-				sampleTopics(doc);
+		}
+		try {
+			for (int i = 0; i < numIterations && !converged; i++) {
+				if (monitor.isCanceled()) {
+					if (checkpointFile != null) {
+						writeCheckpoint(checkpointFile);
+					}
+					return;
+				}
+
+				long start = System.currentTimeMillis();
+				iteration++;
+				for (int doc=0; doc < numDocuments; doc++) {
+					samplePath(doc, iteration);
+				}
+				for (int doc=0; doc < numDocuments; doc++) {
+					sampleTopics(doc);
+				}
+				long millis = System.currentTimeMillis() - start;
+
+				double likelihood = Double.NaN;
+				if (trace != null || convergenceWindow > 0) {
+					likelihood = testing == null ? logLikelihood() : empiricalLikelihood(10, testing);
+				}
+				if (iteration > likelihoods.length) {
+					likelihoods = Arrays.copyOf(likelihoods, 2 * likelihoods.length);
+				}
+				likelihoods[iteration - 1] = likelihood;
+				converged = converged();
+
+				if (trace != null) {
+					trace.println(iteration + "," + millis + "," + likelihood + "," + countNodes(rootNode));
+					trace.flush();
+				}
+
+				if (showProgress) {
+					System.out.print(".");
+					if (iteration % 50 == 0) {
+						monitor.worked(5);
+						System.out.println(" " + iteration);
+					}
+				}
+
+				if (iteration % displayTopicsInterval == 0) {
+					printNodes();
+				}
+
+				if (checkpointFile != null && checkpointInterval > 0
+					&& (iteration % checkpointInterval == 0 || converged)) {
+					writeCheckpoint(checkpointFile);
+				}
 			}
-			
-			if (showProgress) {
-				System.out.print(".");
-				if (iteration % 50 == 0) {
-					monitor.worked(5);
-					System.out.println(" " + iteration);
+		} finally {
+			if (trace != null) {
+				trace.close();
+			}
+		}
+    }
+
+	// Compares the average likelihood of the last convergenceWindow
+	//  iterations with the average of the window before
+	boolean converged() {
+		if (convergenceWindow <= 0 || iteration < 2 * convergenceWindow) {
+			return false;
+		}
+		double recent = 0.0, previous = 0.0;
+		for (int i = iteration - convergenceWindow; i < iteration; i++) {
+			recent += likelihoods[i];
+		}
+		for (int i = iteration - 2 * convergenceWindow; i < iteration - convergenceWindow; i++) {
+			previous += likelihoods[i];
+		}
+		// false while the windows hold iterations run without a likelihood
+		return Math.abs(recent - previous) <= convergenceTolerance * Math.abs(previous);
+	}
+
+	int countNodes(NCRPNode node) {
+		int count = 1;
+		for (NCRPNode child: node.children) {
+			count += countNodes(child);
+		}
+		return count;
+	}
+
+	/**
+	 *  The log probability of the words and their levels given the paths of
+	 *   the documents, log p(w, z | c), with the topics and the level
+	 *   distributions integrated out.
+	 */
+	public double logLikelihood() {
+		double likelihood = nodeLikelihood(rootNode);
+
+		double[] logAlphaGamma = new double[] { 0.0 };
+		double[] logAlphaSumGamma = new double[] { 0.0 };
+		int[] levelCounts = new int[numLevels];
+		for (int doc=0; doc < numDocuments; doc++) {
+			int[] docLevels = levels[doc];
+			if (docLevels.length >= logAlphaSumGamma.length) {
+				logAlphaGamma = extendLogGamma(logAlphaGamma, alpha, docLevels.length);
+				logAlphaSumGamma = extendLogGamma(logAlphaSumGamma, alpha * numLevels, docLevels.length);
+			}
+			Arrays.fill(levelCounts, 0);
+			for (int token = 0; token < docLevels.length; token++) {
+				levelCounts[ docLevels[token] ]++;
+			}
+			for (int level = 0; level < numLevels; level++) {
+				likelihood += logAlphaGamma[ levelCounts[level] ];
+			}
+			likelihood -= logAlphaSumGamma[ docLevels.length ];
+		}
+		return likelihood;
+	}
+
+	// The word part of logLikelihood for the node and the nodes below it
+	double nodeLikelihood(NCRPNode node) {
+		double likelihood = - logEtaSumGamma(node.totalTokens);
+		for (TIntIntIterator it = node.typeCounts.iterator(); it.hasNext(); ) {
+			it.advance();
+			likelihood += logEtaGamma(it.value());
+		}
+		for (NCRPNode child: node.children) {
+			likelihood += nodeLikelihood(child);
+		}
+		return likelihood;
+	}
+
+	/**
+	 *  Writes all the sampler needs to go on to the file: the parameters, the
+	 *   tree, the level of every token, the path of every document, the
+	 *   likelihoods so far and the random number generator. The state goes to
+	 *   a temporary file first, so a run killed while writing keeps the last
+	 *   checkpoint.
+	 */
+	public void writeCheckpoint(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(CHECKPOINT_MAGIC);
+			out.writeInt(CHECKPOINT_VERSION);
+			out.writeInt(numLevels);
+			out.writeInt(numDocuments);
+			out.writeInt(numTypes);
+			out.writeDouble(alpha);
+			out.writeDouble(gamma);
+			out.writeDouble(eta);
+			out.writeInt(randomSeed);
+			out.writeInt(iteration);
+			for (int i = 0; i < iteration; i++) {
+				out.writeDouble(likelihoods[i]);
+			}
+
+			out.writeInt(totalNodes);
+			writeNode(out, rootNode);
+			for (int doc=0; doc < numDocuments; doc++) {
+				out.writeInt(documentLeaves[doc].nodeID);
+				out.writeInt(levels[doc].length);
+				for (int token = 0; token < levels[doc].length; token++) {
+					out.writeInt(levels[doc][token]);
 				}
 			}
 
-			if (iteration % displayTopicsInterval == 0) {
-				printNodes();
+			out.writeObject(random);
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file)) {
+			// Windows does not rename over an existing file
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("Could not write the checkpoint " + file);
 			}
 		}
-    }
+	}
+
+	// The node and the nodes below it, depth first
+	void writeNode(ObjectOutputStream out, NCRPNode node) throws IOException {
+		out.writeInt(node.nodeID);
+		out.writeInt(node.customers);
+		out.writeInt(node.totalTokens);
+		out.writeInt(node.typeCounts.size());
+		for (TIntIntIterator it = node.typeCounts.iterator(); it.hasNext(); ) {
+			it.advance();
+			out.writeInt(it.key());
+			out.writeInt(it.value());
+		}
+		out.writeInt(node.children.size());
+		for (NCRPNode child: node.children) {
+			writeNode(out, child);
+		}
+	}
+
+	/**
+	 *  Goes on from a checkpoint written by writeCheckpoint, in place of
+	 *   initialize. The instances, alpha, gamma, eta and the random seed must
+	 *   be those the checkpoint was written with, or it is refused with an
+	 *   IOException; the random number generator is the one saved.
+	 */
+	public void resume(InstanceList instances, InstanceList testing,
+					   int numLevels, File file) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+				throw new IOException(file + " is not an hLDA checkpoint");
+			}
+			if (in.readInt() != numLevels || in.readInt() != instances.size()
+				|| in.readInt() != instances.getDataAlphabet().size()) {
+				throw new IOException(file + " was written for other documents or levels");
+			}
+
+			if (in.readDouble() != alpha || in.readDouble() != gamma
+				|| in.readDouble() != eta || in.readInt() != randomSeed) {
+				throw new IOException(file + " was written with other parameters");
+			}
+
+			this.instances = instances;
+			this.testing = testing;
+			this.numLevels = numLevels;
+			numDocuments = instances.size();
+			numTypes = instances.getDataAlphabet().size();
+			etaSum = eta * numTypes;
+			reset();
+
+			iteration = in.readInt();
+			likelihoods = new double[Math.max(16, iteration)];
+			for (int i = 0; i < iteration; i++) {
+				likelihoods[i] = in.readDouble();
+			}
+
+			int savedNodes = in.readInt();
+			Map<Integer, NCRPNode> nodes = new HashMap<Integer, NCRPNode>();
+			rootNode = readNode(in, null, 0, nodes);
+			totalNodes = savedNodes;
+
+			levels = new int[numDocuments][];
+			documentLeaves = new NCRPNode[numDocuments];
+			for (int doc=0; doc < numDocuments; doc++) {
+				NCRPNode leaf = nodes.get(in.readInt());
+				int seqLen = in.readInt();
+				if (leaf == null || ! leaf.isLeaf()
+					|| seqLen != ((FeatureSequence) instances.get(doc).getData()).getLength()) {
+					throw new IOException(file + " was written for other documents or levels");
+				}
+				documentLeaves[doc] = leaf;
+				levels[doc] = new int[seqLen];
+				for (int token = 0; token < seqLen; token++) {
+					levels[doc][token] = in.readInt();
+				}
+			}
+
+			random = (Randoms) in.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(file + " is not an hLDA checkpoint", e);
+		} finally {
+			in.close();
+		}
+		converged = converged();
+	}
+
+	NCRPNode readNode(ObjectInputStream in, NCRPNode parent, int level,
+					  Map<Integer, NCRPNode> nodes) throws IOException {
+		NCRPNode node = new NCRPNode(parent, level);
+		node.nodeID = in.readInt();
+		node.customers = in.readInt();
+		node.totalTokens = in.readInt();
+		int numNodeTypes = in.readInt();
+		for (int i = 0; i < numNodeTypes; i++) {
+			int type = in.readInt();
+			node.typeCounts.put(type, in.readInt());
+		}
+		nodes.put(node.nodeID, node);
+
+		int numChildren = in.readInt();
+		for (int i = 0; i < numChildren; i++) {
+			node.children.add(readNode(in, node, level + 1, nodes));
+		}
+		return node;
+	}
 
     public void samplePath(int doc, int iteration) {
 		NCRPNode[] path = new NCRPNode[numLevels];
 		NCRPNode node;
-		int level, token, type, topicCount;
-		double weight;
+		int level, token, type;
 
 		node = documentLeaves[doc];
 		for (level = numLevels - 1; level >= 0; level--) {
@@ -173,101 +542,78 @@ public class HierarchicalLDA {
 
 		documentLeaves[doc].dropPath();
 
-		TObjectDoubleHashMap<NCRPNode> nodeWeights = 
-			new TObjectDoubleHashMap<NCRPNode>();
-	
-		// Calculate p(c_m | c_{-m})
-		calculateNCRP(nodeWeights, rootNode, 0.0);
-
 		// Add weights for p(w_m | c, w_{-m}, z)
 	
 		// The path may have no further customers and therefore
 		//  be unavailable, but it should still exist since we haven't
 		//  reset documentLeaves[doc] yet...
-	
-		TIntIntHashMap[] typeCounts = new TIntIntHashMap[numLevels];
-
-		int[] docLevels;
-
-		for (level = 0; level < numLevels; level++) {
-			typeCounts[level] = new TIntIntHashMap();
-		}
 
-		docLevels = levels[doc];
+		int[] docLevels = levels[doc];
 		FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
 	    
 		// Save the counts of every word at each level, and remove
 		//  counts from the current path
-
-		for (token = 0; token < docLevels.length; token++) {
-			level = docLevels[token];
-			type = fs.getIndexAtPosition(token);
-	    
-			if (! typeCounts[level].containsKey(type)) {
-				typeCounts[level].put(type, 1);
+		for (level = 0; level < numLevels; level++) {
+			int distinct = 0;
+			int[] types = levelTypes[level];
+			for (token = 0; token < docLevels.length; token++) {
+				if (docLevels[token] != level) {
+					continue;
+				}
+				type = fs.getIndexAtPosition(token);
+				if (scratchCounts[type]++ == 0) {
+					if (distinct == types.length) {
+						types = levelTypes[level] = Arrays.copyOf(types, 2 * distinct);
+					}
+					types[distinct++] = type;
+				}
 			}
-			else {
-				typeCounts[level].increment(type);
+			if (levelTypeCounts[level].length < types.length) {
+				levelTypeCounts[level] = new int[types.length];
 			}
+			int[] counts = levelTypeCounts[level];
+			int totalTokens = 0;
+			for (int i = 0; i < distinct; i++) {
+				counts[i] = scratchCounts[types[i]];
+				scratchCounts[types[i]] = 0;
+				totalTokens += counts[i];
 
-			path[level].typeCounts[type]--;
-			assert(path[level].typeCounts[type] >= 0);
-	    
-			path[level].totalTokens--;	    
+				path[level].addCount(types[i], -counts[i]);
+			}
+			levelNumTypes[level] = distinct;
+			levelTokens[level] = totalTokens;
+			path[level].totalTokens -= totalTokens;
 			assert(path[level].totalTokens >= 0);
 		}
 
 		// Calculate the weight for a new path at a given level.
 		double[] newTopicWeights = new double[numLevels];
 		for (level = 1; level < numLevels; level++) {  // Skip the root...
-			int[] types = typeCounts[level].keys();
-			int totalTokens = 0;
-
-			for (int t: types) {
-				for (int i=0; i<typeCounts[level].get(t); i++) {
-					newTopicWeights[level] += 
-						Math.log((eta + i) / (etaSum + totalTokens));
-					totalTokens++;
-				}
-			}
-
-			//if (iteration > 1) { System.out.println(newTopicWeights[level]); }
+			newTopicWeights[level] = wordLikelihood(null, level);
 		}
-	
-		calculateWordLikelihood(nodeWeights, rootNode, 0.0, typeCounts, newTopicWeights, 0, iteration);
 
-		NCRPNode[] nodes = nodeWeights.keys(new NCRPNode[] {});
-		double[] weights = new double[nodes.length];
+		// Calculate p(c_m | c_{-m}) and add the word likelihoods
+		numPathNodes = 0;
+		calculateWeights(rootNode, 0.0, newTopicWeights, 0);
+
 		double sum = 0.0;
 		double max = Double.NEGATIVE_INFINITY;
 
 		// To avoid underflow, we're using log weights and normalizing the node weights so that 
 		//  the largest weight is always 1.
-		for (int i=0; i<nodes.length; i++) {
-			if (nodeWeights.get(nodes[i]) > max) {
-				max = nodeWeights.get(nodes[i]);
+		for (int i=0; i<numPathNodes; i++) {
+			if (pathWeights[i] > max) {
+				max = pathWeights[i];
 			}
 		}
 
-		for (int i=0; i<nodes.length; i++) {
-			weights[i] = Math.exp(nodeWeights.get(nodes[i]) - max);
-
-			/*
-			  if (iteration > 1) {
-			  if (nodes[i] == documentLeaves[doc]) {
-			  System.out.print("* ");
-			  }
-			  System.out.println(((NCRPNode) nodes[i]).level + "\t" + weights[i] + 
-			  "\t" + nodeWeights.get(nodes[i]));
-			  }
-			*/
-
-			sum += weights[i];
+		for (int i=0; i<numPathNodes; i++) {
+			pathWeights[i] = Math.exp(pathWeights[i] - max);
+			sum += pathWeights[i];
 		}
 
-		//if (iteration > 1) {System.out.println();}
-
-		node = nodes[ random.nextDiscrete(weights, sum) ];
+		node = pathNodes[ nextDiscrete(pathWeights, numPathNodes, sum) ];
+		Arrays.fill(pathNodes, 0, numPathNodes, null);
 
 		// If we have picked an internal node, we need to 
 		//  add a new path.
@@ -279,103 +625,101 @@ public class HierarchicalLDA {
 		documentLeaves[doc] = node;
 
 		for (level = numLevels - 1; level >= 0; level--) {
-			int[] types = typeCounts[level].keys();
+			int[] types = levelTypes[level];
+			int[] counts = levelTypeCounts[level];
 
-			for (int t: types) {
-				node.typeCounts[t] += typeCounts[level].get(t);
-				node.totalTokens += typeCounts[level].get(t);
+			for (int i = 0; i < levelNumTypes[level]; i++) {
+				node.addCount(types[i], counts[i]);
 			}
+			node.totalTokens += levelTokens[level];
 
 			node = node.parent;
 		}
     }
 
-    public void calculateNCRP(TObjectDoubleHashMap<NCRPNode> nodeWeights, 
-							  NCRPNode node, double weight) {
-		for (NCRPNode child: node.children) {
-			calculateNCRP(nodeWeights, child,
-						  weight + Math.log((double) child.customers / (node.customers + gamma)));
+	/**
+	 *  The log likelihood of the words of the document at the given level
+	 *   being drawn from the node, or from a new node if node is null: the sum over
+	 *   the tokens of log((eta + n_type + i) / (etaSum + n + j)), taken as
+	 *   differences of log gamma functions.
+	 */
+	double wordLikelihood(NCRPNode node, int level) {
+		int[] types = levelTypes[level];
+		int[] counts = levelTypeCounts[level];
+		double weight = 0.0;
+		for (int i = 0; i < levelNumTypes[level]; i++) {
+			int nodeCount = node == null ? 0 : node.getCount(types[i]);
+			weight += logEtaGamma(nodeCount + counts[i]) - logEtaGamma(nodeCount);
 		}
+		int nodeTokens = node == null ? 0 : node.totalTokens;
+		return weight - (logEtaSumGamma(nodeTokens + levelTokens[level]) - logEtaSumGamma(nodeTokens));
+	}
 
-		nodeWeights.put(node, weight + Math.log(gamma / (node.customers + gamma)));
-    }
-
-    public void calculateWordLikelihood(TObjectDoubleHashMap<NCRPNode> nodeWeights,
-										NCRPNode node, double weight, 
-										TIntIntHashMap[] typeCounts, double[] newTopicWeights,
-										int level, int iteration) {
-	
-		// First calculate the likelihood of the words at this level, given
-		//  this topic.
-		double nodeWeight = 0.0;
-		int[] types = typeCounts[level].keys();
-		int totalTokens = 0;
-	
-		//if (iteration > 1) { System.out.println(level + " " + nodeWeight); }
+	double logEtaGamma(int n) {
+		if (n >= logEtaGamma.length) {
+			logEtaGamma = extendLogGamma(logEtaGamma, eta, n);
+		}
+		return logEtaGamma[n];
+	}
 
-		for (int type: types) {
-			for (int i=0; i<typeCounts[level].get(type); i++) {
-				nodeWeight +=
-					Math.log((eta + node.typeCounts[type] + i) /
-							 (etaSum + node.totalTokens + totalTokens));
-				totalTokens++;
+	double logEtaSumGamma(int n) {
+		if (n >= logEtaSumGamma.length) {
+			logEtaSumGamma = extendLogGamma(logEtaSumGamma, etaSum, n);
+		}
+		return logEtaSumGamma[n];
+	}
 
-				/*
-				  if (iteration > 1) {
-				  System.out.println("(" +eta + " + " + node.typeCounts[type] + " + " + i + ") /" + 
-				  "(" + etaSum + " + " + node.totalTokens + " + " + totalTokens + ")" + 
-				  " : " + nodeWeight);
-				  }
-				*/
+	// lgamma(base + n + 1) - lgamma(base) = table[n] + log(base + n)
+	static double[] extendLogGamma(double[] table, double base, int n) {
+		double[] extended = Arrays.copyOf(table, Math.max(n + 1, 2 * table.length));
+		for (int i = table.length; i < extended.length; i++) {
+			extended[i] = extended[i - 1] + Math.log(base + i - 1);
+		}
+		return extended;
+	}
 
+	/**
+	 *  Same as Randoms.nextDiscrete, looking at the first n weights only.
+	 */
+	int nextDiscrete(double[] weights, int n, double sum) {
+		double b = 0.0, r = random.nextUniform() * sum;
+		for (int i = 0; i < n; i++) {
+			b += weights[i];
+			if (b > r) {
+				return i;
 			}
 		}
+		return n - 1;
+	}
 
-		//if (iteration > 1) { System.out.println(level + " " + nodeWeight); }
-
-		// Propagate that weight to the child nodes
+	/**
+	 *  Adds the node and the nodes below it to pathNodes, with the log weight
+	 *   of p(c_m | c_{-m}) from the NCRP prior plus the word likelihood in
+	 *   pathWeights. weight is the log prior of the path down to the node.
+	 */
+	void calculateWeights(NCRPNode node, double weight, double[] newTopicWeights, int level) {
+		if (numPathNodes == pathNodes.length) {
+			pathNodes = Arrays.copyOf(pathNodes, 2 * numPathNodes);
+			pathWeights = Arrays.copyOf(pathWeights, 2 * numPathNodes);
+		}
+		int index = numPathNodes++;
+		pathNodes[index] = node;
 
 		for (NCRPNode child: node.children) {
-            calculateWordLikelihood(nodeWeights, child, weight + nodeWeight,
-									typeCounts, newTopicWeights, level + 1, iteration);
-        }
-
-		// Finally, if this is an internal node, add the weight of
-		//  a new path
-
-		level++;
-		while (level < numLevels) {
-			nodeWeight += newTopicWeights[level];
-			level++;
+			calculateWeights(child,
+							 weight + Math.log((double) child.customers / (node.customers + gamma)),
+							 newTopicWeights, level + 1);
 		}
 
-		nodeWeights.adjustValue(node, nodeWeight);
-
-    }
-
-    /** Propagate a topic weight to a node and all its children.
-		weight is assumed to be a log.
-	*/
-    public void propagateTopicWeight(TObjectDoubleHashMap<NCRPNode> nodeWeights,
-									 NCRPNode node, double weight) {
-		if (! nodeWeights.containsKey(node)) {
-			// calculating the NCRP prior proceeds from the
-			//  root down (ie following child links),
-			//  but adding the word-topic weights comes from
-			//  the bottom up, following parent links and then 
-			//  child links. It's possible that the leaf node may have
-			//  been removed just prior to this round, so the current
-			//  node may not have an NCRP weight. If so, it's not 
-			//  going to be sampled anyway, so ditch it.
-			return;
-		}
-	
-		for (NCRPNode child: node.children) {
-			propagateTopicWeight(nodeWeights, child, weight);
+		// The likelihood of the words at this level, given this topic, and
+		//  if this is an internal node, the weight of a new path below it
+		double nodeWeight = wordLikelihood(node, level);
+		for (int l = level + 1; l < numLevels; l++) {
+			nodeWeight += newTopicWeights[l];
 		}
 
-		nodeWeights.adjustValue(node, weight);
-    }
+		pathWeights[index] = weight + Math.log(gamma / (node.customers + gamma)) + nodeWeight;
+	}
 
     public void sampleTopics(int doc) {
 		FeatureSequence fs = (FeatureSequence) instances.get(doc).getData();
@@ -406,7 +750,7 @@ public class HierarchicalLDA {
 	    
 			levelCounts[ docLevels[token] ]--;
 			node = path[ docLevels[token] ];
-			node.typeCounts[type]--;
+			node.addCount(type, -1);
 			node.totalTokens--;
 	    
 
@@ -414,7 +758,7 @@ public class HierarchicalLDA {
 			for (level=0; level < numLevels; level++) {
 				levelWeights[level] = 
 					(alpha + levelCounts[level]) * 
-					(eta + path[level].typeCounts[type]) /
+					(eta + path[level].getCount(type)) /
 					(etaSum + path[level].totalTokens);
 				sum += levelWeights[level];
 			}
@@ -423,7 +767,7 @@ public class HierarchicalLDA {
 			docLevels[token] = level;
 			levelCounts[ docLevels[token] ]++;
 			node = path[ level ];
-			node.typeCounts[type]++;
+			node.addCount(type, 1);
 			node.totalTokens++;
 		}
     }
@@ -550,7 +894,7 @@ public class HierarchicalLDA {
 					node = path[level];
 					multinomial[type] +=
 						levelWeights[level] * 
-						(eta + node.typeCounts[type]) /
+						(eta + node.getCount(type)) /
 						(etaSum + node.totalTokens);
 				}
 
@@ -600,11 +944,12 @@ public class HierarchicalLDA {
 		int level;
 
 		int totalTokens;
-		int[] typeCounts;
+		// type -> count, only the types the node has
+		TIntIntHashMap typeCounts;
 
 		public int nodeID;
 
-		public NCRPNode(NCRPNode parent, int dimensions, int level) {
+		public NCRPNode(NCRPNode parent, int level) {
 			customers = 0;
 			this.parent = parent;
 			children = new ArrayList<NCRPNode>();
@@ -613,18 +958,30 @@ public class HierarchicalLDA {
 			//System.out.println("new node at level " + level);
 	    
 			totalTokens = 0;
-			typeCounts = new int[dimensions];
+			typeCounts = new TIntIntHashMap();
 
 			nodeID = totalNodes;
 			totalNodes++;
 		}
 
-		public NCRPNode(int dimensions) {
-			this(null, dimensions, 0);
+		public NCRPNode() {
+			this(null, 0);
+		}
+
+		public int getCount(int type) {
+			return typeCounts.get(type);
+		}
+
+		public void addCount(int type, int count) {
+			int newCount = typeCounts.adjustOrPutValue(type, count, count);
+			assert(newCount >= 0);
+			if (newCount == 0) {
+				typeCounts.remove(type);
+			}
 		}
 
 		public NCRPNode addChild() {
-			NCRPNode node = new NCRPNode(this, typeCounts.length, level + 1);
+			NCRPNode node = new NCRPNode(this, level + 1);
 			children.add(node);
 			return node;
 		}
@@ -703,10 +1060,19 @@ public class HierarchicalLDA {
 		}
 	
 		public String getTopWords(int numWords, boolean withWeight) {
-			IDSorter[] sortedTypes = new IDSorter[numTypes];
-	    
-			for (int type=0; type < numTypes; type++) {
-				sortedTypes[type] = new IDSorter(type, typeCounts[type]);
+			numWords = Math.min(numWords, numTypes);
+			int[] types = typeCounts.keys();
+			IDSorter[] sortedTypes = new IDSorter[Math.max(numWords, types.length)];
+
+			for (int i = 0; i < types.length; i++) {
+				sortedTypes[i] = new IDSorter(types[i], typeCounts.get(types[i]));
+			}
+			// Types the node does not have come after, the highest first
+			//  as IDSorter orders ties
+			for (int type = numTypes - 1, i = types.length; i < sortedTypes.length; type--) {
+				if (! typeCounts.containsKey(type)) {
+					sortedTypes[i++] = new IDSorter(type, 0);
+				}
 			}
 			Arrays.sort(sortedTypes);
 	    
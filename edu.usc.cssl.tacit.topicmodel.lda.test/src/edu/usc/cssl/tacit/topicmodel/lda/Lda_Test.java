@@ -48,5 +48,32 @@ public class Lda_Test {
 		}
 		assertEquals("Checking if any exception occured", exception, null);
 	}
-	
-}
\ No newline at end of file
+
+	@Test
+	public void doParallelLDATest() throws IOException {
+		LdaAnalysis lda = new LdaAnalysis() {
+			protected void createRunReport(Date dateObj) {}
+			protected String generateFileName(String fileName, Date dateObj){
+				return directoryPath + File.separator +"Hello.csv";
+			}
+			protected String generateKeysFileName(String fileName, Date dateObj){
+				return directoryPath + File.separator +"GeneratedTopicKeys.csv";
+			}
+			protected String generateCompositionFileName(String fileName, Date dateObj){
+				return directoryPath + File.separator +"GeneratedTopicComposition.csv";
+			}
+		};
+		lda.initialize(directoryPath + File.separator
+				+ "InputFiles", 3, directoryPath, false);
+		lda.setNumThreads(2);
+		lda.doLDA(new NullProgressMonitor(), new Date());
+
+		assertEquals("Documents in the model", 3, lda.getDocumentNames().length);
+		for (double[] proportions : lda.getTopicProportions()) {
+			double sum = 0;
+			for (double p : proportions)
+				sum += p;
+			assertEquals("Topic proportions of a document", 1.0, sum, 1e-9);
+		}
+	}
+}
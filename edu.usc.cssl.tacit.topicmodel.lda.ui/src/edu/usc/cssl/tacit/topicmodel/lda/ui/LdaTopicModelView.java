@@ -279,6 +279,7 @@ public class LdaTopicModelView extends ViewPart implements
 
 						lda.initialize(topicModelDirPath, noOfTopics,
 								outputPath, wordWeightFile);
+						lda.setNumThreads(Runtime.getRuntime().availableProcessors());
 
 						// lda processsing
 						long startTime = System.currentTimeMillis();
@@ -1,30 +1,63 @@
 package edu.usc.cssl.tacit.topicmodel.lda.services;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 
+import cc.mallet.pipe.CharSequence2TokenSequence;
+import cc.mallet.pipe.Input2CharSequence;
+import cc.mallet.pipe.Pipe;
+import cc.mallet.pipe.SaveDataInSource;
+import cc.mallet.pipe.SerialPipes;
+import cc.mallet.pipe.Target2Label;
+import cc.mallet.pipe.TokenSequence2FeatureSequence;
+import cc.mallet.pipe.iterator.FileIterator;
+import cc.mallet.topics.ParallelTopicModel;
+import cc.mallet.topics.TopicAssignment;
+import cc.mallet.types.FeatureSequence;
+import cc.mallet.types.Instance;
+import cc.mallet.types.InstanceList;
+import cc.mallet.util.CharSequenceLexer;
 import edu.usc.cssl.tacit.common.TacitUtility;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
+/**
+ * Trains a Mallet LDA model on the files of a directory. The documents are
+ * imported and the model is trained in memory, the same way as Text2Vectors
+ * and Vectors2Topics with the options TACIT used to pass them, and the CSV
+ * files are written from the trained model. The document topics of the last
+ * run stay available through getDocumentNames and getTopicProportions.
+ */
 public class LdaAnalysis {
+	// Vectors2Topics defaults
+	private static final double ALPHA_SUM = 50.0;
+	private static final double BETA = 0.01;
+	private static final int NUM_ITERATIONS = 1000;
+	private static final int OPTIMIZE_INTERVAL = 20;
+	private static final int OPTIMIZE_BURN_IN = 200;
+	private static final int SHOW_TOPICS_INTERVAL = 50;
+	private static final int TOP_WORDS = 20;
+	// ParallelTopicModel waits on its threads by sleeping every iteration, so
+	// a thread only pays off with enough tokens to sample meanwhile
+	private static final int MIN_TOKENS_PER_THREAD = 50000;
+
 	private StringBuilder readMe = new StringBuilder();
 	private String sourceDir;
 	private int numTopics;
 	private String outputDir;
 	private boolean wordWeights;
+	private int numThreads = 1;
+	private ParallelTopicModel topicModel;
 
 	public void initialize(String sourceDir, int numTopics, String outputDir, boolean wordWeights) {
 		this.sourceDir = sourceDir;
@@ -33,108 +66,167 @@ public class LdaAnalysis {
 		this.wordWeights = wordWeights;
 	}
 
+	/**
+	 * Sets the number of threads that sample topics. Defaults to 1. Small
+	 * corpora use fewer, down to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
 	public void doLDA(IProgressMonitor monitor, Date dateObj)
 			throws FileNotFoundException, IOException {
-		
+
 		String outputPath = outputDir + System.getProperty("file.separator");
 
-		String keepSeq = "TRUE", stopWords = "FALSE", preserveCase = "TRUE";
-
-		/*
-		 * if (removeStopwords){ stopWords = "TRUE"; } if (doLowercase){
-		 * preserveCase = "FALSE"; }
-		 */
-
-		String[] t2vArgs = { "--input", sourceDir, "--output",
-				outputPath + "mallet", "--keep-sequence", keepSeq,
-				"--remove-stopwords", stopWords, "--preserve-case",
-				preserveCase };
-		String[] v2tArgs = { "--input", outputPath + "mallet", "--num-topics",
-				String.valueOf(numTopics), "--optimize-interval", "20",
-				"--output-state", outputPath + "topic-state.gz",
-				"--output-topic-keys", outputPath + "topic-keys.txt",
-				"--output-doc-topics", outputPath + "topic-composition.txt",
-				"--topic-word-weights-file", outputPath + "word-weights.txt",
-				"--word-topic-counts-file", outputPath + "word-counts.txt" };
 		monitor.subTask("Performing text to vector conversion");
-		// --input pathway\to\the\directory\with\the\files --output
-		// tutorial.mallet --keep-sequence --remove-stopwords
-		Text2Vectors.main(t2vArgs);
+		InstanceList instances = importDirectory(new File(sourceDir));
+		ConsoleView.printlInConsoleln("Data loaded.");
 		monitor.worked(15);
 		monitor.subTask("Performing vector to topics conversion");
-		// --input tutorial.mallet --num-topics 20 --output-state topic-state.gz
-		// --output-topic-keys tutorial_keys.txt --output-doc-topics
-		// tutorial_compostion.txt
-		Vectors2Topics.main(v2tArgs);
+		topicModel = train(instances);
 		monitor.worked(5);
-		monitor.subTask("Created complete state file " + outputPath
-				+ "topic-state.gz");
-		// ConsoleView.printlInConsoleln("Created complete state file "+outputPath+".topic-state.gz");
-		// ConsoleView.printlInConsoleln("Created topic keys file "+outputPath+".topic_keys.txt");
-		// ConsoleView.printlInConsoleln("Created topic composition file "+outputPath+".topic_composition.txt");
-		// ConsoleView.printlInConsoleln("Created topic word counts file "+outputPath+".word_counts.txt");
-
-		monitor.subTask("Convert " + outputPath + "topic-keys to csv");
-		convertKeys2csv(outputPath + "topic-keys", dateObj);
+
+		monitor.subTask("Write " + outputPath + "topic-keys csv");
+		writeKeys(outputPath + "topic-keys", dateObj);
 		monitor.worked(5);
 
-		monitor.subTask("Convert " + outputPath + "topic-composition to csv");
-		convertComposition2csv(outputPath + "topic-composition", dateObj);
+		monitor.subTask("Write " + outputPath + "topic-composition csv");
+		writeComposition(outputPath + "topic-composition", dateObj);
 		monitor.worked(5);
 
-		monitor.subTask("Convert " + outputPath + "word-counts to csv");
+		monitor.subTask("Write " + outputPath + "word-weights csv");
 		if (wordWeights) {
-			convertWeights2csv(outputPath + "word-weights", dateObj);
+			writeWeights(outputPath + "word-weights", dateObj);
 		}
 
 		monitor.worked(5);
 
-		deleteFiles(outputPath);
 		createRunReport(dateObj);
 		monitor.worked(5);
 	}
+
+	/*
+	 * Text2Vectors --keep-sequence TRUE --remove-stopwords FALSE
+	 * --preserve-case TRUE
+	 */
+	private InstanceList importDirectory(File directory) {
+		ArrayList<Pipe> pipeList = new ArrayList<Pipe>();
+		pipeList.add(new Target2Label());
+		pipeList.add(new SaveDataInSource());
+		pipeList.add(new Input2CharSequence(Charset.defaultCharset().displayName()));
+		pipeList.add(new CharSequence2TokenSequence(CharSequenceLexer.LEX_ALPHA));
+		pipeList.add(new TokenSequence2FeatureSequence());
+		InstanceList instances = new InstanceList(new SerialPipes(pipeList));
+		instances.addThruPipe(new FileIterator(new File[] { directory }, FileIterator.STARTING_DIRECTORIES, true));
+		return instances;
+	}
+
+	/*
+	 * Vectors2Topics --optimize-interval 20
+	 */
+	private ParallelTopicModel train(InstanceList instances) throws IOException {
+		ParallelTopicModel model = new ParallelTopicModel(numTopics, ALPHA_SUM, BETA);
+		model.addInstances(instances);
+		model.setTopicDisplay(SHOW_TOPICS_INTERVAL, TOP_WORDS);
+		model.setNumIterations(NUM_ITERATIONS);
+		model.setOptimizeInterval(OPTIMIZE_INTERVAL);
+		model.setBurninPeriod(OPTIMIZE_BURN_IN);
+		model.setSymmetricAlpha(false);
+		// every thread samples a share of the documents
+		model.setNumThreads(threadsFor(instances));
+		model.estimate();
+		return model;
+	}
+
+	private int threadsFor(InstanceList instances) {
+		long tokens = 0;
+		for (Instance instance : instances) {
+			tokens += ((FeatureSequence) instance.getData()).getLength();
+		}
+		long threads = Math.min(tokens / MIN_TOKENS_PER_THREAD, instances.size());
+		return (int) Math.max(1, Math.min(numThreads, threads));
+	}
+
+	/**
+	 * Returns the names of the documents of the last run, in the order of
+	 * getTopicProportions.
+	 */
+	public String[] getDocumentNames() {
+		ArrayList<TopicAssignment> data = topicModel.getData();
+		String[] names = new String[data.size()];
+		for (int doc = 0; doc < names.length; doc++) {
+			Object name = data.get(doc).instance.getName();
+			names[doc] = name != null ? name.toString() : "no-name";
+		}
+		return names;
+	}
+
+	/**
+	 * Returns the topic proportions of every document of the last run, the
+	 * values of the topic composition file.
+	 */
+	public double[][] getTopicProportions() {
+		ArrayList<TopicAssignment> data = topicModel.getData();
+		double[][] proportions = new double[data.size()][numTopics];
+		for (int doc = 0; doc < proportions.length; doc++) {
+			int[] topics = data.get(doc).topicSequence.getFeatures();
+			for (int token = 0; token < topics.length; token++)
+				proportions[doc][topics[token]]++;
+			// as in ParallelTopicModel.printDocumentTopics
+			for (int topic = 0; topic < numTopics; topic++)
+				proportions[doc][topic] = (topicModel.alpha[topic] + proportions[doc][topic])
+						/ (topics.length + topicModel.alphaSum);
+		}
+		return proportions;
+	}
+
+	/**
+	 * Writes the unnormalized weight of every word in every topic, one tab
+	 * separated "topic word weight" line each, as the Vectors2Topics option
+	 * --topic-word-weights-file does.
+	 */
+	public void writeTopicWordWeights(File file) throws IOException {
+		PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+		try {
+			topicModel.printTopicWordWeights(out);
+		} finally {
+			out.close();
+		}
+	}
+
 	protected void createRunReport(Date dateObj) {
 		TacitUtility.createRunReport(outputDir, "LDA Analysis", dateObj,null);
 	}
-	private void deleteFiles(String outputPath) {
-		File toDel = new File(outputPath + "topic-state.gz");
-		toDel.delete();
-		toDel = new File(outputPath + "word-counts.txt");
-		toDel.delete();
-		toDel = new File(outputPath + "topic-keys.txt");
-		toDel.delete();
-		toDel = new File(outputPath + "topic-composition.txt");
-		toDel.delete();
-		//toDel = new File(outputPath + "word-weights.txt");
-		//toDel.delete();
-		toDel = new File(outputPath + "mallet");
-		toDel.delete();
-	}
 	protected String generateFileName(String fileName, Date dateObj){
 		DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
 		return fileName + "-"
 				+ df.format(dateObj) + ".csv";
 	}
-	private void convertWeights2csv(String fileName, Date dateObj) {
+	private void writeWeights(String fileName, Date dateObj) {
 		DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
 
-		BufferedReader br;
 		BufferedWriter bw;
 		try {
-			br = new BufferedReader(new FileReader(new File(fileName + ".txt")));
 			bw = new BufferedWriter(new FileWriter(new File(generateFileName(fileName, dateObj))));
 
-			String currentLine = "Topic,Word,Weight";
-			bw.write(currentLine);
+			bw.write("Topic,Word,Weight");
 			bw.newLine();
-			while ((currentLine = br.readLine()) != null) {
-				currentLine = currentLine.replace('\t', ',');
-				List<String> wordList = Arrays.asList(currentLine.split(","));
-				bw.write(wordList.get(0) + "," + wordList.get(1) + ","
-						+ wordList.get(2));
-				bw.newLine();
+			// as in ParallelTopicModel.printTopicWordWeights
+			for (int topic = 0; topic < topicModel.numTopics; topic++) {
+				for (int type = 0; type < topicModel.numTypes; type++) {
+					int[] topicCounts = topicModel.typeTopicCounts[type];
+					double weight = topicModel.beta;
+					for (int index = 0; index < topicCounts.length && topicCounts[index] > 0; index++) {
+						if ((topicCounts[index] & topicModel.topicMask) == topic) {
+							weight += topicCounts[index] >> topicModel.topicBits;
+							break;
+						}
+					}
+					bw.write(topic + "," + topicModel.alphabet.lookupObject(type) + "," + weight);
+					bw.newLine();
+				}
 			}
-			br.close();
 			bw.close();
 
 			ConsoleView.printlInConsoleln(fileName + "-" + df.format(dateObj)
@@ -151,25 +243,21 @@ public class LdaAnalysis {
 		return fileName + "-"
 				+ df.format(dateObj) + ".csv";
 	}
-	private void convertKeys2csv(String fileName, Date dateObj) {
+	private void writeKeys(String fileName, Date dateObj) {
 		DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
 
-		BufferedReader br;
 		BufferedWriter bw;
 		try {
-			br = new BufferedReader(new FileReader(new File(fileName + ".txt")));
 			bw = new BufferedWriter(new FileWriter(new File(generateKeysFileName(fileName, dateObj))));
 
-			String currentLine = "Topic,Keywords";
-			bw.write(currentLine);
+			bw.write("Topic,Keywords");
 			bw.newLine();
-			while ((currentLine = br.readLine()) != null) {
-				currentLine = currentLine.replace('\t', ',');
-				List<String> wordList = Arrays.asList(currentLine.split(","));
-				bw.write(wordList.get(0) + "," + wordList.get(2));
+			// topic, alpha and top words, tab separated
+			for (String line : topicModel.displayTopWords(TOP_WORDS, false).split("\n")) {
+				String[] fields = line.split("\t");
+				bw.write(fields[0] + "," + fields[2]);
 				bw.newLine();
 			}
-			br.close();
 			bw.close();
 			ConsoleView.printlInConsoleln("Created topic keys file " + fileName
 					+ "-" + df.format(dateObj) + ".csv");
@@ -185,45 +273,33 @@ public class LdaAnalysis {
 		return fileName + "-"
 				+ df.format(dateObj) + ".csv";
 	}
-	private void convertComposition2csv(String fileName, Date dateObj) {
+	private void writeComposition(String fileName, Date dateObj) {
 		DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
 
-		BufferedReader br;
 		BufferedWriter bw;
 		try {
-			br = new BufferedReader(new FileReader(new File(fileName + ".txt")));
 			bw = new BufferedWriter(new FileWriter(new File(generateCompositionFileName(fileName, dateObj))));
 
-			String currentLine = br.readLine();
-			currentLine = "Number,File Name";
+			StringBuilder line = new StringBuilder("Number,File Name");
 			for (int i = 0; i < numTopics; i++) {
-				currentLine = currentLine + "," + "Topic " + i + " Probability";
+				line.append(",Topic ").append(i).append(" Probability");
 			}
-			bw.write(currentLine);
+			bw.write(line.toString());
 			bw.newLine();
-			while ((currentLine = br.readLine()) != null) {
-				currentLine = currentLine.replace('\t', ',');
-				List<String> wordList = Arrays.asList(currentLine.split(","));
-
-				HashMap<String, String> probabilities = new HashMap<String, String>();
-
-				for (int i = 2; i < wordList.size(); i = i + 2) {
-					probabilities.put(wordList.get(i), wordList.get(i + 1));
-				}
-				currentLine = wordList.get(0) + "," + wordList.get(1);
-				// bw.write(wordList.get(0)+","+wordList.get(1));
+			String[] names = getDocumentNames();
+			double[][] proportions = getTopicProportions();
+			for (int doc = 0; doc < names.length; doc++) {
+				line.setLength(0);
+				line.append(doc).append(',').append(names[doc]);
 				for (int i = 0; i < numTopics; i++) {
-					String keyVal = probabilities.get(Integer.toString(i));
-					currentLine = currentLine + "," + keyVal;
+					line.append(',').append(proportions[doc][i]);
 				}
-				bw.write(currentLine);
+				bw.write(line.toString());
 				bw.newLine();
-
-				ConsoleView.printlInConsoleln(fileName + "-"
-						+ df.format(dateObj) + ".csv");
 			}
-			br.close();
 			bw.close();
+			ConsoleView.printlInConsoleln(fileName + "-"
+					+ df.format(dateObj) + ".csv");
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
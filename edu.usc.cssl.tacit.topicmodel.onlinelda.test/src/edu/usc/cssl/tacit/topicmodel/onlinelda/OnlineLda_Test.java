@@ -45,4 +45,31 @@ public class OnlineLda_Test {
 		
 		
 	}
+
+	@Test
+	public void doParallelOnlineLdaTest() {
+		String dictionaryLocation = directoryPath + File.separator + "OnlineLDADictionary";
+		String outputLocation =  directoryPath + File.separator + "TestOutputFiles";
+		File outputFolder = new File(outputLocation);
+		
+		if (!outputFolder.exists()){
+			outputFolder.mkdir();
+		}
+		
+		List<String> documentList = new ArrayList<String>();
+		for (int i = 1; i <= 5; i++)
+			documentList.add(directoryPath + File.separator + "TestInputFiles" + File.separator + "OnlineLDATestFile" + i);
+		
+		exceptionObj = null;
+		try{
+			OnlineLDA onlineLDA = new OnlineLDA(documentList, dictionaryLocation, outputLocation, 10, 5);
+			onlineLDA.setNumThreads(4);
+			onlineLDA.invokeOnlineLDA(new NullProgressMonitor());
+			FileUtils.deleteDirectory(outputFolder);
+		}catch(Exception e){
+			exceptionObj = e; 
+		}
+		
+		assertEquals("Checking if any exception occured", exceptionObj, null);
+	}
 }
@@ -312,6 +312,7 @@ public class OnlineLDATopicModelView extends ViewPart implements
 
 						Date dateObj = new Date();
 						OnlineLDA onlineLDA = new OnlineLDA(inFiles, seedFilePath, outputPath, noOfTopics, noOfTokensPerTopic);
+						onlineLDA.setNumThreads(Runtime.getRuntime().availableProcessors());
 						//ZlabelTopicModelAnalysis zlda = new ZlabelTopicModelAnalysis(
 								//new SubProgressMonitor(monitor, 70));
 						monitor.subTask("Topic Modelling...");
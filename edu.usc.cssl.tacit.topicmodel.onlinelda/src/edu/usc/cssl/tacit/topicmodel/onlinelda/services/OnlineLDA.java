@@ -27,6 +27,7 @@ public class OnlineLDA {
 	private int noOfTopics = 10;
 	private int noOfWordsPerTopic = 10;
 	private int batchSize = 5;
+	private int numThreads = 1;
 	
 	public OnlineLDA(List<String> documentList, String dictionaryLocation, String outputLocation,int noOfTopics,int noOfWordsPerTopic){
 		this.documentList = documentList;
@@ -37,6 +38,10 @@ public class OnlineLDA {
 		
 	}
 
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
 	public void invokeOnlineLDA(IProgressMonitor monitor)throws OperationCanceledException,Exception{
 		
 		ConsoleView.printlInConsoleln("Number of topics: " + noOfTopics );
@@ -57,16 +62,21 @@ public class OnlineLDA {
 		int docsToAnalyze = (int)D/batchSize;
 		
 		OnlineLDAAnalysis olda = new OnlineLDAAnalysis(W,noOfTopics,D,alpha,eta,tau,kappa);
+		olda.setNumThreads(numThreads);
 		OnlineLDAOutput out = null;
 		
 		ArrayList<Documents> dList = new ArrayList<Documents>();
 		
-		for(int i=0; i*batchSize<docs.size(); i++){
-			//System.out.println(i);
-			int max = Math.min((i+1)*batchSize, docs.size());
-			Documents d = new Documents(docs.subList(i*batchSize, max), vocab, monitor);
-			dList.add(d);
-			out = olda.updateLambda(d);
+		try {
+			for(int i=0; i*batchSize<docs.size(); i++){
+				//System.out.println(i);
+				int max = Math.min((i+1)*batchSize, docs.size());
+				Documents d = new Documents(docs.subList(i*batchSize, max), vocab, monitor);
+				dList.add(d);
+				out = olda.updateLambda(d);
+			}
+		} finally {
+			olda.shutdown();
 		}
 		
 		Date dateObj = new Date();
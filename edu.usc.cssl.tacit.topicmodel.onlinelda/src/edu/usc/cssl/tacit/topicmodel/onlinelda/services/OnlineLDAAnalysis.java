@@ -4,6 +4,10 @@ import edu.usc.cssl.tacit.topicmodel.onlinelda.services.Matrix;
 import static edu.usc.cssl.tacit.topicmodel.onlinelda.services.OnlineLDAUtils.*;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.math3.special.Gamma;
 
 public class OnlineLDAAnalysis {
 	/*
@@ -51,6 +55,28 @@ public class OnlineLDAAnalysis {
     
     private double updatect = 0;
     
+    private static final int E_STEP = 0, S_STATS = 1, BOUND = 2, LAMBDA = 3;
+    
+    private int numThreads = 1;
+    private ForkJoinPool pool;
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    	@Override
+    	protected Scratch initialValue() {
+    		return new Scratch();
+    	}
+    };
+    
+    //The mini-batch being analyzed and buffers reused from batch to batch
+    private int[][] wordIds;
+    private int[][] wordCts;
+    private double[] phi = new double[0];
+    private int[] phiOffsets = new int[1];
+    private double[] eLogTheta = new double[0];
+    private double[] docScores = new double[0];
+    private double lambdaScale;
+    //Terms of the bound that depend on lambda only, by topic
+    private final double[] lambdaScores;
+    
     public OnlineLDAAnalysis(int W, int K, int D, double alpha, double eta, double tau, double kappa) {
     	this.W = W;
     	this.K = K;
@@ -65,64 +91,158 @@ public class OnlineLDAAnalysis {
 		//initialize the variational distribution q(beta|lambda)
 		this.lambda = gammaSample(K, W);
 		//printMatrix(lambda);
-		this.eLogBeta = dirichletExpectation(lambda.values);
-		this.expELogBeta = exp(eLogBeta.values);
+		this.eLogBeta = lambda.zeros();
+		this.expELogBeta = lambda.zeros();
+		this.lambdaScores = new double[K];
+		for (int k=0; k<K; k++)
+			expectationRow(k);
 		
 	}
     
+    /**
+     * Sets the number of threads the documents of a mini-batch and the rows
+     * of lambda are processed on. The result does not depend on it.
+     */
+    public void setNumThreads(int numThreads) {
+    	this.numThreads = Math.max(1, numThreads);
+    	shutdown();
+    }
+
+    /**
+     * Stops the worker threads. They are started again by the next update.
+     */
+    public void shutdown() {
+    	if (pool != null) {
+    		pool.shutdown();
+    		pool = null;
+    	}
+    }
+
     public void eStep(Documents docs){
     	
     	int batchD = docs.size(); //batch size
-    	int [][] wordIds = docs.getWordIds();
-        int [][] wordCts = docs.getWordCts();
+    	this.wordIds = docs.getWordIds();
+        this.wordCts = docs.getWordCts();
         
     	//Initialize the variational distribution q(theta|gamma) for the mini-batch
         this.gamma = gammaSample(batchD, K);
         //printMatrix(gamma);
-        Matrix eLogTheta = dirichletExpectation(gamma.values);
-        Matrix expELogTheta = exp(eLogTheta.values);
+
+        //Each document's phi, expELogThetaD * cts / phiNorm for every topic
+        //and word, goes to its own block of the scratch buffer
+        if (phiOffsets.length < batchD + 1)
+        	phiOffsets = new int[batchD + 1];
+        for (int d=0; d<batchD; d++)
+        	phiOffsets[d+1] = phiOffsets[d] + K * wordIds[d].length;
+        if (phi.length < phiOffsets[batchD])
+        	phi = new double[phiOffsets[batchD]];
         
-       this.sStats = lambda.zeros();
-       
-       double meanchange = 0;
-       
-       //Now, for each document d update that document's gamma and phi
-       for (int d=0; d<batchD; d++){
-    	   int[] ids = wordIds[d];
-    	   LinearArray lids = new LinearArray(wordIds[d]); 
-    	   
-    	   //if(ids.length == 0)
-               //continue;
-    	   
-    	   LinearArray cts = new LinearArray(wordCts[d]); 
-    	   
-    	   LinearArray gammaD = gamma.getRow(d);
-    	   LinearArray eLogThetaD = eLogTheta.getRow(d);
-    	   LinearArray expELogThetaD = expELogTheta.getRow(d);
-    	   Matrix expELogBetaD = this.expELogBeta.getCols(ids);
-    	   LinearArray phiNorm = expELogThetaD.dot(expELogBetaD).add(1E-100);    	   
-    	   
-           //Iterate between gamma and phi until convergence	
-    	   for(int it=0; it<NUM_ITERATIONS; it++){
-    		   LinearArray lastGamma = gammaD;
-    		   LinearArray temp1 = cts.div(phiNorm).dot(expELogBetaD.transpose());
-    		   gammaD = expELogThetaD.product(temp1).add(alpha);
-    		   eLogThetaD = dirichletExpectation(gammaD.values);
-    		   expELogThetaD = exp(eLogThetaD.values);
-    		   phiNorm = expELogThetaD.dot(expELogBetaD).add(1E-100);
-    		   
-    		   //If gamma hasn't changed much, we're done.
-               meanchange = (gammaD.sub(lastGamma)).mean();
-               if (meanchange < MEAN_CHANGE_THRESHOLD)
-            	   break;
-    	   }
-    	   
-    	   gamma.setRow(d,gammaD);    	   
-    	   Matrix out = expELogThetaD.outer(cts.div(phiNorm));
-    	   sStats.incCols(ids, out);
-       }
-       
-       sStats = sStats.product(expELogBeta);
+        //Now, for each document d update that document's gamma and phi
+        forEach(E_STEP, batchD);
+        
+        //Sum the phis of the documents into sStats, in document order
+        if (sStats == null)
+        	sStats = lambda.zeros();
+        forEach(S_STATS, K);
+    }
+    
+    private void eStepDocument(int d) {
+    	int[] ids = wordIds[d];
+    	int[] cts = wordCts[d];
+    	int n = ids.length;
+    	Scratch s = scratch.get();
+    	s.ensure(n);
+    	double[] betaD = s.betaD;
+    	double[] phiNorm = s.phiNorm;
+    	double[] ratio = s.ratio;
+    	double[] expELogThetaD = s.expELogThetaD;
+    	double[] lastGamma = s.lastGamma;
+    	double[] temp1 = s.temp1;
+    	double[] gammaD = gamma.values[d];
+    	
+    	//expELogBetaD, row k of length n at k * n
+    	for (int k=0; k<K; k++) {
+    		double[] row = expELogBeta.values[k];
+    		for (int i=0; i<n; i++)
+    			betaD[k*n + i] = row[ids[i]];
+    	}
+    	expDirichletExpectation(gammaD, expELogThetaD);
+    	phiNorm(expELogThetaD, betaD, n, phiNorm);
+    	
+    	//Iterate between gamma and phi until convergence
+    	for (int it=0; it<NUM_ITERATIONS; it++) {
+    		System.arraycopy(gammaD, 0, lastGamma, 0, K);
+    		for (int i=0; i<n; i++)
+    			ratio[i] = cts[i] / phiNorm[i];
+    		for (int k=0; k<K; k++) {
+    			double t = 0;
+    			for (int i=0; i<n; i++)
+    				t += ratio[i] * betaD[k*n + i];
+    			temp1[k] = t;
+    		}
+    		for (int k=0; k<K; k++)
+    			gammaD[k] = expELogThetaD[k] * temp1[k] + alpha;
+    		expDirichletExpectation(gammaD, expELogThetaD);
+    		phiNorm(expELogThetaD, betaD, n, phiNorm);
+    		
+    		//If gamma hasn't changed much, we're done.
+    		double meanchange = 0;
+    		for (int k=0; k<K; k++)
+    			meanchange += Math.abs(gammaD[k] - lastGamma[k]);
+    		meanchange /= K;
+    		if (meanchange < MEAN_CHANGE_THRESHOLD)
+    			break;
+    	}
+    	
+    	int offset = phiOffsets[d];
+    	for (int i=0; i<n; i++)
+    		ratio[i] = cts[i] / phiNorm[i];
+    	for (int k=0; k<K; k++) {
+    		for (int i=0; i<n; i++)
+    			phi[offset + k*n + i] = expELogThetaD[k] * ratio[i];
+    	}
+    }
+    
+    private void sStatsRow(int k) {
+    	double[] row = sStats.values[k];
+    	Arrays.fill(row, 0d);
+    	for (int d=0; d<wordIds.length; d++) {
+    		int[] ids = wordIds[d];
+    		int offset = phiOffsets[d] + k * ids.length;
+    		for (int i=0; i<ids.length; i++)
+    			row[ids[i]] += phi[offset + i];
+    	}
+    	double[] beta = expELogBeta.values[k];
+    	for (int w=0; w<W; w++)
+    		row[w] *= beta[w];
+    }
+    
+    //phiNorm = expELogThetaD . expELogBetaD + 1E-100
+    private void phiNorm(double[] expELogThetaD, double[] betaD, int n, double[] phiNorm) {
+    	Arrays.fill(phiNorm, 0, n, 0d);
+    	for (int k=0; k<K; k++) {
+    		double e = expELogThetaD[k];
+    		for (int i=0; i<n; i++)
+    			phiNorm[i] += e * betaD[k*n + i];
+    	}
+    	for (int i=0; i<n; i++)
+    		phiNorm[i] += 1E-100;
+    }
+    
+    //result = E[log(theta)] for theta ~ Dir(array)
+    private static void dirichletExpectation(double[] array, double[] result) {
+    	double sum = 0;
+    	for (double a : array)
+    		sum += a;
+    	double d = Gamma.digamma(sum);
+    	for (int i=0; i<array.length; i++)
+    		result[i] = Gamma.digamma(array[i]) - d;
+    }
+    
+    private static void expDirichletExpectation(double[] array, double[] result) {
+    	dirichletExpectation(array, result);
+    	for (int i=0; i<result.length; i++)
+    		result[i] = Math.exp(result[i]);
     }
     
     public OnlineLDAOutput updateLambda(Documents docs){
@@ -144,6 +264,9 @@ public class OnlineLDAAnalysis {
         entire corpus for the OLD setting of lambda based on the
         documents passed in. This can be used as a (possibly very
         noisy) estimate of held-out likelihood.
+
+        lambda is updated in place, so the returned output sees the
+        changes of later updates.
         */
     	
     	/*rhot will be between 0 and 1, and says how much to weight
@@ -159,13 +282,8 @@ public class OnlineLDAAnalysis {
     	/*Estimate held-out likelihood for current values of lambda.*/
         double bound = approxBound(docs);
         /*Update lambda based on documents.*/
-        Matrix t1 = this.lambda.product(1-rhot);
-        Matrix t2 = (sStats.product((double)D/docs.size())).add(eta);
-        t2 = t2.product(rhot);
-        this.lambda = t1.add(t2);
-        
-        this.eLogBeta = dirichletExpectation(lambda.values);
-        this.expELogBeta = exp(eLogBeta.values);
+        this.lambdaScale = (double)D/docs.size();
+        forEach(LAMBDA, K);
         
         this.updatect += 1;
         
@@ -175,45 +293,168 @@ public class OnlineLDAAnalysis {
     public double approxBound(Documents docs){
     	int batchD = docs.size(); //batch size
     	    	
-    	int [][] wordIds = docs.getWordIds();
-        int [][] wordCts = docs.getWordCts();
+    	this.wordIds = docs.getWordIds();
+        this.wordCts = docs.getWordCts();
     	
-        double score = 0d;
+        if (eLogTheta.length < batchD * K)
+        	eLogTheta = new double[batchD * K];
+        if (docScores.length < batchD)
+        	docScores = new double[batchD];
         
-        Matrix eLogTheta = dirichletExpectation(gamma.values);
-        Matrix expELogTheta = exp(eLogTheta.values);
-        double tMax = 0;
         //E[log p(docs | theta, beta)]
-        for (int d=0; d<batchD; d++){
-        	LinearArray ids = new LinearArray(wordIds[d]);
-     	   	LinearArray cts = new LinearArray(wordCts[d]);
-     	   	LinearArray gammaD = gamma.getRow(d);
-     	    LinearArray phiNorm = new LinearArray(ids.size());
-     	    
-     	    for(int i=0; i<ids.size(); i++){
-     	    	LinearArray eLogThetaD = eLogTheta.getRow(d);
-     	    	LinearArray eLogBetaC = eLogBeta.getCol(wordIds[d][i]);
-     	    	LinearArray temp = eLogThetaD.add(eLogBetaC);
-     	    	//LinearArray temp = eLogBetaC.add(eLogThetaD);
-     	    	tMax = temp.max();
-     	    	double sum = Math.log((exp((temp.add(-tMax)).values)).sum()) + tMax;
-     	    	phiNorm.set(i, sum);
-     	    	
-     	    }
-     	   score += (cts.product(phiNorm)).sum();
-        }
+        forEach(BOUND, batchD);
+        double score = 0d;
+        for (int d=0; d<batchD; d++)
+        	score += docScores[d];
         
-        score -= (gamma.add(-alpha).product(eLogTheta)).sum();
-        score += (gammaLn(gamma.values).add(-gammaLn(alpha))).sum();
-        score -= (gammaLn((gamma.sumByRows()).values).add(-gammaLn(alpha * K))).sum();
+        double thetaScore = 0, gammaLnScore = 0, gammaSumScore = 0;
+        double gammaLnAlpha = gammaLn(alpha), gammaLnAlphaK = gammaLn(alpha * K);
+        for (int d=0; d<batchD; d++) {
+        	double[] gammaD = gamma.values[d];
+        	double sum = 0;
+        	for (int k=0; k<K; k++) {
+        		thetaScore += (gammaD[k] - alpha) * eLogTheta[d*K + k];
+        		gammaLnScore += gammaLn(gammaD[k]) - gammaLnAlpha;
+        		sum += gammaD[k];
+        	}
+        	gammaSumScore += gammaLn(sum) - gammaLnAlphaK;
+        }
+        score -= thetaScore;
+        score += gammaLnScore;
+        score -= gammaSumScore;
         score *= D/(double)docs.size();
-        score -= (lambda.add(-eta).product(eLogBeta)).sum();
-        score += (gammaLn(lambda.values).add(-gammaLn(eta))).sum();
-        score -= (gammaLn((lambda.sumByRows()).values).add(-gammaLn(eta * W))).sum();
+        //the lambda terms are summed up with eLogBeta
+        for (int k=0; k<K; k++)
+        	score += lambdaScores[k];
       
         return score; 
     }
     
+    private void boundDocument(int d) {
+    	int[] ids = wordIds[d];
+    	int[] cts = wordCts[d];
+    	double[] temp = scratch.get().temp1;
+    	double[][] eLogBeta = this.eLogBeta.values;
+    	int offset = d * K;
+    	dirichletExpectation(gamma.values[d], temp);
+    	System.arraycopy(temp, 0, eLogTheta, offset, K);
+    	
+    	double score = 0;
+    	for (int i=0; i<ids.length; i++) {
+    		int w = ids[i];
+    		double tMax = -Double.MAX_VALUE;
+    		for (int k=0; k<K; k++) {
+    			temp[k] = eLogTheta[offset + k] + eLogBeta[k][w];
+    			if (temp[k] >= tMax)
+    				tMax = temp[k];
+    		}
+    		double sum = 0;
+    		for (int k=0; k<K; k++)
+    			sum += Math.exp(temp[k] - tMax);
+    		score += cts[i] * (Math.log(sum) + tMax);
+    	}
+    	docScores[d] = score;
+    }
+    
+    private void lambdaRow(int k) {
+    	double[] row = lambda.values[k];
+    	double[] stats = sStats.values[k];
+    	for (int w=0; w<W; w++)
+    		row[w] = row[w] * (1 - rhot) + (stats[w] * lambdaScale + eta) * rhot;
+    	expectationRow(k);
+    }
+    
+    //Updates row k of eLogBeta and expELogBeta from lambda, and its terms
+    //of the bound
+    private void expectationRow(int k) {
+    	double[] row = lambda.values[k];
+    	double[] eLogBetaK = eLogBeta.values[k];
+    	double[] expELogBetaK = expELogBeta.values[k];
+    	double sum = 0;
+    	for (int w=0; w<W; w++)
+    		sum += row[w];
+    	double d = Gamma.digamma(sum);
+    	double gammaLnEta = gammaLn(eta);
+    	double score = 0;
+    	for (int w=0; w<W; w++) {
+    		double e = Gamma.digamma(row[w]) - d;
+    		eLogBetaK[w] = e;
+    		expELogBetaK[w] = Math.exp(e);
+    		score -= (row[w] - eta) * e;
+    		score += gammaLn(row[w]) - gammaLnEta;
+    	}
+    	score -= gammaLn(sum) - gammaLn(eta * W);
+    	lambdaScores[k] = score;
+    }
+    
+    private void run(int stage, int i) {
+    	switch (stage) {
+    	case E_STEP:
+    		eStepDocument(i);
+    		break;
+    	case S_STATS:
+    		sStatsRow(i);
+    		break;
+    	case BOUND:
+    		boundDocument(i);
+    		break;
+    	case LAMBDA:
+    		lambdaRow(i);
+    		break;
+    	}
+    }
+    
+    //Runs the stage for 0 to n - 1, on the pool if there is more than one thread
+    private void forEach(int stage, int n) {
+    	if (numThreads < 2 || n < 2) {
+    		for (int i=0; i<n; i++)
+    			run(stage, i);
+    		return;
+    	}
+    	if (pool == null)
+    		pool = new ForkJoinPool(numThreads);
+    	pool.invoke(new Range(stage, 0, n));
+    }
+    
+    private class Range extends RecursiveAction {
+    	private static final long serialVersionUID = 1L;
+    	private final int stage, from, to;
+    	
+    	Range(int stage, int from, int to) {
+    		this.stage = stage;
+    		this.from = from;
+    		this.to = to;
+    	}
+    	
+    	@Override
+    	protected void compute() {
+    		if (to - from == 1) {
+    			run(stage, from);
+    			return;
+    		}
+    		int mid = (from + to) >>> 1;
+    		invokeAll(new Range(stage, from, mid), new Range(stage, mid, to));
+    	}
+    }
+    
+    //Per thread buffers of the E-step, grown to the longest document
+    private class Scratch {
+    	double[] betaD = new double[0];
+    	double[] phiNorm = new double[0];
+    	double[] ratio = new double[0];
+    	final double[] expELogThetaD = new double[K];
+    	final double[] lastGamma = new double[K];
+    	final double[] temp1 = new double[K];
+    	
+    	void ensure(int n) {
+    		if (phiNorm.length < n) {
+    			betaD = new double[K * n];
+    			phiNorm = new double[n];
+    			ratio = new double[n];
+    		}
+    	}
+    }
+    
     //TODO: Delet this code
     public static void printMatrix(Matrix x){
     	double[][] m = x.values;
@@ -4,10 +4,16 @@ import static org.junit.Assert.*;
 
 import java.beans.DefaultPersistenceDelegate;
 import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.junit.Test;
 
+import edu.usc.cssl.tacit.topicmodel.turbotopics.services.CountTable;
+import edu.usc.cssl.tacit.topicmodel.turbotopics.services.Counts;
 import edu.usc.cssl.tacit.topicmodel.turbotopics.services.LDAtopics;
+import edu.usc.cssl.tacit.topicmodel.turbotopics.services.LikelihoodRatio;
 
 public class TurboTopicsTest {
 
@@ -29,4 +35,43 @@ public class TurboTopicsTest {
 		File file = new File(directoryPath+File.separator+".topics");
 		file.delete();
 	}
+
+	@Test
+	public void sigBigramsTest() {
+		Counts counts = new Counts();
+		for (int i = 0; i < 30; i++) {
+			counts.update_counts("New York city");
+			counts.update_counts("a new idea");
+		}
+		counts.update_counts("new city");
+		for (int i = 0; i < 100; i++) {
+			counts.update_counts("the city is old and the idea is new");
+		}
+		Map<Object, Object> selected = counts.sig_bigrams("new", new LikelihoodRatio(0.01, false), 2);
+		assertEquals("Checking the significant bigrams", 1, selected.size());
+		assertEquals("Checking the bigram count", 30, selected.get("new york"));
+		assertEquals("Checking the marginal count", 161, counts.marg_counts().get("new"));
+		assertEquals("Checking an unknown word", 0, counts.sig_bigrams("boston", new LikelihoodRatio(0.01, false), 2).size());
+	}
+
+	@Test
+	public void parallelNullScoreTest() {
+		CountTable marg = new CountTable();
+		marg.add(0, 3);
+		marg.add(1, 1);
+		marg.add(2, 4);
+		// a sample of all next words is the same in every permutation
+		double[] scores = new LikelihoodRatio(0.1, true).score(8, marg, marg, 8, 1);
+		double expected = Math.min(scores[0], Math.min(scores[1], scores[2]));
+		LikelihoodRatio test = new LikelihoodRatio(0.1, true);
+		assertEquals(expected, test.null_score(8, marg, 8), 1e-9);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			test = new LikelihoodRatio(0.1, true);
+			test.setExecutor(executor, 3);
+			assertEquals(expected, test.null_score(8, marg, 8), 1e-9);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 }
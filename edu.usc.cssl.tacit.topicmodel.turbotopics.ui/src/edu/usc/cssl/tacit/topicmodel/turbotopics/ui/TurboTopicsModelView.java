@@ -319,6 +319,7 @@ public class TurboTopicsModelView extends ViewPart implements
 
 						lda.initialize(topicModelDirPath, noOfTopics,
 								topicModelDirPath,true);
+						lda.setNumThreads(Runtime.getRuntime().availableProcessors());
 
 						// lda processsing
 						long startTime = System.currentTimeMillis();
@@ -364,6 +365,7 @@ public class TurboTopicsModelView extends ViewPart implements
 						BufferedReader br = null;
 						try {
 							
+							lda.writeTopicWordWeights(new File(wordWeightsFile));
 							br = new BufferedReader(new FileReader(wordWeightsFile));
 							fw = new FileWriter(vocabFile);
 							String line = "";
@@ -433,6 +435,7 @@ public class TurboTopicsModelView extends ViewPart implements
 						}
 						
 						LDAtopics lda = new LDAtopics(corpusFile, wordTopicFile, vocabFile, outputPath,noOfTopics,minCount,pValue,usePermBool);
+						lda.setNumThreads(Runtime.getRuntime().availableProcessors());
 						try {
 							lda.generateTurboTopics();
 						} catch (Exception e1) {
@@ -0,0 +1,103 @@
+package edu.usc.cssl.tacit.topicmodel.turbotopics.services;
+import java.util.Arrays;
+
+/**
+ * Counts of term ids in primitive arrays. The ids and counts are kept in the
+ * order the ids were first counted, with an open addressing index from id to
+ * position, so iterating from 0 to size() visits them in that order.
+ */
+public class CountTable {
+    private int[] ids = new int[8];
+    private int[] counts = new int[8];
+    private int size;
+    // position + 1 of the id hashed there, 0 for an empty slot
+    private int[] slots = new int[16];
+    private int total;
+    private int version;
+
+    /** returns the count of an id, 0 if it was not counted **/
+    public int get(int id){
+        int pos = position(id);
+        return pos < 0 ? 0 : counts[pos];
+    }
+
+    /** adds delta to the count of an id **/
+    public void add(int id, int delta){
+        int pos = position(id);
+        if(pos < 0){
+            pos = insert(id);
+        }
+        counts[pos] += delta;
+        total += delta;
+        version++;
+    }
+
+    /** returns the position of an id, -1 if it was not counted **/
+    public int position(int id){
+        int mask = slots.length - 1;
+        for(int slot = hash(id) & mask; slots[slot] != 0; slot = (slot + 1) & mask){
+            if(ids[slots[slot] - 1] == id){
+                return slots[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** number of ids counted **/
+    public int size(){
+        return size;
+    }
+
+    /** id at a position **/
+    public int id(int pos){
+        return ids[pos];
+    }
+
+    /** count at a position **/
+    public int count(int pos){
+        return counts[pos];
+    }
+
+    /** sum of all counts **/
+    public int total(){
+        return total;
+    }
+
+    /** changes whenever a count changes **/
+    int version(){
+        return version;
+    }
+
+    private int insert(int id){
+        if(size == ids.length){
+            ids = Arrays.copyOf(ids, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        ids[size] = id;
+        counts[size] = 0;
+        size++;
+        if(size * 2 > slots.length){
+            slots = new int[slots.length * 2];
+            for(int pos = 0; pos < size; pos++){
+                index(pos);
+            }
+        }else{
+            index(size - 1);
+        }
+        return size - 1;
+    }
+
+    private void index(int pos){
+        int mask = slots.length - 1;
+        int slot = hash(ids[pos]) & mask;
+        while(slots[slot] != 0){
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = pos + 1;
+    }
+
+    private static int hash(int id){
+        int h = id * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -1,6 +1,6 @@
 package edu.usc.cssl.tacit.topicmodel.turbotopics.services;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
@@ -10,9 +10,12 @@ import java.util.Map;
  */
 public class Counts {
     Map<Object,Object> vocab; //vocabulary with multi token terms like "new york"
-    Map<Object,Object> marg; //marginal counts of words
-    Map<Object,Object> next_marg; //marginal next word counts
-    Map<Object,Object> bigram; //Bigram counts
+    // int ids of the terms, which stay the same when the counts are reset
+    private final Map<String,Integer> term_ids = new HashMap<String,Integer>();
+    private final ArrayList<String> terms = new ArrayList<String>();
+    CountTable marg; //marginal counts of words
+    CountTable next_marg; //marginal next word counts
+    CountTable[] bigram; //Bigram counts, by the id of the first word
 
     public Counts(){
         vocab = new HashMap<Object,Object>();
@@ -35,10 +38,8 @@ public class Counts {
             if(root_filter != null && !root_filter.apply(w)){
                 continue;
             }
-            if(!marg.containsKey(w)){
-                marg.put(w,0);
-            }
-            marg.put(w,(Integer)marg.get(w)+1);
+            int id = id(w);
+            marg.add(id,1);
             if(pos == words.length - 1){
                 break;
             }
@@ -46,18 +47,15 @@ public class Counts {
             if(next_filter != null && !next_filter.apply(w_next)){
                 continue;
             }
-            if(!bigram.containsKey(w)){
-                bigram.put(w,new HashMap<Object,Object>());
-            }
-            Map<Object,Object> bigram_w = (Map<Object,Object>)bigram.get(w);
-            if(!bigram_w.containsKey(w_next)){
-                bigram_w.put(w_next,0);
+            int next_id = id(w_next);
+            if(id >= bigram.length){
+                bigram = Arrays.copyOf(bigram, Math.max(id + 1, bigram.length * 2));
             }
-            bigram_w.put(w_next,(Integer)bigram_w.get(w_next)+1);
-            if(!next_marg.containsKey(w_next)){
-                next_marg.put(w_next,0);
+            if(bigram[id] == null){
+                bigram[id] = new CountTable();
             }
-            next_marg.put(w_next,(Integer)next_marg.get(w_next)+1);
+            bigram[id].add(next_id,1);
+            next_marg.add(next_id,1);
         }
     }
 
@@ -72,11 +70,51 @@ public class Counts {
     }
 
     public void reset_counts(){
-        marg = new HashMap<Object,Object>();
-        next_marg = new HashMap<Object,Object>();
-        bigram = new HashMap<Object,Object>();
+        marg = new CountTable();
+        next_marg = new CountTable();
+        bigram = new CountTable[Math.max(terms.size(), 16)];
+    }
+
+    private int id(String term){
+        Integer id = term_ids.get(term);
+        if(id == null){
+            id = terms.size();
+            term_ids.put(term,id);
+            terms.add(term);
+        }
+        return id;
+    }
+
+    /** returns the marginal counts as a map from word to count **/
+    public Map<Object,Object> marg_counts(){
+        Map<Object,Object> counts = new HashMap<Object,Object>();
+        for(int pos = 0; pos < marg.size(); pos++){
+            counts.put(terms.get(marg.id(pos)),marg.count(pos));
+        }
+        return counts;
     }
 
+    /**
+     * returns the words whose marginal count is at least min, from the
+     * least to the most frequent
+     */
+    public ArrayList<String> terms(int min){
+        ArrayList<String> frequent = new ArrayList<String>();
+        for(int pos : by_score(marg_scores())){
+            if(marg.count(pos) >= min){
+                frequent.add(terms.get(marg.id(pos)));
+            }
+        }
+        return frequent;
+    }
+
+    private double[] marg_scores(){
+        double[] scores = new double[marg.size()];
+        for(int pos = 0; pos < scores.length; pos++){
+            scores[pos] = marg.count(pos);
+        }
+        return scores;
+    }
 
     public Map<Object,Object> sig_bigrams(String word, LikelihoodRatio sig_test, int min){
         return sig_bigrams(word,sig_test,min,true);
@@ -87,77 +125,66 @@ public class Counts {
      * requires a significance tester object which has the following:
      *  - score : (next_marg, next_bigram) -> [words->reals]
      *  - null_score : (next_marg, next_bigram, pvalue) -> null_value
+     * The counts are not changed; the bigrams of a candidate that was
+     * tested are taken out of marg_w and total only.
      * @param word : input word
      * @param sig_test : The significance tester object which is an object of Likelihood ratio
      * @param min : min count
      * @return: A bigram object
      */
     public Map<Object,Object> sig_bigrams(String word, LikelihoodRatio sig_test, int min, boolean recursive){
-        if(!bigram.containsKey(word)){
+        Integer id = term_ids.get(word);
+        if(id == null || id >= bigram.length || bigram[id] == null){
             return new HashMap<Object,Object>();
         }
-        Map<Object,Object> marg = (Map<Object,Object>) Turbotopics.deepCopy(this.next_marg);
-        Map<Object,Object> bigram_w = new HashMap<Object,Object>();
-        if(this.bigram.containsKey(word)){
-            bigram_w = (Map<Object,Object>) Turbotopics.deepCopy(this.bigram.get(word));
-        }
-        Integer marg_w =0;
-        for(Object val: bigram_w.values()){
-            marg_w = marg_w + (Integer)val;
-        }
-        Integer total = 0;
-        for(Object val: marg.values()){
-            total = total + (Integer)val;
-        }
+        CountTable bigram_w = bigram[id];
+        int marg_w = bigram_w.total();
+        int total = next_marg.total();
         Map<Object,Object> selected = new HashMap<Object,Object>();
-        Map<Object,Object> scores = sig_test.score(marg_w,marg,bigram_w,total,min);
-        ArrayList<Object>items = Turbotopics.items(scores);
-        Collections.sort(items,new Comparator<Object>() {
-            @Override
-            public int compare(Object o1, Object o2) {
-                Object[]a1 = (Object[])o1;
-                Object[]a2 = (Object[])o2;
-                Double v1 = (Double)a1[1];
-                Double v2 = (Double)a2[1];
-                if(v1-v2== 0)
-                    return 0;
-                else if(v1-v2 > 0)
-                    return 1;
-                else
-                    return -1;
-            }
-        });
-        ArrayList<Object[]> filteredScores = new ArrayList<Object[]>();
-        for(Object item: items){
-            Object[] arr = (Object[])item;
-            if((Double)arr[1] > 0){
-                filteredScores.add(arr);
+        double[] scores = sig_test.score(marg_w,next_marg,bigram_w,total,min);
+        for(int pos : by_score(scores)){
+            double max_score = scores[pos];
+            if(!(max_score > 0)){
+                continue;
             }
-        }
-        for(Object[] s: filteredScores){
-            String cand = (String)s[0];
-            Double max_score = (Double)s[1];
-            if((Integer)bigram_w.get(cand) < min){
+            int cand_id = bigram_w.id(pos);
+            String cand = terms.get(cand_id);
+            int count = bigram_w.count(pos);
+            if(count < min){
                 continue;
             }
-            Double null_score = sig_test.null_score(marg_w, marg, total);
-            System.out.println(word+" "+cand+": marg = ["+marg_w+", "+marg.get(cand)+"]; bigram = "+bigram_w.get(cand)+";");
+            Double null_score = sig_test.null_score(marg_w, next_marg, total);
+            System.out.println(word+" "+cand+": marg = ["+marg_w+", "+next_marg.get(cand_id)+"]; bigram = "+count+";");
             System.out.println("val = "+max_score+"; null = "+null_score);
             if(max_score <= null_score){
                 System.out.println("rejected");
             }else{
                 String new_word = word+ " "+ cand;
-                selected.put(new_word,bigram_w.get(cand));
+                selected.put(new_word,count);
                 System.out.println("selected *");
             }
             if(recursive){
-                marg_w = marg_w - (Integer)bigram_w.get(cand);
-                total = total - (Integer)bigram_w.get(cand);
-                bigram_w.remove(cand);
+                marg_w = marg_w - count;
+                total = total - count;
             }
         }
         return selected;
     }
 
+    /** positions sorted by ascending score, ties in position order **/
+    private static Integer[] by_score(final double[] scores){
+        Integer[] order = new Integer[scores.length];
+        for(int pos = 0; pos < order.length; pos++){
+            order[pos] = pos;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Double.compare(scores[o1], scores[o2]);
+            }
+        });
+        return order;
+    }
+
 
 }
\ No newline at end of file
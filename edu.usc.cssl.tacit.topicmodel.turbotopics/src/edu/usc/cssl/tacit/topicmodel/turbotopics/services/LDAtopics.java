@@ -6,6 +6,8 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by msamak on 3/14/16.
@@ -75,6 +77,7 @@ public class LDAtopics {
     Integer ntopics;
     String out;
     String prefix="topics.txt";
+    int numThreads = 1;
 
     //Reads the vocabulary and stores it in a list
     private ArrayList<String> read_vocab() throws Exception {
@@ -154,7 +157,7 @@ public class LDAtopics {
      * @param min: Threshold minimum count
      * @return: A counts object
      */
-    private Counts turbo_topic(ArrayList<String> corpus, ArrayList<Map<Object,Object>> assigns, final int topic, boolean use_perm, Double pvalue, int min){
+    private Counts turbo_topic(ArrayList<String> corpus, ArrayList<Map<Object,Object>> assigns, final int topic, boolean use_perm, Double pvalue, int min, ExecutorService executor){
         ArrayList<Object[]> iter_gen = new ArrayList<Object[]>();
         for(int i=0; i<corpus.size() && i<assigns.size(); i++){
             Object[] item = new Object[2];
@@ -169,6 +172,7 @@ public class LDAtopics {
             }
         };
         LikelihoodRatio test = new LikelihoodRatio(pvalue,use_perm);
+        test.setExecutor(executor,numThreads);
         Counts cnts = Turbotopics.nested_sig_bigrams(iter_gen,update_fun,test,min);
         return cnts;
     }
@@ -193,6 +197,11 @@ public class LDAtopics {
 
     }
 
+    /** Sets the number of threads that run the permutation tests. Defaults to 1. **/
+    public void setNumThreads(int numThreads){
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     //function to generate the turbo topics
     public void generateTurboTopics() throws Exception{
         ArrayList<String> vocab = read_vocab();
@@ -206,13 +215,20 @@ public class LDAtopics {
         }
         br.close();
         
-        for(int topic=0; topic<this.ntopics; topic++){
-            System.out.println("'writing topic "+topic);
-            Counts sig_bigrams = turbo_topic(corpus,assigns,topic,this.use_perm,this.pvalue,this.min_count);
-            if(this.out.charAt(this.out.length()-1) == '/'){
-                this.out = this.out.substring(0,this.out.length()-1);
+        ExecutorService executor = this.use_perm && numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        try {
+            for(int topic=0; topic<this.ntopics; topic++){
+                System.out.println("'writing topic "+topic);
+                Counts sig_bigrams = turbo_topic(corpus,assigns,topic,this.use_perm,this.pvalue,this.min_count,executor);
+                if(this.out.charAt(this.out.length()-1) == '/'){
+                    this.out = this.out.substring(0,this.out.length()-1);
+                }
+                Turbotopics.write_vocab(sig_bigrams.marg_counts(),this.out+"/"+this.prefix, topic);
+            }
+        } finally {
+            if(executor != null){
+                executor.shutdownNow();
             }
-            Turbotopics.write_vocab(sig_bigrams.marg,this.out+"/"+this.prefix, topic);
         }
         createRunReport(Calendar.getInstance().getTime()) ;
     }
@@ -1,14 +1,25 @@
 package edu.usc.cssl.tacit.topicmodel.turbotopics.services;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Created by msamak on 3/7/16.
  */
 public class LikelihoodRatio {
     Double pvalue;
-    Map<Object,Object> perms;
+    Map<Integer,Double> perms;
     double perm_hash = 10;
     boolean use_perm;
+    private ExecutorService executor;
+    private int numThreads = 1;
+    // the next word counts the permutations sample from, sorted ascending
+    private CountTable table_marg;
+    private int table_version;
+    private int[] table_counts;
+    private int[] table_ends;
 
     public LikelihoodRatio(Double pvalue, boolean use_perm, double perm_hash){
         this(pvalue,use_perm);
@@ -16,18 +27,27 @@ public class LikelihoodRatio {
     }
 
     public LikelihoodRatio(Double pvalue, boolean use_perm){
-        perms = new HashMap<Object, Object>();
+        perms = new HashMap<Integer,Double>();
         this.pvalue = pvalue;
         this.use_perm = use_perm;
     }
 
+    /**
+     * Runs the permutations of a null score as numThreads tasks of the
+     * executor. The caller shuts the executor down.
+     */
+    public void setExecutor(ExecutorService executor, int numThreads){
+        this.executor = executor;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     /** reset the permutation cache **/
     public void reset(){
-        perms = new HashMap<Object, Object>();
+        perms = new HashMap<Integer,Double>();
     }
 
     /** returns log of a value. If value is 0, return -1000000 **/
-    private double mylog(double x){
+    private static double mylog(double x){
         return (x==0)?-1000000:Math.log(x);
     }
 
@@ -41,103 +61,185 @@ public class LikelihoodRatio {
      * @param bigram: bigram counts of next word
      * @param total : total words
      * @param min_count : threshold of word count
-     * @return: Likelihood score for each input bigram
+     * @return: Likelihood score of each bigram, by its position in bigram.
+     * NaN for the bigrams below min_count
      */
-    public Map<Object,Object> score(int count, Map<Object,Object> unigram, Map<Object,Object> bigram, int total, int min_count){
-        Map<Object,Object> val = new HashMap<Object,Object>();
-        for(Object v: bigram.keySet()){
-            int uni = 0;
-            if(unigram.containsKey(v)){
-                uni = (Integer)unigram.get(v);
-            }
-            int big = 0;
-            if(bigram.containsKey(v)){
-                big = (Integer)bigram.get(v);
-            }
+    public double[] score(int count, CountTable unigram, CountTable bigram, int total, int min_count){
+        double[] val = new double[bigram.size()];
+        for(int pos = 0; pos < val.length; pos++){
+            int big = bigram.count(pos);
             if(big < min_count){
+                val[pos] = Double.NaN;
                 continue;
             }
-            assert (uni >= big);
-            double log_pi_vu = mylog(big) - mylog(count);
-            double log_pi_vnu = mylog(uni - big) - mylog(total - big);
-            double log_pi_v_old = mylog(uni) - mylog(total);
-            double log_1mp_v = mylog(1 - Math.exp(log_pi_vnu));
-            double log_1mp_vu = mylog(1 - Math.exp(log_pi_vu));
-            double value = 2 * (big * log_pi_vu + (uni - big) * log_pi_vnu - uni * log_pi_v_old + (count - big) * (log_1mp_vu - log_1mp_v));
-            val.put((String)v,value);
+            val[pos] = score(count, unigram.get(bigram.id(pos)), big, total);
         }
         return val;
     }
 
+    private static double score(int count, int uni, int big, int total){
+        assert (uni >= big);
+        double log_pi_vu = mylog(big) - mylog(count);
+        double log_pi_vnu = mylog(uni - big) - mylog(total - big);
+        double log_pi_v_old = mylog(uni) - mylog(total);
+        double log_1mp_v = mylog(1 - Math.exp(log_pi_vnu));
+        double log_1mp_vu = mylog(1 - Math.exp(log_pi_vu));
+        return 2 * (big * log_pi_vu + (uni - big) * log_pi_vnu - uni * log_pi_v_old + (count - big) * (log_1mp_vu - log_1mp_v));
+    }
+
     /**
      * returns the maximum maximum-score achieved by a permutation
      */
-    private Double null_score_perm(int count, Map<Object,Object> marg, int total){
+    private Double null_score_perm(int count, CountTable marg, int total){
         Integer perm_key = (int)(count/perm_hash);
         if(perms.containsKey(perm_key)){
-            return (Double)perms.get(perm_key);
+            return perms.get(perm_key);
         }
+        final int nperm = (int)(1/pvalue);
+        sort_table(marg);
         double max_score = 0;
-        int nperm = (int)(1/pvalue);
-        ArrayList<Object[]> table = new ArrayList<Object[]>();
-        for(Object key: marg.keySet()){
-            Object[] items = new Object[2];
-            items[0] = key;
-            items[1] = marg.get(key);
-            table.add(items);
+        int tasks = Math.min(numThreads, nperm);
+        if(nperm == 0){
+            // no permutation to score
+        }else if(executor == null || tasks < 2){
+            max_score = new Permutations(count, total).max_score(nperm);
+        }else{
+            List<Callable<Double>> calls = new ArrayList<Callable<Double>>();
+            for(int task = 0; task < tasks; task++){
+                final Permutations permutations = new Permutations(count, total);
+                final int n = nperm / tasks + (task < nperm % tasks ? 1 : 0);
+                calls.add(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        return permutations.max_score(n);
+                    }
+                });
+            }
+            max_score = Double.NEGATIVE_INFINITY;
+            try {
+                for(Future<Double> future : executor.invokeAll(calls)){
+                    max_score = Math.max(max_score, future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        perms.put(perm_key,max_score);
+        return max_score;
+    }
+
+    /**
+     * sorts the counts of marg ascending and sums them up, unless that was
+     * done for the same counts already
+     */
+    private void sort_table(CountTable marg){
+        if(marg == table_marg && marg.version() == table_version){
+            return;
+        }
+        table_counts = new int[marg.size()];
+        for(int pos = 0; pos < table_counts.length; pos++){
+            table_counts[pos] = marg.count(pos);
+        }
+        Arrays.sort(table_counts);
+        table_ends = new int[table_counts.length];
+        int sum = 0;
+        for(int i = 0; i < table_counts.length; i++){
+            sum += table_counts[i];
+            table_ends[i] = sum;
+        }
+        table_marg = marg;
+        table_version = marg.version();
+    }
+
+    /**
+     * Permutations of one null score. Each samples count of the total next
+     * words without replacement, and scores the words sampled against their
+     * counts in the table. The buffers are reused from one permutation to the
+     * next, so an instance serves one thread.
+     */
+    private class Permutations {
+        private final int count;
+        private final int total;
+        private final int[] counts = table_counts;
+        private final int[] ends = table_ends;
+        private final Random random = new Random();
+        private final BitSet sampled;
+        private final int[] hits;
+        private final int[] touched;
+
+        Permutations(int count, int total){
+            this.count = count;
+            this.total = total;
+            sampled = new BitSet(total);
+            hits = new int[counts.length];
+            touched = new int[Math.min(count, counts.length)];
         }
 
-        Collections.sort(table, new Comparator<Object[]>() {
-            @Override
-            public int compare(Object[] o1, Object[] o2) {
-                if ((Integer)o1[1] - (Integer)o2[1] == 0)
-                    return 0;
-                else if (((Integer)o1[1] - (Integer)o2[1]) > 0)
-                    return 1;
-                else
-                    return -1;
+        double max_score(int nperm){
+            double max_score = Double.NEGATIVE_INFINITY;
+            for(int perm = 0; perm < nperm; perm++){
+                max_score = Math.max(max_score, min_score());
             }
-        });
-
-        for(int perm=0; perm < nperm; perm++){
-            Map<Object,Object> perm_bigram = Turbotopics.sample_no_replace(total,table,count);
-            Map<Object,Object> obs= score(count,marg,perm_bigram,total,1);
-            Comparator<Object> comp = new Comparator<Object>() {
-                @Override
-                public int compare(Object o1, Object o2) {
-                    if((Double)o1 -(Double)o2 == 0)
-                        return 0;
-                    else if((Double)o1 - (Double)o2 > 0)
-                        return 1;
-                    else
-                        return -1;
+            return max_score;
+        }
+
+        /** the least score of a sample **/
+        private double min_score(){
+            sample();
+            int ntouched = 0;
+            for(int n = sampled.nextSetBit(0); n >= 0; n = sampled.nextSetBit(n + 1)){
+                int item = nth_item(n);
+                if(hits[item]++ == 0){
+                    touched[ntouched++] = item;
                 }
-            };
-            List<Object> obs_val_list = new ArrayList<Object>();
-            for (Object obj: obs.values()){
-                obs_val_list.add(obj);
             }
-            Collections.sort(obs_val_list,comp);
-            Double obs_score = (Double)obs_val_list.get(0);
-            if(obs_score > max_score || perm == 0){
-                max_score = obs_score;
+            double min_score = Double.POSITIVE_INFINITY;
+            for(int i = 0; i < ntouched; i++){
+                int item = touched[i];
+                min_score = Math.min(min_score, score(count, counts[item], hits[item], total));
+                hits[item] = 0;
             }
+            return min_score;
+        }
+
+        /** Floyd's sampling of count distinct numbers below total **/
+        private void sample(){
+            sampled.clear();
+            for(int j = total - count; j < total; j++){
+                int n = random.nextInt(j + 1);
+                sampled.set(sampled.get(n) ? j : n);
+            }
+        }
+
+        /** index of the table entry that the nth next word belongs to **/
+        private int nth_item(int n){
+            int lo = 0, hi = ends.length - 1;
+            while(lo < hi){
+                int mid = (lo + hi) >>> 1;
+                if(n < ends[mid]){
+                    hi = mid;
+                }else{
+                    lo = mid + 1;
+                }
+            }
+            return lo;
         }
-        perms.put(perm_key,max_score);
-        return max_score;
     }
 
     /** returns the chi squared null score */
-    private Double null_score_chi_sq(int count, Map<Object,Object>marg, int total){
+    private Double null_score_chi_sq(int count, CountTable marg, int total){
         return (Double) Turbotopics.get_chi_sq_table().get(pvalue);
 
     }
 
-    public Double null_score(int count, Map<Object,Object>marg,int total){
+    public Double null_score(int count, CountTable marg,int total){
         if(this.use_perm){
             return null_score_perm(count,marg,total);
         }else{
             return null_score_chi_sq(count,marg,total);
         }
     }
-}
\ No newline at end of file
+}
@@ -10,10 +10,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Random;
-import java.util.Set;
 
 
 /**
@@ -80,52 +77,6 @@ public class Turbotopics {
         return text;
     }
 
-    /**
-     * sample without replacement from a list of items and counts
-     * @param total: Max number for sampling
-     * @param table: List of item,count pairs
-     * @param nitems: Number of items required in the sample
-     * @return: A map of word,count pairs
-     */
-    public static Map<Object,Object> sample_no_replace(int total, ArrayList<Object[]>table, int nitems){
-        Map<Object,Object> count = new HashMap<Object,Object>();
-        for(Integer n: getSample(total,nitems)){
-            String w = nth_item_from_table(n,table);
-            if(!count.containsKey(w)){
-                count.put(w,0);
-            }
-            count.put(w,(Integer)count.get(w)+1);
-        }
-        return count;
-    }
-
-    /**
-     * Sampling method
-     * @param range
-     * @param n
-     * @return : A random sample of n integers between 0 to range
-     */
-    private static ArrayList<Integer> getSample(int range, int n){
-        Set<Integer> randomNumbers = new HashSet<Integer>();
-        Random random = new Random();
-        while(randomNumbers.size() != n){
-            randomNumbers.add(random.nextInt(range));
-        }
-        return new ArrayList<Integer>(randomNumbers);
-    }
-
-    private static String nth_item_from_table(int n, ArrayList<Object[]>table){
-        double sum = 0;
-        for(Object[] item: table){
-            sum = sum + (Integer)item[1];
-            if(n < sum){
-                return (String)item[0];
-            }
-        }
-        assert (false);
-        return null;
-    }
-
     /**
      * Get stop words as a map of words.
      * Return an empty map if there is not file for stop words
@@ -222,8 +173,8 @@ public class Turbotopics {
             update_fun.accept(counts,doc);
             ccc++;
         }
-        ArrayList<Object> items = items(counts.marg);
-        terms = getTerms(items,min);
+        ArrayList<Object> items;
+        terms = counts.terms(min);
         while(terms.size() > 0){
             Map<Object,Object> new_vocab = new HashMap<Object,Object>();
             sig_test.reset();
@@ -266,54 +217,6 @@ public class Turbotopics {
         return counts;
     }
 
-    /**
-     * Returns list of only those terms whose occurences is >= min
-     * @param items: An object list of items where each item is an list of 2 objects.
-     *             1st object is the term, 2nd object is the count of that term
-     * @param min: treshold of term count
-     * @return - A filtered list of terms whose count >= min
-     */
-    private static ArrayList<String> getTerms(ArrayList<Object> items, int min){
-        ArrayList<String> terms = new ArrayList<String>();
-        Collections.sort(items, new Comparator<Object>() {
-            @Override
-            public int compare(Object o1, Object o2) {
-                Object[]a1 = (Object[])o1;
-                Object[]a2 = (Object[])o2;
-                Integer v1 = (Integer) a1[1];
-                Integer v2 = (Integer)a2[1];
-                if(v1-v2== 0)
-                    return 0;
-                else if(v1-v2 > 0)
-                    return 1;
-                else
-                    return -1;
-            }
-        });
-        for(Object item: items){
-            Object[] it = (Object[]) item;
-            if((Integer)it[1] >= min){
-                terms.add((String)it[0]);
-            }
-        }
-        return terms;
-    }
-
-    /**
-     * Makes a deep copy of the given map.
-     */
-    public static Object deepCopy(Object obj){
-        if(!(obj instanceof Map)){
-            return obj;
-        }
-        Map<Object,Object> map = (Map<Object,Object>)obj;
-        Map<Object,Object> newMap = new HashMap<Object,Object>();
-        for(Map.Entry<Object,Object> pair: map.entrySet()){
-            newMap.put(pair.getKey(),deepCopy(pair.getValue()));
-        }
-        return newMap;
-    }
-
     /**
      * updates a vocabulary transition with an n-gram
      * @param word: An n-gram string
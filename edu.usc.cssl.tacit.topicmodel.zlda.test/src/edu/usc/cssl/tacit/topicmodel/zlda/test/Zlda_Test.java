@@ -1,17 +1,22 @@
 package edu.usc.cssl.tacit.topicmodel.zlda.test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Random;
 
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.SubProgressMonitor;
 import org.junit.Test;
 
 import edu.usc.cssl.tacit.common.TacitUtility;
+import edu.usc.cssl.tacit.topicmodel.zlda.services.ZlabelLDA;
 import edu.usc.cssl.tacit.topicmodel.zlda.services.ZlabelTopicModelAnalysis;
 //This class just checks if the LDA tool finishes running successfully. If an exception is generated, it indicates that the test failed.
 public class Zlda_Test {
@@ -43,4 +48,127 @@ public class Zlda_Test {
 		}
 		assertEquals("Checking if any exception occured", exception, null);
 	}
+
+	// 200 documents of 30 to 80 words over 1000 words, the words below 40
+	// are seeded with one of 20 topics
+	private static final int NUM_TOPICS = 20, NUM_WORDS = 1000, NUM_SAMPLES = 15;
+	private final int[][] docs = new int[200][];
+	private final int[][][] seeds = new int[docs.length][][];
+	{
+		Random corpusRandom = new Random(5);
+		for (int d = 0; d < docs.length; d++) {
+			int block = corpusRandom.nextInt(NUM_TOPICS);
+			docs[d] = new int[30 + corpusRandom.nextInt(51)];
+			seeds[d] = new int[docs[d].length][];
+			for (int i = 0; i < docs[d].length; i++) {
+				docs[d][i] = i % 2 == 0 ? block * 50 + corpusRandom.nextInt(50) : corpusRandom.nextInt(NUM_WORDS);
+				if (docs[d][i] < 40)
+					seeds[d][i] = new int[] { docs[d][i] % NUM_TOPICS };
+			}
+		}
+	}
+
+	private static double[][] prior(int rows, int columns, double value) {
+		double[][] prior = new double[rows][columns];
+		for (double[] row : prior)
+			Arrays.fill(row, value);
+		return prior;
+	}
+
+	private ZlabelLDA sampler() {
+		return new ZlabelLDA(docs, seeds, 1, prior(1, NUM_TOPICS, 0.5), prior(NUM_TOPICS, NUM_WORDS, 0.1), NUM_SAMPLES);
+	}
+
+	@Test
+	public void samplerIsReproducible() {
+		ZlabelLDA first = sampler();
+		first.setSeed(7);
+		first.setNumThreads(3);
+		assertTrue(first.zLDA(new SubProgressMonitor(new NullProgressMonitor(), 70)));
+		ZlabelLDA second = sampler();
+		second.setSeed(7);
+		second.setNumThreads(3);
+		assertTrue(second.zLDA(new SubProgressMonitor(new NullProgressMonitor(), 70)));
+
+		for (int d = 0; d < docs.length; d++)
+			assertArrayEquals("Topics of document " + d, first.getSample()[d], second.getSample()[d]);
+		for (int t = 0; t < NUM_TOPICS; t++)
+			assertArrayEquals("Phi of topic " + t, first.getPhi()[t], second.getPhi()[t], 0);
+	}
+
+	@Test
+	public void countsMatchSampleAfterEverySweep() {
+		long tokens = 0;
+		for (int[] doc : docs)
+			tokens += doc.length;
+		final long numTokens = tokens;
+		final int[] sweeps = new int[1];
+		ZlabelLDA zelda = new ZlabelLDA(docs, seeds, 1, prior(1, NUM_TOPICS, 0.5), prior(NUM_TOPICS, NUM_WORDS, 0.1),
+				NUM_SAMPLES) {
+			protected void sweepDone(int sweep) {
+				assertEquals(++sweeps[0], sweep);
+				int[][] expected = new int[NUM_TOPICS][NUM_WORDS];
+				for (int d = 0; d < docs.length; d++)
+					for (int i = 0; i < docs[d].length; i++)
+						expected[getSample()[d][i]][docs[d][i]]++;
+				int[][] topicWordCounts = getTopicWordCounts();
+				int[] topicCounts = getTopicCounts();
+				long sum = 0;
+				for (int t = 0; t < NUM_TOPICS; t++) {
+					assertArrayEquals("Sweep " + sweep + ", topic " + t, expected[t], topicWordCounts[t]);
+					int topicSum = 0;
+					for (int count : topicWordCounts[t])
+						topicSum += count;
+					assertEquals("Sweep " + sweep + ", words of topic " + t, topicCounts[t], topicSum);
+					sum += topicSum;
+				}
+				assertEquals("Sweep " + sweep, numTokens, sum);
+			}
+		};
+		zelda.setSeed(7);
+		zelda.setNumThreads(3);
+		assertTrue(zelda.zLDA(new SubProgressMonitor(new NullProgressMonitor(), 70)));
+		assertEquals(NUM_SAMPLES, sweeps[0]);
+	}
+
+	@Test
+	public void benchmarkSampler() {
+		// 2000 documents of 100 words over 10000 words: every document is
+		// about one of 50 blocks of 200 words for half of its words, the
+		// words below 100 are seeded with a topic
+		int W = 10000;
+		int numSamples = 10;
+		Random random = new Random(1);
+		int[][] docs = new int[2000][100];
+		int[][][] seeds = new int[docs.length][][];
+		for (int d = 0; d < docs.length; d++) {
+			int block = random.nextInt(50);
+			seeds[d] = new int[docs[d].length][];
+			for (int i = 0; i < docs[d].length; i++) {
+				docs[d][i] = i % 2 == 0 ? block * 200 + random.nextInt(200) : random.nextInt(W);
+				if (docs[d][i] < 100)
+					seeds[d][i] = new int[] { docs[d][i] % 50 };
+			}
+		}
+		long tokens = (long) docs.length * docs[0].length * (numSamples + 1);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		int[] threadCounts = threads > 1 ? new int[] { 1, threads } : new int[] { 1 };
+		for (int T : new int[] { 50, 200, 1000 }) {
+			double[][] alpha = new double[1][T];
+			Arrays.fill(alpha[0], 0.5);
+			double[][] beta = new double[T][W];
+			for (double[] topicBeta : beta)
+				Arrays.fill(topicBeta, 0.1);
+			for (int numThreads : threadCounts) {
+				ZlabelLDA zelda = new ZlabelLDA(docs, seeds, 1, alpha, beta, numSamples);
+				zelda.setNumThreads(numThreads);
+				long start = System.nanoTime();
+				assertTrue(zelda.zLDA(new SubProgressMonitor(new NullProgressMonitor(), 70)));
+				long nanos = System.nanoTime() - start;
+				System.out.println("zLDA T=" + T + ", " + numThreads + " thread(s): " + tokens * 1000000000L / nanos
+						+ " tokens/s");
+			}
+		}
+	}
 }
\ No newline at end of file
@@ -326,6 +326,7 @@ public class ZlabelLdaTopicModelView extends ViewPart implements
 						Date dateObj = new Date();
 						ZlabelTopicModelAnalysis zlda = new ZlabelTopicModelAnalysis(
 								new SubProgressMonitor(monitor, 70));
+						zlda.setNumThreads(Runtime.getRuntime().availableProcessors());
 						monitor.subTask("Topic Modelling...");
 						try {
 							zlda.invokeLDA(topicModelDirPath, seedFilePath,
@@ -5,8 +5,16 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.SubProgressMonitor;
@@ -38,33 +46,383 @@ public class ZlabelLDA {
 	private long prevTime;
 	private long currentTime;
 	
+	private int numThreads = 1;
+	/* Seed of the random numbers of the init; sampler thread k uses seed + 1 + k */
+	private static final long SEED = 194582;
+	private long seed = SEED;
+	
+	/* Bits of a packed word-topic count holding the topic */
+	private int topicBits;
+	private int topicMask;
+	/* beta[j][w] for every word if beta does not vary by word, otherwise null */
+	private double[] topicBeta;
+	
 	private class Counts{
 		
-		int[][] nw;
-		int[][] nd;
+		/**
+		 * nw as in SparseLDA: typeTopicCounts[w] holds count << topicBits | topic
+		 * for every topic the word has, highest count first, then zeros
+		 */
+		int[][] typeTopicCounts;
 		int[] nwColSum;
 		
-		public Counts(Integer w, int t, int d){
-			nw = new int[(int)w][t];
-			nd = new int[d][t];
+		public Counts(int w, int t){
+			typeTopicCounts = new int[w][];
+			for(int i=0; i<w; i++){
+				typeTopicCounts[i] = new int[0];
+			}
 			nwColSum = new int[t];
+		}
+		
+		public Counts(Counts other){
+			typeTopicCounts = new int[other.typeTopicCounts.length][];
+			for(int i=0; i<typeTopicCounts.length; i++){
+				typeTopicCounts[i] = other.typeTopicCounts[i].clone();
+			}
+			nwColSum = other.nwColSum.clone();
+		}
+		
+		int count(int word, int topic){
+			int[] wordCounts = typeTopicCounts[word];
+			for(int i=0; i<wordCounts.length && wordCounts[i] > 0; i++){
+				if((wordCounts[i] & topicMask) == topic){
+					return wordCounts[i] >>> topicBits;
+				}
+			}
+			return 0;
+		}
+		
+		void add(int word, int topic){
+			int[] wordCounts = typeTopicCounts[word];
+			int i = 0;
+			while(i < wordCounts.length && wordCounts[i] > 0 && (wordCounts[i] & topicMask) != topic){
+				i++;
+			}
+			if(i == wordCounts.length){
+				wordCounts = typeTopicCounts[word] = Arrays.copyOf(wordCounts, Math.min(T, Math.max(2, 2 * wordCounts.length)));
+			}
+			if(wordCounts[i] == 0){
+				wordCounts[i] = (1 << topicBits) | topic;
+			}
+			else {
+				wordCounts[i] += 1 << topicBits;
+			}
+			/* Move it up past the smaller counts */
+			while(i > 0 && wordCounts[i - 1] >>> topicBits < wordCounts[i] >>> topicBits){
+				int temp = wordCounts[i - 1];
+				wordCounts[i - 1] = wordCounts[i];
+				wordCounts[i] = temp;
+				i--;
+			}
+			nwColSum[topic]++;
+		}
+		
+		void remove(int word, int topic){
+			int[] wordCounts = typeTopicCounts[word];
+			int i = 0;
+			while(wordCounts[i] == 0 || (wordCounts[i] & topicMask) != topic){
+				i++;
+			}
+			wordCounts[i] -= 1 << topicBits;
+			if(wordCounts[i] >>> topicBits == 0){
+				wordCounts[i] = 0;
+			}
+			/* Move it down past the larger counts, an empty entry to the end */
+			while(i + 1 < wordCounts.length && wordCounts[i + 1] >>> topicBits > wordCounts[i] >>> topicBits){
+				int temp = wordCounts[i + 1];
+				wordCounts[i + 1] = wordCounts[i];
+				wordCounts[i] = temp;
+				i++;
+			}
+			nwColSum[topic]--;
+		}
+		
+	}
+	
+	/**
+	 * Samples the topics of the documents firstDoc to lastDoc - 1 with its own random numbers.
+	 * 
+	 * The weight of topic j for a word is (nw + beta)(nd + alpha)/(nwColSum + betaSum), split
+	 * as in SparseLDA into a smoothing part alpha*beta/(nwColSum + betaSum), a document part
+	 * nd*beta/(nwColSum + betaSum) over the topics of the document and a word part
+	 * nw*(nd + alpha)/(nwColSum + betaSum) over the topics of the word. For a word with topic
+	 * seeds, every topic is scaled by 1 - eta and the seeds get eta times their weight on top,
+	 * which is the same as scaling the topics that are not seeds by 1 - eta.
+	 * 
+	 * When the documents are shared out between threads, every worker samples against its own
+	 * copy of the counts, and logs the moves of the words to merge into the shared counts.
+	 */
+	private class Worker implements Callable<Void>{
+		
+		final int firstDoc, lastDoc;
+		final Random random;
+		Counts counts;
+		boolean logMoves;
+		/* word, old topic, new topic of every word that moved */
+		int[] moves = new int[3 * 1024];
+		int numMoves;
+		
+		/* Topic counts of the current document and the topics it has */
+		final int[] docCounts = new int[T];
+		final int[] docTopics = new int[T];
+		int numDocTopics;
+		/* (nd + alpha)/(nwColSum + betaSum) of the f-label in use */
+		final double[] coefficients = new double[T];
+		int label = -1;
+		double smoothingMass, docMass;
+		
+		final double[] wordWeights = new double[T];
+		final int[] wordCounts = new int[T];
+		final boolean[] seeded = new boolean[T];
+		double[] seedWeights = new double[8];
+		
+		public Worker(int firstDoc, int lastDoc, Random random){
+			this.firstDoc = firstDoc;
+			this.lastDoc = lastDoc;
+			this.random = random;
+		}
+		
+		/**
+		 * Samples the documents against a copy of the shared counts
+		 */
+		public Void call(){
+			counts = new Counts(ZlabelLDA.this.counts);
+			logMoves = true;
+			numMoves = 0;
+			sweep();
+			return null;
+		}
+		
+		void sweep(){
+			/* The counts changed since the last sweep */
+			label = -1;
+			for(int d=firstDoc; d<lastDoc; d++){
+				sampleDocument(d, false);
+			}
+		}
+		
+		/**
+		 * Samples the topic of every word of the document. Online, the words have no
+		 * topic yet and are added one at a time.
+		 */
+		void sampleDocument(int d, boolean online){
 			
-			/* Initialize the arrays with 0 values */
-			for(int i=0; i<w; i++){
-				for(int j=0; j<t; j++){
-					nw[i][j] = 0;
+			int[] doc = documents[d];
+			int[] docSample = sample[d];
+			int[][] docSeeds = topicSeeds[d];
+			int f = fLabel[d];
+			double[] alphaF = alpha[f];
+			
+			if(f != label){
+				label = f;
+				smoothingMass = 0;
+				for(int j=0; j<T; j++){
+					double denom = counts.nwColSum[j] + betaSum[j];
+					coefficients[j] = alphaF[j]/denom;
+					if(topicBeta != null){
+						smoothingMass += alphaF[j]*topicBeta[j]/denom;
+					}
+				}
+			}
+			
+			numDocTopics = 0;
+			docMass = 0;
+			if(!online){
+				for(int i=0; i<doc.length; i++){
+					if(docCounts[docSample[i]]++ == 0){
+						docTopics[numDocTopics++] = docSample[i];
+					}
+				}
+				for(int k=0; k<numDocTopics; k++){
+					int j = docTopics[k];
+					double denom = counts.nwColSum[j] + betaSum[j];
+					coefficients[j] = (docCounts[j] + alphaF[j])/denom;
+					if(topicBeta != null){
+						docMass += docCounts[j]*topicBeta[j]/denom;
+					}
+				}
+			}
+			
+			for(int i=0; i<doc.length; i++){
+				int word = doc[i];
+				int oldTopic = -1;
+				if(!online){
+					oldTopic = docSample[i];
+					move(word, oldTopic, -1, alphaF);
+				}
+				
+				int topic = topicBeta != null ? sampleSparse(word, docSeeds[i]) : sampleDense(word, docSeeds[i]);
+				
+				move(word, topic, 1, alphaF);
+				docSample[i] = topic;
+				if(logMoves && topic != oldTopic){
+					if(numMoves + 3 > moves.length){
+						moves = Arrays.copyOf(moves, 2 * moves.length);
+					}
+					moves[numMoves++] = word;
+					moves[numMoves++] = oldTopic;
+					moves[numMoves++] = topic;
+				}
+			}
+			
+			/* Back to the coefficients of an empty document */
+			for(int k=0; k<numDocTopics; k++){
+				int j = docTopics[k];
+				docCounts[j] = 0;
+				coefficients[j] = alphaF[j]/(counts.nwColSum[j] + betaSum[j]);
+			}
+		}
+		
+		/* Adds delta to the count of the word in the topic, keeping the masses up to date */
+		private void move(int word, int topic, int delta, double[] alphaF){
+			
+			double denom = counts.nwColSum[topic] + betaSum[topic];
+			if(topicBeta != null){
+				smoothingMass -= alphaF[topic]*topicBeta[topic]/denom;
+				docMass -= docCounts[topic]*topicBeta[topic]/denom;
+			}
+			
+			if(delta > 0){
+				counts.add(word, topic);
+				if(docCounts[topic]++ == 0){
+					docTopics[numDocTopics++] = topic;
+				}
+			}
+			else {
+				counts.remove(word, topic);
+				if(--docCounts[topic] == 0){
+					int k = 0;
+					while(docTopics[k] != topic){
+						k++;
+					}
+					docTopics[k] = docTopics[--numDocTopics];
+				}
+			}
+			
+			denom += delta;
+			if(topicBeta != null){
+				smoothingMass += alphaF[topic]*topicBeta[topic]/denom;
+				docMass += docCounts[topic]*topicBeta[topic]/denom;
+			}
+			coefficients[topic] = (docCounts[topic] + alphaF[topic])/denom;
+		}
+		
+		private int sampleSparse(int word, int[] seeds){
+			
+			int[] typeCounts = counts.typeTopicCounts[word];
+			double wordMass = 0;
+			int n = 0;
+			while(n < typeCounts.length && typeCounts[n] > 0){
+				wordWeights[n] = (typeCounts[n] >>> topicBits)*coefficients[typeCounts[n] & topicMask];
+				wordMass += wordWeights[n];
+				n++;
+			}
+			
+			double scale = 1, seedMass = 0;
+			if(seeds != null){
+				scale = 1 - eta;
+				if(seedWeights.length < seeds.length){
+					seedWeights = new double[seeds.length];
+				}
+				for(int k=0; k<seeds.length; k++){
+					int j = seeds[k];
+					/* A topic seeded twice counts once */
+					seedWeights[k] = seeded[j] ? 0 : eta*(counts.count(word, j) + topicBeta[j])*coefficients[j];
+					seeded[j] = true;
+					seedMass += seedWeights[k];
+				}
+				for(int k=0; k<seeds.length; k++){
+					seeded[seeds[k]] = false;
+				}
+			}
+			
+			double u = random.nextDouble()*(scale*(smoothingMass + docMass + wordMass) + seedMass);
+			
+			if(u < seedMass){
+				int k = 0;
+				while(k < seeds.length - 1 && u >= seedWeights[k]){
+					u -= seedWeights[k];
+					k++;
+				}
+				return seeds[k];
+			}
+			u = (u - seedMass)/scale;
+			
+			if(u < wordMass){
+				int k = 0;
+				while(k < n - 1 && u >= wordWeights[k]){
+					u -= wordWeights[k];
+					k++;
+				}
+				return typeCounts[k] & topicMask;
+			}
+			u -= wordMass;
+			
+			if(u < docMass){
+				int k = 0;
+				for(; k < numDocTopics - 1; k++){
+					int j = docTopics[k];
+					double weight = docCounts[j]*topicBeta[j]/(counts.nwColSum[j] + betaSum[j]);
+					if(u < weight){
+						break;
+					}
+					u -= weight;
+				}
+				return docTopics[k];
+			}
+			u -= docMass;
+			
+			double[] alphaF = alpha[label];
+			int j = 0;
+			for(; j < T - 1; j++){
+				double weight = alphaF[j]*topicBeta[j]/(counts.nwColSum[j] + betaSum[j]);
+				if(u < weight){
+					break;
+				}
+				u -= weight;
+			}
+			return j;
+		}
+		
+		/* The weights of all the topics, when beta varies by word */
+		private int sampleDense(int word, int[] seeds){
+			
+			int[] typeCounts = counts.typeTopicCounts[word];
+			for(int n=0; n<typeCounts.length && typeCounts[n] > 0; n++){
+				wordCounts[typeCounts[n] & topicMask] = typeCounts[n] >>> topicBits;
+			}
+			if(seeds != null){
+				for(int k=0; k<seeds.length; k++){
+					seeded[seeds[k]] = true;
+				}
+			}
+			
+			double normSum = 0;
+			for(int j=0; j<T; j++){
+				wordWeights[j] = (wordCounts[j] + beta[j][word])*coefficients[j];
+				/* Penalize if the topics associated with this word isn't the current topic */
+				if(seeds != null && !seeded[j]){
+					wordWeights[j] *= 1 - eta;
 				}
+				normSum += wordWeights[j];
 			}
 			
-			for(int i=0; i<d; i++){
-				for(int j=0; j<t; j++){
-					nd[i][j] = 0;
+			for(int n=0; n<typeCounts.length && typeCounts[n] > 0; n++){
+				wordCounts[typeCounts[n] & topicMask] = 0;
+			}
+			if(seeds != null){
+				for(int k=0; k<seeds.length; k++){
+					seeded[seeds[k]] = false;
 				}
 			}
 			
-			for(int i=0; i<t; i++){
-				nwColSum[i] = 0;
+			double u = random.nextDouble()*normSum;
+			int j = 0;
+			while(j < T - 1 && u >= wordWeights[j]){
+				u -= wordWeights[j];
+				j++;
 			}
+			return j;
 		}
 		
 	}
@@ -100,7 +458,7 @@ public class ZlabelLDA {
 		this.alpha = alpha;
 		this.beta = beta;
 		this.numsamp = numsamp;
-		random = new Random(194582);
+		random = new Random(seed);
 		sample = new int[docs.length][];
 		numberOfDocuments = documents.length;
 		for(int i=0; i<documents.length; i++){
@@ -114,8 +472,20 @@ public class ZlabelLDA {
 		this(docs, zValues, eta, alpha, beta, numsamp, null);
 	}
 	
-	private double unif(){
-		return random.nextFloat();
+	/**
+	 * Sets the number of threads that sample the topics. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+	
+	/**
+	 * Sets the seed of the random numbers. The same seed, documents and
+	 * number of threads give the same samples. Call before zLDA.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		random = new Random(seed);
 	}
 	
 	private boolean givenInit(){
@@ -125,12 +495,11 @@ public class ZlabelLDA {
 			return false;
 		}
 		
-		counts = new Counts(W, T, documents.length);
+		counts = new Counts(W, T);
 		
 		int[] docInit, docSample;
 		int[] doc; 
 		int zi;
-		int word; 
 		
 		for(int d=0; d<documents.length; d++){
 			
@@ -150,11 +519,8 @@ public class ZlabelLDA {
 					return false;
 				}
 				
-				word = doc[i];
 				docSample[i] = zi;
-				counts.nw[(int)word][zi]++;
-				counts.nd[d][zi]++;
-				counts.nwColSum[zi]++;
+				counts.add(doc[i], zi);
 			
 			}
 			
@@ -170,165 +536,93 @@ public class ZlabelLDA {
 	 */
 	private void onlineInit(){
 		
-		/* Initialize variables for use in the loop */
-		counts = new Counts(W, T, documents.length);
+		counts = new Counts(W, T);
 		
-		double[] numerator = new double[T];
-		int[] doc;
-		int f;
-		int word;
-		double normSum, alphaJ, betaI, currBetaSum, denomL;
-		int[][] docSeeds;
-		int[] wordTopicSeeds, docSample;
-		boolean foundTopic;
-		int sampleValue;	
-		
-		/* Iterate through the documents */
+		/* One document after the other, on this thread */
+		Worker worker = new Worker(0, documents.length, random);
+		worker.counts = counts;
 		for(int d=0; d<documents.length; d++){
-			
-			doc = documents[d];
-			f = fLabel[d];
-			docSeeds = topicSeeds[d];
-			docSample = sample[d];
-			
-			for(int i=0; i<doc.length; i++){
-				
-				word = doc[i];
-				normSum = 0;
-				
-				/* Calculate numerator for each topic */
-				for(int j=0; j<T; j++){
-					
-					/* Initialize variables for this calculation */
-					alphaJ = alpha[f][j];
-					betaI = beta[j][word];
-					currBetaSum = betaSum[j];
-					denomL = counts.nwColSum[j] + currBetaSum;
-					
-					/**
-					 *  
-					 *  Calculate numerator for this topic 
-					 *  Note : alpha denom omitted because it is the same for all topics
-					 *   
-					 **/
-					numerator[j] = (counts.nw[(int)word][j] + betaI)/denomL;
-					numerator[j] = numerator[j]*(counts.nd[d][j] + alphaJ);
-					
-					/* Add a multiplicative penalty if applicable */
-					if(docSeeds[i] != null){
-						wordTopicSeeds = docSeeds[i];
-						foundTopic = false;
-						/* Look for the current topic we're looking at in the topic seeds for this word */
-						for(int k=0; k<wordTopicSeeds.length; k++){
-							if(j == wordTopicSeeds[k]){
-								foundTopic = true;
-								
-							}
-						}
-						/* Penalize if the topics associated with this word isn't the current topic */
-						if(foundTopic == false){
-							numerator[j] = numerator[j]*(1 - eta);
-						}
-					}
-					
-					/* Add the computed numerator value to norm sum */
-					normSum += numerator[j];
-					
-					
-				}
-				/* Draw sample and update the count/cache matrices and initial sample vector */
-				sampleValue = multSample(numerator, normSum);
-				docSample[i] = sampleValue;
-				
-				counts.nw[(int)word][sampleValue]++;
-				counts.nd[d][sampleValue]++;
-				counts.nwColSum[sampleValue]++;
-			}
-			
+			worker.sampleDocument(d, true);
 		}
 				
 	}
 	
-	private void gibbsChain(){
-		
-		double[] numerator = new double[T];
-		int[] doc;
-		int f, zi;
-		Integer word;
-		double normSum, alphaJ, betaI, currBetaSum, denomL;
-		int[][] docSeeds;
-		int[] wordTopicSeeds, docSample;
-		boolean foundTopic;
-		int sampleValue;
+	/**
+	 * Shares the documents out between the threads, about the same number of words each
+	 */
+	private Worker[] createWorkers(){
 		
+		int numWorkers = Math.max(1, Math.min(numThreads, documents.length));
+		long totalWords = 0;
 		for(int d=0; d<documents.length; d++){
-			doc = documents[d];
-			f = fLabel[d];
-			docSeeds = topicSeeds[d];
-			docSample = sample[d];
-
-			for(int i=0; i<doc.length; i++){
-				
-				zi = docSample[i];
-				word = doc[i];
-				counts.nw[(int)word][zi]--;
-				counts.nd[d][zi]--;
-				counts.nwColSum[zi]--;
-				
-				normSum = 0;
-				
-				for(int j=0; j<T; j++){
-					
-					alphaJ = alpha[f][j];
-					betaI = beta[j][word];
-					currBetaSum = betaSum[j];
-					denomL = counts.nwColSum[j] + currBetaSum;
-					
-					/**
-					 *  
-					 *  Calculate numerator for this topic 
-					 *  Note : alpha denom omitted because it is the same for all topics
-					 *   
-					 **/
-					numerator[j] = (counts.nw[(int)word][j] + betaI)/denomL;
-					numerator[j] = numerator[j]*(counts.nd[d][j] + alphaJ);
-					
-					if(docSeeds[i] != null){
-						
-						wordTopicSeeds = docSeeds[i];
-						foundTopic = false;
-						/* Look for the current topic we're looking at in the topic seeds for this word */
-						for(int k=0; k<wordTopicSeeds.length; k++){
-							
-							if(j == wordTopicSeeds[k]){
-								foundTopic = true;
-							}
-						}
-						/* Penalize if the topics associated with this word isn't the current topic */
-						if(foundTopic == false){
-							numerator[j] = numerator[j]*(1 - eta);
-						}
-					}
-					
-					/* Add the computed numerator value to norm sum */
-					normSum += numerator[j];
-
-				}
-				
-				/* Draw sample and update the count/cache matrices and initial sample vector */
-				sampleValue = multSample(numerator, normSum);
-				docSample[i] = sampleValue;
-				
-				counts.nw[(int)word][sampleValue]++;
-				counts.nd[d][sampleValue]++;
-				counts.nwColSum[sampleValue]++;
-
+			totalWords += documents[d].length;
+		}
+		
+		Worker[] workers = new Worker[numWorkers];
+		int firstDoc = 0;
+		long words = 0;
+		for(int k=0; k<numWorkers; k++){
+			int lastDoc = firstDoc;
+			while(lastDoc < documents.length && (k == numWorkers - 1 || words < totalWords*(k + 1)/numWorkers)){
+				words += documents[lastDoc].length;
+				lastDoc++;
 			}
-			
+			workers[k] = new Worker(firstDoc, lastDoc, new Random(seed + 1 + k));
+			firstDoc = lastDoc;
 		}
+		return workers;
 		
 	}
 	
+	/**
+	 * One sweep over all the documents. With several workers, each samples its documents
+	 * against the counts as they were at the start of the sweep, and their moves are merged
+	 * into the shared counts at the end.
+	 */
+	private void gibbsChain(Worker[] workers, ExecutorService executor){
+		
+		if(workers.length == 1){
+			workers[0].counts = counts;
+			workers[0].sweep();
+			return;
+		}
+		
+		List<Future<Void>> sweeps = new ArrayList<Future<Void>>();
+		for(Worker worker : workers){
+			sweeps.add(executor.submit(worker));
+		}
+		for(Future<Void> sweep : sweeps){
+			getResult(sweep);
+		}
+		
+		for(Worker worker : workers){
+			int[] moves = worker.moves;
+			for(int m=0; m<worker.numMoves; m+=3){
+				counts.remove(moves[m], moves[m + 1]);
+				counts.add(moves[m], moves[m + 2]);
+			}
+			worker.counts = null;
+		}
+		
+	}
+	
+	private static void getResult(Future<Void> future){
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			if(e.getCause() instanceof Error){
+				throw (Error) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+	
 	
 	/**
 	 * Use final sample to estimate phi = P(w|z)
@@ -337,21 +631,26 @@ public class ZlabelLDA {
 		
 		phi = new double[T][(int)W];
 		
-		Integer colSum, nwct;
-		double currBetaSum, betaW;
+		double currBetaSum;
 		
 		for(int t=0; t<T; t++){
 			
-			colSum = counts.nwColSum[t];
-			currBetaSum = betaSum[t];
+			currBetaSum = betaSum[t] + counts.nwColSum[t];
 			
 			for(int w=0; w<W; w++){
-				betaW = beta[t][w];
-				nwct = counts.nw[(int)w][t];
-				phi[t][w] = (betaW + nwct)/(currBetaSum + colSum);
+				phi[t][w] = beta[t][w]/currBetaSum;
 			}
 			
-			
+		}
+		
+		int[] wordCounts;
+		int t;
+		for(int w=0; w<W; w++){
+			wordCounts = counts.typeTopicCounts[w];
+			for(int i=0; i<wordCounts.length && wordCounts[i] > 0; i++){
+				t = wordCounts[i] & topicMask;
+				phi[t][w] += (wordCounts[i] >>> topicBits)/(betaSum[t] + counts.nwColSum[t]);
+			}
 		}
 		
 		return;
@@ -364,28 +663,21 @@ public class ZlabelLDA {
 	private void estTheta(){
 		
 		theta = new double[documents.length][T];
-		double[] rowSums = new double[counts.nd.length];
-		double rowSum, currAlphaSum, alphaT;
+		double rowSum, currAlphaSum;
 		int f;
-		Integer ndct;
-		
-		for(int i=0; i<documents.length; i++){
-			rowSum = 0;
-			for(int j=0; j<counts.nd[i].length; j++){
-				rowSum = rowSum + counts.nd[i][j];
-			}
-			rowSums[i] = rowSum;
-		}
+		int[] nd = new int[T];
 		
 		for(int d=0; d<documents.length; d++){
-			rowSum = rowSums[d];
+			Arrays.fill(nd, 0);
+			for(int i=0; i<sample[d].length; i++){
+				nd[sample[d][i]]++;
+			}
+			rowSum = sample[d].length;
 			f = fLabel[d];
 			currAlphaSum = alphaSum[f];
 			
 			for(int t=0; t<T; t++){
-				alphaT = alpha[f][t];
-				ndct = counts.nd[d][t];
-				theta[d][t] = (ndct + alphaT)/(rowSum + currAlphaSum);
+				theta[d][t] = (nd[t] + alpha[f][t])/(rowSum + currAlphaSum);
 			}
 			
 		}
@@ -394,19 +686,6 @@ public class ZlabelLDA {
 		
 	}
 	
-	private int multSample( double[] vals, double norm_sum) {
-		
-		double rand_sample = unif()*norm_sum;
-		double tmp_sum = 0;
-		int i = 0;
-		while(tmp_sum < rand_sample || i == 0){
-			tmp_sum += vals[i];
-			i++;
-		}
-		return i-1;
-		
-	}
-	
 	private boolean validateInput(){
 		
 		/* Check if fLabel array has size equal to number of documents */
@@ -583,6 +862,21 @@ public class ZlabelLDA {
 		}
 		prevTime = 0;
 		currentTime = System.currentTimeMillis();
+		
+		topicBits = Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(1, T - 1));
+		topicMask = (1 << topicBits) - 1;
+		/* The sparse sampler needs the same beta for every word of a topic */
+		topicBeta = new double[T];
+		for(int j=0; j<T && topicBeta != null; j++){
+			topicBeta[j] = beta[j][0];
+			for(int w=1; w<W; w++){
+				if(beta[j][w] != topicBeta[j]){
+					topicBeta = null;
+					break;
+				}
+			}
+		}
+		
 		if(init == null){
 			onlineInit();
 		}
@@ -594,9 +888,18 @@ public class ZlabelLDA {
 		 
 		prevTime = currentTime; 
 		currentTime = System.currentTimeMillis();
-		for(int si=1; si<=numsamp; si++){
-			gibbsChain();
-			monitor.subTask("Calculating Z label ... Ran Gibbs Sampler "+si+ " time(s)");
+		Worker[] workers = createWorkers();
+		ExecutorService executor = workers.length > 1 ? Executors.newFixedThreadPool(workers.length) : null;
+		try {
+			for(int si=1; si<=numsamp; si++){
+				gibbsChain(workers, executor);
+				sweepDone(si);
+				monitor.subTask("Calculating Z label ... Ran Gibbs Sampler "+si+ " time(s)");
+			}
+		} finally {
+			if(executor != null){
+				executor.shutdownNow();
+			}
 		}
 		
 		estPhi();
@@ -606,6 +909,36 @@ public class ZlabelLDA {
 		
 	}
 	
+	/**
+	 * Called after every sweep of the sampler, once the counts are merged
+	 * 
+	 * @param sweep number of the sweep, from 1 to numsamp
+	 */
+	protected void sweepDone(int sweep){
+	}
+	
+	/**
+	 * The current number of words of every topic, by topic and word
+	 */
+	protected int[][] getTopicWordCounts(){
+		int[][] topicWordCounts = new int[T][W];
+		int[] wordCounts;
+		for(int w=0; w<W; w++){
+			wordCounts = counts.typeTopicCounts[w];
+			for(int i=0; i<wordCounts.length && wordCounts[i] > 0; i++){
+				topicWordCounts[wordCounts[i] & topicMask][w] += wordCounts[i] >>> topicBits;
+			}
+		}
+		return topicWordCounts;
+	}
+	
+	/**
+	 * The current number of words of every topic
+	 */
+	protected int[] getTopicCounts(){
+		return counts.nwColSum.clone();
+	}
+	
 	private StringBuilder readMe = new StringBuilder();
 	private void appendLog(String message){
 		ConsoleView.printlInConsoleln(message);
@@ -25,11 +25,19 @@ import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 public class ZlabelTopicModelAnalysis {
 
 	private SubProgressMonitor monitor;
+	private int numThreads = 1;
 
 	public ZlabelTopicModelAnalysis(SubProgressMonitor monitor) {
 		this.monitor = monitor;
 	}
 
+	/**
+	 * Sets the number of threads that sample topics. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
 	private void runLDA(File dir, File preSeedFile, int numTopics, int noOfSamples, double alphaval, double betaval,
 			double confidenceValue, String outputdir, Date dateObj) {
 
@@ -75,6 +83,7 @@ public class ZlabelTopicModelAnalysis {
 		}
 
 		ZlabelLDA zelda = new ZlabelLDA(docs, zlabels, confidenceValue, alpha, beta, noOfSamples);
+		zelda.setNumThreads(numThreads);
 		this.monitor.subTask("Calculating Z label ...");
 		boolean retVal = zelda.zLDA(this.monitor);
 		if (!retVal) {
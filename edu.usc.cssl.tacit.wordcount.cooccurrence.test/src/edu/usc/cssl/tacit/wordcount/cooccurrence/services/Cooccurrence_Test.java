@@ -0,0 +1,104 @@
+package edu.usc.cssl.tacit.wordcount.cooccurrence.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Cooccurrence_Test {
+
+	/*
+	 * Counts 20k pairs of 300 words, drawn mostly from the first words, on
+	 * four tables as four threads would
+	 */
+	private static void count(CooccurrenceMatrix matrix) throws IOException {
+		Random random = new Random(13);
+		CooccurrenceMatrix.Counts[] counts = new CooccurrenceMatrix.Counts[4];
+		for (int t = 0; t < counts.length; t++)
+			counts[t] = matrix.newCounts();
+		for (int i = 0; i < 20000; i++) {
+			CooccurrenceMatrix.Counts table = counts[random.nextInt(counts.length)];
+			int first = table.id(word(random));
+			int next = table.id(word(random));
+			table.add(first, next);
+		}
+		// words that only get a row
+		for (int t = 0; t < counts.length; t++)
+			counts[t].addRow(counts[t].id("alone" + t));
+	}
+
+	private static String word(Random random) {
+		return "w" + (random.nextBoolean() ? random.nextInt(20) : random.nextInt(300));
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+				lines.add(line);
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	@Test
+	public void spilledMatrixMatchesInMemoryMatrix() throws IOException {
+		CooccurrenceMatrix inMemory = new CooccurrenceMatrix();
+		CooccurrenceMatrix spilling = new CooccurrenceMatrix();
+		spilling.setMaxPairs(64);
+		spilling.setBlockCapacity(100);
+		File expected = File.createTempFile("co-occur", ".csv");
+		File actual = File.createTempFile("co-occur", ".csv");
+		try {
+			count(inMemory);
+			count(spilling);
+			assertEquals("Nothing spilled", 0, inMemory.getSpilledCount());
+			assertTrue("Tables spilled", spilling.getSpilledCount() > 4);
+			inMemory.write(expected);
+			spilling.write(actual);
+
+			List<String> lines = readLines(expected);
+			assertEquals("Header and a row a word", 1 + 304, lines.size());
+			assertTrue(lines.get(0).startsWith(" ,alone0,alone1,alone2,alone3,w0,w1,w10,"));
+			assertEquals(lines, readLines(actual));
+		} finally {
+			inMemory.dispose();
+			spilling.dispose();
+			expected.delete();
+			actual.delete();
+		}
+	}
+
+	@Test
+	public void writtenCountsAreSymmetric() throws IOException {
+		CooccurrenceMatrix matrix = new CooccurrenceMatrix();
+		matrix.setMaxPairs(2);
+		matrix.setBlockCapacity(1);
+		CooccurrenceMatrix.Counts counts = matrix.newCounts();
+		int a = counts.id("a"), b = counts.id("b"), c = counts.id("c");
+		counts.add(b, a);
+		counts.add(a, b);
+		counts.add(a, a);
+		counts.add(c, a);
+		counts.add(b, a);
+		File file = File.createTempFile("co-occur", ".csv");
+		try {
+			matrix.write(file);
+			assertEquals(Arrays.asList(" ,a,b,c,", "a,2,3,1,", "b,3,0,0,", "c,1,0,0,"), readLines(file));
+		} finally {
+			matrix.dispose();
+			file.delete();
+		}
+	}
+}
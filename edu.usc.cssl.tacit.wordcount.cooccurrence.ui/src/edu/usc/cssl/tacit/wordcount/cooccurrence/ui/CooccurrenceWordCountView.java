@@ -342,7 +342,9 @@ public class CooccurrenceWordCountView extends ViewPart implements
 						;
 
 						long startTime = System.currentTimeMillis();
-						boolean result = new CooccurrenceAnalysis()
+						CooccurrenceAnalysis cooccurrence = new CooccurrenceAnalysis();
+						cooccurrence.setNumThreads(Runtime.getRuntime().availableProcessors());
+						boolean result = cooccurrence
 								.invokeCooccurrence(inFiles, seedList.get(0),
 										outputPath, windowSizeStr,
 										thresholdLimit, isBuildMatrix, monitor);
@@ -1,24 +1,25 @@
 package edu.usc.cssl.tacit.wordcount.cooccurrence.services;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.SortedSet;
-import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
-import org.apache.commons.lang3.StringUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
 
 import edu.usc.cssl.tacit.common.TacitUtility;
@@ -30,13 +31,12 @@ public class CooccurrenceAnalysis {
 
 	private HashSet<String> seedWords;
 	private String outputPath;
-	private Map<String, Map<String, Integer>> wordMat;
 	private int windowSize;
 	private int threshold;
+	private int numThreads = 1;
 
 	public CooccurrenceAnalysis() {
 		seedWords = new HashSet<String>();
-		wordMat = new HashMap<String, Map<String, Integer>>();
 	}
 
 	/**
@@ -81,15 +81,21 @@ public class CooccurrenceAnalysis {
 		this.threshold = threshold;
 	}
 
+	/**
+	 * Sets the number of threads that process the input files. Defaults to 1.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
 	public boolean calculateCooccurrences(List<String> selectedFiles, String seedFile, int windowSize,
 			String outputPath, int threshold, boolean buildMatrix, IProgressMonitor monitor) {
-		String currentLine = null;
 		Date currTime = new Date();
-		ArrayList<String> emptyRemovalString = new ArrayList<String>();
-		emptyRemovalString.add("");
 		setOutputPath(outputPath);
 		setThreshold(threshold);
 		setWindowSize(windowSize);
+		final CooccurrenceMatrix wordMat = buildMatrix ? new CooccurrenceMatrix() : null;
+		ExecutorService executor = null;
 
 		try {
 			FileWriter fw = new FileWriter(new File(outputPath + File.separator + generateWindowFileName(currTime)));
@@ -104,176 +110,73 @@ public class CooccurrenceAnalysis {
 				return false;
 			}
 
-
-			String[] listOfFiles = (String[]) selectedFiles.toArray(new String[selectedFiles.size()]);
-			for (String fname : listOfFiles) {
+			List<File> files = new ArrayList<File>();
+			for (String fname : selectedFiles) {
 				File f = new File(fname);
-				//monitor.subTask("Processing input file " + f.getName());
-				//appendLog("Processing input file " + f.getName());
 				if (f.getAbsolutePath().contains("DS_Store"))
 					continue;
 				if (!f.exists() || f.isDirectory())
 					continue;
+				files.add(f);
+			}
 
-				BufferedReader br = new BufferedReader(new FileReader(f));
-				List<String> window = null;
-				//Finding the cooccurrence window in each line 
-				try {
-
-					while ((currentLine = br.readLine()) != null) {
-						ArrayList<String> lineWords = new ArrayList<String>(Arrays.asList(delimiters.matcher(currentLine).replaceAll(" ").toLowerCase().trim().split("\\s+")));
-						//ArrayList<String> lineWords = new ArrayList<String>(Arrays.asList(currentLine.split(" ")));
-						//lineWords.removeAll(emptyRemovalString);
-						boolean isFirstWindow = true;
-						
-						int windowSeedWordCount = 0;
-						int windowstart = 0;
-						int windowend = Math.min(windowSize, lineWords.size())-1;
-						window = new ArrayList<String>(lineWords.subList(windowstart, windowend+1));
-						
-							
-						while (windowend < lineWords.size()){
-							//Check if the window contains at least as many as threshold number of seed words.
-							//If yes then print the window else don't.
-							
-							if (isFirstWindow){
-								for (String word: window){
-									if (seedWords.contains(word)){
-										windowSeedWordCount++;
-									}
-								}
-								
-								if(windowSeedWordCount >= threshold){
-									fw.write(StringUtils.join(window, " ") + ","+windowSeedWordCount+","+f.getName()+"\n");
-								}
-
-								isFirstWindow = false;
-								windowend++;
-										
-							}else{
-								String oldWord = window.remove(0);
-								String newWord = lineWords.get(windowend);
-								window.add(newWord);
-								
-								if (seedWords.contains(oldWord)){
-									windowSeedWordCount--;
-								}
-								if (seedWords.contains(newWord)){
-									windowSeedWordCount++;
-								}
-								if (windowSeedWordCount >= threshold){
-									fw.write(StringUtils.join(window, " ") + ","+windowSeedWordCount+","+f.getName()+"\n");
-								}
-								windowend++;
-							}
-							
-							if (buildMatrix) {
-								if (window.size() >= 2 ){
-									String firstWord = window.get(0);
-									Map<String, Integer> vec = wordMat.get(firstWord);
-									if (vec == null) {
-										vec = new HashMap<String, Integer>();
-										wordMat.put(firstWord, vec);
-									}
-								
-									for (int i=1;i<window.size();i++) {
-										String nextWord =window.get(i);
-										if (vec.containsKey(nextWord)) {
-											vec.put(nextWord, vec.get(nextWord) + 1);
-										} else {
-											vec.put(nextWord, 1);
-										}
-										Map<String, Integer> revVec = wordMat.get(nextWord);
-										if (revVec == null) {
-											revVec = new HashMap<String, Integer>();
-											wordMat.put(nextWord, revVec);
-										}
-										if (revVec.containsKey(firstWord)) {
-											revVec.put(firstWord, revVec.get(firstWord) + 1);
-										} else {
-											revVec.put(firstWord, 1);
-										}
-
-									}	
-								}
-								
-							}
-							
-							
-						}//each window
-		
-					}//each line
-					
-					//Building the left out matrix after the last window  
-					if (buildMatrix){
-						if (window != null && window.size() >= 0){
-							window.remove(0);
-						}
-						while (window != null && window.size() > 0){
-							String firstWord = window.remove(0);
-							
-							Map<String, Integer> vec = wordMat.get(firstWord);
-							if (vec == null) {
-								vec = new HashMap<String, Integer>();
-								wordMat.put(firstWord, vec);
-							}
-							
-							for(String nextWord : window){
-								if (vec.containsKey(nextWord)) {
-									vec.put(nextWord, vec.get(nextWord) + 1);
-								} else {
-									vec.put(nextWord, 1);
-								}
-								Map<String, Integer> revVec = wordMat.get(nextWord);
-								if (revVec == null) {
-									revVec = new HashMap<String, Integer>();
-									wordMat.put(nextWord, revVec);
-								}
-								if (revVec.containsKey(firstWord)) {
-									revVec.put(firstWord, revVec.get(firstWord) + 1);
-								} else {
-									revVec.put(firstWord, 1);
-								}
-							}
-							
-						}
+			if (numThreads < 2 || files.size() < 2) {
+				CooccurrenceMatrix.Counts counts = buildMatrix ? wordMat.newCounts() : null;
+				for (File f : files) {
+					processFile(f, fw, counts);
+					monitor.worked(1);
+
+					if (monitor.isCanceled()){
+						fw.close();
+						appendLog("operation cancelled by user..");
+						return false;
 					}
-					
-					
-				} catch (OutOfMemoryError e) {
-					br.close();
-					fw.close();
-					appendLog("Exception occurred in Cooccurrence Analysis :");
-					appendLog("Sorry the co-occurence matrix is so huge. Please run again without opting Build Matrix");
-					return false;
 				}
-				br.close();
-				monitor.worked(1);
-				
-				if (monitor.isCanceled()){
-					fw.close();
-					appendLog("operation cancelled by user..");
-					return false;
+			} else {
+				// every thread counts into its own table and writes the windows
+				// of a file to a temporary file, which is appended in order
+				executor = Executors.newFixedThreadPool(numThreads);
+				final ThreadLocal<CooccurrenceMatrix.Counts> counts = new ThreadLocal<CooccurrenceMatrix.Counts>() {
+					@Override
+					protected CooccurrenceMatrix.Counts initialValue() {
+						return wordMat == null ? null : wordMat.newCounts();
+					}
+				};
+				List<Future<File>> windowFiles = new ArrayList<Future<File>>();
+				for (final File f : files) {
+					windowFiles.add(executor.submit(new Callable<File>() {
+						public File call() throws IOException {
+							File windows = File.createTempFile("co-occur", ".csv");
+							Writer out = new BufferedWriter(new FileWriter(windows));
+							try {
+								processFile(f, out, counts.get());
+							} finally {
+								out.close();
+							}
+							return windows;
+						}
+					}));
 				}
-			
-			}//each file
-			
-			
-			
-			try {
-					if (buildMatrix) {
-						monitor.subTask("Writing Word Matrix");
-						writeWordMatrix(generateMatrixFileName(currTime));
+				for (Future<File> windowFile : windowFiles) {
+					File windows = getResult(windowFile);
+					appendFile(windows, fw);
+					windows.delete();
+					monitor.worked(1);
+
+					if (monitor.isCanceled()){
+						executor.shutdownNow();
+						fw.close();
+						appendLog("operation cancelled by user..");
+						return false;
 					}
-					monitor.worked(10);
-					
-			} 
-			catch (OutOfMemoryError e) {
-				fw.close();
-				appendLog("Exception occurred in Cooccurrence Analysis :");
-				appendLog("Sorry the co-occurence matrix is so huge. Please run again without opting Build Matrix");
-				return false;
+				}
+			}
+
+			if (buildMatrix) {
+				monitor.subTask("Writing Word Matrix");
+				writeWordMatrix(wordMat, generateMatrixFileName(currTime));
 			}
+			monitor.worked(10);
 			
 			
 			monitor.worked(10);
@@ -284,11 +187,113 @@ public class CooccurrenceAnalysis {
 			
 		} catch (Exception e) {
 			appendLog("Exception occurred in Cooccurrence Analysis " + e);
+		} finally {
+			if (executor != null)
+				executor.shutdownNow();
+			if (wordMat != null)
+				wordMat.dispose();
 		}
 
 		return false;
 	}
 
+	/**
+	 * Writes the cooccurrence windows of a file that hold at least threshold
+	 * seed words, and counts the word pairs of its windows if counts is not
+	 * null.
+	 */
+	private void processFile(File f, Writer fw, CooccurrenceMatrix.Counts counts) throws IOException {
+		BufferedReader br = new BufferedReader(new FileReader(f));
+		String currentLine = null;
+		String[] lineWords = null;
+		int[] ids = new int[0];
+		// the last window of the last line
+		int windowstart = 0;
+		int windowend = -1;
+		StringBuilder line = new StringBuilder();
+		try {
+			//Finding the cooccurrence window in each line 
+			while ((currentLine = br.readLine()) != null) {
+				lineWords = delimiters.matcher(currentLine).replaceAll(" ").toLowerCase().trim().split("\\s+");
+				if (counts != null) {
+					if (ids.length < lineWords.length)
+						ids = new int[lineWords.length];
+					for (int i = 0; i < lineWords.length; i++)
+						ids[i] = counts.id(lineWords[i]);
+				}
+
+				int windowSeedWordCount = 0;
+				windowstart = 0;
+				windowend = Math.min(windowSize, lineWords.length) - 1;
+				for (int i = windowstart; i <= windowend; i++) {
+					if (seedWords.contains(lineWords[i]))
+						windowSeedWordCount++;
+				}
+				while (true) {
+					//Check if the window contains at least as many as threshold number of seed words.
+					//If yes then print the window else don't.
+					if (windowSeedWordCount >= threshold) {
+						line.setLength(0);
+						for (int i = windowstart; i <= windowend; i++) {
+							if (i > windowstart)
+								line.append(' ');
+							line.append(lineWords[i]);
+						}
+						line.append(',').append(windowSeedWordCount).append(',').append(f.getName()).append('\n');
+						fw.write(line.toString());
+					}
+
+					if (counts != null) {
+						for (int i = windowstart + 1; i <= windowend; i++)
+							counts.add(ids[windowstart], ids[i]);
+					}
+
+					if (windowend + 1 >= lineWords.length)
+						break;
+					if (seedWords.contains(lineWords[windowstart]))
+						windowSeedWordCount--;
+					windowstart++;
+					windowend++;
+					if (seedWords.contains(lineWords[windowend]))
+						windowSeedWordCount++;
+				}//each window
+
+			}//each line
+		} finally {
+			br.close();
+		}
+
+		//Building the left out matrix after the last window
+		if (counts != null && lineWords != null) {
+			for (int first = windowstart + 1; first <= windowend; first++) {
+				counts.addRow(ids[first]);
+				for (int i = first + 1; i <= windowend; i++)
+					counts.add(ids[first], ids[i]);
+			}
+		}
+	}
+
+	private static <T> T getResult(Future<T> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	private static void appendFile(File file, Writer out) throws IOException {
+		Reader in = new BufferedReader(new FileReader(file));
+		try {
+			char[] buffer = new char[8192];
+			for (int n; (n = in.read(buffer)) > 0;)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+	}
+
 	protected void generateRunReport(){
 		Date dateObj = new Date();
 		TacitUtility.createRunReport(outputPath, "Cooccurrence Analysis", dateObj, null);
@@ -322,33 +327,11 @@ public class CooccurrenceAnalysis {
 	/**
 	 * write the word matrix into the file word-to-word-matrix.csv
 	 */
-	private void writeWordMatrix(String filename) {
-
-		SortedSet<String> keys = new TreeSet<String>(wordMat.keySet());
-		Map<String, Integer> vec = null;
+	private void writeWordMatrix(CooccurrenceMatrix wordMat, String filename) {
 
 		try {
-			FileWriter fw = new FileWriter(new File(outputPath + File.separator + filename));
-			fw.write(" ,");
-			for (String key : keys) {
-				fw.write(key + ",");
-			}
-			fw.write("\n");
-			for (String key : keys) {
-				StringBuilder rowStr = new StringBuilder();
-				rowStr.append(key + ",");
-				vec = wordMat.get(key);
-				for (String value : keys) {
-					if (vec.containsKey(value)) {
-						rowStr.append(vec.get(value) + ",");
-					} else {
-						rowStr.append("0,");
-					}
-				}
-				fw.write(rowStr + "\n");
-			}
 			appendLog("Writing Word Matrix into " + filename);
-			fw.close();
+			wordMat.write(new File(outputPath + File.separator + filename));
 			appendLog("Word to word matrix stored in " + outputPath + File.separator + filename);
 
 		} catch (IOException e) {
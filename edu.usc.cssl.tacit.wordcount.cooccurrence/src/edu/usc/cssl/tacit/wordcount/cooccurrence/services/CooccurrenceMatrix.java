@@ -0,0 +1,340 @@
+package edu.usc.cssl.tacit.wordcount.cooccurrence.services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Symmetric word to word co-occurrence counts. Words are interned to int ids
+ * and every thread counts the pairs it sees in a Counts of its own, a hash
+ * table keyed by the two ids packed into a long. When the heap is too short
+ * for a table to grow, its pairs are spilled to a temporary file and the
+ * table starts over, as it does when it holds maxPairs pairs. Writing adds up
+ * the tables and the spilled files one block of rows at a time.
+ */
+class CooccurrenceMatrix {
+
+	// pairs one table holds at most
+	private static final int MAX_PAIRS = 1 << 28;
+	private static final long EMPTY = -1;
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> words = new ArrayList<String>();
+	private final List<Counts> tables = Collections.synchronizedList(new ArrayList<Counts>());
+	private final List<File> spilled = Collections.synchronizedList(new ArrayList<File>());
+	private int maxPairs = MAX_PAIRS;
+	private long blockCapacity;
+
+	/**
+	 * Sets the number of pairs a table holds before it is spilled. Defaults
+	 * to 2^28, or as many as the heap can hold.
+	 */
+	void setMaxPairs(int maxPairs) {
+		this.maxPairs = Math.max(1, Math.min(MAX_PAIRS, maxPairs));
+	}
+
+	/**
+	 * Sets the number of counts gathered for one block of rows when writing,
+	 * 0 to size the blocks by the free heap, which is the default.
+	 */
+	void setBlockCapacity(long blockCapacity) {
+		this.blockCapacity = Math.max(0, blockCapacity);
+	}
+
+	/**
+	 * Returns the number of times a table was spilled to disk.
+	 */
+	int getSpilledCount() {
+		return spilled.size();
+	}
+
+	private synchronized int intern(String word) {
+		Integer id = ids.get(word);
+		if (id == null) {
+			id = words.size();
+			ids.put(word, id);
+			words.add(word);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns new counts that add to this matrix, for one thread.
+	 */
+	Counts newCounts() {
+		Counts counts = new Counts();
+		tables.add(counts);
+		return counts;
+	}
+
+	/**
+	 * Deletes the spilled files.
+	 */
+	void dispose() {
+		synchronized (spilled) {
+			for (File file : spilled)
+				file.delete();
+			spilled.clear();
+		}
+	}
+
+	/**
+	 * Co-occurrence counts of one thread.
+	 */
+	class Counts {
+		private final Map<String, Integer> cache = new HashMap<String, Integer>();
+		// words with a row in the matrix
+		private final BitSet rows = new BitSet();
+		private long[] keys = newKeys(1 << 10);
+		private int[] values = new int[1 << 10];
+		private int size;
+
+		int id(String word) {
+			Integer id = cache.get(word);
+			if (id == null) {
+				id = intern(word);
+				cache.put(word, id);
+			}
+			return id;
+		}
+
+		/**
+		 * Gives the word a row, even if it co-occurs with nothing.
+		 */
+		void addRow(int word) {
+			rows.set(word);
+		}
+
+		/**
+		 * Counts one co-occurrence of the two words in both directions.
+		 */
+		void add(int first, int next) throws IOException {
+			rows.set(first);
+			rows.set(next);
+			if (first == next)
+				add(key(first, next), 2);
+			else
+				add(key(Math.min(first, next), Math.max(first, next)), 1);
+		}
+
+		private void add(long key, int count) throws IOException {
+			int slot = slot(key);
+			if (keys[slot] == key) {
+				values[slot] += count;
+				return;
+			}
+			if ((size + 1) * 2 > keys.length) {
+				if (!grow())
+					spill();
+				slot = slot(key);
+			}
+			keys[slot] = key;
+			values[slot] = count;
+			size++;
+		}
+
+		// the slot of the key, or the empty slot it goes to
+		private int slot(long key) {
+			int mask = keys.length - 1;
+			int slot = hash(key) & mask;
+			while (keys[slot] != EMPTY && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		private boolean grow() {
+			int capacity = keys.length * 2;
+			if (size >= maxPairs || capacity < 0)
+				return false;
+			// a long key and an int count a slot, and a quarter of the heap
+			// left for the other threads
+			Runtime runtime = Runtime.getRuntime();
+			long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+			if (free - capacity * 12L < runtime.maxMemory() / 4)
+				return false;
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = newKeys(capacity);
+			values = new int[capacity];
+			int mask = capacity - 1;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldKeys[i] == EMPTY)
+					continue;
+				int slot = hash(oldKeys[i]) & mask;
+				while (keys[slot] != EMPTY)
+					slot = (slot + 1) & mask;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+			return true;
+		}
+
+		private void spill() throws IOException {
+			File file = File.createTempFile("co-occur", ".pairs");
+			file.deleteOnExit();
+			spilled.add(file);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			try {
+				out.writeInt(size);
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] != EMPTY) {
+						out.writeLong(keys[i]);
+						out.writeInt(values[i]);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			Arrays.fill(keys, EMPTY);
+			size = 0;
+		}
+	}
+
+	private interface PairHandler {
+		void pair(int first, int next, int count);
+	}
+
+	private void forEachPair(PairHandler handler) throws IOException {
+		for (Counts counts : tables) {
+			for (int i = 0; i < counts.keys.length; i++) {
+				long key = counts.keys[i];
+				if (key != EMPTY)
+					handler.pair((int) (key >>> 32), (int) key, counts.values[i]);
+			}
+		}
+		for (File file : spilled) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				for (int n = in.readInt(); n > 0; n--) {
+					long key = in.readLong();
+					handler.pair((int) (key >>> 32), (int) key, in.readInt());
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes the matrix as CSV, the words sorted, with a row and a column
+	 * for every word that has a row.
+	 */
+	void write(File file) throws IOException {
+		BitSet rows = new BitSet();
+		for (Counts counts : tables)
+			rows.or(counts.rows);
+		final String[] keys = new String[rows.cardinality()];
+		int n = 0;
+		for (int id = rows.nextSetBit(0); id >= 0; id = rows.nextSetBit(id + 1))
+			keys[n++] = words.get(id);
+		Arrays.sort(keys);
+		final int[] rank = new int[words.size()];
+		for (int r = 0; r < keys.length; r++)
+			rank[ids.get(keys[r])] = r;
+
+		final int[] rowSize = new int[keys.length];
+		forEachPair(new PairHandler() {
+			public void pair(int first, int next, int count) {
+				rowSize[rank[first]]++;
+				if (first != next)
+					rowSize[rank[next]]++;
+			}
+		});
+
+		BufferedWriter out = new BufferedWriter(new FileWriter(file));
+		try {
+			out.write(" ,");
+			for (String key : keys) {
+				out.write(key);
+				out.write(',');
+			}
+			out.write("\n");
+			long capacity = blockCapacity();
+			for (int from = 0; from < keys.length;) {
+				// rows from to to, with at most capacity counts unless one
+				// row has more
+				int to = from;
+				long entries = 0;
+				while (to < keys.length && (to == from || entries + rowSize[to] <= capacity))
+					entries += rowSize[to++];
+				writeRows(out, keys, rank, rowSize, from, to, (int) entries);
+				from = to;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private long blockCapacity() {
+		if (blockCapacity > 0)
+			return Math.min(Integer.MAX_VALUE - 8, blockCapacity);
+		Runtime runtime = Runtime.getRuntime();
+		long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return Math.max(1 << 16, Math.min(Integer.MAX_VALUE - 8, free / 4 / 8));
+	}
+
+	private void writeRows(BufferedWriter out, String[] keys, final int[] rank, int[] rowSize, final int from,
+			final int to, int entries) throws IOException {
+		// column << 32 | count of every count in the rows, row by row
+		final long[] cells = new long[entries];
+		final int[] end = new int[to - from + 1];
+		for (int r = from; r < to; r++)
+			end[r - from + 1] = end[r - from] + rowSize[r];
+		final int[] fill = Arrays.copyOf(end, to - from);
+		forEachPair(new PairHandler() {
+			public void pair(int first, int next, int count) {
+				int row = rank[first], column = rank[next];
+				if (row >= from && row < to)
+					cells[fill[row - from]++] = ((long) column << 32) | count;
+				if (first != next && column >= from && column < to)
+					cells[fill[column - from]++] = ((long) row << 32) | count;
+			}
+		});
+
+		StringBuilder line = new StringBuilder();
+		for (int r = from; r < to; r++) {
+			int cell = end[r - from], last = end[r - from + 1];
+			Arrays.sort(cells, cell, last);
+			line.setLength(0);
+			line.append(keys[r]).append(',');
+			for (int column = 0; column < keys.length; column++) {
+				int count = 0;
+				// the same pair can come from several tables
+				while (cell < last && (int) (cells[cell] >>> 32) == column)
+					count += (int) cells[cell++];
+				line.append(count).append(',');
+			}
+			line.append('\n');
+			out.write(line.toString());
+		}
+	}
+
+	private static long key(int first, int next) {
+		return ((long) first << 32) | next;
+	}
+
+	private static long[] newKeys(int capacity) {
+		long[] keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		return keys;
+	}
+
+	private static int hash(long key) {
+		key *= 0x9e3779b97f4a7c15L;
+		return (int) (key ^ (key >>> 32));
+	}
+}
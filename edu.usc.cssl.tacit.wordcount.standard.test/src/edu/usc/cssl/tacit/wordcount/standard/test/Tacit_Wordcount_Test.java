@@ -1,6 +1,8 @@
 package edu.usc.cssl.tacit.wordcount.standard.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -8,6 +10,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.text.DateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -17,6 +20,7 @@ import java.util.List;
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.junit.Test;
 
+import edu.usc.cssl.tacit.wordcount.standard.services.AnalysisPlan;
 import edu.usc.cssl.tacit.wordcount.standard.services.WordCountPlugin;
 
 public class Tacit_Wordcount_Test{
@@ -644,4 +648,57 @@ public class Tacit_Wordcount_Test{
 
 	}
 
+
+	@Test
+	public void analysisPlanTagsOnlyForPosOutputs() {
+		assertFalse(new AnalysisPlan(false, false).tags());
+		assertTrue(new AnalysisPlan(true, false).tags());
+		assertTrue(new AnalysisPlan(false, true).tags());
+		assertTrue(new AnalysisPlan(true, true).tags());
+		assertTrue(new AnalysisPlan(false, false).report().contains("POS tagging: skipped"));
+		assertFalse(new AnalysisPlan(true, false).report().contains("POS tagging: skipped"));
+	}
+
+	@Test
+	public void posModelReadOnlyForPosOutputs() {
+		assertFalse(setupFilesOfRun(false, false).contains("en-pos-maxent.bin"));
+		assertTrue(setupFilesOfRun(true, false).contains("en-pos-maxent.bin"));
+		assertTrue(setupFilesOfRun(false, true).contains("en-pos-maxent.bin"));
+	}
+
+	// The model files a standard word count of Data.txt asks for
+	private List<String> setupFilesOfRun(boolean doPennCounts, boolean createPOSTags) {
+		String directoryPath = new File("TestData").getAbsolutePath();
+		final List<String> setupFiles = new ArrayList<String>();
+		WordCountPlugin wc = new WordCountPlugin(false, Calendar.getInstance().getTime(), false, doPennCounts, false,
+						false, createPOSTags, directoryPath, new NullProgressMonitor()){
+			@Override
+			protected File getSetupFile(String bundleEntry) throws IOException{
+				setupFiles.add(bundleEntry);
+				return new File(bundleEntry);
+			}
+			@Override
+			protected void generateRunReport(){}
+			@Override
+			protected String createFileName(){
+				return "WordCountOutput.csv";
+			}
+			@Override
+			protected void createPosTagsDir(DateFormat df){}
+			@Override
+			protected BufferedWriter createPosTagsFile(String inputFile) throws IOException{
+				return new BufferedWriter(new StringWriter());
+			}
+		};
+		List<String> inputFiles = new ArrayList<String>();
+		inputFiles.add(directoryPath + System.getProperty("file.separator") +"Data.txt");
+		List<String> dictionary = new ArrayList<String>();
+		dictionary.add(directoryPath + System.getProperty("file.separator") +"ValidStandardWordCountDictionary.txt");
+		try {
+			wc.countWords(inputFiles, dictionary);
+		} catch (Exception e) {
+			// only the models asked for matter, the POS model may be missing
+		}
+		return setupFiles;
+	}
 }
@@ -0,0 +1,73 @@
+package edu.usc.cssl.tacit.wordcount.standard.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The stages a word count runs on every sentence, built from the outputs
+ * asked for: sentence detection, tokenizing, POS tagging and counting. POS
+ * tagging is by far the slowest, and only the Penn Treebank counts and the
+ * POS tag files need it. Every stage adds up the time spent in it for the
+ * run report.
+ */
+public class AnalysisPlan {
+
+	public enum Stage {
+		SENTENCES("Sentence detection"), TOKENS("Tokenizing"), TAGS("POS tagging"), COUNTS("Counting");
+
+		private final String title;
+
+		private Stage(String title) {
+			this.title = title;
+		}
+	}
+
+	private final boolean tagging;
+	private final long[] nanos = new long[Stage.values().length];
+
+	/**
+	 * @param doPennCounts
+	 *            - the Penn Treebank counts are written
+	 * @param createPOSTags
+	 *            - the POS tag files are written
+	 */
+	public AnalysisPlan(boolean doPennCounts, boolean createPOSTags) {
+		this.tagging = doPennCounts || createPOSTags;
+	}
+
+	/**
+	 * Tells if the words are POS tagged
+	 */
+	public boolean tags() {
+		return tagging;
+	}
+
+	/**
+	 * Adds the time since start, from System.nanoTime(), to the stage and
+	 * returns the current time, so that the next stage can start from it
+	 */
+	public long done(Stage stage, long start) {
+		long now = System.nanoTime();
+		nanos[stage.ordinal()] += now - start;
+		return now;
+	}
+
+	public long millis(Stage stage) {
+		return nanos[stage.ordinal()] / 1000000;
+	}
+
+	/**
+	 * Returns a line for every stage run with the time spent in it, for the
+	 * run report
+	 */
+	public List<String> report() {
+		List<String> lines = new ArrayList<String>();
+		for (Stage stage : Stage.values()) {
+			if (stage == Stage.TAGS && !tagging)
+				lines.add(stage.title + ": skipped");
+			else
+				lines.add(stage.title + ": " + millis(stage) + " ms");
+		}
+		return lines;
+	}
+}
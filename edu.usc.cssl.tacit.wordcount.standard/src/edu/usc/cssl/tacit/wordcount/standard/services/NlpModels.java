@@ -0,0 +1,166 @@
+package edu.usc.cssl.tacit.wordcount.standard.services;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import opennlp.tools.postag.POSModel;
+import opennlp.tools.postag.POSTaggerME;
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import edu.stanford.nlp.ie.crf.CRFClassifier;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
+
+/**
+ * Process wide registry of the NLP models. Every model is read the first time
+ * it is asked for and then shared by all the word counts of the session. The
+ * models are immutable, but the OpenNLP detectors, tokenizers and taggers
+ * built on them are not, so every thread gets its own.
+ */
+public class NlpModels {
+
+	private static final String basedir = System.getProperty("SegDemo", "data");
+
+	// model file path -> model
+	private static final Map<String, Object> models = new HashMap<String, Object>();
+	private static CRFClassifier<CoreLabel> segmenter;
+	private static String segmenterPath;
+
+	// model -> detector, tokenizer or tagger of the current thread
+	private static final ThreadLocal<Map<Object, Object>> tools = new ThreadLocal<Map<Object, Object>>() {
+		@Override
+		protected Map<Object, Object> initialValue() {
+			return new HashMap<Object, Object>();
+		}
+	};
+
+	private NlpModels() {
+	}
+
+	private interface Loader {
+		Object load(InputStream in) throws IOException;
+	}
+
+	private static synchronized Object model(File file, Loader loader) throws IOException {
+		String key = file.getCanonicalPath();
+		Object model = models.get(key);
+		if (model == null) {
+			InputStream in = new BufferedInputStream(new FileInputStream(file));
+			try {
+				model = loader.load(in);
+			} finally {
+				in.close();
+			}
+			models.put(key, model);
+		}
+		return model;
+	}
+
+	public static SentenceModel sentenceModel(File file) throws IOException {
+		return (SentenceModel) model(file, new Loader() {
+			public Object load(InputStream in) throws IOException {
+				return new SentenceModel(in);
+			}
+		});
+	}
+
+	public static TokenizerModel tokenizerModel(File file) throws IOException {
+		return (TokenizerModel) model(file, new Loader() {
+			public Object load(InputStream in) throws IOException {
+				return new TokenizerModel(in);
+			}
+		});
+	}
+
+	public static POSModel posModel(File file) throws IOException {
+		return (POSModel) model(file, new Loader() {
+			public Object load(InputStream in) throws IOException {
+				return new POSModel(in);
+			}
+		});
+	}
+
+	/**
+	 * Returns the sentence detector of the current thread for the model file
+	 */
+	public static SentenceDetectorME sentenceDetector(File file) throws IOException {
+		SentenceModel model = sentenceModel(file);
+		SentenceDetectorME detector = (SentenceDetectorME) tools.get().get(model);
+		if (detector == null) {
+			detector = new SentenceDetectorME(model);
+			tools.get().put(model, detector);
+		}
+		return detector;
+	}
+
+	/**
+	 * Returns the tokenizer of the current thread for the model file
+	 */
+	public static TokenizerME tokenizer(File file) throws IOException {
+		TokenizerModel model = tokenizerModel(file);
+		TokenizerME tokenizer = (TokenizerME) tools.get().get(model);
+		if (tokenizer == null) {
+			tokenizer = new TokenizerME(model);
+			tools.get().put(model, tokenizer);
+		}
+		return tokenizer;
+	}
+
+	/**
+	 * Returns the POS tagger of the current thread for the model file
+	 */
+	public static POSTaggerME posTagger(File file) throws IOException {
+		POSModel model = posModel(file);
+		POSTaggerME tagger = (POSTaggerME) tools.get().get(model);
+		if (tagger == null) {
+			tagger = new POSTaggerME(model);
+			tools.get().put(model, tagger);
+		}
+		return tagger;
+	}
+
+	/**
+	 * Returns the Chinese segmenter, reading the model file the first time.
+	 * The segmenter is shared; SegDemo segments one sentence at a time with it.
+	 * A model that fails to load is tried again on the next call.
+	 */
+	public static synchronized CRFClassifier<CoreLabel> chineseSegmenter(File file) {
+		String key = file.getAbsolutePath();
+		if (segmenter != null && key.equals(segmenterPath))
+			return segmenter;
+		Properties props = new Properties();
+		props.setProperty("sighanCorporaDict", basedir);
+		props.setProperty("serDictionary", basedir + File.separator + "dict-chris6.ser.gz");
+		props.setProperty("testFile", "test.simp.utf8");
+		props.setProperty("inputEncoding", "UTF-8");
+		props.setProperty("sighanPostProcessing", "true");
+		CRFClassifier<CoreLabel> classifier = new CRFClassifier<CoreLabel>(props);
+		try {
+			ConsoleView.printlInConsoleln("Loading chinese model");
+			classifier.loadClassifier(key, props);
+		} catch (ClassCastException e) {
+			ConsoleView.printlInConsoleln(e.getMessage());
+			e.printStackTrace();
+			return classifier;
+		} catch (ClassNotFoundException e) {
+			ConsoleView.printlInConsoleln(e.getMessage());
+			e.printStackTrace();
+			return classifier;
+		} catch (IOException e) {
+			ConsoleView.printlInConsoleln(e.getMessage());
+			e.printStackTrace();
+			return classifier;
+		}
+		segmenter = classifier;
+		segmenterPath = key;
+		return segmenter;
+	}
+}
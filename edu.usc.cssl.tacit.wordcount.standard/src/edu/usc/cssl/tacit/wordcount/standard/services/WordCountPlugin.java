@@ -9,7 +9,6 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
@@ -26,13 +25,9 @@ import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
-import opennlp.tools.postag.POSModel;
 import opennlp.tools.postag.POSTaggerME;
 import opennlp.tools.sentdetect.SentenceDetectorME;
-import opennlp.tools.sentdetect.SentenceModel;
 import opennlp.tools.tokenize.TokenizerME;
-import opennlp.tools.tokenize.TokenizerModel;
-import opennlp.tools.util.InvalidFormatException;
 
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -48,9 +43,6 @@ import edu.usc.cssl.tacit.wordcount.standard.Activator;
 
 public class WordCountPlugin {
 
-	private SentenceModel sentenceModel;
-	private TokenizerModel tokenizerModel;
-	private POSModel posModel;
 	private SentenceDetectorME sentDetector;
 	private TokenizerME tokenize;
 	private POSTaggerME posTagger;
@@ -61,6 +53,8 @@ public class WordCountPlugin {
 	private boolean doWordDistribution;
 	private boolean createDATFile;
 	private boolean createPOSTags;
+	// stages run on every sentence
+	private AnalysisPlan plan;
 	protected Date dateObj;
 	protected String outputPath;
 	protected String wordDistributionDir;
@@ -95,6 +89,8 @@ public class WordCountPlugin {
 
 	
 	private static final String basedir = System.getProperty("SegDemo", "data");
+	// characters read to tell the script of a file
+	private static final int SNIFF_LENGTH = 4096;
 	
 	public WordCountPlugin(boolean weighted, Date dateObj,
 			boolean stemDictionary, boolean doPennCounts,
@@ -102,12 +98,14 @@ public class WordCountPlugin {
 			boolean createPOSTags, String outputPath, IProgressMonitor monitor) {
 		this.weighted = weighted;
 		this.dateObj = dateObj;
+		this.stemDictionary = stemDictionary;
 		this.doPennCounts = doPennCounts;
 		this.doWordDistribution = doWordDistribution;
 		this.createDATFile = createDATFile;
 		this.outputPath = outputPath;
 		this.monitor = monitor;
 		this.createPOSTags = createPOSTags;
+		this.plan = new AnalysisPlan(doPennCounts, createPOSTags);
 
 		// Create folder for word distribution files
 		DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
@@ -165,6 +163,8 @@ public class WordCountPlugin {
 			refreshFileCounts();
 		}
 
+		for (String line : plan.report())
+			ConsoleView.printlInConsoleln(line);
 		ConsoleView.printlInConsoleln("Writing Results.");
 		monitor.subTask("Computing Overall Results");
 		// Add overall counts to csv output
@@ -180,10 +180,10 @@ public class WordCountPlugin {
 	protected void generateRunReport(){
 		if (weighted)
 			TacitUtility.createRunReport(outputPath,
-					"TACIT Weighted Word Count", dateObj, null);
+					"TACIT Weighted Word Count", dateObj, plan.report());
 		else
 			TacitUtility.createRunReport(outputPath,
-					"TACIT Standard Word Count", dateObj, null);
+					"TACIT Standard Word Count", dateObj, plan.report());
 	}
 	
 	protected BufferedWriter createWordDistributionFile(String inputFile) throws IOException{
@@ -326,14 +326,8 @@ public class WordCountPlugin {
 	private void do_countWords(String inputFile) {
 		try {
 			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF8"));
-			BufferedReader br1 = new BufferedReader(new InputStreamReader(new FileInputStream(inputFile), "UTF8"));
-					
 //					new BufferedReader(new FileReader(new File(inputFile)));
-			String temp;
-			boolean isChinese = false;
-			while((temp = br1.readLine())!=null&&temp.length()!=0)
-				isChinese = isCJK(temp);
-			br1.close();
+			boolean isChinese = isCJKText(sniff(br));
 			String currentLine;
 			int numWords = 0;
 			int numDictWords = 0;
@@ -345,12 +339,11 @@ public class WordCountPlugin {
 				posBW = createPosTagsFile(inputFile);
 			}
 			SegDemo sd = null;
-			ConsoleView.printlInConsoleln("Code was here");
 			if(isChinese)
 				sd = new SegDemo();
-			ConsoleView.printlInConsoleln("Loaded SegDemo");
 			while ((currentLine = br.readLine()) != null) {
 				String[] sentences = null;
+				long time = System.nanoTime();
 				if(isChinese){
 					if(currentLine.equals(""))
 						continue;
@@ -358,6 +351,7 @@ public class WordCountPlugin {
 				}else{
 					sentences = sentDetector.sentDetect(currentLine);
 				}
+				time = plan.done(AnalysisPlan.Stage.SENTENCES, time);
 				
 				numSentences = numSentences + sentences.length;
 				this.numSentences = this.numSentences + sentences.length;
@@ -377,7 +371,11 @@ public class WordCountPlugin {
 					}else{
 						words = tokenize.tokenize(sentences[i]);
 					}
-					posTags = posTagger.tag(words);
+					time = plan.done(AnalysisPlan.Stage.TOKENS, time);
+					if (plan.tags()) {
+						posTags = posTagger.tag(words);
+						time = plan.done(AnalysisPlan.Stage.TAGS, time);
+					}
 //				String[] words = tokenize.tokenize(sentences[i]);
 //				String[] words = new String[] {"面对", "新", "世纪", "，", "世界", "各", "国", "人民", "的", "共同", "愿望", "是", "：", "继续", "发展", "人类", "以往", "创造", "的", "一切", "文明", "成果", "，", "克服", "20", "世纪", "困扰", "着", "人类", "的", "战争", "和", "贫困", "问题", "，", "推进", "和平", "与", "发展", "的", "崇高", "事业", "，", "创造", "一", "个", "美好", "的", "世界", "面对"}  ;
 				
@@ -412,7 +410,7 @@ public class WordCountPlugin {
 										userOverallCount.get(words[j]).get(cat)
 												+ wordWeight);
 							}
-							if (createPOSTags) {
+							if (plan.tags()) {
 							// Increment count of Penn Treebank POS tags
 							if (pennFileCount.get(words[j]).containsKey(
 									posTags[j])) {
@@ -437,6 +435,7 @@ public class WordCountPlugin {
 							}
 						}
 					}
+					time = plan.done(AnalysisPlan.Stage.COUNTS, time);
 
 				} //for ka brackets
 				if (createPOSTags) {
@@ -478,7 +477,10 @@ public class WordCountPlugin {
 	}
 	
 	public static boolean isCJK(String str){
-	        char ch = str.charAt(0);
+	        return isCJK(str.charAt(0));
+	}
+
+	private static boolean isCJK(char ch){
 	        Character.UnicodeBlock block = Character.UnicodeBlock.of(ch);
 	        if (Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS.equals(block)|| 
 	            Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS.equals(block)|| 
@@ -488,6 +490,37 @@ public class WordCountPlugin {
 	    
 	    return false;
 	}
+
+	/**
+	 * Tells if the text is mostly Chinese: if most of its letters are CJK
+	 * ideographs
+	 */
+	public static boolean isCJKText(String text){
+		int letters = 0, ideographs = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char ch = text.charAt(i);
+			if (!Character.isLetter(ch))
+				continue;
+			letters++;
+			if (isCJK(ch))
+				ideographs++;
+		}
+		return letters > 0 && ideographs * 2 > letters;
+	}
+
+	/**
+	 * Reads the first SNIFF_LENGTH characters of the reader, and goes back to
+	 * where it was
+	 */
+	private static String sniff(BufferedReader reader) throws IOException {
+		char[] prefix = new char[SNIFF_LENGTH];
+		reader.mark(SNIFF_LENGTH);
+		int length = 0, n;
+		while (length < prefix.length && (n = reader.read(prefix, length, prefix.length - length)) != -1)
+			length += n;
+		reader.reset();
+		return new String(prefix, 0, length);
+	}
 	
 	/**
 	 * Add a line to CSV with the counts for the given input file
@@ -787,6 +820,8 @@ public class WordCountPlugin {
 
 		monitor.subTask("Building Dictionary Maps");
 
+		// the dictionary word each stem was read from
+		HashMap<String, String> stemSources = new HashMap<String, String>();
 		for (String dFile : dictionaryFiles) {
 			clashWordCount = 2147483647;
 			BufferedReader br = new BufferedReader(new FileReader(new File(
@@ -829,6 +864,16 @@ public class WordCountPlugin {
 					String[] words = currentLine.split("\\s+");
 					if(words.length == 0)
 						continue;
+					if (stemDictionary) {
+						String word = words[0];
+						words[0] = stem(word);
+						// Another form of the word with the same stem, like our
+						// and ours, takes the place of the earlier one
+						String source = stemSources.put(words[0], word);
+						if (source != null && !source.equals(word)) {
+							wordDictionary.remove(words[0]);
+						}
+					}
 					// If word not in the maps, add it
 					if (!wordDictionary.containsKey(words[0])) {
 
@@ -885,6 +930,16 @@ public class WordCountPlugin {
 		monitor.worked(2);
 	}
 	
+	private String stem(String word) {
+		stemmer.setCurrent(word);
+		String stemmedWord = "";
+		if (stemmer.stem())
+			stemmedWord = stemmer.getCurrent();
+		if (!stemmedWord.equals(""))
+			return stemmedWord;
+		return word;
+	}
+
 	private void addConflictingCategory(int key,String value){
 		
 		while(categoryID.containsKey(clashWordCount)){
@@ -939,21 +994,18 @@ public class WordCountPlugin {
 		return setupFile;
 	}
 	/**
-	 * Sets all the models for OpenNLP
+	 * Sets all the models for OpenNLP. The models are read once per session,
+	 * see NlpModels. The POS model is only read if the words are tagged.
 	 * 
 	 * @return Returns true if no errors while loading models
 	 */
 	private boolean setModels() {
 		monitor.subTask("Setting Models");
-		InputStream sentenceIs = null, tokenIs = null, posIs = null;
 		try {
-			File setupFile = getSetupFile("en-sent.bin");
-			
-			sentenceIs = new FileInputStream(setupFile.toString());
-			setupFile = getSetupFile("en-token.bin");
-			tokenIs = new FileInputStream(setupFile.toString());
-			setupFile = getSetupFile("en-pos-maxent.bin");
-			posIs = new FileInputStream(setupFile.toString());
+			sentDetector = NlpModels.sentenceDetector(getSetupFile("en-sent.bin"));
+			tokenize = NlpModels.tokenizer(getSetupFile("en-token.bin"));
+			if (plan.tags())
+				posTagger = NlpModels.posTagger(getSetupFile("en-pos-maxent.bin"));
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			System.out.println("Model file not found");
@@ -963,22 +1015,6 @@ public class WordCountPlugin {
 			return false;
 		}
 
-		try {
-			sentenceModel = new SentenceModel(sentenceIs);
-			tokenizerModel = new TokenizerModel(tokenIs);
-			posModel = new POSModel(posIs);
-		} catch (InvalidFormatException e) {
-			e.printStackTrace();
-			return false;
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
-		}
-
-		sentDetector = new SentenceDetectorME(sentenceModel);
-		tokenize = new TokenizerME(tokenizerModel);
-		posTagger = new POSTaggerME(posModel);
-
 		monitor.worked(1);
 
 		return true;
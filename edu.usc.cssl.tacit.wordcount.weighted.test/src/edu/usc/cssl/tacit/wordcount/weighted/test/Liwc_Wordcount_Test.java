@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -14,11 +15,20 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
 
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.junit.Test;
 
+import edu.uc.cssl.tacit.wordcount.weighted.services.LineScanner;
+import edu.uc.cssl.tacit.wordcount.weighted.services.Trie;
 import edu.uc.cssl.tacit.wordcount.weighted.services.WordCountApi;
+import edu.usc.cssl.tacit.common.CompiledTrie;
 import edu.usc.cssl.tacit.common.ui.utility.TacitUtil;
 
 public class Liwc_Wordcount_Test{
@@ -478,4 +488,220 @@ public class Liwc_Wordcount_Test{
 		int expectedOutputArray[] = {10, 3, 2};
 		assertEquals("Comparing the output array of process method", Arrays.toString(generatedOutputArray), Arrays.toString(expectedOutputArray));
 	}
-}
\ No newline at end of file
+	@Test
+	public void parallelLIWCWordCountMatchesSequentialTest() throws IOException {
+		List<File> inputDataFiles = new ArrayList<File>();
+		for (int i = 0; i < 10; i++)
+			inputDataFiles.add(new File(directoryPath + System.getProperty("file.separator") +"LIWCData.txt"));
+		// directories are skipped, but still reported as done
+		inputDataFiles.add(new File(directoryPath));
+		List<String> inputDictionaryFiles = new ArrayList<String>();
+		inputDictionaryFiles.add(directoryPath + System.getProperty("file.separator") +"LIWCWeightedWordCountDictionary.dic");
+		Map<String, String[]> fileCorpusMap = new HashMap<String, String[]>();
+
+		String[] outputs = new String[2];
+		int[] worked = new int[2];
+		for (int run = 0; run < 2; run++) {
+			final AtomicInteger distributionFiles = new AtomicInteger();
+			WordCountApi wca = new WordCountApi(true){
+				@Override
+				protected void generateRunReport(String outputFile, Date dateObj){}
+				@Override
+				protected BufferedWriter createWordDistributionFile(String inputFile, File oFile, String dateFormat) throws IOException{
+					distributionFiles.incrementAndGet();
+					return new BufferedWriter(new StringWriter());
+				}
+			};
+			final AtomicInteger work = new AtomicInteger();
+			NullProgressMonitor monitor = new NullProgressMonitor(){
+				@Override
+				public void worked(int units){
+					work.addAndGet(units);
+				}
+			};
+			wca.setNumThreads(run == 0 ? 1 : 4);
+			File generatedOutputFile = File.createTempFile("LIWCWeightedParallel", ".csv");
+			File generatedDATFile = File.createTempFile("LIWCWeightedParallel", ".dat");
+			wca.wordCount(monitor, inputDataFiles, inputDictionaryFiles,
+					"", directoryPath, "", true, isLiwcStemming,
+					isSnowBall, true, true, isStemDic,
+					generatedOutputFile, generatedDATFile, Calendar.getInstance().getTime(), fileCorpusMap);
+			outputs[run] = readAll(generatedOutputFile) + readAll(generatedDATFile);
+			worked[run] = work.get();
+			generatedOutputFile.delete();
+			generatedDATFile.delete();
+			assertEquals("Word distribution files are created by the counter that was called", 10, distributionFiles.get());
+		}
+		assertEquals("Comparing the parallel output with the sequential output", outputs[0], outputs[1]);
+		assertEquals("Comparing the parallel progress with the sequential progress", worked[0], worked[1]);
+	}
+
+	private String readAll(File file) throws IOException {
+		StringBuilder content = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		String line;
+		while ((line = reader.readLine()) != null)
+			content.append(line).append("\n");
+		reader.close();
+		return content.toString();
+	}
+
+	@Test
+	public void lineScannerMatchesRegexCountsTest() throws IOException {
+		// multi-MB corpus: the test data repeated, plus emoticon and sentence
+		// end corner cases
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(directoryPath + System.getProperty("file.separator") +"LIWCData.txt"));
+		String line;
+		while ((line = reader.readLine()) != null)
+			lines.add(line);
+		reader.close();
+		lines.add(":):( ;)(; \\::\\ ): (: :\\: wait... what?! ok.no end .5 +4.5. -7 5.. a_b!x c ?? \u00e9.\u00e9 z.");
+		List<String> corpus = new ArrayList<String>();
+		int size = 0;
+		while (size < 4 * 1024 * 1024) {
+			for (String l : lines) {
+				corpus.add(l);
+				size += l.length();
+			}
+		}
+
+		long startTime = System.nanoTime();
+		int[] expected = regexCounts(corpus);
+		long regexTime = System.nanoTime() - startTime;
+
+		startTime = System.nanoTime();
+		LineScanner scanner = new LineScanner();
+		for (String l : corpus)
+			scanner.scan(l);
+		long scanTime = System.nanoTime() - startTime;
+		int[] generated = Arrays.copyOf(scanner.getCounts(), 12);
+		generated[11] = scanner.getSentences();
+
+		System.out.println("Regex counts: " + (size * 1000L / Math.max(1, regexTime)) + " chars/us, scanner: "
+				+ (size * 1000L / Math.max(1, scanTime)) + " chars/us");
+		assertEquals("Comparing the punctuation and sentence counts", Arrays.toString(expected), Arrays.toString(generated));
+		for (String word : new String[] { "5.7", ".7", "5.", "567", "-25.9", "+45", "5..", "+", ".", "1.2.3", "a1", "-.5." })
+			assertEquals("Comparing numeral detection for " + word,
+					Pattern.compile("^[+-]{0,1}[\\d]*[.]{0,1}[\\d]+[.]{0,1}$").matcher(word).find(), LineScanner.isNumeral(word));
+	}
+
+	// The per-line counting used before LineScanner
+	private int[] regexCounts(List<String> corpus) {
+		Pattern eol = Pattern.compile("\\w+\\s*[.?!]+\\B");
+		Pattern emoji1 = Pattern.compile(":\\)|:\\(|\\(:|\\):");
+		Pattern emoji2 = Pattern.compile(";\\)|\\(;");
+		Pattern emoji3 = Pattern.compile("\\\\:|:\\\\");
+		int[] counts = new int[12];
+		for (String currentLine : corpus) {
+			Matcher eolMatcher = eol.matcher(currentLine);
+			while (eolMatcher.find())
+				counts[11]++;
+			int set1 = 0, set2 = 0, set3 = 0;
+			Matcher pattern1 = emoji1.matcher(currentLine);
+			while (pattern1.find())
+				set1++;
+			Matcher pattern2 = emoji2.matcher(currentLine);
+			while (pattern2.find())
+				set2++;
+			Matcher pattern3 = emoji3.matcher(currentLine);
+			while (pattern3.find())
+				set3++;
+			counts[0] += StringUtils.countMatches(currentLine, ".");
+			counts[1] += StringUtils.countMatches(currentLine, ",");
+			counts[2] += StringUtils.countMatches(currentLine, ":") - set1 - set3;
+			counts[3] += StringUtils.countMatches(currentLine, ";") - set2;
+			counts[4] += StringUtils.countMatches(currentLine, "?");
+			counts[5] += StringUtils.countMatches(currentLine, "!");
+			counts[6] += StringUtils.countMatches(currentLine, "-");
+			counts[7] += StringUtils.countMatches(currentLine, "\"") + 2 * StringUtils.countMatches(currentLine, "\uFFFD");
+			counts[8] += StringUtils.countMatches(currentLine, "'");
+			for (char c : "(){}[]".toCharArray())
+				counts[9] += StringUtils.countMatches(currentLine, String.valueOf(c));
+			counts[9] -= set1 + set2;
+			for (char c : "#$%&*+=/\\<>@_^`~|".toCharArray())
+				counts[10] += StringUtils.countMatches(currentLine, String.valueOf(c));
+			counts[10] -= set3;
+		}
+		return counts;
+	}
+
+	@Test
+	public void compiledTrieMatchesTrieTest() {
+		// synthetic 60k entry dictionary with wildcard and hyphenated entries
+		Random random = new Random(42);
+		List<String> entries = new ArrayList<String>();
+		List<List<Integer>> entryCategories = new ArrayList<List<Integer>>();
+		for (int i = 0; i < 60000; i++) {
+			StringBuilder word = new StringBuilder();
+			int length = 2 + random.nextInt(9);
+			for (int j = 0; j < length; j++)
+				word.append(random.nextInt(20) == 0 ? '-' : (char) ('a' + random.nextInt(12)));
+			if (random.nextInt(3) == 0)
+				word.append('*');
+			List<Integer> categories = new ArrayList<Integer>();
+			for (int j = 0; j <= random.nextInt(3); j++)
+				categories.add(1 + random.nextInt(60));
+			entries.add(word.toString());
+			entryCategories.add(categories);
+		}
+		List<String> queries = new ArrayList<String>();
+		for (String entry : entries) {
+			String word = entry.replace("*", "");
+			queries.add(word);
+			queries.add(word + "s");
+			if (word.length() > 1)
+				queries.add(word.substring(0, word.length() - 1));
+		}
+
+		long usedBefore = usedMemory();
+		long startTime = System.nanoTime();
+		Trie trie = new Trie();
+		for (int i = 0; i < entries.size(); i++)
+			trie.insert(entries.get(i), entryCategories.get(i));
+		long trieBuildTime = System.nanoTime() - startTime;
+		long trieHeap = usedMemory() - usedBefore;
+
+		usedBefore = usedMemory();
+		startTime = System.nanoTime();
+		CompiledTrie.Builder builder = new CompiledTrie.Builder();
+		for (int i = 0; i < entries.size(); i++)
+			builder.insert(entries.get(i), entryCategories.get(i));
+		CompiledTrie compiledTrie = builder.build();
+		builder = null;
+		long compiledBuildTime = System.nanoTime() - startTime;
+		long compiledHeap = usedMemory() - usedBefore;
+
+		for (String query : queries) {
+			assertEquals("Comparing categories for " + query, trie.query(query), compiledTrie.query(query));
+			assertEquals("Comparing root for " + query, trie.root(query), compiledTrie.root(query));
+			assertEquals("Comparing hyphen check for " + query, trie.checkHyphen(query), compiledTrie.checkHyphen(query));
+		}
+
+		int found = 0;
+		startTime = System.nanoTime();
+		for (String query : queries)
+			if (trie.query(query) != null)
+				found++;
+		long trieLookupTime = System.nanoTime() - startTime;
+		startTime = System.nanoTime();
+		for (String query : queries)
+			if (compiledTrie.query(query) != null)
+				found--;
+		long compiledLookupTime = System.nanoTime() - startTime;
+		assertEquals("Comparing the number of matches", 0, found);
+
+		System.out.println("Trie: build " + trieBuildTime / 1000000 + " ms, heap " + trieHeap / 1024 + " KB, "
+				+ (queries.size() * 1000000000L / Math.max(1, trieLookupTime)) + " lookups/s");
+		System.out.println("CompiledTrie (" + compiledTrie.getNodeCount() + " nodes): build " + compiledBuildTime / 1000000
+				+ " ms, heap " + compiledHeap / 1024 + " KB, "
+				+ (queries.size() * 1000000000L / Math.max(1, compiledLookupTime)) + " lookups/s");
+	}
+
+	private long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -388,6 +388,8 @@ public class WeightedWordCountView extends ViewPart implements
 								}
 							});
 
+							wordCountController.setNumThreads(Runtime.getRuntime().availableProcessors());
+
 							if (!splitFiles) {
 								for (String f : inFiles) {
 									selectedFiles.add(new File(f));
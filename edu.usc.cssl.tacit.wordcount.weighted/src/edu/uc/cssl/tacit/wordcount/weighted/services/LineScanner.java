@@ -0,0 +1,243 @@
+package edu.uc.cssl.tacit.wordcount.weighted.services;
+
+/**
+ * Computes the punctuation, emoticon and sentence end counts of the LIWC
+ * output in a single pass over each line. The counts accumulate across calls
+ * to {@link #scan(String)} until {@link #reset()} is called.
+ *
+ * The results match the per-line regular expressions and
+ * StringUtils.countMatches calls used earlier: sentence ends follow
+ * "\w+\s*[.?!]+\B" and the emoticons :) (: :( ): ;) (; \: :\ are taken out of
+ * the Colon, SemiC, Parenth and OtherP counts.
+ */
+public class LineScanner {
+
+	int period, comma, colon, semiC, qMark, exclam, dash, quote, apostro, parenth, otherP;
+	int sentences;
+
+	private char[] buffer = new char[256];
+
+	public void reset() {
+		period = comma = colon = semiC = qMark = exclam = dash = quote = apostro = parenth = otherP = 0;
+		sentences = 0;
+	}
+
+	/**
+	 * Returns the Period, Comma, Colon, SemiC, QMark, Exclam, Dash, Quote,
+	 * Apostro, Parenth and OtherP counts, in the order of the output columns.
+	 */
+	public int[] getCounts() {
+		return new int[] { period, comma, colon, semiC, qMark, exclam, dash, quote, apostro, parenth, otherP };
+	}
+
+	public int getSentences() {
+		return sentences;
+	}
+
+	public void scan(String line) {
+		int length = line.length();
+		if (buffer.length < length)
+			buffer = new char[Math.max(length, buffer.length * 2)];
+		line.getChars(0, length, buffer, 0);
+		scan(buffer, length);
+	}
+
+	public void scan(char[] line, int length) {
+		// next position each emoticon class may match at. Matches of the same
+		// class do not overlap.
+		int nextSmiley = 0, nextWink = 0, nextSlash = 0;
+		// end of the last sentence found
+		int nextSentence = 0;
+
+		for (int i = 0; i < length; i++) {
+			char c = line[i];
+			char next = i + 1 < length ? line[i + 1] : 0;
+			switch (c) {
+			case '.':
+				period++;
+				break;
+			case ',':
+				comma++;
+				break;
+			case ':':
+				colon++;
+				if (i >= nextSmiley && (next == ')' || next == '(')) {
+					colon--;
+					parenth--;
+					nextSmiley = i + 2;
+				} else if (i >= nextSlash && next == '\\') {
+					colon--;
+					otherP--;
+					nextSlash = i + 2;
+				}
+				break;
+			case ';':
+				semiC++;
+				if (i >= nextWink && next == ')') {
+					semiC--;
+					parenth--;
+					nextWink = i + 2;
+				}
+				break;
+			case '?':
+				qMark++;
+				break;
+			case '!':
+				exclam++;
+				break;
+			case '-':
+				dash++;
+				break;
+			case '"':
+				quote++;
+				break;
+			case '\uFFFD':
+				// the curly quotes in the original count were both decoded to
+				// the replacement character, so it was counted twice
+				quote += 2;
+				break;
+			case '\'':
+				apostro++;
+				break;
+			case '(':
+				parenth++;
+				if (i >= nextSmiley && next == ':') {
+					colon--;
+					parenth--;
+					nextSmiley = i + 2;
+				} else if (i >= nextWink && next == ';') {
+					semiC--;
+					parenth--;
+					nextWink = i + 2;
+				}
+				break;
+			case ')':
+				parenth++;
+				if (i >= nextSmiley && next == ':') {
+					colon--;
+					parenth--;
+					nextSmiley = i + 2;
+				}
+				break;
+			case '{':
+			case '}':
+			case '[':
+			case ']':
+				parenth++;
+				break;
+			case '\\':
+				otherP++;
+				if (i >= nextSlash && next == ':') {
+					colon--;
+					otherP--;
+					nextSlash = i + 2;
+				}
+				break;
+			case '#':
+			case '$':
+			case '%':
+			case '&':
+			case '*':
+			case '+':
+			case '=':
+			case '/':
+			case '<':
+			case '>':
+			case '@':
+			case '_':
+			case '^':
+			case '`':
+			case '~':
+			case '|':
+				otherP++;
+				break;
+			}
+			if (i >= nextSentence && isRegexWordChar(c))
+				nextSentence = matchSentenceEnd(line, length, i);
+		}
+	}
+
+	/*
+	 * Matches "\w+\s*[.?!]+\B" at the start of a word run. Returns the
+	 * position to resume from: the end of the match, or the end of the word run
+	 * if there is no match.
+	 */
+	private int matchSentenceEnd(char[] line, int length, int start) {
+		int wordEnd = start;
+		while (wordEnd < length && isRegexWordChar(line[wordEnd]))
+			wordEnd++;
+		int punctStart = wordEnd;
+		while (punctStart < length && isRegexSpace(line[punctStart]))
+			punctStart++;
+		int punctEnd = punctStart;
+		while (punctEnd < length && (line[punctEnd] == '.' || line[punctEnd] == '?' || line[punctEnd] == '!'))
+			punctEnd++;
+		if (punctEnd == punctStart)
+			return wordEnd;
+		// \B after the last mark needs a non word character or the end of the
+		// line. Otherwise the match backs off by one mark, if there is one.
+		if (punctEnd - punctStart >= 2 || punctEnd == length
+				|| !isBoundaryWordChar(Character.codePointAt(line, punctEnd, length))) {
+			sentences++;
+			return punctEnd;
+		}
+		return wordEnd;
+	}
+
+	// \w
+	private static boolean isRegexWordChar(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	// \s
+	private static boolean isRegexSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	// word characters as seen by \b and \B
+	private static boolean isBoundaryWordChar(int codePoint) {
+		return codePoint == '_' || Character.isLetterOrDigit(codePoint);
+	}
+
+	/**
+	 * Checks whether the word is a number such as 5.7, .7, 5., 567, -25.9 or
+	 * +45, i.e. whether it matches ^[+-]{0,1}[\d]*[.]{0,1}[\d]+[.]{0,1}$
+	 */
+	public static boolean isNumeral(CharSequence word) {
+		int start = 0;
+		int end = word.length();
+		// $ also matches before a line terminator at the very end
+		if (end > 0 && isLineTerminator(word.charAt(end - 1))) {
+			end--;
+			if (end > 0 && word.charAt(end) == '\n' && word.charAt(end - 1) == '\r')
+				end--;
+		}
+		if (start < end && (word.charAt(start) == '+' || word.charAt(start) == '-'))
+			start++;
+		if (start < end && word.charAt(end - 1) == '.')
+			end--;
+		// digits with at most one decimal point, ending with a digit
+		if (start == end || !isDigit(word.charAt(end - 1)))
+			return false;
+		boolean point = false;
+		for (int i = start; i < end; i++) {
+			char c = word.charAt(i);
+			if (c == '.') {
+				if (point)
+					return false;
+				point = true;
+			} else if (!isDigit(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+}
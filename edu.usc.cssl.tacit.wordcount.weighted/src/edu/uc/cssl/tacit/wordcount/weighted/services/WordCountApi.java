@@ -16,6 +16,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -23,21 +24,27 @@ import java.util.SortedSet;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.lang3.StringUtils;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 
+import edu.usc.cssl.tacit.common.CompiledTrie;
 import edu.usc.cssl.tacit.common.TacitUtility;
 import edu.usc.cssl.tacit.common.snowballstemmer.PorterStemmer;
 import edu.usc.cssl.tacit.common.ui.views.ConsoleView;
 
 public class WordCountApi {
 
-	private Trie categorizer = new Trie();
+	private CompiledTrie.Builder dictionary = new CompiledTrie.Builder();
+	private CompiledTrie categorizer = dictionary.build();
 	// private Trie phrazer = new Trie();
 	private boolean phraseDetect = false;
 	private HashMap<String, HashMap<String, Double>> weightMap = new HashMap<String, HashMap<String, Double>>();
@@ -59,17 +66,12 @@ public class WordCountApi {
 	PorterStemmer stemmer = new PorterStemmer();
 	private int weirdDashCount = 0;
 	private String punctuations = " .,;\"!-()[]{}:?'/\\`~$%#@&*_=+<>";
-	// counting numbers - // 5.7, .7 , 5., 567, -25.9, +45
-	Pattern pattern = Pattern.compile("^[+-]{0,1}[\\d]*[.]{0,1}[\\d]+[.]{0,1}$");
-	Pattern emoji1 = Pattern.compile(":\\)|:\\(|\\(:|\\):");
-	Pattern emoji2 = Pattern.compile(";\\)|\\(;");
-	Pattern emoji3 = Pattern.compile("\\\\:|:\\\\");
-	
+	// counting numbers - // 5.7, .7 , 5., 567, -25.9, +45 - LineScanner.isNumeral
 	// Pattern pattern =
 	// Pattern.compile("\\s+[+-]{0,1}[\\d]*[.]{0,1}[\\d]+[.,\\s]+");
 
-	// end of line detection
-	Pattern eol = Pattern.compile("\\w+\\s*[.?!]+\\B");
+	// punctuation, emoticon and end of line detection
+	private LineScanner lineScanner = new LineScanner();
 
 	// compound word detection
 	Pattern compoundPattern = Pattern.compile("[\\w\\d]+[\\p{Punct}&&[^-]]*[-]{1}[\\p{Punct}&&[^-]]*[\\w\\d]+");
@@ -83,12 +85,26 @@ public class WordCountApi {
 	int period, comma, colon, semiC, qMark, exclam, dash, quote, apostro, parenth, otherP, allPct;
 	private boolean weighted;
 
+	// number of documents counted concurrently. 1 keeps the sequential path.
+	private int numThreads = 1;
+	// documents allowed in flight per worker before the writer catches up
+	private static final int ROWS_PER_WORKER = 4;
+
 	private static Logger logger = Logger.getLogger(WordCountApi.class.getName());
 
 	public WordCountApi(boolean weighted) {
 		this.weighted = weighted;
 	}
 
+	/**
+	 * Sets the number of documents counted concurrently. The CSV and SPSS
+	 * rows are still written in input order, so the output does not depend
+	 * on this value.
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+	}
+
 	// Updated function that can handle multiple input files
 	public void wordCount(IProgressMonitor monitor, List<File> inputFiles, List<String> dictionaryFile,
 			String stopWordsFile, String outputFile, String delimiters, boolean doLower, boolean doLiwcStemming,
@@ -170,22 +186,23 @@ public class WordCountApi {
 		}
 		// for each inputFile,
 		monitor.subTask("Counting Words...");
-		for (File inputFile : inputFiles) {
-			if (monitor.isCanceled()) {
-				throw new OperationCanceledException();
+		if (numThreads > 1) {
+			countWordsInParallel(monitor, inputFiles, oFile, sFile, dateObj, fileCorpuses);
+		} else {
+			for (File inputFile : inputFiles) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+
+				}
 
+				// Mac cache file filtering
+				String absoluteFilePath = inputFile.getAbsolutePath();
+				if (absoluteFilePath.contains("DS_Store"))
+					continue;
+				//monitor.subTask("Counting Words at " + inputFile);
+				countWords(inputFile, oFile, sFile, dateObj, getCorpus(absoluteFilePath, fileCorpuses));
+				monitor.worked(1);
 			}
-			
-			// Mac cache file filtering
-			String absoluteFilePath = inputFile.getAbsolutePath();
-			if (absoluteFilePath.contains("DS_Store"))
-				continue;
-			//monitor.subTask("Counting Words at " + inputFile);
-			String corpus = "NIL";
-			if (fileCorpuses.containsKey(absoluteFilePath))
-				corpus = fileCorpuses.get(absoluteFilePath)[0] + "\\" + fileCorpuses.get(absoluteFilePath)[1];
-			countWords(inputFile, oFile, sFile, dateObj, corpus);
-			monitor.worked(1);
 		}
 		if (monitor.isCanceled()) {
 			throw new OperationCanceledException();
@@ -205,6 +222,134 @@ public class WordCountApi {
 			throw new OperationCanceledException();
 		}
 	}
+
+	private String getCorpus(String absoluteFilePath, Map<String, String[]> fileCorpuses) {
+		String corpus = "NIL";
+		if (fileCorpuses.containsKey(absoluteFilePath))
+			corpus = fileCorpuses.get(absoluteFilePath)[0] + "\\" + fileCorpuses.get(absoluteFilePath)[1];
+		return corpus;
+	}
+
+	/**
+	 * Counts the input files on a bounded pool of workers. Each worker owns a
+	 * copy of this counter that shares the dictionary but has its own
+	 * per-document counters and stemmer. The rows are kept in memory and
+	 * written by this thread in input order through a single writer per output
+	 * file, so the CSV and DAT files match the sequential run.
+	 */
+	private void countWordsInParallel(IProgressMonitor monitor, List<File> inputFiles, final File oFile, File sFile,
+			final Date dateObj, Map<String, String[]> fileCorpuses) throws IOException {
+		final ThreadLocal<WordCountApi> workers = new ThreadLocal<WordCountApi>() {
+			@Override
+			protected WordCountApi initialValue() {
+				return newWorker();
+			}
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		LinkedList<Future<DocumentRows>> pending = new LinkedList<Future<DocumentRows>>();
+		int maxPending = numThreads * ROWS_PER_WORKER;
+		BufferedWriter csvWriter = null;
+		BufferedWriter spssWriter = null;
+		try {
+			csvWriter = new BufferedWriter(new FileWriter(oFile, true));
+			if (doSpss)
+				spssWriter = new BufferedWriter(new FileWriter(sFile, true));
+			for (final File inputFile : inputFiles) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+
+				// Mac cache file filtering
+				String absoluteFilePath = inputFile.getAbsolutePath();
+				if (absoluteFilePath.contains("DS_Store"))
+					continue;
+				if (inputFile.isDirectory()) {
+					// skipped, but counted as done like in the sequential run
+					monitor.worked(1);
+					continue;
+				}
+				final String corpus = getCorpus(absoluteFilePath, fileCorpuses);
+				pending.add(pool.submit(new Callable<DocumentRows>() {
+					@Override
+					public DocumentRows call() throws IOException {
+						return workers.get().countDocument(inputFile, oFile, dateObj, corpus, WordCountApi.this);
+					}
+				}));
+				while (pending.size() >= maxPending)
+					writeRows(pending.removeFirst(), csvWriter, spssWriter, monitor);
+			}
+			while (!pending.isEmpty()) {
+				if (monitor.isCanceled()) {
+					throw new OperationCanceledException();
+				}
+				writeRows(pending.removeFirst(), csvWriter, spssWriter, monitor);
+			}
+		} finally {
+			pool.shutdownNow();
+			if (csvWriter != null)
+				csvWriter.close();
+			if (spssWriter != null)
+				spssWriter.close();
+		}
+	}
+
+	private void writeRows(Future<DocumentRows> result, BufferedWriter csvWriter, BufferedWriter spssWriter,
+			IProgressMonitor monitor) throws IOException {
+		DocumentRows rows;
+		try {
+			rows = result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		csvWriter.write(rows.csvRow);
+		csvWriter.newLine();
+		if (spssWriter != null) {
+			spssWriter.write(rows.spssRow);
+			spssWriter.newLine();
+			ConsoleView.printlInConsole("DAT File Updated Successfully");
+		}
+		monitor.worked(1);
+	}
+
+	// Creates a counter that shares the (read-only once built) dictionary
+	// and settings of this instance
+	private WordCountApi newWorker() {
+		WordCountApi worker = new WordCountApi(weighted);
+		worker.categorizer = categorizer;
+		worker.phraseDetect = phraseDetect;
+		worker.weightMap = weightMap;
+		worker.phraseLookup = phraseLookup;
+		worker.conditionalCategory = conditionalCategory;
+		worker.categories = categories;
+		worker.delimiters = delimiters;
+		worker.doLower = doLower;
+		worker.doStopWords = doStopWords;
+		worker.stopWordSet = stopWordSet;
+		worker.doLiwcStemming = doLiwcStemming;
+		worker.doSpss = doSpss;
+		worker.doWordDistribution = doWordDistribution;
+		worker.doSnowballStemming = doSnowballStemming;
+		worker.stemDictionary = stemDictionary;
+		return worker;
+	}
+
+	private static class DocumentRows {
+		final String csvRow;
+		final String spssRow;
+
+		DocumentRows(String csvRow, String spssRow) {
+			this.csvRow = csvRow;
+			this.spssRow = spssRow;
+		}
+	}
+
 	protected void generateRunReport(String outputFile, Date dateObj){
 		if (this.weighted)
 			TacitUtility.createRunReport(outputFile, "Weighted Word Count", dateObj,null);
@@ -217,6 +362,22 @@ public class WordCountApi {
 		if (iFile.isDirectory()) {
 			return;
 		}
+		DocumentRows rows = countDocument(iFile, oFile, dateObj, corpus, this);
+		appendRow(oFile, rows.csvRow);
+		if (doSpss) {
+			appendRow(spssFile, rows.spssRow);
+			ConsoleView.printlInConsole("DAT File Updated Successfully");
+		}
+	}
+
+	/**
+	 * Counts a single document and returns its CSV and SPSS rows without
+	 * touching the output files. Word distribution files are still written
+	 * here as they are one per document, and are created by files, the
+	 * instance that was asked to count.
+	 */
+	private DocumentRows countDocument(File iFile, File oFile, Date dateObj, String corpus, WordCountApi files)
+			throws IOException {
 		//logger.info("Current input file - " + iFile.getName());
 		appendLog("Current input file - " + iFile.getAbsolutePath());
 		// For calculating Category wise distribution of each word.
@@ -233,60 +394,26 @@ public class WordCountApi {
 		int numerals = 0;
 		weirdDashCount = 0;
 		period = comma = colon = semiC = qMark = exclam = dash = quote = apostro = parenth = otherP = allPct = 0;
+		lineScanner.reset();
 		while ((currentLine = br.readLine()) != null) {
-
-			Matcher eolMatcher = eol.matcher(currentLine);
-
-			Matcher pattern1 = emoji1.matcher(currentLine);
-			Matcher pattern2 = emoji2.matcher(currentLine);
-			Matcher pattern3 = emoji3.matcher(currentLine);
-			
-			while (eolMatcher.find())
-				noOfLines++;
-			int set1 = 0;
-			int set2 = 0;
-			int set3 = 0;
-			while (pattern1.find())
-				set1++;
-			while (pattern2.find())
-				set2++;
-			while (pattern3.find())
-				set3++;
-			
-			while (eolMatcher.find())
-				noOfLines++;
-			
-			
-			period = period + StringUtils.countMatches(currentLine, ".");
-			comma = comma + StringUtils.countMatches(currentLine, ",");
-			colon = colon + StringUtils.countMatches(currentLine, ":");
-			semiC = semiC + StringUtils.countMatches(currentLine, ";");
-			qMark = qMark + StringUtils.countMatches(currentLine, "?");
-			exclam = exclam + StringUtils.countMatches(currentLine, "!");
-			dash = dash + StringUtils.countMatches(currentLine, "-");
-			quote = quote + StringUtils.countMatches(currentLine, "\"");
-			quote = quote + StringUtils.countMatches(currentLine, "�");
-			quote = quote + StringUtils.countMatches(currentLine, "�");
-			apostro = apostro + StringUtils.countMatches(currentLine, "'");
-			parenth = parenth + StringUtils.countMatches(currentLine, "(");
-			parenth = parenth + StringUtils.countMatches(currentLine, ")");
-			parenth = parenth + StringUtils.countMatches(currentLine, "{");
-			parenth = parenth + StringUtils.countMatches(currentLine, "}");
-			parenth = parenth + StringUtils.countMatches(currentLine, "[");
-			parenth = parenth + StringUtils.countMatches(currentLine, "]");
-
-			for (char c : "#$%&*+=/\\<>@_^`~|".toCharArray()) {
-				otherP = otherP + StringUtils.countMatches(currentLine, String.valueOf(c));
-			}
-			parenth = parenth - set1 - set2;
-			otherP -= set3;
-			colon = colon - set1 - set3;
-			semiC -= set2;
+			lineScanner.scan(currentLine);
 			int[] i = process(currentLine, map);
 			totalWords = totalWords + i[0];
 			sixltr = sixltr + i[1];
 			numerals = numerals + i[2];
 		}
+		noOfLines = lineScanner.sentences;
+		period = lineScanner.period;
+		comma = lineScanner.comma;
+		colon = lineScanner.colon;
+		semiC = lineScanner.semiC;
+		qMark = lineScanner.qMark;
+		exclam = lineScanner.exclam;
+		dash = lineScanner.dash;
+		quote = lineScanner.quote;
+		apostro = lineScanner.apostro;
+		parenth = lineScanner.parenth;
+		otherP = lineScanner.otherP;
 		allPct = allPct + period + comma + colon + semiC + qMark + exclam + dash + quote + apostro + parenth + otherP;
 
 		br.close();
@@ -365,20 +492,21 @@ public class WordCountApi {
 		// If Word Distribution output is enabled, calculate the values
 		if (doWordDistribution) {
 
-			calculateWordDistribution(map, catCount, wordCategories, iFile.getAbsolutePath(), oFile, dateObj);
+			calculateWordDistribution(map, catCount, wordCategories, iFile.getAbsolutePath(), oFile, dateObj, files);
 		}
 
 		// If there are no punctuation marks, minimum number of lines = 1
 		if (noOfLines == 0)
 			noOfLines = 1;
 
-		writeToFile(oFile, iFile.getName(), corpus, totalWords, totalWords / (double) noOfLines,
+		String csvRow = buildFileRow(iFile.getName(), corpus, totalWords, totalWords / (double) noOfLines,
 				(sixltr * 100) / (double) totalWords, (dicCount * 100) / (float) totalWords,
 				(numerals * 100) / (double) totalWords, catCount);
+		String spssRow = null;
 		if (doSpss)
-			writeToSpss(spssFile, iFile.getName(), corpus, totalWords, totalWords / (float) noOfLines,
+			spssRow = buildSpssRow(iFile.getName(), corpus, totalWords, totalWords / (float) noOfLines,
 					(sixltr * 100) / (float) totalWords, (dicCount * 100) / (double) totalWords, catCount);
-
+		return new DocumentRows(csvRow, spssRow);
 	}
 	
 	protected BufferedWriter createWordDistributionFile(String inputFile, File oFile, String dateFormat) throws IOException{
@@ -403,8 +531,14 @@ public class WordCountApi {
 	public void calculateWordDistribution(HashMap<String, Integer> map, HashMap<String, Double> catCount,
 			HashMap<String, HashSet<String>> wordCategories, String inputFile, File oFile, Date dateobj)
 					throws IOException {
+		calculateWordDistribution(map, catCount, wordCategories, inputFile, oFile, dateobj, this);
+	}
+
+	private void calculateWordDistribution(HashMap<String, Integer> map, HashMap<String, Double> catCount,
+			HashMap<String, HashSet<String>> wordCategories, String inputFile, File oFile, Date dateobj,
+			WordCountApi files) throws IOException {
 		DateFormat df = new SimpleDateFormat("MM-dd-yy-HH-mm-ss");
-		BufferedWriter bw = createWordDistributionFile(inputFile, oFile, df.format(dateobj));
+		BufferedWriter bw = files.createWordDistributionFile(inputFile, oFile, df.format(dateobj));
 		bw.write("Word,Count,");
 		StringBuilder toWrite = new StringBuilder();
 
@@ -491,6 +625,14 @@ public class WordCountApi {
 
 	public void writeToSpss(File spssFile, String docName, String docCorpus, int totalCount, float wps, float sixltr,
 			double d, HashMap<String, Double> catCount) throws IOException {
+		// Append mode because the titles are already written. Append a row
+		// corresponding to each input file
+		appendRow(spssFile, buildSpssRow(docName, docCorpus, totalCount, wps, sixltr, d, catCount));
+		ConsoleView.printlInConsole("DAT File Updated Successfully");
+	}
+
+	private String buildSpssRow(String docName, String docCorpus, int totalCount, float wps, float sixltr, double d,
+			HashMap<String, Double> catCount) {
 		StringBuilder row = new StringBuilder();
 		row.append("\"" + docName + "\"" + " " + "\"" + docCorpus + "\"" + " " + totalCount + " " + wps + " " + sixltr
 				+ " " + d + " ");
@@ -504,18 +646,18 @@ public class WordCountApi {
 				currCatCount = catCount.get(title);
 			row.append(((currCatCount * 100) / totalCount) + " ");
 		}
-		// Append mode because the titles are already written. Append a row
-		// corresponding to each input file
-		FileWriter fw = new FileWriter(spssFile, true);
-		BufferedWriter bw = new BufferedWriter(fw);
-		bw.write(row.toString());
-		bw.newLine();
-		bw.close();
-		ConsoleView.printlInConsole("DAT File Updated Successfully");
+		return row.toString();
 	}
 
 	public void writeToFile(File oFile, String docName, String docCorpus, int totalCount, double wps, double d,
 			double dic, double numerals, HashMap<String, Double> catCount) throws IOException {
+		// Append mode because the titles are already written. Append a row
+		// corresponding to each input file
+		appendRow(oFile, buildFileRow(docName, docCorpus, totalCount, wps, d, dic, numerals, catCount));
+	}
+
+	private String buildFileRow(String docName, String docCorpus, int totalCount, double wps, double d, double dic,
+			double numerals, HashMap<String, Double> catCount) {
 		StringBuilder row = new StringBuilder();
 		row.append(docName + "," + docCorpus + ",1," + totalCount + "," + wps + "," + d + "," + dic + "," + numerals
 				+ ",");
@@ -559,12 +701,13 @@ public class WordCountApi {
 																	// pairs
 		row.append((((otherP * 100) / (float) totalCount)) + ",");
 		row.append((((allPct * 100) / (float) totalCount)) + ",");
+		return row.toString();
+	}
 
-		// Append mode because the titles are already written. Append a row
-		// corresponding to each input file
-		FileWriter fw = new FileWriter(oFile, true);
+	private void appendRow(File file, String row) throws IOException {
+		FileWriter fw = new FileWriter(file, true);
 		BufferedWriter bw = new BufferedWriter(fw);
-		bw.write(row.toString());
+		bw.write(row);
 		bw.newLine();
 		bw.close();
 		//logger.info("CSV File Updated Successfully");
@@ -681,7 +824,7 @@ public class WordCountApi {
 					// from the dictionary words
 					if (!doLiwcStemming)
 						currentWord = currentWord.replace("*", "");
-					categorizer.insert(currentWord, categories);
+					dictionary.insert(currentWord, categories);
 
 					if (phraseDetect)
 						phraseLookup.put(currentWord, categories);
@@ -696,6 +839,7 @@ public class WordCountApi {
 			}
 			br.close();
 		}
+		categorizer = dictionary.build();
 	}
 
 	private int initialize() {
@@ -719,7 +863,6 @@ public class WordCountApi {
 		int numWords = 0;
 		int sixltr = 0;
 		int numerals = 0;
-		Matcher matcher = pattern.matcher(line);
 
 		/*
 		 * //LIWC checks the numerals before stripping off the hyphens
@@ -854,8 +997,7 @@ public class WordCountApi {
 			}
 
 			// Checking numerals
-			matcher = pattern.matcher(currentWord);
-			while (matcher.find()) {
+			if (LineScanner.isNumeral(currentWord)) {
 				numerals++;
 			}
 